@@ -0,0 +1,155 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Measures what delta compression saves, and what it costs, for the workloads it's meant for:  successive
+ * versions of a config file with a few lines changed each time, and successive tails of a growing log.
+ *
+ * For each workload, 20 versions are pasted into a new service with delta compression off and then on.  The
+ * report shows the characters kept for the entries' text (which is what's in memory, and nearly all of the
+ * save file), the save file size, the time to paste, and the time to render the page, which rebuilds every
+ * delta.
+ *
+ * Usage:  {@code java ca.quines.pastebin.DeltaBenchmark [lines]}
+ */
+public class DeltaBenchmark {
+
+	private static final int VERSIONS = 20;
+	private static final int RENDERS = 200;
+
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+
+		System.out.printf("%-7s %-6s %12s %12s %12s %14s%n", "workload", "delta", "text chars", "save bytes",
+			"paste ms", "render us");
+		run("config", lines, (version) -> configVersion(lines, version));
+		run("log", lines, (version) -> logTail(lines, version));
+	}
+
+	private static void run(String workload, int lines, IntFunction<String> versions) throws IOException {
+		// Warm up, so the second run isn't the only one with a compiled encoder.
+		measure(versions, true);
+		measure(versions, false);
+
+		for (boolean delta : new boolean[] { false, true }) {
+			double[] result = measure(versions, delta);
+			System.out.printf("%-8s %-6s %12.0f %12.0f %12.2f %14.1f%n", workload, delta ? "on" : "off",
+				result[0], result[1], result[2], result[3]);
+		}
+	}
+
+	/**
+	 * @return
+	 * 		Text chars, save file bytes, total paste ms, and mean render microseconds.
+	 */
+	private static double[] measure(IntFunction<String> versions, boolean delta) throws IOException {
+		Path saveFile = Files.createTempFile("pasteBinDelta", ".pastebin");
+		Files.delete(saveFile);
+		try {
+			PasteBinService service = new PasteBinService(saveFile.toFile(), false);
+			service.setDeltaCompression(delta);
+
+			List<String> texts = new ArrayList<>();
+			for (int version = 0; version < VERSIONS; version++) {
+				texts.add(versions.apply(version));
+			}
+
+			long pasteStart = System.nanoTime();
+			for (String text : texts) {
+				service.pasteHandler(Map.of("text", List.of(text)));
+			}
+			long pasteNs = System.nanoTime() - pasteStart;
+
+			long renderStart = System.nanoTime();
+			for (int i = 0; i < RENDERS; i++) {
+				service.rootHandler("/");
+			}
+			long renderNs = (System.nanoTime() - renderStart) / RENDERS;
+
+			service.save();
+			Properties props = new Properties();
+			try (InputStream is = new FileInputStream(saveFile.toFile())) {
+				props.load(is);
+			}
+			long textChars = 0;
+			for (String key : props.stringPropertyNames()) {
+				if (key.endsWith(".text")) {
+					textChars += props.getProperty(key).length();
+				}
+			}
+
+			return new double[] { textChars, Files.size(saveFile), pasteNs / 1e6, renderNs / 1e3 };
+		}
+		finally {
+			Files.deleteIfExists(saveFile);
+			new File(saveFile + "-blobs").delete();
+		}
+	}
+
+	/**
+	 * A config file where each version changes a few settings from the last.
+	 */
+	private static String configVersion(int lines, int version) {
+		Random random = new Random(42);
+		String[] values = new String[lines];
+		for (int i = 0; i < lines; i++) {
+			values[i] = Integer.toHexString(random.nextInt());
+		}
+		for (int v = 1; v <= version; v++) {
+			for (int change = 0; change < 3; change++) {
+				values[random.nextInt(lines)] = "v" + v + "-" + Integer.toHexString(random.nextInt());
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append("service.component").append(i / 10).append(".setting").append(i).append(" = ").append(values[i]).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * The last lines of a log that grows by a tenth of that between versions.
+	 */
+	private static String logTail(int lines, int version) {
+		int end = lines + version * (lines / 10);
+		StringBuilder sb = new StringBuilder();
+		for (int i = end - lines; i < end; i++) {
+			Random random = new Random(i);
+			sb.append("2026-10-19 01:").append(String.format("%02d:%02d", (i / 60) % 60, i % 60))
+				.append(" INFO [worker-").append(random.nextInt(8)).append("] request ").append(Long.toHexString(random.nextLong()))
+				.append(" took ").append(random.nextInt(500)).append(" ms\n");
+		}
+
+		return sb.toString();
+	}
+
+}
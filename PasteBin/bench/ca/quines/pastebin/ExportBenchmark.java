@@ -0,0 +1,120 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long a backup export and a replication snapshot hold the data lock with a large history, and
+ * how long that makes other requests wait.
+ *
+ * The history is the one {@link StartupBenchmark} writes, nearly all in the deleted list.  Both operations copy
+ * references under the lock and read the text after it's released, so the time under the lock is reported
+ * once.  Each operation is then run several times after a warm-up while another thread keeps taking the lock
+ * for a one-entry API listing, and the medians of the whole operation and of the longest wait are reported.
+ *
+ * Usage:  {@code java ca.quines.pastebin.ExportBenchmark [entries] [runs]}
+ */
+public class ExportBenchmark {
+
+	private interface Operation {
+
+		void run(PasteBinService service) throws Exception;
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Path saveFile = Files.createTempFile("pasteBinExport", ".pastebin");
+		try {
+			StartupBenchmark.writeSaveFile(saveFile, entries);
+			PasteBinService service = new PasteBinService(saveFile.toFile(), false);
+			System.out.printf("%d entries, %d processors%n", entries, Runtime.getRuntime().availableProcessors());
+			System.out.printf("%-24s %8.1f ms%n", "snapshot under the lock", medianMs(service, runs,
+				(s) -> s.backupSnapshot(new Properties())));
+
+			System.out.printf("%-12s %10s %12s%n", "operation", "total ms", "max wait ms");
+			report("export", service, runs, (s) -> BackupArchive.write(s, OutputStream.nullOutputStream()));
+			report("replication", service, runs, (s) -> s.snapshotForReplication(new ArrayList<>()));
+		}
+		finally {
+			Files.deleteIfExists(saveFile);
+		}
+	}
+
+	private static double medianMs(PasteBinService service, int runs, Operation operation) throws Exception {
+		// Warm up.
+		operation.run(service);
+
+		double[] times = new double[runs];
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			operation.run(service);
+			times[run] = (System.nanoTime() - start) / 1e6;
+		}
+
+		return median(times);
+	}
+
+	private static void report(String name, PasteBinService service, int runs, Operation operation) throws Exception {
+		// Warm up.
+		operation.run(service);
+
+		double[] totalMs = new double[runs];
+		double[] maxWaitMs = new double[runs];
+		for (int run = 0; run < runs; run++) {
+			AtomicLong maxWaitNs = new AtomicLong();
+			AtomicBoolean done = new AtomicBoolean();
+			Thread prober = new Thread(() -> {
+				List<ChangeRecord> page = new ArrayList<>();
+				while (!done.get()) {
+					long probeStart = System.nanoTime();
+					service.apiList(ChangeRecord.Op.ACTIVE, 0, 1, page);
+					maxWaitNs.accumulateAndGet(System.nanoTime() - probeStart, Math::max);
+					page.clear();
+					Thread.yield();
+				}
+			});
+			prober.start();
+
+			long start = System.nanoTime();
+			operation.run(service);
+			totalMs[run] = (System.nanoTime() - start) / 1e6;
+
+			done.set(true);
+			prober.join();
+			maxWaitMs[run] = maxWaitNs.get() / 1e6;
+		}
+
+		System.out.printf("%-12s %10.1f %12.1f%n", name, median(totalMs), median(maxWaitMs));
+	}
+
+	private static double median(double[] values) {
+		Arrays.sort(values);
+		return values[values.length / 2];
+	}
+
+}
@@ -0,0 +1,75 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Measures the heap taken by the metadata of deleted entries:  each {@link HistoryEntry} by itself, and what the
+ * {@link DeletedHistoryStore} adds to find and order it.
+ *
+ * Every entry shares one text, so only the metadata is counted.  Heap use is read after a few collections
+ * before and after the entries are made, so run it with a heap large enough that nothing else is going on,
+ * and with the default compressed references.
+ *
+ * Usage:  {@code java ca.quines.pastebin.FootprintBenchmark [entries]}
+ */
+public class FootprintBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		String text = "<pre>deleted</pre>";
+		long now = System.currentTimeMillis();
+
+		long baseline = usedHeap();
+		HistoryEntry[] entries = new HistoryEntry[count];
+		long arrayBytes = usedHeap() - baseline;
+
+		for (int i = 0; i < count; i++) {
+			entries[i] = new HistoryEntry(text, Instant.ofEpochMilli(now - i * 2000L), Instant.ofEpochMilli(now - i * 1000L),
+				UUID.randomUUID());
+		}
+		long entryBytes = usedHeap() - baseline - arrayBytes;
+
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		for (HistoryEntry entry : entries) {
+			store.add(entry);
+		}
+		long storeBytes = usedHeap() - baseline - arrayBytes - entryBytes;
+
+		System.out.printf("%d deleted entries%n", store.size());
+		System.out.printf("%-24s %8.1f%n", "entry bytes/entry", (double) entryBytes / count);
+		System.out.printf("%-24s %8.1f%n", "store bytes/entry", (double) storeBytes / count);
+		System.out.printf("%-24s %8.1f%n", "total bytes/entry", (double) (entryBytes + storeBytes) / count);
+
+		// Keep everything reachable until the last measurement.
+		if (entries[count - 1] != store.find(entries[count - 1].getUuid())) {
+			throw new IllegalStateException("Missing entry.");
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,156 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the JDK HttpServer with {@link NioHttpServer} on loopback.
+ *
+ * Two runs per server:  one opening a new connection for every request (connections per second), and one
+ * where each client reuses a single keep-alive connection.  Both report throughput and p50/p99 latency.
+ *
+ * Usage:  {@code java ca.quines.pastebin.HttpServerBenchmark [clients] [seconds]}
+ */
+public class HttpServerBenchmark {
+
+	private static final int PORT = 18080;
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		for (String serverType : List.of(PasteBin.SERVER_JDK, PasteBin.SERVER_NIO)) {
+			File saveFile = Files.createTempFile("pasteBinBench", ".pastebin").toFile();
+			saveFile.deleteOnExit();
+
+			System.setProperty(PasteBin.PROPERTY_SERVER, serverType);
+			PasteBin pasteBin = new PasteBin(saveFile, "127.0.0.1", PORT);
+			pasteBin.start();
+			try {
+				// Warm up both paths before measuring.
+				run(clients, 2, false);
+				run(clients, 2, true);
+
+				report(serverType, "new connection per request", run(clients, seconds, false), seconds);
+				report(serverType, "keep-alive", run(clients, seconds, true), seconds);
+			}
+			finally {
+				pasteBin.stop();
+			}
+		}
+	}
+
+	private static void report(String serverType, String mode, long[] latenciesNs, int seconds) {
+		Arrays.sort(latenciesNs);
+		System.out.printf("%-4s %-28s %9.0f req/s  p50 %7.3f ms  p99 %7.3f ms%n", serverType, mode,
+			latenciesNs.length / (double) seconds,
+			percentile(latenciesNs, 0.50) / 1e6, percentile(latenciesNs, 0.99) / 1e6);
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+	}
+
+	/**
+	 * @param clients
+	 * @param seconds
+	 * @param keepAlive
+	 * @return
+	 * 		The latency of every completed request in nanoseconds.
+	 * @throws Exception
+	 */
+	private static long[] run(int clients, int seconds, boolean keepAlive) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+		List<Future<List<Long>>> futures = new ArrayList<>();
+		for (int i = 0; i < clients; i++) {
+			futures.add(pool.submit(() -> keepAlive ? keepAliveClient(deadline) : connectionPerRequestClient(deadline)));
+		}
+
+		List<Long> all = new ArrayList<>();
+		for (Future<List<Long>> future : futures) {
+			all.addAll(future.get());
+		}
+		pool.shutdown();
+
+		return all.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	private static List<Long> keepAliveClient(long deadline) throws Exception {
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + PORT + "/")).build();
+
+		List<Long> latencies = new ArrayList<>();
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			if (response.statusCode() != 200) {
+				throw new IOException("Unexpected status " + response.statusCode());
+			}
+			latencies.add(System.nanoTime() - start);
+		}
+
+		return latencies;
+	}
+
+	private static List<Long> connectionPerRequestClient(long deadline) throws IOException {
+		byte[] request = ("GET / HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n")
+			.getBytes(StandardCharsets.US_ASCII);
+		byte[] buffer = new byte[8192];
+
+		List<Long> latencies = new ArrayList<>();
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			try (Socket socket = new Socket("127.0.0.1", PORT)) {
+				OutputStream os = socket.getOutputStream();
+				os.write(request);
+				os.flush();
+
+				// The server closes the connection once the response is complete.
+				InputStream is = socket.getInputStream();
+				while (is.read(buffer) >= 0) {
+					// Discard.
+				}
+			}
+			latencies.add(System.nanoTime() - start);
+		}
+
+		return latencies;
+	}
+
+}
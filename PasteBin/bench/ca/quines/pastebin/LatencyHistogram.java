@@ -0,0 +1,102 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+/**
+ * A latency histogram with about 1% precision, in the spirit of HdrHistogram.
+ *
+ * Values below 256 get a bucket each.  Above that, each power of two is split into 128 equal buckets, so the
+ * bucket width is always under 1% of the value.  Recording is a few shifts and an increment, so each client
+ * thread can keep its own histogram and merge at the end.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 256;
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[LINEAR_BUCKETS + 64 * SUB_BUCKETS];
+	private long totalCount;
+	private long maxValue;
+
+	public void record(long value) {
+		long clamped = Math.max(0, value);
+		counts[indexOf(clamped)]++;
+		totalCount++;
+		maxValue = Math.max(maxValue, clamped);
+	}
+
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		maxValue = Math.max(maxValue, other.maxValue);
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * @param fraction
+	 * 		For example 0.99.
+	 * @return
+	 * 		The upper end of the bucket holding that fraction of the values, or zero if there are none.
+	 */
+	public long getValueAtPercentile(double fraction) {
+		if (totalCount == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(maxValue, highestValueIn(i));
+			}
+		}
+
+		return maxValue;
+	}
+
+	private static int indexOf(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+
+		// Keep the top SUB_BUCKET_BITS + 1 bits.
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValueIn(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,373 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts a server on loopback with a temporary save file and replays a mix of page views, pastes, pins,
+ * deletes and short-URL hits against it from several clients, reporting throughput and latency percentiles
+ * per operation.
+ *
+ * The load is open-loop:  requests are scheduled at a fixed total rate, spread across the clients, and each
+ * latency is measured from when the request was <i>meant</i> to start.  If the server stalls, a client falls
+ * behind its schedule and the requests it couldn't send on time are charged the wait.  Measuring from when
+ * the request was actually sent would hide exactly those stalls ("coordinated omission").
+ *
+ * Usage:  {@code java ca.quines.pastebin.LoadGenerator [option=value ...]}, with these options:
+ * <ul>
+ * <li>{@code clients}:  concurrent clients, each with its own keep-alive connection.  Default 8.</li>
+ * <li>{@code rate}:  total requests per second to schedule.  Default 500.</li>
+ * <li>{@code seconds}:  how long to measure, after a warm-up of a third as long.  Default 15.</li>
+ * <li>{@code mix}:  relative weights, e.g. {@code view=60,paste=15,pin=5,delete=10,short=10} (the default).</li>
+ * <li>{@code server}:  {@code jdk} or {@code nio}.  Default jdk.</li>
+ * <li>{@code port}:  default 18081.</li>
+ * </ul>
+ *
+ * Rate limiting of writes is turned off, since every client shares the loopback address.  Requests shed by
+ * admission control are counted separately from errors.
+ */
+public class LoadGenerator {
+
+	private enum Operation {
+		VIEW, PASTE, PIN, DELETE, SHORT
+	}
+
+	private static final Pattern ID_PATTERN = Pattern.compile("id='text([0-9a-f-]+)'");
+	private static final int SHORT_URLS = 5;
+
+	/**
+	 * Pins beyond this are unpinned again, so the page doesn't grow for the whole run.
+	 */
+	private static final int MAX_PINNED = 10;
+
+	private final String baseUrl;
+	private final Map<Operation, Integer> weights;
+	private final int totalWeight;
+
+	/**
+	 * IDs of entries that are probably still active.  Stale ones are harmless:  the server ignores them.
+	 */
+	private final Deque<String> activeIds = new ConcurrentLinkedDeque<>();
+	private final Deque<String> pinnedIds = new ConcurrentLinkedDeque<>();
+
+	private static class Stats {
+
+		private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+		private final Map<Operation, long[]> outcomes = new EnumMap<>(Operation.class);
+
+		private Stats() {
+			for (Operation operation : Operation.values()) {
+				histograms.put(operation, new LatencyHistogram());
+
+				// OK, shed, error.
+				outcomes.put(operation, new long[3]);
+			}
+		}
+
+		private void add(Stats other) {
+			for (Operation operation : Operation.values()) {
+				histograms.get(operation).add(other.histograms.get(operation));
+				for (int i = 0; i < 3; i++) {
+					outcomes.get(operation)[i] += other.outcomes.get(operation)[i];
+				}
+			}
+		}
+
+	}
+
+	private LoadGenerator(int port, Map<Operation, Integer> weights) {
+		this.baseUrl = "http://127.0.0.1:" + port;
+		this.weights = weights;
+
+		int total = 0;
+		for (int weight : weights.values()) {
+			total += weight;
+		}
+		this.totalWeight = total;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new java.util.HashMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0) {
+				System.err.println("Options look like name=value, not '" + arg + "'.");
+				return;
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		int clients = Integer.parseInt(options.getOrDefault("clients", "8"));
+		double rate = Double.parseDouble(options.getOrDefault("rate", "500"));
+		int seconds = Integer.parseInt(options.getOrDefault("seconds", "15"));
+		int port = Integer.parseInt(options.getOrDefault("port", "18081"));
+		String server = options.getOrDefault("server", PasteBin.SERVER_JDK);
+		Map<Operation, Integer> weights = parseMix(options.getOrDefault("mix", "view=60,paste=15,pin=5,delete=10,short=10"));
+
+		File saveFile = Files.createTempFile("pasteBinLoad", ".pastebin").toFile();
+		saveFile.deleteOnExit();
+		System.setProperty(PasteBin.PROPERTY_SERVER, server);
+		System.setProperty(PasteBin.PROPERTY_WRITES_PER_MINUTE, "0");
+		System.setProperty(PasteBin.PROPERTY_ACCESS_LOG, "none");
+
+		PasteBin pasteBin = new PasteBin(saveFile, "127.0.0.1", port);
+		pasteBin.start();
+		try {
+			LoadGenerator generator = new LoadGenerator(port, weights);
+			generator.setUp();
+
+			System.out.printf("%s server, %d clients, %.0f req/s scheduled, mix %s%n", server, clients, rate, weights);
+			generator.run(clients, rate, Math.max(1, seconds / 3));
+			Stats stats = generator.run(clients, rate, seconds);
+			report(stats, seconds);
+		}
+		finally {
+			pasteBin.stop();
+		}
+	}
+
+	private static Map<Operation, Integer> parseMix(String mix) {
+		Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+		for (String part : mix.split(",")) {
+			String[] pair = part.split("=");
+			weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+		}
+
+		return weights;
+	}
+
+	/**
+	 * Seed some entries, and pin a few with short URLs for the short-URL hits.
+	 */
+	private void setUp() throws Exception {
+		HttpClient client = newClient();
+		StringBuilder shortUrls = new StringBuilder();
+		for (int i = 0; i < SHORT_URLS; i++) {
+			String id = paste(client, "short URL target " + i);
+			post(client, "/pin", "id=" + id);
+			shortUrls.append("&shortUrl").append(id).append("=s").append(i);
+		}
+		post(client, "/updateShortUrls", shortUrls.substring(1));
+
+		for (int i = 0; i < 10; i++) {
+			activeIds.addFirst(paste(client, "seed " + i));
+		}
+	}
+
+	private Stats run(int clients, double rate, int seconds) throws Exception {
+		long intervalNs = (long) (TimeUnit.SECONDS.toNanos(1) * clients / rate);
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Future<Stats>> futures = new ArrayList<>();
+		for (int i = 0; i < clients; i++) {
+			// Stagger the clients so the requests are evenly spaced overall.
+			long firstStart = start + intervalNs * i / clients;
+			long seed = i;
+			futures.add(pool.submit(() -> runClient(firstStart, intervalNs, end, new Random(seed))));
+		}
+
+		Stats total = new Stats();
+		for (Future<Stats> future : futures) {
+			total.add(future.get());
+		}
+		pool.shutdown();
+
+		return total;
+	}
+
+	private Stats runClient(long firstStart, long intervalNs, long end, Random random) throws Exception {
+		HttpClient client = newClient();
+		Stats stats = new Stats();
+
+		for (long intendedStart = firstStart; intendedStart < end; intendedStart += intervalNs) {
+			long now = System.nanoTime();
+			if (now < intendedStart) {
+				LockSupport.parkNanos(intendedStart - now);
+			}
+
+			Operation operation = pick(random);
+			int status;
+			try {
+				status = perform(client, operation, random);
+			}
+			catch (Exception e) {
+				status = -1;
+			}
+
+			stats.histograms.get(operation).record(System.nanoTime() - intendedStart);
+			int outcome = status >= 200 && status < 400 ? 0 : status == 503 || status == 429 ? 1 : 2;
+			stats.outcomes.get(operation)[outcome]++;
+		}
+
+		return stats;
+	}
+
+	private Operation pick(Random random) {
+		int ticket = random.nextInt(totalWeight);
+		for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+			ticket -= entry.getValue();
+			if (ticket < 0) {
+				return entry.getKey();
+			}
+		}
+
+		return Operation.VIEW;
+	}
+
+	private int perform(HttpClient client, Operation operation, Random random) throws Exception {
+		switch (operation) {
+			case PASTE: {
+				HttpResponse<String> response = post(client, "/paste", "text=" + URLEncoder.encode(
+					"load test paste " + random.nextInt() + "\nwith a second line", StandardCharsets.UTF_8) + "&preformatted=true");
+				rememberNewest(response.body());
+				return response.statusCode();
+			}
+
+			case PIN: {
+				if (pinnedIds.size() >= MAX_PINNED) {
+					String id = pinnedIds.pollLast();
+					if (id != null) {
+						return post(client, "/deletePin", "id=" + id).statusCode();
+					}
+				}
+
+				String id = activeIds.pollFirst();
+				if (id == null) {
+					return perform(client, Operation.PASTE, random);
+				}
+				pinnedIds.addFirst(id);
+				return post(client, "/pin", "id=" + id).statusCode();
+			}
+
+			case DELETE: {
+				String id = activeIds.pollFirst();
+				if (id == null) {
+					return perform(client, Operation.PASTE, random);
+				}
+				return post(client, "/delete", "id=" + id).statusCode();
+			}
+
+			case SHORT:
+				return get(client, "/s" + random.nextInt(SHORT_URLS)).statusCode();
+
+			default:
+				return get(client, "/").statusCode();
+		}
+	}
+
+	private void rememberNewest(String page) {
+		// The newest active entry comes right after the pinned ones, so skip those.
+		Matcher matcher = ID_PATTERN.matcher(page);
+		while (matcher.find()) {
+			String id = matcher.group(1);
+			if (!pinnedIds.contains(id)) {
+				activeIds.addFirst(id);
+				break;
+			}
+		}
+
+		while (activeIds.size() > 50) {
+			activeIds.pollLast();
+		}
+	}
+
+	/**
+	 * Changes answer with a redirect to the page, which is followed like a browser would, so their timings include
+	 * fetching the page.
+	 *
+	 * @return
+	 */
+	private static HttpClient newClient() {
+		return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).followRedirects(HttpClient.Redirect.NORMAL).build();
+	}
+
+	private HttpResponse<String> get(HttpClient client, String path) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(baseUrl + path)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> post(HttpClient client, String path, String form) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+			.header("Content-Type", "application/x-www-form-urlencoded")
+			.POST(HttpRequest.BodyPublishers.ofString(form))
+			.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private String paste(HttpClient client, String text) throws Exception {
+		HttpResponse<String> response = post(client, "/paste", "text=" + URLEncoder.encode(text, StandardCharsets.UTF_8));
+		Matcher matcher = Pattern.compile("id='text([0-9a-f-]+)'[^>]*>" + Pattern.quote(text) + "<").matcher(response.body());
+		if (!matcher.find()) {
+			throw new IllegalStateException("Couldn't find the new entry in the page.");
+		}
+
+		return matcher.group(1);
+	}
+
+	private static void report(Stats stats, int seconds) {
+		System.out.printf("%-7s %8s %8s %6s %6s %9s %9s %9s %9s %9s%n",
+			"op", "count", "req/s", "shed", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+		LatencyHistogram all = new LatencyHistogram();
+		long[] allOutcomes = new long[3];
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram histogram = stats.histograms.get(operation);
+			long[] outcomes = stats.outcomes.get(operation);
+			all.add(histogram);
+			for (int i = 0; i < 3; i++) {
+				allOutcomes[i] += outcomes[i];
+			}
+
+			if (histogram.getTotalCount() > 0) {
+				printRow(operation.name().toLowerCase(), histogram, outcomes, seconds);
+			}
+		}
+
+		printRow("all", all, allOutcomes, seconds);
+	}
+
+	private static void printRow(String name, LatencyHistogram histogram, long[] outcomes, int seconds) {
+		System.out.printf("%-7s %8d %8.0f %6d %6d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getTotalCount(),
+			histogram.getTotalCount() / (double) seconds, outcomes[1], outcomes[2],
+			histogram.getValueAtPercentile(0.50) / 1e6, histogram.getValueAtPercentile(0.90) / 1e6,
+			histogram.getValueAtPercentile(0.99) / 1e6, histogram.getValueAtPercentile(0.999) / 1e6,
+			histogram.getMaxValue() / 1e6);
+	}
+
+}
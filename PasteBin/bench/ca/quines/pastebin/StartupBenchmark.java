@@ -0,0 +1,125 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures startup time with a large save file:  how long the {@link PasteBinService} constructor takes to load
+ * it, reading on one thread and in parallel, with and without lazy loading.
+ *
+ * The save file holds the given number of entries of about 500 characters each, nearly all in the deleted
+ * list, like a history that has been building up for years.  Each case is run several times after a warm-up
+ * and the median is reported.
+ *
+ * Usage:  {@code java ca.quines.pastebin.StartupBenchmark [entries] [runs]}
+ */
+public class StartupBenchmark {
+
+	private static final int ACTIVE = 20;
+	private static final int PINNED = 100;
+	private static final int TEXT_CHARS = 500;
+
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Path saveFile = Files.createTempFile("pasteBinStartup", ".pastebin");
+		try {
+			writeSaveFile(saveFile, entries);
+			System.out.printf("%d entries, %.1f MB, %d processors%n", entries, Files.size(saveFile) / 1e6,
+				Runtime.getRuntime().availableProcessors());
+			System.out.printf("%-6s %-10s %12s%n", "lazy", "parallel", "load ms");
+
+			for (boolean lazy : new boolean[] { false, true }) {
+				for (boolean parallel : new boolean[] { false, true }) {
+					System.out.printf("%-6s %-10s %12.1f%n", lazy, parallel, medianLoadMs(saveFile.toFile(), lazy, parallel, runs));
+				}
+			}
+		}
+		finally {
+			Files.deleteIfExists(saveFile);
+		}
+	}
+
+	private static double medianLoadMs(File saveFile, boolean lazy, boolean parallel, int runs) throws IOException {
+		System.setProperty(PasteBinService.PROPERTY_PARALLEL_LOAD, "" + parallel);
+
+		// Warm up.
+		new PasteBinService(saveFile, false, lazy);
+
+		double[] times = new double[runs];
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			PasteBinService service = new PasteBinService(saveFile, false, lazy);
+			times[run] = (System.nanoTime() - start) / 1e6;
+			if (service.rootHandler("/") == null) {
+				throw new IllegalStateException("No page.");
+			}
+		}
+
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+
+	/* default */ static void writeSaveFile(Path saveFile, int entries) throws IOException {
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+
+		Properties props = new Properties();
+		props.setProperty(PasteBinService.CONFIG_MAX_MAIN_ENTRIES, "" + ACTIVE);
+		props.setProperty(PasteBinService.CONFIG_MAX_KEEP_DELETED_DAYS, "32");
+		int active = 0;
+		int pinned = 0;
+		int deleted = 0;
+		for (int i = 0; i < entries; i++) {
+			String prefix;
+			if (i < ACTIVE) {
+				prefix = "history." + active++;
+			}
+			else if (i < ACTIVE + PINNED) {
+				prefix = "pinnedHistory." + pinned++;
+			}
+			else {
+				prefix = "deletedHistory." + deleted++;
+				props.setProperty(prefix + ".deletedDate", "" + (now - i * 1000L));
+			}
+
+			StringBuilder text = new StringBuilder("<pre>");
+			while (text.length() < TEXT_CHARS) {
+				text.append("line ").append(random.nextInt(100_000)).append(" of a pasted log\n");
+			}
+			text.append("</pre>");
+
+			props.setProperty(prefix + ".text", text.toString());
+			props.setProperty(prefix + ".createDate", "" + (now - i * 2000L));
+			props.setProperty(prefix + ".uuid", UUID.randomUUID().toString());
+		}
+
+		try (OutputStream os = Files.newOutputStream(saveFile)) {
+			props.store(os, "StartupBenchmark");
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Writes one JSON line per request to a rotating log file.
+ *
+ * Request threads only add a record to a bounded lock-free queue, so a slow disk never blocks a handler.
+ * If the queue is full the record is dropped and counted, and the count is written to the log the next time
+ * the writer catches up.  A single background thread drains the queue, writes, and rotates the file once it
+ * grows past the size limit:  {@code access.log} becomes {@code access.log.1}, and so on.
+ */
+public class AccessLog {
+
+	private static final Logger LOGGER = Logger.getLogger(AccessLog.class.getName());
+
+	private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final class Record {
+
+		private final long timestampMs;
+		private final String method;
+		private final String path;
+		private final int status;
+		private final long bytes;
+		private final long latencyNs;
+		private final String client;
+
+		private Record(long timestampMs, String method, String path, int status, long bytes, long latencyNs, String client) {
+			this.timestampMs = timestampMs;
+			this.method = method;
+			this.path = path;
+			this.status = status;
+			this.bytes = bytes;
+			this.latencyNs = latencyNs;
+			this.client = client;
+		}
+
+	}
+
+	private final File logFile;
+	private final int capacity;
+	private final long maxFileBytes;
+	private final int maxFiles;
+
+	private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * ConcurrentLinkedQueue.size() is O(n), so the bound is tracked separately.
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private long droppedReported;
+
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	private Writer writer;
+	private long fileBytes;
+
+	/**
+	 * @param logFile
+	 * @param capacity
+	 * 		The most records that can wait to be written before new ones are dropped.
+	 * @param maxFileBytes
+	 * 		Rotate once the current file is at least this large.
+	 * @param maxFiles
+	 * 		The number of rotated files to keep in addition to the current one.
+	 */
+	public AccessLog(File logFile, int capacity, long maxFileBytes, int maxFiles) {
+		this.logFile = logFile;
+		this.capacity = capacity;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFiles = maxFiles;
+
+		this.writerThread = new Thread(() -> writeLoop(), "access-log");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Queue a record.  Never blocks.
+	 *
+	 * @return
+	 * 		False if the queue was full and the record was dropped.
+	 */
+	public boolean log(String method, String path, int status, long bytes, long latencyNs, String client) {
+		if (queued.incrementAndGet() > capacity) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+
+		queue.add(new Record(System.currentTimeMillis(), method, path, status, bytes, latencyNs, client));
+		return true;
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Write everything still queued and stop the writer thread.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		try {
+			while (running) {
+				if (!drain()) {
+					LockSupport.parkNanos(IDLE_PARK_NS);
+				}
+			}
+
+			drain();
+		}
+		catch (IOException e) {
+			LOGGER.severe("Access log writer stopped:  " + e.getMessage());
+		}
+		finally {
+			closeWriter();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		True if anything was written.
+	 * @throws IOException
+	 */
+	private boolean drain() throws IOException {
+		boolean wroteAny = false;
+		Record record;
+		while ((record = queue.poll()) != null) {
+			queued.decrementAndGet();
+			write(format(record));
+			wroteAny = true;
+		}
+
+		long droppedNow = dropped.get();
+		if (droppedNow != droppedReported) {
+			write("{\"ts\":\"" + Instant.now() + "\",\"dropped\":" + (droppedNow - droppedReported) + "}");
+			droppedReported = droppedNow;
+			wroteAny = true;
+		}
+
+		if (wroteAny) {
+			writer.flush();
+		}
+
+		return wroteAny;
+	}
+
+	private String format(Record record) {
+		StringBuilder sb = new StringBuilder(160);
+		sb.append("{\"ts\":\"").append(Instant.ofEpochMilli(record.timestampMs)).append('"');
+		sb.append(",\"method\":");
+		appendJsonString(sb, record.method);
+		sb.append(",\"path\":");
+		appendJsonString(sb, record.path);
+		sb.append(",\"status\":").append(record.status);
+		sb.append(",\"bytes\":").append(record.bytes);
+		sb.append(",\"latencyMs\":").append(String.format("%.3f", record.latencyNs / 1_000_000.0));
+		sb.append(",\"client\":");
+		appendJsonString(sb, record.client);
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	private static void appendJsonString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private void write(String line) throws IOException {
+		if (writer == null) {
+			openWriter();
+		}
+		else if (fileBytes >= maxFileBytes) {
+			closeWriter();
+			rotate();
+			openWriter();
+		}
+
+		writer.write(line);
+		writer.write('\n');
+
+		// Close enough for deciding when to rotate.  Records are almost entirely ASCII.
+		fileBytes += line.length() + 1;
+	}
+
+	private void openWriter() throws IOException {
+		fileBytes = logFile.length();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+	}
+
+	private void closeWriter() {
+		if (writer == null) {
+			return;
+		}
+
+		try {
+			writer.close();
+		}
+		catch (IOException e) {
+			LOGGER.warning("Unable to close the access log:  " + e.getMessage());
+		}
+
+		writer = null;
+	}
+
+	private void rotate() {
+		File oldest = rotatedFile(maxFiles);
+		if (oldest.exists() && !oldest.delete()) {
+			LOGGER.warning("Unable to delete old access log '" + oldest + "'.");
+		}
+
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			File from = rotatedFile(i);
+			if (from.exists() && !from.renameTo(rotatedFile(i + 1))) {
+				LOGGER.warning("Unable to rename access log '" + from + "'.");
+			}
+		}
+
+		if (maxFiles > 0 && !logFile.renameTo(rotatedFile(1))) {
+			LOGGER.warning("Unable to rotate access log '" + logFile + "'.");
+		}
+		else if (maxFiles == 0 && !logFile.delete()) {
+			LOGGER.warning("Unable to truncate access log '" + logFile + "'.");
+		}
+	}
+
+	private File rotatedFile(int index) {
+		return new File(logFile.getPath() + "." + index);
+	}
+
+}
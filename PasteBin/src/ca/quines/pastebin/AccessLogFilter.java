@@ -0,0 +1,60 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Times each exchange, counts the bytes in the response body, and hands the result to an {@link AccessLog}.
+ */
+public class AccessLogFilter extends Filter {
+
+	private final AccessLog accessLog;
+
+	public AccessLogFilter(AccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
+
+	@Override
+	public void doFilter(HttpExchange he, Chain chain) throws IOException {
+		long start = System.nanoTime();
+		CountingOutputStream counter = new CountingOutputStream(he.getResponseBody());
+		he.setStreams(null, counter);
+
+		try {
+			chain.doFilter(he);
+		}
+		finally {
+			// A handler that threw before sending anything will have its connection dropped.
+			int status = he.getResponseCode() > 0 ? he.getResponseCode() : 500;
+			InetSocketAddress remote = he.getRemoteAddress();
+			String client = remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+
+			accessLog.log(he.getRequestMethod(), he.getRequestURI().getRawPath(), status, counter.getCount(),
+				System.nanoTime() - start, client);
+		}
+	}
+
+	@Override
+	public String description() {
+		return "Access log";
+	}
+
+}
@@ -0,0 +1,191 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many requests one context handles at once, so a client hammering one endpoint can't tie up every
+ * worker thread.
+ *
+ * Up to {@code maxConcurrent} requests run at once.  Up to {@code maxQueued} more wait, for at most
+ * {@code queueTimeoutMs}.  Anything past that gets an immediate {@code 503} with {@code Retry-After}, which costs
+ * next to nothing, so the workers get back to the requests that were let in.
+ *
+ * Write contexts can also have a {@link RateLimiter}, applied per client IP to POST requests.  Those get a
+ * {@code 429} with {@code Retry-After}.
+ */
+public class AdmissionFilter extends Filter {
+
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	private final String name;
+	private final int maxConcurrent;
+	private final int maxQueued;
+	private final long queueTimeoutMs;
+	private final RateLimiter rateLimiter;
+
+	private final Semaphore permits;
+
+	/**
+	 * Requests running or waiting for a permit.
+	 */
+	private final AtomicInteger admitted = new AtomicInteger();
+
+	private final LongAdder handledCount = new LongAdder();
+	private final LongAdder queueFullCount = new LongAdder();
+	private final LongAdder queueTimeoutCount = new LongAdder();
+	private final LongAdder rateLimitedCount = new LongAdder();
+
+	/**
+	 * @param name
+	 * 		Used in the stats, normally the context path.
+	 * @param maxConcurrent
+	 * @param maxQueued
+	 * @param queueTimeoutMs
+	 * @param rateLimiter
+	 * 		May be null.
+	 */
+	public AdmissionFilter(String name, int maxConcurrent, int maxQueued, long queueTimeoutMs, RateLimiter rateLimiter) {
+		if (maxConcurrent < 1 || maxQueued < 0) {
+			throw new IllegalArgumentException("Bad limits for " + name + ":  " + maxConcurrent + " running, " + maxQueued + " queued.");
+		}
+
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.queueTimeoutMs = queueTimeoutMs;
+		this.rateLimiter = rateLimiter;
+		this.permits = new Semaphore(maxConcurrent);
+	}
+
+	@Override
+	public void doFilter(HttpExchange he, Chain chain) throws IOException {
+		doFilter(he, chain, true);
+	}
+
+	/**
+	 * For a filter that covers several paths, not all of which change data.
+	 *
+	 * @param he
+	 * @param chain
+	 * @param write
+	 * 		False to skip the rate limit, e.g. for a board's pages.
+	 * @throws IOException
+	 */
+	public void doFilter(HttpExchange he, Chain chain, boolean write) throws IOException {
+		if (write && rateLimiter != null && "POST".equalsIgnoreCase(he.getRequestMethod())) {
+			long waitMs = rateLimiter.tryAcquire(clientOf(he));
+			if (waitMs > 0) {
+				rateLimitedCount.increment();
+				reject(he, 429, (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMs + 999)));
+				return;
+			}
+		}
+
+		if (admitted.incrementAndGet() > maxConcurrent + maxQueued) {
+			admitted.decrementAndGet();
+			queueFullCount.increment();
+			reject(he, 503, RETRY_AFTER_SECONDS);
+			return;
+		}
+
+		try {
+			boolean acquired;
+			try {
+				acquired = permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
+			}
+
+			if (!acquired) {
+				queueTimeoutCount.increment();
+				reject(he, 503, RETRY_AFTER_SECONDS);
+				return;
+			}
+
+			try {
+				handledCount.increment();
+				chain.doFilter(he);
+			}
+			finally {
+				permits.release();
+			}
+		}
+		finally {
+			admitted.decrementAndGet();
+		}
+	}
+
+	private static String clientOf(HttpExchange he) {
+		InetSocketAddress remote = he.getRemoteAddress();
+		return remote == null || remote.getAddress() == null ? "" : remote.getAddress().getHostAddress();
+	}
+
+	private static void reject(HttpExchange he, int status, int retryAfterSeconds) throws IOException {
+		he.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+		he.sendResponseHeaders(status, -1);
+		he.close();
+	}
+
+	public long getHandledCount() {
+		return handledCount.sum();
+	}
+
+	public long getQueueFullCount() {
+		return queueFullCount.sum();
+	}
+
+	public long getQueueTimeoutCount() {
+		return queueTimeoutCount.sum();
+	}
+
+	public long getRateLimitedCount() {
+		return rateLimitedCount.sum();
+	}
+
+	/**
+	 * Write the counters as {@code name.counter=value} lines.
+	 *
+	 * @param writer
+	 */
+	public void writeStats(PrintWriter writer) {
+		writer.println(name + ".handled=" + getHandledCount());
+		writer.println(name + ".inFlight=" + (maxConcurrent - permits.availablePermits()));
+		writer.println(name + ".shed.queueFull=" + getQueueFullCount());
+		writer.println(name + ".shed.queueTimeout=" + getQueueTimeoutCount());
+		if (rateLimiter != null) {
+			writer.println(name + ".shed.rateLimited=" + getRateLimitedCount());
+		}
+	}
+
+	@Override
+	public String description() {
+		return "Admission control for " + name;
+	}
+
+}
@@ -0,0 +1,311 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A backup of one board as a zip archive, written and read as a stream so it never has to fit in memory.
+ *
+ * The archive holds, in this order:
+ *
+ * <ul>
+ * <li>{@value #SETTINGS_ENTRY}:  the board's settings, and which entries have a blob or are attachments.
+ * <li>{@value #BLOB_PREFIX}{@code <uuid>}:  the whole text or file of each large paste or attachment.
+ * <li>{@value #ENTRIES_ENTRY}:  every entry as a {@link ChangeRecord}, each list oldest first, ending with
+ * {@link ChangeRecord.Op#SNAPSHOT_END}.
+ * </ul>
+ *
+ * Exporting copies the lists under the service's lock, but only references to the entries, their stored text
+ * and their delta bases.  Reading the text, which is most of the work, happens after the lock is released, so
+ * the archive is the state at the moment of the copy without holding up other requests while it's written.  A
+ * blob removed while the export is running is left out, and so is its entry when importing.
+ *
+ * Importing merges by UUID:  entries already in any list are left alone.  Entries are applied in batches, each
+ * under one lock acquisition.
+ */
+public class BackupArchive {
+
+	private static final Logger LOGGER = Logger.getLogger(BackupArchive.class.getName());
+
+	/* default */ static final String SETTINGS_ENTRY = "pastebin.properties";
+	/* default */ static final String BLOB_PREFIX = "blobs/";
+	/* default */ static final String ENTRIES_ENTRY = "entries.bin";
+
+	private static final String FORMAT_KEY = "backup.format";
+	private static final String FORMAT_VERSION = "1";
+
+	/**
+	 * How many entries are applied per lock acquisition when importing.
+	 */
+	private static final int IMPORT_BATCH = 256;
+
+	/**
+	 * What an import did.
+	 */
+	public static final class ImportResult {
+
+		private int importedCount;
+		private int skippedCount;
+
+		public int getImportedCount() {
+			return importedCount;
+		}
+
+		/**
+		 * @return
+		 * 		The number of entries that were already here.
+		 */
+		public int getSkippedCount() {
+			return skippedCount;
+		}
+
+	}
+
+	private BackupArchive() {
+		// Static methods only.
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The settings key that marks an entry as having a blob in the archive.
+	 */
+	/* default */ static String blobKey(UUID uuid) {
+		return "blob." + uuid;
+	}
+
+	/* default */ static String attachmentNameKey(UUID uuid) {
+		return "attachment." + uuid + ".name";
+	}
+
+	/* default */ static String attachmentTypeKey(UUID uuid) {
+		return "attachment." + uuid + ".type";
+	}
+
+	/**
+	 * Write a backup of the service.  The stream is finished but not closed.
+	 *
+	 * @param service
+	 * @param out
+	 * @return
+	 * 		The number of entries written.
+	 * @throws IOException
+	 */
+	public static int write(PasteBinService service, OutputStream out) throws IOException {
+		PersistenceEvent persistenceEvent = new PersistenceEvent();
+		persistenceEvent.begin();
+
+		Properties settings = new Properties();
+		List<EntrySnapshot> items = service.backupSnapshot(settings);
+
+		settings.setProperty(FORMAT_KEY, FORMAT_VERSION);
+		for (EntrySnapshot item : items) {
+			UUID uuid = item.getUuid();
+			if (item.isBlob()) {
+				settings.setProperty(blobKey(uuid), "true");
+			}
+			if (item.getAttachmentName() != null) {
+				settings.setProperty(attachmentNameKey(uuid), item.getAttachmentName());
+				settings.setProperty(attachmentTypeKey(uuid), item.getAttachmentContentType());
+			}
+		}
+
+		ZipOutputStream zip = new ZipOutputStream(out);
+		zip.putNextEntry(new ZipEntry(SETTINGS_ENTRY));
+		settings.store(zip, "PasteBin backup");
+		zip.closeEntry();
+
+		for (EntrySnapshot item : items) {
+			if (item.isBlob()) {
+				UUID uuid = item.getUuid();
+				try (InputStream blobIn = Files.newInputStream(service.getBlobStore().pathFor(uuid))) {
+					zip.putNextEntry(new ZipEntry(BLOB_PREFIX + uuid));
+					blobIn.transferTo(zip);
+					zip.closeEntry();
+				}
+				catch (NoSuchFileException e) {
+					LOGGER.info("Leaving out the blob for " + uuid + ", which was removed during the export.");
+				}
+			}
+		}
+
+		zip.putNextEntry(new ZipEntry(ENTRIES_ENTRY));
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(zip));
+		long seq = 0;
+		for (EntrySnapshot item : items) {
+			item.getRecord().withText(item.getText()).writeTo(data);
+			seq++;
+		}
+		ChangeRecord.marker(seq, ChangeRecord.Op.SNAPSHOT_END).writeTo(data);
+		data.flush();
+		zip.closeEntry();
+		zip.finish();
+
+		persistenceEvent.end();
+		if (persistenceEvent.shouldCommit()) {
+			persistenceEvent.operation = PersistenceEvent.EXPORT;
+			persistenceEvent.entries = items.size();
+			persistenceEvent.commit();
+		}
+
+		return items.size();
+	}
+
+	/**
+	 * Merge a backup into the service.
+	 *
+	 * @param service
+	 * @param in
+	 * 		Read to the end of the archive, but not closed.
+	 * @param applySettings
+	 * 		Whether to also take the backup's settings, such as the list limits.
+	 * @return
+	 * @throws IOException
+	 * 		If the stream isn't a backup, or is cut short.  Batches applied before the problem stay applied.
+	 */
+	public static ImportResult read(PasteBinService service, InputStream in, boolean applySettings) throws IOException {
+		PersistenceEvent persistenceEvent = new PersistenceEvent();
+		persistenceEvent.begin();
+
+		ImportResult result = new ImportResult();
+		Properties settings = null;
+		boolean entriesRead = false;
+		Map<UUID, Path> blobFiles = new HashMap<>();
+		try {
+			ZipInputStream zip = new ZipInputStream(in);
+			for (ZipEntry zipEntry; (zipEntry = zip.getNextEntry()) != null; ) {
+				String name = zipEntry.getName();
+				if (SETTINGS_ENTRY.equals(name)) {
+					settings = new Properties();
+					settings.load(zip);
+					if (!FORMAT_VERSION.equals(settings.getProperty(FORMAT_KEY))) {
+						throw new IOException("Unsupported backup format '" + settings.getProperty(FORMAT_KEY) + "'.");
+					}
+				}
+				else if (name.startsWith(BLOB_PREFIX)) {
+					UUID uuid = parseUuid(name.substring(BLOB_PREFIX.length()));
+					Path blobFile = service.getBlobStore().createTempFile();
+					blobFiles.put(uuid, blobFile);
+					Files.copy(zip, blobFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+				else if (ENTRIES_ENTRY.equals(name)) {
+					if (settings == null) {
+						throw new IOException("Expected " + SETTINGS_ENTRY + " before " + ENTRIES_ENTRY + ".");
+					}
+					readEntries(service, new DataInputStream(new BufferedInputStream(zip)), settings, blobFiles, result);
+					entriesRead = true;
+				}
+				else {
+					LOGGER.warning("Ignoring '" + name + "' in the backup.");
+				}
+			}
+
+			if (!entriesRead) {
+				throw new IOException("Not a PasteBin backup:  there's no " + ENTRIES_ENTRY + ".");
+			}
+			if (applySettings) {
+				service.applySettings(settings);
+			}
+		}
+		finally {
+			// Blobs whose entries were already here, or never came.
+			for (Path blobFile : blobFiles.values()) {
+				try {
+					Files.deleteIfExists(blobFile);
+				}
+				catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Unable to delete '" + blobFile + "'.", e);
+				}
+			}
+		}
+
+		persistenceEvent.end();
+		if (persistenceEvent.shouldCommit()) {
+			persistenceEvent.operation = PersistenceEvent.IMPORT;
+			persistenceEvent.entries = result.importedCount;
+			persistenceEvent.commit();
+		}
+
+		return result;
+	}
+
+	private static void readEntries(PasteBinService service, DataInputStream data, Properties details,
+			Map<UUID, Path> blobFiles, ImportResult result) throws IOException {
+		List<ChangeRecord> batch = new ArrayList<>(IMPORT_BATCH);
+		long maxTextBytes = service.getMaxTextBytes();
+		while (true) {
+			ChangeRecord record;
+			try {
+				record = ChangeRecord.readFrom(data, maxTextBytes);
+			}
+			catch (EOFException e) {
+				throw new IOException("The backup was cut short.", e);
+			}
+
+			if (record.getOp() == ChangeRecord.Op.SNAPSHOT_END) {
+				break;
+			}
+
+			batch.add(record);
+			if (batch.size() == IMPORT_BATCH) {
+				applyBatch(service, batch, details, blobFiles, result);
+			}
+		}
+
+		applyBatch(service, batch, details, blobFiles, result);
+	}
+
+	private static void applyBatch(PasteBinService service, List<ChangeRecord> batch, Properties details,
+			Map<UUID, Path> blobFiles, ImportResult result) throws IOException {
+		int imported = service.importBatch(batch, details, blobFiles);
+		result.importedCount += imported;
+		result.skippedCount += batch.size() - imported;
+		batch.clear();
+	}
+
+	private static UUID parseUuid(String uuid) throws IOException {
+		try {
+			return UUID.fromString(uuid);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Unexpected blob '" + uuid + "' in the backup.", e);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the text of large pastes in files, one per entry, so that they never have to fit on the heap.
+ *
+ * A paste is first spooled to a temporary file in the same directory, then moved into place under the
+ * entry's UUID once the entry exists.  Temporary files left by a crash are removed by {@link #retainOnly(Set)}.
+ */
+public class BlobStore {
+
+	private static final Logger LOGGER = Logger.getLogger(BlobStore.class.getName());
+
+	private static final String BLOB_SUFFIX = ".txt";
+	private static final String TEMP_PREFIX = "incoming-";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path directory;
+
+	/**
+	 * @param directory
+	 * 		Created when the first blob is written.
+	 */
+	public BlobStore(File directory) {
+		this.directory = directory.toPath();
+	}
+
+	/**
+	 * @return
+	 * 		A new, empty file to spool a paste into.
+	 * @throws IOException
+	 */
+	public Path createTempFile() throws IOException {
+		Files.createDirectories(directory);
+		return Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+	}
+
+	/**
+	 * Move a spooled file into place for the entry.
+	 *
+	 * @param tempFile
+	 * @param uuid
+	 * @return
+	 * 		The blob's path.
+	 * @throws IOException
+	 */
+	public Path commit(Path tempFile, UUID uuid) throws IOException {
+		Path blob = pathFor(uuid);
+		Files.move(tempFile, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return blob;
+	}
+
+	public Path pathFor(UUID uuid) {
+		return directory.resolve(uuid + BLOB_SUFFIX);
+	}
+
+	public void delete(UUID uuid) {
+		try {
+			Files.deleteIfExists(pathFor(uuid));
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to delete the blob for " + uuid + ".", e);
+		}
+	}
+
+	/**
+	 * Delete temporary files and any blob that no entry refers to.
+	 *
+	 * @param uuids
+	 * 		The entries that have blobs.
+	 */
+	public void retainOnly(Set<UUID> uuids) {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+
+		int count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				boolean keep = false;
+				if (name.endsWith(BLOB_SUFFIX)) {
+					try {
+						keep = uuids.contains(UUID.fromString(name.substring(0, name.length() - BLOB_SUFFIX.length())));
+					}
+					catch (IllegalArgumentException e) {
+						// Not one of ours.  Leave it alone.
+						keep = true;
+					}
+				}
+				else if (!name.startsWith(TEMP_PREFIX)) {
+					keep = true;
+				}
+
+				if (!keep) {
+					Files.deleteIfExists(file);
+					count++;
+				}
+			}
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to clean up the blob directory '" + directory + "'.", e);
+		}
+
+		if (count > 0) {
+			LOGGER.info("Removed " + count + " unused blob files.");
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The named boards served under {@code /b/<name>/}.  Each board is a {@link PasteBinService} of its own, with
+ * its own lists, limits, data lock and save file, so a busy board never blocks or bloats another.
+ *
+ * Boards are loaded the first time they're asked for, and a name that hasn't been used yet makes a new, empty
+ * board.  Save files live in one directory next to the main save file, named after the board.
+ */
+public class BoardRegistry {
+
+	private static final Logger LOGGER = Logger.getLogger(BoardRegistry.class.getName());
+
+	/* default */ static final String BOARD_PATH_PREFIX = "/b/";
+
+	private static final String SAVE_FILE_SUFFIX = ".pastebin";
+
+	/**
+	 * Names become file names and URL paths, so they're kept simple.
+	 */
+	private static final Pattern NAME_PATTERN = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}");
+
+	private final File directory;
+	private final int maxBoards;
+	private final boolean saveOnExit;
+	private final boolean lazyLoad;
+	private final boolean deltaCompression;
+
+	private final Map<String, PasteBinService> boards = new ConcurrentHashMap<>();
+
+	/**
+	 * Each board's own admission control, so a busy board can't shed another's requests.
+	 */
+	private final Map<String, AdmissionFilter> admissionFilters = new ConcurrentHashMap<>();
+
+	/**
+	 * @param directory
+	 * 		Holds one save file per board.  Created when the first board is.
+	 * @param maxBoards
+	 * 		Requests for new boards past this many are refused, so stray URLs can't fill the disk.
+	 * @param saveOnExit
+	 * @param lazyLoad
+	 * @param deltaCompression
+	 */
+	public BoardRegistry(File directory, int maxBoards, boolean saveOnExit, boolean lazyLoad, boolean deltaCompression) {
+		this.directory = directory;
+		this.maxBoards = maxBoards;
+		this.saveOnExit = saveOnExit;
+		this.lazyLoad = lazyLoad;
+		this.deltaCompression = deltaCompression;
+	}
+
+	public static boolean isValidName(String name) {
+		return NAME_PATTERN.matcher(name).matches();
+	}
+
+	/**
+	 * @param name
+	 * @return
+	 * 		The board, loading or creating it if needed, or null if the name isn't valid or there are already
+	 * 		too many boards.
+	 */
+	public PasteBinService get(String name) {
+		if (!isValidName(name)) {
+			return null;
+		}
+
+		PasteBinService board = boards.get(name);
+		if (board != null) {
+			return board;
+		}
+
+		synchronized(this) {
+			board = boards.get(name);
+			if (board == null) {
+				if (getBoardNames().size() >= maxBoards && !saveFileFor(name).exists()) {
+					LOGGER.warning("Not creating board '" + name + "':  there are already " + maxBoards + " boards.");
+					return null;
+				}
+
+				directory.mkdirs();
+				LOGGER.info("Loading board '" + name + "'.");
+				board = new PasteBinService(saveFileFor(name), saveOnExit, lazyLoad, name);
+				board.setDeltaCompression(deltaCompression);
+				boards.put(name, board);
+			}
+
+			return board;
+		}
+	}
+
+	/**
+	 * @param name
+	 * 		A board that {@link #get(String)} returned.
+	 * @param factory
+	 * 		Makes the filter the first time the board is asked for, given the board's path, e.g. {@code /b/kids/}.
+	 * @return
+	 */
+	public AdmissionFilter getAdmissionFilter(String name, Function<String, AdmissionFilter> factory) {
+		return admissionFilters.computeIfAbsent(name, (key) -> factory.apply(BOARD_PATH_PREFIX + key + "/"));
+	}
+
+	/**
+	 * @return
+	 * 		The boards' filters made so far, by board name.
+	 */
+	public Map<String, AdmissionFilter> getAdmissionFilters() {
+		return new TreeMap<>(admissionFilters);
+	}
+
+	/**
+	 * @return
+	 * 		The names of every board, loaded or not, in order.
+	 */
+	public Set<String> getBoardNames() {
+		Set<String> names = new TreeSet<>(boards.keySet());
+		String[] files = directory.list();
+		if (files != null) {
+			for (String file : files) {
+				if (file.endsWith(SAVE_FILE_SUFFIX)) {
+					String name = file.substring(0, file.length() - SAVE_FILE_SUFFIX.length());
+					if (isValidName(name)) {
+						names.add(name);
+					}
+				}
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * @return
+	 * 		The number of boards in memory.
+	 */
+	public int getLoadedCount() {
+		return boards.size();
+	}
+
+	/**
+	 * @return
+	 * 		The boards in memory, by name.
+	 */
+	public Map<String, PasteBinService> getLoadedBoards() {
+		return new TreeMap<>(boards);
+	}
+
+	/**
+	 * A page listing the boards, with a form to go to one by name.
+	 *
+	 * @param writer
+	 * @param errorMessage
+	 * 		May be null.
+	 * @throws IOException
+	 */
+	public void writeIndexPage(Writer writer, String errorMessage) throws IOException {
+		writer.write("<html><head>");
+		writer.write("<meta charset='UTF-8' name='viewport' content='width=640' initial-scale=1>");
+		writer.write("<link rel='stylesheet' href='" + StaticResources.CSS.getPath() + "'>");
+		writer.write("<title>Boards - PasteBin</title>");
+		writer.write("</head><body>");
+		writer.write("<p><a href='/'>Home</a></p>");
+		writer.write("<form action='" + BOARD_PATH_PREFIX + "' method='GET'>");
+		writer.write("<label for='name'>Board</label> ");
+		writer.write("<input type='text' id='name' name='name' pattern='" + NAME_PATTERN.pattern() + "' autofocus> ");
+		writer.write("<input type='submit' value='Go'>");
+		writer.write("</form>");
+
+		if (errorMessage != null) {
+			writer.write("<p><span style='color: #f00'>" + errorMessage + "</span></p>");
+		}
+
+		writer.write("<ul>");
+		for (String name : getBoardNames()) {
+			writer.write("<li><a href='" + BOARD_PATH_PREFIX + name + "/'>" + name + "</a></li>");
+		}
+		writer.write("</ul>");
+		writer.write("</body></html>");
+	}
+
+	private File saveFileFor(String name) {
+		return new File(directory, name + SAVE_FILE_SUFFIX);
+	}
+
+}
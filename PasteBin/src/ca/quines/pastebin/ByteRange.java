@@ -0,0 +1,112 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+/**
+ * A single byte range from a {@code Range} request header, resolved against the length of the resource.
+ *
+ * Only one range is supported.  A request for several ranges is answered with the whole resource, which the
+ * HTTP spec allows, and avoids building multipart/byteranges responses that no client we care about needs.
+ */
+public class ByteRange {
+
+	/**
+	 * Returned by {@link #parse(String, long)} when the range starts past the end of the resource.
+	 */
+	public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	private final long first;
+	private final long last;
+
+	private ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * @param header
+	 * 		The Range header, which may be null.
+	 * @param length
+	 * 		The length of the resource.
+	 * @return
+	 * 		The range, {@link #UNSATISFIABLE}, or null to send the whole resource.  Null covers no header, headers
+	 * 		we don't understand, and several ranges.
+	 */
+	public static ByteRange parse(String header, long length) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		try {
+			String firstText = spec.substring(0, dash).trim();
+			String lastText = spec.substring(dash + 1).trim();
+
+			if (firstText.isEmpty()) {
+				// A suffix:  the last n bytes.
+				long suffix = Long.parseLong(lastText);
+				if (suffix <= 0) {
+					return suffix == 0 ? UNSATISFIABLE : null;
+				}
+				if (length == 0) {
+					return UNSATISFIABLE;
+				}
+				return new ByteRange(Math.max(0, length - suffix), length - 1);
+			}
+
+			long first = Long.parseLong(firstText);
+			long last = lastText.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastText);
+			if (first < 0 || last < first) {
+				return null;
+			}
+			if (first >= length) {
+				return UNSATISFIABLE;
+			}
+
+			return new ByteRange(first, Math.min(last, length - 1));
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public long getFirst() {
+		return first;
+	}
+
+	public long getLast() {
+		return last;
+	}
+
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @param totalLength
+	 * @return
+	 * 		The value for the Content-Range header.
+	 */
+	public String toContentRange(long totalLength) {
+		return "bytes " + first + "-" + last + "/" + totalLength;
+	}
+
+}
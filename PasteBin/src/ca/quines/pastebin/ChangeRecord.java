@@ -0,0 +1,345 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One change to the service's state, in a form that can be sent to another instance and applied there.
+ *
+ * Changes describe where an entry ends up rather than what the user clicked, so applying the same record twice
+ * has the same effect as applying it once.  For example, both "delete" and "evicted from the active list"
+ * become {@link Op#DELETED} with the entry's fields.
+ *
+ * A record also remembers whether the entry's text is kept in a {@link BlobStore}, and the attachment details.
+ * Those aren't part of {@link #writeTo(DataOutputStream)}, since the blob itself has to go with them:  the
+ * {@link ReplicationServer} sends it right after the record, and a backup keeps them in its settings.
+ */
+public class ChangeRecord {
+
+	public enum Op {
+
+		/**
+		 * Clear all three lists.  Starts a snapshot.
+		 */
+		RESET(1),
+
+		/**
+		 * Marks the end of a snapshot.  The receiver is consistent from here on.
+		 */
+		SNAPSHOT_END(2),
+
+		/**
+		 * Put the entry at the front of the active list, removing it from wherever else it is.
+		 */
+		ACTIVE(3),
+
+		/**
+		 * Put the entry at the front of the pinned list, removing it from wherever else it is.
+		 */
+		PINNED(4),
+
+		/**
+		 * Put the entry in the deleted list, removing it from wherever else it is.
+		 */
+		DELETED(5),
+
+		/**
+		 * Set the short URL of an entry in place.
+		 */
+		SHORT_URL(6),
+
+		/**
+		 * Remove the entry from every list for good.
+		 */
+		REMOVE(7);
+
+		private final int code;
+
+		private Op(int code) {
+			this.code = code;
+		}
+
+		private static Op fromCode(int code) throws IOException {
+			for (Op op : values()) {
+				if (op.code == code) {
+					return op;
+				}
+			}
+
+			throw new IOException("Unknown change code " + code + ".");
+		}
+
+	}
+
+	private static final long NO_TIMESTAMP = HistoryEntry.NO_TIMESTAMP;
+	private static final UUID NO_UUID = new UUID(0, 0);
+
+	private final long seq;
+	private final Op op;
+	private final UUID uuid;
+	private final long createMs;
+	private final long deletedMs;
+	private final long expiresMs;
+	private final String shortUrl;
+	private final String text;
+	private final long blobLength;
+	private final String attachmentName;
+	private final String attachmentContentType;
+
+	private ChangeRecord(long seq, Op op, UUID uuid, long createMs, long deletedMs, long expiresMs, String shortUrl,
+			String text, long blobLength, String attachmentName, String attachmentContentType) {
+		this.seq = seq;
+		this.op = op;
+		this.uuid = uuid;
+		this.createMs = createMs;
+		this.deletedMs = deletedMs;
+		this.expiresMs = expiresMs;
+		this.shortUrl = shortUrl;
+		this.text = text;
+		this.blobLength = blobLength;
+		this.attachmentName = attachmentName;
+		this.attachmentContentType = attachmentContentType;
+	}
+
+	/**
+	 * A change carrying a copy of the entry's fields.  The text is only included for operations that need it.
+	 *
+	 * @param seq
+	 * @param op
+	 * @param entry
+	 * @return
+	 */
+	public static ChangeRecord of(long seq, Op op, HistoryEntry entry) {
+		return of(seq, op, entry, op == Op.ACTIVE || op == Op.PINNED || op == Op.DELETED);
+	}
+
+	/**
+	 * A change carrying a copy of the entry's fields but not its text, which can be added later with
+	 * {@link #withText(String)}.
+	 *
+	 * @param seq
+	 * @param op
+	 * @param entry
+	 * @return
+	 */
+	public static ChangeRecord withoutText(long seq, Op op, HistoryEntry entry) {
+		return of(seq, op, entry, false);
+	}
+
+	private static ChangeRecord of(long seq, Op op, HistoryEntry entry, boolean withText) {
+		return new ChangeRecord(seq, op, entry.getUuid(), entry.getCreateMs(), entry.getDeletedMs(), entry.getExpiresMs(),
+			entry.getShortUrl(),
+			withText ? entry.getText() : null,
+			entry.getBlobLength(), entry.getAttachmentName(), entry.getAttachmentContentType());
+	}
+
+	/**
+	 * A change with no entry, such as {@link Op#RESET}.
+	 *
+	 * @param seq
+	 * @param op
+	 * @return
+	 */
+	public static ChangeRecord marker(long seq, Op op) {
+		return new ChangeRecord(seq, op, NO_UUID, NO_TIMESTAMP, NO_TIMESTAMP, NO_TIMESTAMP, null, null, -1, null, null);
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	public UUID getUuid() {
+		return uuid;
+	}
+
+	public String getShortUrl() {
+		return shortUrl;
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch.
+	 */
+	public long getCreateMs() {
+		return createMs;
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch, or null if the entry isn't deleted.
+	 */
+	public Long getDeletedMs() {
+		return deletedMs == NO_TIMESTAMP ? null : deletedMs;
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch, or null if the entry doesn't expire.
+	 */
+	public Long getExpiresMs() {
+		return expiresMs == NO_TIMESTAMP ? null : expiresMs;
+	}
+
+	/**
+	 * @return
+	 * 		The entry's text, or null if this operation doesn't carry it.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return
+	 * 		True if the entry's full text is in a blob, and {@link #getText()} is only a preview.
+	 */
+	public boolean isBlob() {
+		return blobLength >= 0;
+	}
+
+	/**
+	 * @return
+	 * 		The blob's length in bytes, or -1 if the entry has no blob.
+	 */
+	public long getBlobLength() {
+		return blobLength;
+	}
+
+	public String getAttachmentName() {
+		return attachmentName;
+	}
+
+	public String getAttachmentContentType() {
+		return attachmentContentType;
+	}
+
+	/**
+	 * @param newText
+	 * @return
+	 * 		A copy of this record with the given text.
+	 */
+	public ChangeRecord withText(String newText) {
+		return new ChangeRecord(seq, op, uuid, createMs, deletedMs, expiresMs, shortUrl, newText, blobLength,
+			attachmentName, attachmentContentType);
+	}
+
+	/**
+	 * @param newBlobLength
+	 * 		-1 if the entry has no blob.
+	 * @param newAttachmentName
+	 * @param newAttachmentContentType
+	 * @return
+	 * 		A copy of this record with the given blob details.
+	 */
+	public ChangeRecord withBlob(long newBlobLength, String newAttachmentName, String newAttachmentContentType) {
+		return new ChangeRecord(seq, op, uuid, createMs, deletedMs, expiresMs, shortUrl, text, newBlobLength,
+			newAttachmentName, newAttachmentContentType);
+	}
+
+	/**
+	 * @return
+	 * 		A new entry with the fields in this record.  The caller has to put the blob, if any, in place.
+	 */
+	public HistoryEntry toEntry() {
+		HistoryEntry entry = new HistoryEntry(text,
+			createMs == NO_TIMESTAMP ? Instant.now() : Instant.ofEpochMilli(createMs),
+			deletedMs == NO_TIMESTAMP ? null : Instant.ofEpochMilli(deletedMs),
+			uuid, shortUrl);
+		if (expiresMs != NO_TIMESTAMP) {
+			entry.setExpiresTs(Instant.ofEpochMilli(expiresMs));
+		}
+		entry.setBlobLength(blobLength);
+		entry.setAttachment(attachmentName, attachmentContentType);
+
+		return entry;
+	}
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(seq);
+		out.writeByte(op.code);
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+		out.writeLong(createMs);
+		out.writeLong(deletedMs);
+		out.writeLong(expiresMs);
+
+		out.writeBoolean(shortUrl != null);
+		if (shortUrl != null) {
+			out.writeUTF(shortUrl);
+		}
+
+		if (text == null) {
+			out.writeInt(-1);
+		}
+		else {
+			// writeUTF() is limited to 64 KB, which is too small for a pasted log.
+			byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(textBytes.length);
+			out.write(textBytes);
+		}
+	}
+
+	public static ChangeRecord readFrom(DataInputStream in) throws IOException {
+		return readFrom(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param in
+	 * @param maxTextBytes
+	 * 		The most UTF-8 text to accept.  A longer text is refused before any of it is read.
+	 * @return
+	 * @throws IOException
+	 * 		If the text is too long, or an {@link EOFException} if the stream ends before the record does.  The
+	 * 		text is read in pieces, so a length that the rest of the stream doesn't back up can't make a huge
+	 * 		allocation.
+	 */
+	public static ChangeRecord readFrom(DataInputStream in, long maxTextBytes) throws IOException {
+		long seq = in.readLong();
+		Op op = Op.fromCode(in.readByte());
+		UUID uuid = new UUID(in.readLong(), in.readLong());
+		long createMs = in.readLong();
+		long deletedMs = in.readLong();
+		long expiresMs = in.readLong();
+		String shortUrl = in.readBoolean() ? in.readUTF() : null;
+
+		String text = null;
+		int textLength = in.readInt();
+		if (textLength > maxTextBytes) {
+			throw new IOException("The text of " + uuid + " is " + textLength + " bytes, more than the limit of "
+				+ maxTextBytes + ".");
+		}
+		if (textLength >= 0) {
+			byte[] textBytes = in.readNBytes(textLength);
+			if (textBytes.length < textLength) {
+				throw new EOFException("The text of " + uuid + " was cut short.");
+			}
+			text = new String(textBytes, StandardCharsets.UTF_8);
+		}
+
+		return new ChangeRecord(seq, op, uuid, createMs, deletedMs, expiresMs, shortUrl, text, -1, null, null);
+	}
+
+}
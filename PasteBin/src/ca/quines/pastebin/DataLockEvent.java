@@ -0,0 +1,69 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for the time a service operation waited to get the data lock.  Only waits over the
+ * threshold are recorded, so an uncontended lock costs nothing beyond the timestamps.
+ *
+ * Typical use:
+ * <pre>
+ * DataLockEvent lockEvent = DataLockEvent.begin("paste");
+ * synchronized(dataLock) {
+ *     lockEvent.acquired();
+ *     ...
+ * </pre>
+ */
+@Name("ca.quines.pastebin.DataLock")
+@Label("Data Lock Wait")
+@Category("PasteBin")
+@StackTrace(false)
+@Description("Time spent waiting to acquire the service's data lock.")
+@Threshold("1 ms")
+public class DataLockEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	private String operation;
+
+	/**
+	 * @param operation
+	 * 		What the lock is wanted for, such as "paste" or "save".
+	 * @return
+	 * 		A started event.  Call {@link #acquired()} once the lock is held.
+	 */
+	public static DataLockEvent begin(String operation) {
+		DataLockEvent event = new DataLockEvent();
+		event.operation = operation;
+		event.begin();
+
+		return event;
+	}
+
+	public void acquired() {
+		end();
+		if (shouldCommit()) {
+			commit();
+		}
+	}
+
+}
@@ -0,0 +1,619 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Holds the deleted entries ordered by deleted timestamp, newest first.
+ *
+ * The store is a set of parallel arrays, one per column:  each entry's deleted time, the order it was added in
+ * and its UUID as primitives, and the entry itself.  Slots are ordered by (deleted time, order added, UUID),
+ * oldest first, so ranges and the entries older than a cutoff are found by binary search.  Entries deleted in
+ * the same millisecond stay in the order they were deleted, so which one is dropped first doesn't depend on
+ * their random UUIDs.  An open-addressing hash table of slot numbers, keyed by UUID, finds an entry without
+ * making any objects.  Compared to tree and hash maps, there are no per-entry nodes or keys.
+ *
+ * Removing an entry just empties its slot, keeping its deleted time and UUID so the order still holds, and the
+ * holes are squeezed out once there are as many of them as entries.  Entries deleted now go on the end.  One
+ * added out of order, as when loading, marks the store unsorted, and it's sorted once, when the order is next
+ * needed.
+ *
+ * This class is not thread safe.  The service guards it with its data lock.
+ */
+public class DeletedHistoryStore implements Iterable<HistoryEntry> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Holes are squeezed out once there are at least this many, and as many as entries.
+	 */
+	private static final int MIN_HOLES_TO_COMPACT = 16;
+
+	private long[] deletedMs = new long[INITIAL_CAPACITY];
+
+	/**
+	 * From {@link #nextSeq} when the entry was added.  Breaks ties between entries deleted in the same millisecond.
+	 */
+	private long[] seq = new long[INITIAL_CAPACITY];
+	private long[] uuidMsb = new long[INITIAL_CAPACITY];
+	private long[] uuidLsb = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Null for a hole.
+	 */
+	private HistoryEntry[] entries = new HistoryEntry[INITIAL_CAPACITY];
+
+	/**
+	 * The used slots are from {@code start} up to but not including {@code end}.
+	 */
+	private int start;
+	private int end;
+	private int size;
+	private boolean sorted = true;
+
+	/**
+	 * Slot numbers plus one, with zero for an empty bucket.  Always at least twice as long as {@link #size}.
+	 */
+	private int[] index = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * Changes whenever slots are added, removed or moved, so iterators can tell they're out of date.
+	 */
+	private int modCount;
+
+	private long nextSeq;
+
+	private long textBytes;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return
+	 * 		The total {@link HistoryEntry#getTextBytes()} of the entries.
+	 */
+	public long getTextBytes() {
+		return textBytes;
+	}
+
+	/**
+	 * Account for an entry whose stored text changed size while in the store.  Safe while iterating.
+	 *
+	 * @param delta
+	 */
+	public void adjustTextBytes(long delta) {
+		textBytes += delta;
+	}
+
+	/**
+	 * Add an entry.  The entry must have a deleted timestamp.  If an entry with the same UUID is already
+	 * present, it is replaced.  Of the entries deleted in the same millisecond, the one added last counts as
+	 * the newest.
+	 *
+	 * @param entry
+	 */
+	public void add(HistoryEntry entry) {
+		if (entry.getDeletedMs() == HistoryEntry.NO_TIMESTAMP) {
+			throw new IllegalArgumentException("Entry " + entry.getUuid() + " has no deleted timestamp.");
+		}
+
+		long msb = entry.getUuidMostSignificantBits();
+		long lsb = entry.getUuidLeastSignificantBits();
+		int bucket = findBucket(msb, lsb);
+		if (bucket >= 0) {
+			removeSlot(bucket, index[bucket] - 1);
+		}
+
+		if (end == entries.length) {
+			makeRoom();
+		}
+
+		int slot = end++;
+		deletedMs[slot] = entry.getDeletedMs();
+		seq[slot] = nextSeq++;
+		uuidMsb[slot] = msb;
+		uuidLsb[slot] = lsb;
+		entries[slot] = entry;
+		if (sorted && slot > start && compareSlots(slot - 1, slot) > 0) {
+			sorted = false;
+		}
+
+		size++;
+		if (size * 2 > index.length) {
+			rebuildIndex(index.length * 2);
+		}
+		else {
+			insertIntoIndex(slot);
+		}
+
+		textBytes += entry.getTextBytes();
+		modCount++;
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The removed entry, or null if there was no match.
+	 */
+	public HistoryEntry remove(UUID uuid) {
+		int bucket = findBucket(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+		if (bucket < 0) {
+			return null;
+		}
+
+		return removeSlot(bucket, index[bucket] - 1);
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The entry, or null if there was no match.
+	 */
+	public HistoryEntry find(UUID uuid) {
+		int bucket = findBucket(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+		return bucket < 0 ? null : entries[index[bucket] - 1];
+	}
+
+	/**
+	 * Permanently drop every entry deleted strictly before the cutoff.
+	 *
+	 * @param cutoffMs
+	 * 		Milliseconds since the epoch.
+	 * @return
+	 * 		The removed entries, oldest first.
+	 */
+	public List<HistoryEntry> expireBefore(long cutoffMs) {
+		ensureSorted();
+		if (size == 0 || deletedMs[start] >= cutoffMs) {
+			return List.of();
+		}
+
+		List<HistoryEntry> removed = new ArrayList<>();
+		while (size > 0 && deletedMs[start] < cutoffMs) {
+			removed.add(removeFirst());
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Permanently drop the oldest entries until the total {@link HistoryEntry#getTextBytes()} is within the budget.
+	 *
+	 * @param maxBytes
+	 * @return
+	 * 		The removed entries, oldest first.
+	 */
+	public List<HistoryEntry> trimToBytes(long maxBytes) {
+		if (textBytes <= maxBytes) {
+			return List.of();
+		}
+
+		ensureSorted();
+		List<HistoryEntry> removed = new ArrayList<>();
+		while (textBytes > maxBytes && size > 0) {
+			removed.add(removeFirst());
+		}
+
+		return removed;
+	}
+
+	/**
+	 * A view of the entries deleted in the given range, newest first.  Each iterator sees the store as it is
+	 * when the iterator is made.
+	 *
+	 * @param fromMs
+	 * 		Inclusive lower bound in milliseconds since the epoch.
+	 * @param toMs
+	 * 		Exclusive upper bound in milliseconds since the epoch.
+	 * @return
+	 */
+	public Iterable<HistoryEntry> range(long fromMs, long toMs) {
+		if (fromMs >= toMs) {
+			return List.of();
+		}
+
+		return () -> {
+			ensureSorted();
+			return new NewestFirstIterator(lowerBound(fromMs), lowerBound(toMs));
+		};
+	}
+
+	public void clear() {
+		deletedMs = new long[INITIAL_CAPACITY];
+		seq = new long[INITIAL_CAPACITY];
+		uuidMsb = new long[INITIAL_CAPACITY];
+		uuidLsb = new long[INITIAL_CAPACITY];
+		entries = new HistoryEntry[INITIAL_CAPACITY];
+		index = new int[INITIAL_CAPACITY * 2];
+		start = 0;
+		end = 0;
+		size = 0;
+		sorted = true;
+		textBytes = 0;
+		modCount++;
+	}
+
+	/**
+	 * Iterates from the most recently deleted entry to the oldest.
+	 */
+	@Override
+	public Iterator<HistoryEntry> iterator() {
+		ensureSorted();
+		return new NewestFirstIterator(start, end);
+	}
+
+	/**
+	 * @return
+	 * 		A view of the entries from the oldest to the most recently deleted.
+	 */
+	public Iterable<HistoryEntry> oldestFirst() {
+		return () -> {
+			ensureSorted();
+			return new OldestFirstIterator(start, end);
+		};
+	}
+
+	/**
+	 * Removing a slot moves {@link #start} past any holes, so the first slot always holds the oldest entry.
+	 */
+	private HistoryEntry removeFirst() {
+		return removeSlot(findBucket(uuidMsb[start], uuidLsb[start]), start);
+	}
+
+	private HistoryEntry removeSlot(int bucket, int slot) {
+		HistoryEntry entry = entries[slot];
+		entries[slot] = null;
+		removeFromIndex(bucket);
+		size--;
+		textBytes -= entry.getTextBytes();
+		modCount++;
+
+		while (start < end && entries[start] == null) {
+			start++;
+		}
+		while (end > start && entries[end - 1] == null) {
+			end--;
+		}
+		if (size == 0) {
+			start = 0;
+			end = 0;
+			sorted = true;
+		}
+		else {
+			int holes = end - start - size;
+			if (holes >= MIN_HOLES_TO_COMPACT && holes >= size) {
+				compact(false);
+			}
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Make room for one more slot at the end, by squeezing out holes or growing the arrays.
+	 */
+	private void makeRoom() {
+		int capacity = entries.length;
+		if (size + size / 4 >= capacity) {
+			capacity += Math.max(capacity / 2, INITIAL_CAPACITY);
+		}
+
+		compact(false, capacity);
+	}
+
+	private void ensureSorted() {
+		if (!sorted) {
+			compact(true);
+		}
+	}
+
+	private void compact(boolean sort) {
+		compact(sort, entries.length);
+	}
+
+	/**
+	 * Move the entries to the start of new arrays, in order if asked, and rebuild the index.
+	 *
+	 * @param sort
+	 * @param capacity
+	 */
+	private void compact(boolean sort, int capacity) {
+		int[] liveSlots = new int[size];
+		int count = 0;
+		for (int slot = start; slot < end; slot++) {
+			if (entries[slot] != null) {
+				liveSlots[count++] = slot;
+			}
+		}
+
+		if (sort) {
+			sortSlots(liveSlots, count);
+			sorted = true;
+		}
+
+		HistoryEntry[] live = new HistoryEntry[capacity];
+		long[] newDeletedMs = new long[capacity];
+		long[] newSeq = new long[capacity];
+		long[] newUuidMsb = new long[capacity];
+		long[] newUuidLsb = new long[capacity];
+		for (int slot = 0; slot < count; slot++) {
+			int oldSlot = liveSlots[slot];
+			live[slot] = entries[oldSlot];
+			newDeletedMs[slot] = deletedMs[oldSlot];
+			newSeq[slot] = seq[oldSlot];
+			newUuidMsb[slot] = uuidMsb[oldSlot];
+			newUuidLsb[slot] = uuidLsb[oldSlot];
+		}
+
+		deletedMs = newDeletedMs;
+		seq = newSeq;
+		uuidMsb = newUuidMsb;
+		uuidLsb = newUuidLsb;
+		entries = live;
+		start = 0;
+		end = count;
+		modCount++;
+		rebuildIndex(index.length);
+	}
+
+	/**
+	 * Sort slot numbers by {@link #compareSlots(int, int)}.  A bottom-up merge sort on the primitive array, since
+	 * the library only sorts boxed values with a comparator.  Runs already in order are copied without
+	 * comparing, so a store that's nearly sorted, as when loading, sorts in close to linear time.
+	 *
+	 * @param slots
+	 * @param count
+	 * 		How many of the slots to sort.
+	 */
+	private void sortSlots(int[] slots, int count) {
+		int[] from = slots;
+		int[] to = new int[count];
+		for (int width = 1; width < count; width *= 2) {
+			for (int low = 0; low < count; low += width * 2) {
+				int middle = Math.min(low + width, count);
+				int high = Math.min(low + width * 2, count);
+				if (middle == high || compareSlots(from[middle - 1], from[middle]) <= 0) {
+					System.arraycopy(from, low, to, low, high - low);
+					continue;
+				}
+
+				int left = low;
+				int right = middle;
+				for (int i = low; i < high; i++) {
+					if (right >= high || (left < middle && compareSlots(from[left], from[right]) <= 0)) {
+						to[i] = from[left++];
+					}
+					else {
+						to[i] = from[right++];
+					}
+				}
+			}
+
+			int[] swap = from;
+			from = to;
+			to = swap;
+		}
+
+		if (from != slots) {
+			System.arraycopy(from, 0, slots, 0, count);
+		}
+	}
+
+	private int compareSlots(int a, int b) {
+		int compare = Long.compare(deletedMs[a], deletedMs[b]);
+		if (compare == 0) {
+			compare = Long.compare(seq[a], seq[b]);
+		}
+		if (compare == 0) {
+			compare = Long.compare(uuidMsb[a], uuidMsb[b]);
+		}
+		if (compare == 0) {
+			compare = Long.compare(uuidLsb[a], uuidLsb[b]);
+		}
+
+		return compare;
+	}
+
+	/**
+	 * Must only be called when sorted.  Holes keep their deleted time, so they don't get in the way.
+	 *
+	 * @param ms
+	 * @return
+	 * 		The first slot deleted at or after the given time, or {@link #end}.
+	 */
+	private int lowerBound(long ms) {
+		int low = start;
+		int high = end;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (deletedMs[middle] < ms) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private static int hash(long msb, long lsb) {
+		long mixed = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+		return (int) (mixed ^ (mixed >>> 32));
+	}
+
+	/**
+	 * @return
+	 * 		The bucket holding the entry with this UUID, or -1.
+	 */
+	private int findBucket(long msb, long lsb) {
+		int mask = index.length - 1;
+		for (int bucket = hash(msb, lsb) & mask; index[bucket] != 0; bucket = (bucket + 1) & mask) {
+			int slot = index[bucket] - 1;
+			if (uuidMsb[slot] == msb && uuidLsb[slot] == lsb) {
+				return bucket;
+			}
+		}
+
+		return -1;
+	}
+
+	private void insertIntoIndex(int slot) {
+		int mask = index.length - 1;
+		int bucket = hash(uuidMsb[slot], uuidLsb[slot]) & mask;
+		while (index[bucket] != 0) {
+			bucket = (bucket + 1) & mask;
+		}
+
+		index[bucket] = slot + 1;
+	}
+
+	/**
+	 * Empty a bucket, moving later entries of the same run back so that none is left past a gap from its
+	 * home bucket.
+	 *
+	 * @param bucket
+	 */
+	private void removeFromIndex(int bucket) {
+		int mask = index.length - 1;
+		int gap = bucket;
+		for (int next = (gap + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+			int slot = index[next] - 1;
+			int home = hash(uuidMsb[slot], uuidLsb[slot]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				index[gap] = index[next];
+				gap = next;
+			}
+		}
+
+		index[gap] = 0;
+	}
+
+	private void rebuildIndex(int length) {
+		while (size * 2 > length) {
+			length *= 2;
+		}
+
+		index = new int[length];
+		for (int slot = start; slot < end; slot++) {
+			if (entries[slot] != null) {
+				insertIntoIndex(slot);
+			}
+		}
+	}
+
+	private final class NewestFirstIterator implements Iterator<HistoryEntry> {
+
+		private final int low;
+		private final int expectedModCount = modCount;
+		private int next;
+
+		/**
+		 * @param low
+		 * 		The oldest slot, inclusive.
+		 * @param high
+		 * 		The newest slot, exclusive.
+		 */
+		private NewestFirstIterator(int low, int high) {
+			this.low = low;
+			this.next = high - 1;
+			skipHoles();
+		}
+
+		private void skipHoles() {
+			while (next >= low && entries[next] == null) {
+				next--;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next >= low;
+		}
+
+		@Override
+		public HistoryEntry next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next < low) {
+				throw new NoSuchElementException();
+			}
+
+			HistoryEntry entry = entries[next--];
+			skipHoles();
+			return entry;
+		}
+
+	}
+
+	private final class OldestFirstIterator implements Iterator<HistoryEntry> {
+
+		private final int high;
+		private final int expectedModCount = modCount;
+		private int next;
+
+		/**
+		 * @param low
+		 * 		The oldest slot, inclusive.
+		 * @param high
+		 * 		The newest slot, exclusive.
+		 */
+		private OldestFirstIterator(int low, int high) {
+			this.high = high;
+			this.next = low;
+			skipHoles();
+		}
+
+		private void skipHoles() {
+			while (next < high && entries[next] == null) {
+				next++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < high;
+		}
+
+		@Override
+		public HistoryEntry next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= high) {
+				throw new NoSuchElementException();
+			}
+
+			HistoryEntry entry = entries[next++];
+			skipHoles();
+			return entry;
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * One entry as it was when a snapshot was taken, to be read after the data lock is released.  See
+ * {@link PasteBinService#snapshotEntries()}.
+ *
+ * Only references are copied:  the text is read, and rebuilt from its delta base, when {@link #getText()} is
+ * called.
+ */
+public class EntrySnapshot {
+
+	private final ChangeRecord record;
+	private final Supplier<String> storedText;
+	private final boolean blob;
+	private final String attachmentName;
+	private final String attachmentContentType;
+	private EntrySnapshot deltaBase;
+
+	/**
+	 * Must be called with the data lock held.
+	 *
+	 * @param list
+	 * 		Which list the entry was in.
+	 * @param entry
+	 */
+	/* default */ EntrySnapshot(ChangeRecord.Op list, HistoryEntry entry) {
+		this(0, list, entry);
+	}
+
+	/**
+	 * Must be called with the data lock held.
+	 *
+	 * @param seq
+	 * 		The sequence number for {@link #getRecord()}.
+	 * @param list
+	 * 		Which list the entry was in.
+	 * @param entry
+	 */
+	/* default */ EntrySnapshot(long seq, ChangeRecord.Op list, HistoryEntry entry) {
+		this.record = ChangeRecord.withoutText(seq, list, entry);
+		this.storedText = entry.getStoredTextSupplier();
+		this.blob = entry.isBlob();
+		this.attachmentName = entry.getAttachmentName();
+		this.attachmentContentType = entry.getAttachmentContentType();
+	}
+
+	/* default */ void setDeltaBase(EntrySnapshot deltaBase) {
+		this.deltaBase = deltaBase;
+	}
+
+	/**
+	 * @return
+	 * 		The entry's fields without its text.  The op is the list the entry was in.
+	 */
+	public ChangeRecord getRecord() {
+		return record;
+	}
+
+	public UUID getUuid() {
+		return record.getUuid();
+	}
+
+	/**
+	 * @return
+	 * 		The text, rebuilt from the base entry if it's stored as a delta.
+	 */
+	public String getText() {
+		String stored = storedText.get();
+		return deltaBase == null ? stored : TextDelta.apply(deltaBase.getText(), stored);
+	}
+
+	public boolean isBlob() {
+		return blob;
+	}
+
+	public String getAttachmentName() {
+		return attachmentName;
+	}
+
+	public String getAttachmentContentType() {
+		return attachmentContentType;
+	}
+
+}
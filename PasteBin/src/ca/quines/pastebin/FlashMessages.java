@@ -0,0 +1,110 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Carries the messages from a change to the page the browser is redirected to, for Post/Redirect/Get.
+ *
+ * The messages stay here, and the redirect only carries a random token, so nothing from the URL ends up in the
+ * page.  A token can be used once, and only for {@link #TTL_MS}.  At most {@link #MAX_MESSAGES} are kept, and
+ * the oldest are dropped first, since a browser that doesn't follow the redirect never takes its messages.
+ */
+public class FlashMessages {
+
+	/* default */ static final long TTL_MS = 60_000;
+	/* default */ static final int MAX_MESSAGES = 1024;
+
+	private static final class Stored {
+
+		private final PageMessages messages;
+		private final long expiresMs;
+
+		private Stored(PageMessages messages, long expiresMs) {
+			this.messages = messages;
+			this.expiresMs = expiresMs;
+		}
+
+	}
+
+	/**
+	 * In the order they were added, which is also the order they expire.
+	 */
+	private final Map<String, Stored> stored = new LinkedHashMap<String, Stored>() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Stored> eldest) {
+			return size() > MAX_MESSAGES;
+		}
+
+	};
+
+	/**
+	 * @param messages
+	 * @return
+	 * 		The token for {@link #take(String)}.
+	 */
+	public String put(PageMessages messages) {
+		return put(messages, System.currentTimeMillis());
+	}
+
+	/* default */ synchronized String put(PageMessages messages, long nowMs) {
+		for (Iterator<Stored> storedIter = stored.values().iterator(); storedIter.hasNext(); ) {
+			if (storedIter.next().expiresMs > nowMs) {
+				break;
+			}
+			storedIter.remove();
+		}
+
+		String token = UUID.randomUUID().toString();
+		stored.put(token, new Stored(messages, nowMs + TTL_MS));
+		return token;
+	}
+
+	/**
+	 * @param token
+	 * 		May be null.
+	 * @return
+	 * 		The messages, or null if the token is unknown, already used or too old.
+	 */
+	public PageMessages take(String token) {
+		return take(token, System.currentTimeMillis());
+	}
+
+	/* default */ synchronized PageMessages take(String token, long nowMs) {
+		if (token == null) {
+			return null;
+		}
+
+		Stored found = stored.remove(token);
+		if (found == null || found.expiresMs <= nowMs) {
+			return null;
+		}
+
+		return found.messages;
+	}
+
+	public synchronized int size() {
+		return stored.size();
+	}
+
+}
@@ -0,0 +1,271 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A streaming parser for {@code application/x-www-form-urlencoded} request bodies.
+ *
+ * Small fields are decoded into {@link #getFields()}, just as {@link QuerySplit} would.  One field may be
+ * named for spooling:  while it's under the threshold it's kept in memory like any other field, but once it
+ * grows past it, the value is written to a temporary file in a {@link BlobStore} instead.
+ *
+ * The paste form escapes '%' in the browser before submitting, and {@link PasteBinService#pasteHandler(Map)}
+ * decodes the text a second time to undo that.  A spooled value never goes through pasteHandler, so the file
+ * holds the value decoded twice:  the final text.  Callers whose clients encode only once, like the JSON API, can
+ * ask for the spooled value to be decoded once, as its other fields are.
+ */
+public class FormBody {
+
+	/**
+	 * Fields that aren't spooled are small controls like checkboxes and IDs.
+	 */
+	private static final int MAX_FIELD_BYTES = 64 * 1024;
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final Map<String, List<String>> fields = new LinkedHashMap<>();
+	private Path spooledFile;
+	private long spooledLength = -1;
+
+	private FormBody() {
+		// Use parse().
+	}
+
+	/**
+	 * @return
+	 * 		The fields that were kept in memory, decoded once.
+	 */
+	public Map<String, List<String>> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return
+	 * 		The file holding the spooled field, or null if it fit in memory.  The caller owns the file.
+	 */
+	public Path getSpooledFile() {
+		return spooledFile;
+	}
+
+	/**
+	 * @return
+	 * 		The size of the spooled file in bytes, or -1.
+	 */
+	public long getSpooledLength() {
+		return spooledLength;
+	}
+
+	/**
+	 * Holds a value in memory until it passes the threshold, then moves it to a file.
+	 */
+	private static class Spool extends OutputStream {
+
+		private final int threshold;
+		private final BlobStore blobStore;
+		private final boolean decodeTwice;
+
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private Path file;
+		private OutputStream fileOut;
+
+		private Spool(int threshold, BlobStore blobStore, boolean decodeTwice) {
+			this.threshold = threshold;
+			this.blobStore = blobStore;
+			this.decodeTwice = decodeTwice;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (fileOut != null) {
+				fileOut.write(b);
+				return;
+			}
+
+			memory.write(b);
+			if (memory.size() > threshold) {
+				file = blobStore.createTempFile();
+				fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+				if (decodeTwice) {
+					fileOut = new PercentDecodingOutputStream(fileOut);
+				}
+				memory.writeTo(fileOut);
+				memory = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileOut != null) {
+				fileOut.close();
+			}
+		}
+
+		private void discard() throws IOException {
+			close();
+			if (file != null) {
+				Files.deleteIfExists(file);
+			}
+		}
+
+	}
+
+	/**
+	 * @param in
+	 * @param spoolField
+	 * 		The field that may be spooled to disk, or null.
+	 * @param spoolThreshold
+	 * 		The decoded size in bytes past which the field is spooled.
+	 * @param blobStore
+	 * 		Where to spool to.
+	 * @return
+	 * @throws IOException
+	 * 		If reading fails, or if a field other than the spooled one is too large.
+	 */
+	public static FormBody parse(InputStream in, String spoolField, int spoolThreshold, BlobStore blobStore) throws IOException {
+		return parse(in, spoolField, spoolThreshold, blobStore, true);
+	}
+
+	/**
+	 * @param in
+	 * @param spoolField
+	 * 		The field that may be spooled to disk, or null.
+	 * @param spoolThreshold
+	 * 		The decoded size in bytes past which the field is spooled.
+	 * @param blobStore
+	 * 		Where to spool to.
+	 * @param decodeTwice
+	 * 		True if the spooled file should hold the value decoded twice, as the paste form needs.  A value that
+	 * 		stays in memory is decoded once either way.
+	 * @return
+	 * @throws IOException
+	 * 		If reading fails, or if a field other than the spooled one is too large.
+	 */
+	public static FormBody parse(InputStream in, String spoolField, int spoolThreshold, BlobStore blobStore,
+			boolean decodeTwice) throws IOException {
+		FormBody formBody = new FormBody();
+
+		ByteArrayOutputStream key = new ByteArrayOutputStream();
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		Spool spool = null;
+		PercentDecodingOutputStream valueOut = null;
+
+		try {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			for (int count; (count = in.read(buffer)) >= 0; ) {
+				for (int i = 0; i < count; i++) {
+					byte b = buffer[i];
+					if (b == '&') {
+						formBody.endField(key, value, valueOut, spool);
+						key.reset();
+						value.reset();
+						valueOut = null;
+						spool = null;
+					}
+					else if (valueOut == null && b == '=') {
+						boolean spoolThis = spoolField != null && formBody.spooledFile == null
+							&& spoolField.equals(decode(key));
+						if (spoolThis) {
+							spool = new Spool(spoolThreshold, blobStore, decodeTwice);
+							valueOut = new PercentDecodingOutputStream(spool);
+						}
+						else {
+							valueOut = new PercentDecodingOutputStream(value);
+						}
+					}
+					else if (valueOut == null) {
+						key.write(b);
+						checkSize(key);
+					}
+					else {
+						valueOut.write(b);
+						if (spool == null) {
+							checkSize(value);
+						}
+					}
+				}
+			}
+
+			formBody.endField(key, value, valueOut, spool);
+		}
+		catch (IOException | RuntimeException e) {
+			if (spool != null) {
+				spool.discard();
+			}
+			if (formBody.spooledFile != null) {
+				Files.deleteIfExists(formBody.spooledFile);
+			}
+			throw e;
+		}
+
+		return formBody;
+	}
+
+	private void endField(ByteArrayOutputStream key, ByteArrayOutputStream value, PercentDecodingOutputStream valueOut,
+			Spool spool) throws IOException {
+		if (key.size() == 0 && valueOut == null) {
+			// An empty pair, as in "a=1&&b=2".
+			return;
+		}
+
+		String decodedValue;
+		if (spool != null) {
+			valueOut.finish();
+			spool.close();
+			if (spool.file != null) {
+				spooledFile = spool.file;
+				spooledLength = Files.size(spool.file);
+				return;
+			}
+
+			decodedValue = spool.memory.toString(StandardCharsets.UTF_8);
+		}
+		else {
+			if (valueOut != null) {
+				valueOut.finish();
+			}
+			decodedValue = value.toString(StandardCharsets.UTF_8);
+		}
+
+		fields.computeIfAbsent(decode(key), (k) -> new ArrayList<>()).add(decodedValue);
+	}
+
+	private static String decode(ByteArrayOutputStream raw) throws IOException {
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream(raw.size());
+		try (PercentDecodingOutputStream decoder = new PercentDecodingOutputStream(decoded)) {
+			raw.writeTo(decoder);
+		}
+		return decoded.toString(StandardCharsets.UTF_8);
+	}
+
+	private static void checkSize(ByteArrayOutputStream field) throws IOException {
+		if (field.size() > MAX_FIELD_BYTES) {
+			throw new IOException("A form field is larger than " + MAX_FIELD_BYTES + " bytes.");
+		}
+	}
+
+}
@@ -0,0 +1,508 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Searches every entry for a regular expression on the common fork-join pool, handing back matches as they're
+ * found.
+ *
+ * The search works on {@link EntrySnapshot}s, so the data lock is only held while they're taken.  The entries
+ * are split in halves until a range is at most {@link #LEAF_ENTRIES} long, so idle workers steal what's left of
+ * the larger ranges.  Like grep, text is matched a line at a time.  The stored HTML is turned back into the
+ * pasted text first, and a large paste is read from its blob file line by line rather than into memory.  A line
+ * longer than {@link #MAX_SEARCH_LINE_CHARS} is searched in pieces of that size, so a paste that's all one line
+ * isn't read into memory either, but a match across two pieces isn't found.  Attachments aren't searched.
+ *
+ * A search stops at its deadline, when it's closed, or once {@link #MAX_MATCHES} matches have been taken.  The
+ * matcher checks too while it reads a line, so a pattern that backtracks badly can't keep a worker busy past
+ * the deadline.
+ */
+public class Grep implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(Grep.class.getName());
+
+	/* default */ static final int MAX_MATCHES = 500;
+
+	/**
+	 * How many of an entry's matching lines are kept.  The rest are only counted.
+	 */
+	/* default */ static final int MAX_LINES_PER_MATCH = 5;
+
+	/**
+	 * Longer lines are cut down to this many characters around the match.
+	 */
+	/* default */ static final int MAX_LINE_CHARS = 300;
+
+	/**
+	 * Longer lines are searched in pieces of this many characters.
+	 */
+	/* default */ static final int MAX_SEARCH_LINE_CHARS = 64 * 1024;
+
+	private static final int LEAF_ENTRIES = 16;
+
+	/**
+	 * How many characters the matcher reads between checks for the deadline.
+	 */
+	private static final int CHECK_INTERVAL_CHARS = 4096;
+
+	private static final Object DONE = new Object();
+
+	/**
+	 * One entry with at least one matching line.
+	 */
+	public static final class Match {
+
+		private final EntrySnapshot entry;
+		private final List<String> lines;
+		private final int lineCount;
+
+		private Match(EntrySnapshot entry, List<String> lines, int lineCount) {
+			this.entry = entry;
+			this.lines = Collections.unmodifiableList(lines);
+			this.lineCount = lineCount;
+		}
+
+		public EntrySnapshot getEntry() {
+			return entry;
+		}
+
+		/**
+		 * @return
+		 * 		Up to {@link Grep#MAX_LINES_PER_MATCH} of the matching lines, as plain text.
+		 */
+		public List<String> getLines() {
+			return lines;
+		}
+
+		/**
+		 * @return
+		 * 		How many lines matched in all.
+		 */
+		public int getLineCount() {
+			return lineCount;
+		}
+
+	}
+
+	/**
+	 * Thrown from inside the matcher to abandon a line.
+	 */
+	private static final class StoppedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private StoppedException() {
+			super(null, null, false, false);
+		}
+
+	}
+
+	private static final StoppedException STOPPED = new StoppedException();
+
+	private final List<EntrySnapshot> entries;
+	private final Pattern pattern;
+	private final BlobStore blobStore;
+	private final long deadlineNanos;
+
+	private final AtomicBoolean stopped = new AtomicBoolean();
+	private final AtomicInteger searchedCount = new AtomicInteger();
+	private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+	private int matchCount;
+	private boolean finished;
+
+	/**
+	 * @param entries
+	 * 		In the order they should be searched.
+	 * @param pattern
+	 * @param blobStore
+	 * 		Where the whole text of large pastes is, or null if there are none.
+	 * @param budgetMs
+	 * 		How long the search may take, from now.
+	 */
+	public Grep(List<EntrySnapshot> entries, Pattern pattern, BlobStore blobStore, long budgetMs) {
+		this.entries = entries;
+		this.pattern = pattern;
+		this.blobStore = blobStore;
+		this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+	}
+
+	public void start() {
+		ForkJoinPool.commonPool().execute(() -> {
+			try {
+				new SearchTask(0, entries.size()).invoke();
+			}
+			catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Error searching for " + pattern + ".", e);
+			}
+			finally {
+				results.add(DONE);
+			}
+		});
+	}
+
+	/**
+	 * Wait for the next match.
+	 *
+	 * @return
+	 * 		The next match, or null once the search is over.
+	 * @throws InterruptedException
+	 */
+	public Match next() throws InterruptedException {
+		if (finished) {
+			return null;
+		}
+
+		if (matchCount >= MAX_MATCHES) {
+			finish();
+			return null;
+		}
+
+		long remainingNanos = deadlineNanos - System.nanoTime();
+		Object result = remainingNanos > 0 ? results.poll(remainingNanos, TimeUnit.NANOSECONDS) : results.poll();
+		if (result == null || result == DONE) {
+			finish();
+			return null;
+		}
+
+		matchCount++;
+		return (Match) result;
+	}
+
+	private void finish() {
+		finished = true;
+		stopped.set(true);
+	}
+
+	/**
+	 * Stop the search, for example because the client went away.
+	 */
+	@Override
+	public void close() {
+		stopped.set(true);
+	}
+
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return
+	 * 		How many entries were searched to the end.  Less than {@link #getEntryCount()} if the search was
+	 * 		stopped.
+	 */
+	public int getSearchedCount() {
+		return searchedCount.get();
+	}
+
+	/**
+	 * @return
+	 * 		How many matches {@link #next()} has returned.
+	 */
+	public int getMatchCount() {
+		return matchCount;
+	}
+
+	/**
+	 * @return
+	 * 		True if the search stopped because it reached {@link #MAX_MATCHES}.
+	 */
+	public boolean isLimited() {
+		return matchCount >= MAX_MATCHES;
+	}
+
+	private boolean shouldStop() {
+		if (stopped.get()) {
+			return true;
+		}
+
+		if (System.nanoTime() - deadlineNanos >= 0) {
+			stopped.set(true);
+			return true;
+		}
+
+		return false;
+	}
+
+	private final class SearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		private SearchTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > LEAF_ENTRIES) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SearchTask(from, middle), new SearchTask(middle, to));
+				return;
+			}
+
+			Matcher matcher = pattern.matcher("");
+			for (int i = from; i < to && !shouldStop(); i++) {
+				search(entries.get(i), matcher);
+			}
+		}
+
+	}
+
+	private void search(EntrySnapshot entry, Matcher matcher) {
+		if (entry.getAttachmentName() != null) {
+			searchedCount.incrementAndGet();
+			return;
+		}
+
+		List<String> lines = new ArrayList<>();
+		int lineCount = 0;
+		try (LineReader reader = new LineReader(open(entry), MAX_SEARCH_LINE_CHARS)) {
+			for (String line; (line = reader.readLine()) != null; ) {
+				if (shouldStop()) {
+					return;
+				}
+
+				matcher.reset(new CheckedLine(line));
+				if (matcher.find()) {
+					lineCount++;
+					if (lines.size() < MAX_LINES_PER_MATCH) {
+						lines.add(excerpt(line, matcher.start()));
+					}
+				}
+			}
+		}
+		catch (StoppedException e) {
+			return;
+		}
+		catch (NoSuchFileException e) {
+			// The entry was removed after the snapshot.
+			return;
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.FINE, "Error searching " + entry.getUuid() + ".", e);
+			return;
+		}
+
+		searchedCount.incrementAndGet();
+		if (lineCount > 0) {
+			results.add(new Match(entry, lines, lineCount));
+		}
+	}
+
+	private Reader open(EntrySnapshot entry) throws IOException {
+		if (entry.isBlob() && blobStore != null) {
+			// Unlike Files.newBufferedReader(), this replaces bytes that aren't UTF-8 instead of failing.
+			return new InputStreamReader(Files.newInputStream(blobStore.pathFor(entry.getUuid())), StandardCharsets.UTF_8);
+		}
+
+		return new StringReader(plainText(entry.getText()));
+	}
+
+	/**
+	 * @param html
+	 * 		An entry's text, as made by {@link PasteBinService#pasteHandler(java.util.Map)}.
+	 * @return
+	 * 		The text that was pasted.
+	 */
+	/* default */ static String plainText(String html) {
+		if (html == null) {
+			return "";
+		}
+
+		if (html.startsWith("<pre>") && html.endsWith("</pre>")) {
+			html = html.substring("<pre>".length(), html.length() - "</pre>".length());
+		}
+
+		return StringEscapeUtils.unescapeHtml4(html);
+	}
+
+	/**
+	 * @param line
+	 * @param matchStart
+	 * @return
+	 * 		The line, or the part of it around the match if it's longer than {@link #MAX_LINE_CHARS}.
+	 */
+	/* default */ static String excerpt(String line, int matchStart) {
+		if (line.length() <= MAX_LINE_CHARS) {
+			return line;
+		}
+
+		int start = Math.max(0, Math.min(matchStart - MAX_LINE_CHARS / 4, line.length() - MAX_LINE_CHARS));
+		int end = start + MAX_LINE_CHARS;
+		return (start > 0 ? "..." : "") + line.substring(start, end) + (end < line.length() ? "..." : "");
+	}
+
+	/**
+	 * Reads lines like {@link java.io.BufferedReader#readLine()}, but hands a line longer than the limit back in
+	 * pieces, so one long line is never held in memory all at once.
+	 */
+	/* default */ static final class LineReader implements Closeable {
+
+		private final Reader reader;
+		private final int maxChars;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+
+		/**
+		 * Set after a '\r', so that a '\n' right after it doesn't end another, empty line.
+		 */
+		private boolean skipLineFeed;
+
+		/**
+		 * Set after handing back a piece of a long line, so that the line's end doesn't count as an empty line.
+		 */
+		private boolean inLongLine;
+
+		/* default */ LineReader(Reader reader, int maxChars) {
+			this.reader = reader;
+			this.maxChars = maxChars;
+		}
+
+		/**
+		 * @return
+		 * 		The next line or piece of a line, without its line terminator, or null at the end.
+		 * @throws IOException
+		 */
+		/* default */ String readLine() throws IOException {
+			StringBuilder line = new StringBuilder();
+			boolean started = false;
+			while (true) {
+				if (position == limit && !fill()) {
+					return started ? line.toString() : null;
+				}
+
+				char next = buffer[position];
+				if (skipLineFeed) {
+					skipLineFeed = false;
+					if (next == '\n') {
+						position++;
+						continue;
+					}
+				}
+				if (inLongLine) {
+					inLongLine = false;
+					if (next == '\n' || next == '\r') {
+						skipLineFeed = next == '\r';
+						position++;
+						continue;
+					}
+				}
+
+				started = true;
+				int start = position;
+				int stop = Math.min(limit, position + maxChars - line.length());
+				while (position < stop && buffer[position] != '\n' && buffer[position] != '\r') {
+					position++;
+				}
+				line.append(buffer, start, position - start);
+
+				if (position < stop) {
+					skipLineFeed = buffer[position] == '\r';
+					position++;
+					return line.toString();
+				}
+				if (line.length() == maxChars) {
+					inLongLine = true;
+					return line.toString();
+				}
+			}
+		}
+
+		private boolean fill() throws IOException {
+			position = 0;
+			limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+			return limit > 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+
+	}
+
+	/**
+	 * A line that gives up reading when the search is stopped.
+	 */
+	private final class CheckedLine implements CharSequence {
+
+		private final String line;
+		private int reads;
+
+		private CheckedLine(String line) {
+			this.line = line;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (++reads == CHECK_INTERVAL_CHARS) {
+				reads = 0;
+				if (shouldStop()) {
+					throw STOPPED;
+				}
+			}
+
+			return line.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return line.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return line.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return line;
+		}
+
+	}
+
+}
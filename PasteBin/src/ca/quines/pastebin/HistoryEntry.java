@@ -18,68 +18,373 @@ package ca.quines.pastebin;
 import java.time.Instant;
 
 import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * Represents a single paste entry which could be active, pinned, or deleted.
  * 
  * We use "TS" or "timestamp" for fields and methods to leave it open to change the date/time implementation
  * without changing the fields and methods again.
+ *
+ * The UUID and timestamps are kept as primitives rather than objects, since the deleted list can hold tens of
+ * thousands of entries.  The {@link UUID} and {@link Instant} getters make a new object on each call, so code
+ * that looks entries up or orders them uses {@link #hasUuid(UUID)} and the millisecond getters instead.
  */
 public class HistoryEntry {
 
-	private Instant createTs;
-	private Instant deletedTs;
-	private UUID uuid;
+	/**
+	 * Stands for a missing timestamp in the millisecond fields.
+	 */
+	/* default */ static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	private long createMs;
+	private long deletedMs = NO_TIMESTAMP;
+
+	/**
+	 * When the entry is removed for good, or {@link #NO_TIMESTAMP} if it's kept until it's pushed out.
+	 */
+	private long expiresMs = NO_TIMESTAMP;
+	private long uuidMsb;
+	private long uuidLsb;
 	private String text;
 	private String shortUrl;
 
+	/**
+	 * When set, the text hasn't been read yet.  It's decoded on the first call to {@link #getText()} and
+	 * then cleared.
+	 */
+	private volatile Supplier<String> lazyText;
+
+	/**
+	 * The size of the whole paste when it's kept in a {@link BlobStore}, or -1.  The text is then just a preview.
+	 */
+	private long blobLength = -1;
+
+	/**
+	 * Set when the blob is an uploaded file rather than text.
+	 */
+	private String attachmentName;
+	private String attachmentContentType;
+
+	/**
+	 * When set, {@link #text} is a {@link TextDelta} against this entry's text rather than the text itself.
+	 */
+	private HistoryEntry deltaBase;
+
+	/**
+	 * The UTF-8 size of the stored text, or -1 until it's first asked for.  See {@link #getTextBytes()}.
+	 */
+	private long textBytes = -1;
+
 	public HistoryEntry(String text) {
 		this(text, Instant.now());
 	}
 
 	public HistoryEntry(String text, Instant createInstant) {
-		this.text = text;
-		this.createTs = createInstant;
-		this.uuid = UUID.randomUUID();
+		this(text, createInstant, null, UUID.randomUUID());
 	}
 
 	public HistoryEntry(String text, Instant createInstant, Instant deletedInstant, UUID uuid) {
-		this.text = text;
-		this.createTs = createInstant;
-		this.deletedTs = deletedInstant;
-		this.uuid = uuid;
+		this(text, createInstant, deletedInstant, uuid, null);
 	}
 
 	public HistoryEntry(String text, Instant createInstant, Instant deletedInstant, UUID uuid, String shortUrl) {
 		this.text = text;
-		this.createTs = createInstant;
-		this.deletedTs = deletedInstant;
-		this.uuid = uuid;
+		this.createMs = toMillis(createInstant);
+		this.deletedMs = toMillis(deletedInstant);
+		setUuid(uuid);
 		this.shortUrl = shortUrl;
 	}
 
+	/**
+	 * Create an entry whose text is only produced when it's first needed.
+	 *
+	 * @param lazyText
+	 * @param createInstant
+	 * @param deletedInstant
+	 * @param uuid
+	 * @param shortUrl
+	 */
+	public HistoryEntry(Supplier<String> lazyText, Instant createInstant, Instant deletedInstant, UUID uuid, String shortUrl) {
+		this.lazyText = lazyText;
+		this.createMs = toMillis(createInstant);
+		this.deletedMs = toMillis(deletedInstant);
+		setUuid(uuid);
+		this.shortUrl = shortUrl;
+	}
+
+	private static long toMillis(Instant instant) {
+		return instant == null ? NO_TIMESTAMP : instant.toEpochMilli();
+	}
+
+	private static Instant toInstant(long millis) {
+		return millis == NO_TIMESTAMP ? null : Instant.ofEpochMilli(millis);
+	}
+
 	public Instant getCreateTs() {
-		return createTs;
+		return toInstant(createMs);
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch, or {@link #NO_TIMESTAMP}.
+	 */
+	public long getCreateMs() {
+		return createMs;
 	}
 
+	/**
+	 * @return
+	 * 		The text, rebuilt from the base entry if it's stored as a delta.
+	 */
 	public String getText() {
+		String storedText = getStoredText();
+		if (deltaBase != null) {
+			return TextDelta.apply(deltaBase.getText(), storedText);
+		}
+
+		return storedText;
+	}
+
+	/**
+	 * @return
+	 * 		The text as kept in memory:  a delta if {@link #getDeltaBase()} isn't null.
+	 */
+	public String getStoredText() {
+		if (lazyText != null) {
+			synchronized(this) {
+				Supplier<String> supplier = lazyText;
+				if (supplier != null) {
+					text = supplier.get();
+
+					// Clearing the volatile field publishes the text to other threads.
+					lazyText = null;
+				}
+			}
+		}
+
 		return text;
 	}
 
+	/**
+	 * @return
+	 * 		The stored text as it is now, to be read later without the data lock.  Text that hasn't been read yet
+	 * 		stays unread until the supplier is called.
+	 */
+	public Supplier<String> getStoredTextSupplier() {
+		synchronized(this) {
+			Supplier<String> supplier = lazyText;
+			if (supplier != null) {
+				return supplier;
+			}
+
+			String current = text;
+			return () -> current;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		True if the text has been read into memory.
+	 */
+	public boolean isTextLoaded() {
+		return lazyText == null;
+	}
+
 	public void setDeletedTs(Instant deletedDate) {
-		this.deletedTs = deletedDate;
+		this.deletedMs = toMillis(deletedDate);
 	}
 
 	public Instant getDeletedTs() {
-		return deletedTs;
+		return toInstant(deletedMs);
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch, or {@link #NO_TIMESTAMP} if the entry isn't deleted.
+	 */
+	public long getDeletedMs() {
+		return deletedMs;
+	}
+
+	public void setExpiresTs(Instant expiresTs) {
+		this.expiresMs = toMillis(expiresTs);
+	}
+
+	public Instant getExpiresTs() {
+		return toInstant(expiresMs);
+	}
+
+	/**
+	 * @return
+	 * 		Milliseconds since the epoch, or {@link #NO_TIMESTAMP} if the entry doesn't expire.
+	 */
+	public long getExpiresMs() {
+		return expiresMs;
 	}
 
 	public void setUuid(UUID uuid) {
-		this.uuid = uuid;
+		this.uuidMsb = uuid.getMostSignificantBits();
+		this.uuidLsb = uuid.getLeastSignificantBits();
 	}
 
 	public UUID getUuid() {
-		return uuid;
+		return new UUID(uuidMsb, uuidLsb);
+	}
+
+	public long getUuidMostSignificantBits() {
+		return uuidMsb;
+	}
+
+	public long getUuidLeastSignificantBits() {
+		return uuidLsb;
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		True if this is the entry with the given UUID.  Unlike {@code getUuid().equals(uuid)}, this doesn't
+	 * 		make a new object.
+	 */
+	public boolean hasUuid(UUID uuid) {
+		return uuidMsb == uuid.getMostSignificantBits() && uuidLsb == uuid.getLeastSignificantBits();
+	}
+
+	public boolean isBlob() {
+		return blobLength >= 0;
+	}
+
+	public long getBlobLength() {
+		return blobLength;
+	}
+
+	public void setBlobLength(long blobLength) {
+		this.blobLength = blobLength;
+	}
+
+	public boolean isAttachment() {
+		return attachmentName != null;
+	}
+
+	public String getAttachmentName() {
+		return attachmentName;
+	}
+
+	public String getAttachmentContentType() {
+		return attachmentContentType;
+	}
+
+	public void setAttachment(String attachmentName, String attachmentContentType) {
+		this.attachmentName = attachmentName;
+		this.attachmentContentType = attachmentContentType;
+	}
+
+	public HistoryEntry getDeltaBase() {
+		return deltaBase;
+	}
+
+	/**
+	 * @return
+	 * 		How many deltas have to be applied to rebuild the text.  Zero for an entry that holds its own text.
+	 */
+	public int getDeltaDepth() {
+		int depth = 0;
+		for (HistoryEntry entry = deltaBase; entry != null; entry = entry.deltaBase) {
+			depth++;
+		}
+
+		return depth;
+	}
+
+	/**
+	 * Keep the text as a delta against another entry.
+	 *
+	 * @param deltaBase
+	 * @param delta
+	 * 		From {@link TextDelta#encode(String, String)}, against the base entry's text.
+	 */
+	public void setDelta(HistoryEntry deltaBase, String delta) {
+		synchronized(this) {
+			this.lazyText = null;
+			this.text = delta;
+			this.deltaBase = deltaBase;
+			this.textBytes = -1;
+		}
+	}
+
+	/**
+	 * Link an entry whose stored text is already a delta, such as one just loaded, to its base.
+	 *
+	 * @param deltaBase
+	 */
+	public void setDeltaBase(HistoryEntry deltaBase) {
+		this.deltaBase = deltaBase;
+	}
+
+	/**
+	 * Go back to holding the whole text, for when the base entry is going away.
+	 */
+	public void materialize() {
+		if (deltaBase != null) {
+			String fullText = getText();
+			synchronized(this) {
+				this.text = fullText;
+				this.deltaBase = null;
+				this.textBytes = -1;
+			}
+		}
+	}
+
+	/**
+	 * The size of the stored text in UTF-8:  the delta for an entry stored as one, and the preview for a blob.
+	 * This is what the byte budgets count.
+	 *
+	 * It's worked out once and then kept, so it stays the same while the entry is in a list, until the stored
+	 * text is replaced by {@link #setDelta(HistoryEntry, String)} or {@link #materialize()}.  For text that
+	 * hasn't been read yet, the estimate from {@link #setTextBytes(long)} is used instead of reading it.
+	 *
+	 * @return
+	 */
+	public long getTextBytes() {
+		if (textBytes < 0) {
+			textBytes = utf8Length(getStoredText());
+		}
+
+		return textBytes;
+	}
+
+	/**
+	 * @param textBytes
+	 * 		An estimate of {@link #getTextBytes()} for text that hasn't been read yet.
+	 */
+	public void setTextBytes(long textBytes) {
+		this.textBytes = textBytes;
+	}
+
+	/* default */ static long utf8Length(String text) {
+		if (text == null) {
+			return 0;
+		}
+
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else {
+				length += 3;
+			}
+		}
+
+		return length;
 	}
 
 	public void setShortUrl(String shortUrl) {
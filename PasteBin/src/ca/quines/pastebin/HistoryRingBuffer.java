@@ -0,0 +1,328 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * A bounded deque of entries, newest first, backed by a circular array.
+ *
+ * Adding to the front and evicting from the back are O(1), which is the only pattern the active list needs.
+ * When an add pushes the size over the limit, or the total {@link HistoryEntry#getTextBytes()} over the byte
+ * limit, the oldest entries are handed to the eviction listener.  The newest entry is never evicted for bytes.
+ *
+ * This class is not thread safe.  The service guards it with its data lock.
+ */
+public class HistoryRingBuffer implements Iterable<HistoryEntry> {
+
+	private HistoryEntry[] elements;
+
+	/**
+	 * The index of the newest (first) entry.
+	 */
+	private int head;
+	private int size;
+	private int limit;
+
+	private long byteLimit = Long.MAX_VALUE;
+	private long textBytes;
+
+	/**
+	 * Incremented on every structural change so iterators can detect concurrent modification.
+	 */
+	private int modCount;
+
+	private final Consumer<HistoryEntry> evictionListener;
+
+	/**
+	 * @param limit
+	 * 		The maximum number of entries to keep.  Must be at least 1.
+	 * @param evictionListener
+	 * 		Receives each entry that falls off the end of the buffer, oldest first.
+	 */
+	public HistoryRingBuffer(int limit, Consumer<HistoryEntry> evictionListener) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The limit must be at least 1, not " + limit + ".");
+		}
+
+		this.limit = limit;
+		this.evictionListener = evictionListener;
+		this.elements = new HistoryEntry[Math.min(limit, 16)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Change the limit.  If the buffer currently holds more entries than the new limit, the excess is
+	 * evicted immediately.
+	 *
+	 * @param limit
+	 */
+	public void setLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The limit must be at least 1, not " + limit + ".");
+		}
+
+		this.limit = limit;
+		evictOverLimit();
+	}
+
+	public long getByteLimit() {
+		return byteLimit;
+	}
+
+	/**
+	 * Change the byte limit, evicting the oldest entries immediately if the buffer is now over it.
+	 *
+	 * @param byteLimit
+	 */
+	public void setByteLimit(long byteLimit) {
+		if (byteLimit < 1) {
+			throw new IllegalArgumentException("The byte limit must be at least 1, not " + byteLimit + ".");
+		}
+
+		this.byteLimit = byteLimit;
+		evictOverLimit();
+	}
+
+	/**
+	 * @return
+	 * 		The total {@link HistoryEntry#getTextBytes()} of the entries.
+	 */
+	public long getTextBytes() {
+		return textBytes;
+	}
+
+	/**
+	 * Account for an entry whose stored text changed size while in the buffer.  Nothing is evicted until the
+	 * next add, so this is safe while iterating.
+	 *
+	 * @param delta
+	 */
+	public void adjustTextBytes(long delta) {
+		textBytes += delta;
+	}
+
+	/**
+	 * Add an entry as the newest one, evicting the oldest entries if the limit is exceeded.
+	 *
+	 * @param entry
+	 */
+	public void addFirst(HistoryEntry entry) {
+		ensureCapacity(size + 1);
+		head = (head - 1 + elements.length) % elements.length;
+		elements[head] = entry;
+		size++;
+		modCount++;
+		textBytes += entry.getTextBytes();
+
+		evictOverLimit();
+	}
+
+	/**
+	 * Add an entry as the oldest one.  Used while loading, where entries arrive newest first.  This does not
+	 * evict anything, so a save file written with a larger limit keeps its entries until the next add.
+	 *
+	 * @param entry
+	 */
+	public void addLast(HistoryEntry entry) {
+		ensureCapacity(size + 1);
+		elements[physicalIndex(size)] = entry;
+		size++;
+		modCount++;
+		textBytes += entry.getTextBytes();
+	}
+
+	/**
+	 * @param index
+	 * 		Zero is the newest entry.
+	 * @return
+	 */
+	public HistoryEntry get(int index) {
+		checkIndex(index);
+		return elements[physicalIndex(index)];
+	}
+
+	/**
+	 * Remove and return the oldest entry, or null if the buffer is empty.
+	 *
+	 * @return
+	 */
+	public HistoryEntry removeLast() {
+		if (size == 0) {
+			return null;
+		}
+
+		int tail = physicalIndex(size - 1);
+		HistoryEntry entry = elements[tail];
+		elements[tail] = null;
+		size--;
+		modCount++;
+		textBytes -= entry.getTextBytes();
+
+		return entry;
+	}
+
+	/**
+	 * Remove the entry with the given UUID.  This is a linear search, but removal itself only shifts the
+	 * shorter side of the buffer.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		The removed entry, or null if there was no match.
+	 */
+	public HistoryEntry remove(UUID uuid) {
+		for (int i = 0; i < size; i++) {
+			HistoryEntry entry = elements[physicalIndex(i)];
+			if (entry.hasUuid(uuid)) {
+				removeAt(i);
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Find the entry with the given UUID without removing it.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		The entry, or null if there was no match.
+	 */
+	public HistoryEntry find(UUID uuid) {
+		for (int i = 0; i < size; i++) {
+			HistoryEntry entry = elements[physicalIndex(i)];
+			if (entry.hasUuid(uuid)) {
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			elements[physicalIndex(i)] = null;
+		}
+
+		head = 0;
+		size = 0;
+		modCount++;
+		textBytes = 0;
+	}
+
+	/**
+	 * Iterates from newest to oldest.
+	 */
+	@Override
+	public Iterator<HistoryEntry> iterator() {
+		return new Iterator<HistoryEntry>() {
+			private int index = 0;
+			private final int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public HistoryEntry next() {
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+
+				return elements[physicalIndex(index++)];
+			}
+		};
+	}
+
+	private void removeAt(int index) {
+		textBytes -= elements[physicalIndex(index)].getTextBytes();
+		if (index < size / 2) {
+			// Closer to the front:  shift the earlier entries back by one.
+			for (int i = index; i > 0; i--) {
+				elements[physicalIndex(i)] = elements[physicalIndex(i - 1)];
+			}
+
+			elements[head] = null;
+			head = (head + 1) % elements.length;
+		}
+		else {
+			// Closer to the back:  shift the later entries forward by one.
+			for (int i = index; i < size - 1; i++) {
+				elements[physicalIndex(i)] = elements[physicalIndex(i + 1)];
+			}
+
+			elements[physicalIndex(size - 1)] = null;
+		}
+
+		size--;
+		modCount++;
+	}
+
+	private void evictOverLimit() {
+		while (size > limit || (textBytes > byteLimit && size > 1)) {
+			HistoryEntry evicted = removeLast();
+			if (evictionListener != null) {
+				evictionListener.accept(evicted);
+			}
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if (required <= elements.length) {
+			return;
+		}
+
+		HistoryEntry[] grown = new HistoryEntry[Math.max(required, elements.length * 2)];
+		for (int i = 0; i < size; i++) {
+			grown[i] = elements[physicalIndex(i)];
+		}
+
+		elements = grown;
+		head = 0;
+	}
+
+	private int physicalIndex(int logicalIndex) {
+		return (head + logicalIndex) % elements.length;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size + ".");
+		}
+	}
+
+}
@@ -0,0 +1,378 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A JSON API for scripts, under {@code /api/} and {@code /b/<name>/api/}.
+ *
+ * <ul>
+ * <li>{@code GET /api/entries?list=active&offset=0&limit=50} lists one page of a list:  active, pinned or deleted.
+ * <li>{@code POST /api/entries} with "text" and optionally "preformatted" and "ttl" (seconds) creates an entry.  Text
+ * larger than the blob threshold is streamed to disk, like a large paste from the page.
+ * <li>{@code GET /api/entries/<id>} gets one entry from any list.
+ * <li>{@code POST /api/entries/<id>/pin}, {@code .../delete}, {@code .../undelete} and {@code .../shortUrl} with
+ * "shortUrl" change one entry.
+ * </ul>
+ *
+ * Mutations answer with just the affected entry rather than the whole page.  Entries are copied while the
+ * service's lock is held, and written straight to the response with a {@link JsonWriter} after it's released,
+ * so a slow client never holds up other requests.  Errors are {@code {"error": "..."}} with a 4xx status.
+ */
+public class JsonApi {
+
+	private static final Logger LOGGER = Logger.getLogger(JsonApi.class.getName());
+
+	/* default */ static final String API_PATH = "/api";
+	private static final String ENTRIES_PATH = API_PATH + "/entries";
+
+	/* default */ static final int DEFAULT_LIMIT = 50;
+	/* default */ static final int MAX_LIMIT = 500;
+
+	/**
+	 * Writes the body of a response.
+	 */
+	private interface JsonBody {
+
+		public void write(JsonWriter json) throws IOException;
+
+	}
+
+	private final QuerySplit querySplit = new QuerySplit();
+
+	/**
+	 * Text larger than this many bytes is spooled to disk.
+	 */
+	private final int blobThreshold;
+
+	/**
+	 * @param blobThreshold
+	 * 		Text larger than this many bytes is spooled to disk.
+	 */
+	public JsonApi(int blobThreshold) {
+		this.blobThreshold = blobThreshold;
+	}
+
+	/**
+	 * @param he
+	 * @param service
+	 * @param path
+	 * 		The request path relative to the service, starting with {@link #API_PATH}.
+	 */
+	public void handle(HttpExchange he, PasteBinService service, String path) {
+		Path spooledFile = null;
+		try {
+			boolean post = "POST".equals(he.getRequestMethod());
+			Map<String, List<String>> params;
+			if (post) {
+				// Stream the body, so that large text goes straight to disk.  API clients encode the text once.
+				FormBody formBody;
+				try {
+					formBody = FormBody.parse(he.getRequestBody(), "text", blobThreshold, service.getBlobStore(), false);
+				}
+				catch (IOException e) {
+					sendError(he, 400, e.getMessage());
+					return;
+				}
+				params = formBody.getFields();
+				spooledFile = formBody.getSpooledFile();
+			}
+			else {
+				params = querySplit.splitQuery(he.getRequestURI().getRawQuery());
+				he.getRequestBody().close();
+			}
+
+			if (!path.equals(ENTRIES_PATH) && !path.startsWith(ENTRIES_PATH + "/")) {
+				sendError(he, 404, "No such API.");
+				return;
+			}
+
+			String rest = path.substring(ENTRIES_PATH.length());
+			if (rest.isEmpty() || rest.equals("/")) {
+				if (post) {
+					create(he, service, params, spooledFile);
+				}
+				else {
+					list(he, service, params);
+				}
+				return;
+			}
+
+			int slash = rest.indexOf('/', 1);
+			UUID uuid;
+			try {
+				uuid = UUID.fromString(slash < 0 ? rest.substring(1) : rest.substring(1, slash));
+			}
+			catch (IllegalArgumentException e) {
+				sendError(he, 404, "No such entry.");
+				return;
+			}
+
+			if (slash < 0) {
+				if (post) {
+					sendMethodNotAllowed(he, "GET");
+					return;
+				}
+
+				ChangeRecord record = service.apiGet(uuid);
+				if (record == null) {
+					sendError(he, 404, "No such entry.");
+				}
+				else {
+					sendJson(he, 200, (json) -> writeEntry(json, record));
+				}
+				return;
+			}
+
+			String action = rest.substring(slash + 1);
+			if (!post) {
+				sendMethodNotAllowed(he, "POST");
+				return;
+			}
+
+			ChangeRecord record;
+			switch (action) {
+				case "pin":
+					record = service.apiPin(uuid);
+					break;
+
+				case "delete":
+					record = service.apiDelete(uuid);
+					break;
+
+				case "undelete":
+					record = service.apiUndelete(uuid);
+					break;
+
+				case "shortUrl": {
+					String shortUrl = firstValue(params, "shortUrl");
+					if (shortUrl == null) {
+						sendError(he, 400, "Expected a \"shortUrl\" parameter.  Send an empty one to clear it.");
+						return;
+					}
+					record = service.apiSetShortUrl(uuid, shortUrl);
+					break;
+				}
+
+				default:
+					sendError(he, 404, "No such action:  " + action + ".");
+					return;
+			}
+
+			if (record != null) {
+				sendJson(he, 200, (json) -> writeEntry(json, record));
+				return;
+			}
+
+			ChangeRecord current = service.apiGet(uuid);
+			if (current == null) {
+				sendError(he, 404, "No such entry.");
+			}
+			else if (action.equals("pin") && current.getOp() == ChangeRecord.Op.ACTIVE) {
+				sendError(he, 409, PasteBinService.PINNED_BUDGET_MESSAGE);
+			}
+			else {
+				sendError(he, 409, "The entry isn't in a list that allows " + action + ".");
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		finally {
+			// Only left behind if the text wasn't used, e.g. on another path or with a bad TTL.
+			if (spooledFile != null) {
+				try {
+					Files.deleteIfExists(spooledFile);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void list(HttpExchange he, PasteBinService service, Map<String, List<String>> params) throws IOException {
+		String listName = firstValue(params, "list");
+		ChangeRecord.Op list = listName == null ? ChangeRecord.Op.ACTIVE : parseList(listName);
+		if (list == null) {
+			sendError(he, 400, "The list must be active, pinned or deleted.");
+			return;
+		}
+
+		int offset;
+		int limit;
+		try {
+			String offsetValue = firstValue(params, "offset");
+			String limitValue = firstValue(params, "limit");
+			offset = offsetValue == null ? 0 : Integer.parseInt(offsetValue);
+			limit = limitValue == null ? DEFAULT_LIMIT : Integer.parseInt(limitValue);
+		}
+		catch (NumberFormatException e) {
+			sendError(he, 400, "The offset and limit must be numbers.");
+			return;
+		}
+
+		if (offset < 0 || limit < 1 || limit > MAX_LIMIT) {
+			sendError(he, 400, "The offset can't be negative, and the limit must be from 1 to " + MAX_LIMIT + ".");
+			return;
+		}
+
+		List<ChangeRecord> page = new ArrayList<>(Math.min(limit, DEFAULT_LIMIT));
+		int total = service.apiList(list, offset, limit, page);
+
+		sendJson(he, 200, (json) -> {
+			json.beginObject();
+			json.name("list").value(listName(list));
+			json.name("offset").value(offset);
+			json.name("limit").value(limit);
+			json.name("total").value(total);
+			json.name("entries").beginArray();
+			for (ChangeRecord record : page) {
+				writeEntry(json, record);
+			}
+			json.endArray();
+			json.endObject();
+		});
+	}
+
+	/**
+	 * @param he
+	 * @param service
+	 * @param params
+	 * @param spooledFile
+	 * 		The text, if it was too large for params, otherwise null.
+	 * @throws IOException
+	 */
+	private void create(HttpExchange he, PasteBinService service, Map<String, List<String>> params, Path spooledFile)
+			throws IOException {
+		String text = firstValue(params, "text");
+		if (spooledFile == null && (text == null || text.isEmpty())) {
+			sendError(he, 400, "Expected a non-empty \"text\" parameter.");
+			return;
+		}
+
+		Duration ttl;
+		try {
+			ttl = PasteBinService.parseTtl(firstValue(params, "ttl"));
+		}
+		catch (IllegalArgumentException e) {
+			sendError(he, 400, e.getMessage());
+			return;
+		}
+
+		boolean preformatted = params.containsKey("preformatted");
+		ChangeRecord record = spooledFile == null ? service.apiCreate(text, preformatted, ttl)
+			: service.apiCreateBlob(spooledFile, preformatted, ttl);
+		LOGGER.fine("Created " + record.getUuid() + " through the API.");
+		sendJson(he, 201, (json) -> writeEntry(json, record));
+	}
+
+	/**
+	 * The text is the HTML shown on the page, since that's how entries are stored.
+	 */
+	private void writeEntry(JsonWriter json, ChangeRecord record) throws IOException {
+		json.beginObject();
+		json.name("id").value(record.getUuid().toString());
+		json.name("list").value(listName(record.getOp()));
+		json.name("created").value(Instant.ofEpochMilli(record.getCreateMs()).toString());
+		Long deletedMs = record.getDeletedMs();
+		json.name("deleted").value(deletedMs == null ? null : Instant.ofEpochMilli(deletedMs).toString());
+		Long expiresMs = record.getExpiresMs();
+		json.name("expires").value(expiresMs == null ? null : Instant.ofEpochMilli(expiresMs).toString());
+		String shortUrl = record.getShortUrl();
+		json.name("shortUrl").value(shortUrl == null || shortUrl.isEmpty() ? null : shortUrl);
+		json.name("html").value(record.getText());
+		json.endObject();
+	}
+
+	/**
+	 * An entry that was deleted and then dropped for good, because it didn't fit the deleted list's byte budget,
+	 * is in the "removed" list.
+	 */
+	private String listName(ChangeRecord.Op list) {
+		if (list == ChangeRecord.Op.REMOVE) {
+			return "removed";
+		}
+
+		return list.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @param name
+	 * @return
+	 * 		The operation that stands for the list, or null if it isn't one.
+	 */
+	/* default */ static ChangeRecord.Op parseList(String name) {
+		switch (name) {
+			case "active":
+				return ChangeRecord.Op.ACTIVE;
+			case "pinned":
+				return ChangeRecord.Op.PINNED;
+			case "deleted":
+				return ChangeRecord.Op.DELETED;
+			default:
+				return null;
+		}
+	}
+
+	private String firstValue(Map<String, List<String>> params, String key) {
+		List<String> values = params.get(key);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	private void sendMethodNotAllowed(HttpExchange he, String allowed) throws IOException {
+		he.getResponseHeaders().set("Allow", allowed);
+		sendError(he, 405, "Use " + allowed + ".");
+	}
+
+	private void sendError(HttpExchange he, int status, String message) throws IOException {
+		sendJson(he, status, (json) -> json.beginObject().name("error").value(message).endObject());
+	}
+
+	/**
+	 * Send the headers, then stream the body.  The length isn't known up front, so the body is chunked.
+	 */
+	private void sendJson(HttpExchange he, int status, JsonBody body) throws IOException {
+		Headers responseHeaders = he.getResponseHeaders();
+		responseHeaders.set("Content-Type", "application/json; charset=utf-8");
+		responseHeaders.set("X-Content-Type-Options", "nosniff");
+		responseHeaders.set("Cache-Control", "no-store");
+		he.sendResponseHeaders(status, 0);
+
+		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(he.getResponseBody(), StandardCharsets.UTF_8))) {
+			JsonWriter json = new JsonWriter(bw);
+			body.write(json);
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes compact JSON straight to a {@link Writer}, one token at a time, so a response never has to be built up
+ * as a string first.
+ *
+ * The caller is responsible for the structure:  names only inside objects, and every begin matched by an end.
+ * The writer only keeps track of where commas go.
+ */
+public class JsonWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer writer;
+
+	/**
+	 * One bit per open object or array, set once it has its first member.  Deeper nesting than this isn't needed.
+	 */
+	private long hasMembers;
+	private int depth;
+
+	/**
+	 * Set after a name, so the value that follows isn't preceded by a comma.
+	 */
+	private boolean afterName;
+
+	public JsonWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		string(name);
+		writer.write(':');
+		afterName = true;
+		return this;
+	}
+
+	/**
+	 * @param value
+	 * 		May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+
+		separate();
+		string(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		writer.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		writer.write(value ? "true" : "false");
+		return this;
+	}
+
+	public JsonWriter nullValue() throws IOException {
+		separate();
+		writer.write("null");
+		return this;
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		if (depth == Long.SIZE) {
+			throw new IllegalStateException("JSON nested more than " + Long.SIZE + " deep.");
+		}
+
+		separate();
+		writer.write(bracket);
+		depth++;
+		hasMembers &= ~(1L << depth - 1);
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("Unbalanced '" + bracket + "'.");
+		}
+
+		writer.write(bracket);
+		depth--;
+		return this;
+	}
+
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+
+		if (depth > 0) {
+			long bit = 1L << depth - 1;
+			if ((hasMembers & bit) != 0) {
+				writer.write(',');
+			}
+			hasMembers |= bit;
+		}
+	}
+
+	/**
+	 * Escape as RFC 8259 requires, plus the line separators that older JavaScript parsers reject.  Runs of plain
+	 * characters are written in one call.
+	 */
+	private void string(String value) throws IOException {
+		writer.write('"');
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String escape;
+			switch (c) {
+				case '"':
+					escape = "\\\"";
+					break;
+				case '\\':
+					escape = "\\\\";
+					break;
+				case '\n':
+					escape = "\\n";
+					break;
+				case '\r':
+					escape = "\\r";
+					break;
+				case '\t':
+					escape = "\\t";
+					break;
+				default:
+					if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+						escape = null;
+						break;
+					}
+					continue;
+			}
+
+			writer.write(value, start, i - start);
+			if (escape != null) {
+				writer.write(escape);
+			}
+			else {
+				writer.write("\\u");
+				writer.write(HEX[c >> 12 & 0xf]);
+				writer.write(HEX[c >> 8 & 0xf]);
+				writer.write(HEX[c >> 4 & 0xf]);
+				writer.write(HEX[c & 0xf]);
+			}
+			start = i + 1;
+		}
+
+		writer.write(value, start, length - start);
+		writer.write('"');
+	}
+
+}
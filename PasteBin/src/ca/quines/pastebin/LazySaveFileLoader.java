@@ -0,0 +1,237 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * Reads a save file written by {@link Properties#store(java.io.OutputStream, String)} without decoding the
+ * entry text up front.
+ *
+ * The file is memory-mapped and scanned once for line boundaries.  Every property except the ".text" ones
+ * is decoded immediately, since that's the small amount of metadata needed to build the lists.  Each ".text"
+ * property is remembered as a byte range in the mapping and only decoded, with {@link Properties} itself,
+ * the first time someone asks for it.
+ *
+ * The mapping stays valid after the file is replaced, as long as it's replaced by renaming a new file over
+ * it rather than by rewriting it in place.  On Windows, though, a file can't be replaced while it's mapped, and
+ * the mapping is only released when the buffer is garbage collected.  There {@link PasteBinService#save()}
+ * can't rename the new file into place and leaves it next to the save file instead, so this mode is only
+ * for systems that allow it.
+ */
+public class LazySaveFileLoader {
+
+	private static final String TEXT_SUFFIX = ".text";
+
+	/**
+	 * A byte range in the mapping that holds one logical line.
+	 */
+	private static final class Range {
+
+		private final int start;
+		private final int end;
+
+		private Range(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+	}
+
+	private final MappedByteBuffer mapped;
+	private final Properties metadata = new Properties();
+	private final Map<String, Range> textRanges = new HashMap<>();
+
+	/**
+	 * @param file
+	 * @throws IOException
+	 * 		If the file can't be read, or is too large to map in one piece.
+	 */
+	public LazySaveFileLoader(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("'" + file + "' is too large to map.");
+			}
+
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		scan();
+	}
+
+	/**
+	 * @return
+	 * 		Every property except the entry text.
+	 */
+	public Properties getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @param key
+	 * 		A key ending in ".text".
+	 * @return
+	 * 		A supplier that decodes the value each time it's called, or null if there is no such key.
+	 */
+	public Supplier<String> getLazyText(String key) {
+		Range range = textRanges.get(key);
+		if (range == null) {
+			return null;
+		}
+
+		return () -> decode(key, range);
+	}
+
+	/**
+	 * @param key
+	 * 		A key ending in ".text".
+	 * @return
+	 * 		The length of the escaped value in the file, or -1 if there is no such key.  This is at least the
+	 * 		UTF-8 length of most text, so it stands in for the size until the text is read.
+	 */
+	public long getEncodedLength(String key) {
+		Range range = textRanges.get(key);
+		return range == null ? -1 : Math.max(0, range.end - range.start - key.length() - 1);
+	}
+
+	private String decode(String key, Range range) {
+		Properties single = new Properties();
+		try {
+			single.load(new StringReader(latin1(range.start, range.end)));
+		}
+		catch (IOException e) {
+			// Can't happen when reading from a String.
+			throw new UncheckedIOException(e);
+		}
+
+		return single.getProperty(key);
+	}
+
+	/**
+	 * Properties files are ISO 8859-1, with anything else written as a unicode escape.
+	 */
+	private String latin1(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = mapped.duplicate();
+		view.position(start);
+		view.get(bytes);
+
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Split the mapping into logical lines following the rules in {@link Properties#load(java.io.Reader)}:
+	 * leading whitespace is skipped, lines starting with '#' or '!' are comments, and a line ending in an odd
+	 * number of backslashes continues onto the next one.
+	 */
+	private void scan() {
+		StringBuilder metadataLines = new StringBuilder();
+		int length = mapped.limit();
+		int pos = 0;
+
+		while (pos < length) {
+			// Skip leading whitespace and blank lines.
+			byte b = mapped.get(pos);
+			if (b == ' ' || b == '\t' || b == '\f' || b == '\r' || b == '\n') {
+				pos++;
+				continue;
+			}
+
+			int lineStart = pos;
+			boolean comment = b == '#' || b == '!';
+
+			// Find the end of the logical line.
+			while (true) {
+				int naturalEnd = pos;
+				while (naturalEnd < length && mapped.get(naturalEnd) != '\n' && mapped.get(naturalEnd) != '\r') {
+					naturalEnd++;
+				}
+
+				int backslashes = 0;
+				while (naturalEnd - backslashes - 1 >= pos && mapped.get(naturalEnd - backslashes - 1) == '\\') {
+					backslashes++;
+				}
+
+				pos = naturalEnd;
+				if (pos < length && mapped.get(pos) == '\r') {
+					pos++;
+				}
+				if (pos < length && mapped.get(pos) == '\n') {
+					pos++;
+				}
+
+				if (comment || backslashes % 2 == 0 || pos >= length) {
+					break;
+				}
+			}
+
+			if (comment) {
+				continue;
+			}
+
+			String key = simpleKey(lineStart, pos);
+			if (key != null && key.endsWith(TEXT_SUFFIX)) {
+				textRanges.put(key, new Range(lineStart, pos));
+			}
+			else {
+				metadataLines.append(latin1(lineStart, pos)).append('\n');
+			}
+		}
+
+		try {
+			metadata.load(new StringReader(metadataLines.toString()));
+		}
+		catch (IOException e) {
+			// Can't happen when reading from a String.
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The key of the line, or null if the key contains escapes and needs a full decode.
+	 */
+	private String simpleKey(int start, int end) {
+		int pos = start;
+		while (pos < end) {
+			byte b = mapped.get(pos);
+			if (b == '\\') {
+				return null;
+			}
+
+			if (b == '=' || b == ':' || b == ' ' || b == '\t' || b == '\f' || b == '\r' || b == '\n') {
+				break;
+			}
+
+			pos++;
+		}
+
+		return latin1(start, pos);
+	}
+
+}
@@ -0,0 +1,423 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A streaming parser for {@code multipart/form-data} request bodies.
+ *
+ * The body is scanned a byte at a time for the boundary, using the Knuth-Morris-Pratt failure table so no
+ * byte is looked at twice.  File parts are written straight to temporary files in a {@link BlobStore} as they
+ * arrive, so an upload never has to fit in memory.  Other parts are small form fields and are kept as strings.
+ */
+public class MultipartBody {
+
+	private static final int MAX_FIELD_BYTES = 64 * 1024;
+	private static final int MAX_HEADER_BYTES = 8 * 1024;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * An uploaded file, spooled to disk.  The caller owns the file.
+	 */
+	public static class FilePart {
+
+		private final String fieldName;
+		private final String fileName;
+		private final String contentType;
+		private final Path file;
+		private final long length;
+
+		private FilePart(String fieldName, String fileName, String contentType, Path file, long length) {
+			this.fieldName = fieldName;
+			this.fileName = fileName;
+			this.contentType = contentType;
+			this.file = file;
+			this.length = length;
+		}
+
+		public String getFieldName() {
+			return fieldName;
+		}
+
+		/**
+		 * @return
+		 * 		The name the browser sent, without any directory.
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+	}
+
+	private final Map<String, List<String>> fields = new LinkedHashMap<>();
+	private final List<FilePart> files = new ArrayList<>();
+
+	private MultipartBody() {
+		// Use parse().
+	}
+
+	public Map<String, List<String>> getFields() {
+		return fields;
+	}
+
+	public List<FilePart> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Delete every spooled file.  For error paths.
+	 */
+	public void discard() {
+		for (FilePart filePart : files) {
+			try {
+				Files.deleteIfExists(filePart.file);
+			}
+			catch (IOException e) {
+				// Left for BlobStore.retainOnly() to clean up.
+			}
+		}
+		files.clear();
+	}
+
+	/**
+	 * @param contentType
+	 * 		The request's Content-Type header.
+	 * @return
+	 * 		The boundary, or null if this isn't a multipart/form-data request.
+	 */
+	public static String getBoundary(String contentType) {
+		if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+			return null;
+		}
+
+		String boundary = getParameter(contentType, "boundary");
+		return boundary == null || boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+	}
+
+	/**
+	 * @param in
+	 * @param boundary
+	 * @param maxFileBytes
+	 * 		The largest file accepted.
+	 * @param blobStore
+	 * 		Where files are spooled to.
+	 * @return
+	 * @throws IOException
+	 * 		If reading fails, the body is malformed, or a part is too large.  No spooled files are left behind.
+	 */
+	public static MultipartBody parse(InputStream in, String boundary, long maxFileBytes, BlobStore blobStore) throws IOException {
+		MultipartBody body = new MultipartBody();
+		try {
+			new Parser(in, boundary, maxFileBytes, blobStore, body).run();
+		}
+		catch (IOException | RuntimeException e) {
+			body.discard();
+			throw e;
+		}
+
+		return body;
+	}
+
+	private static class Parser {
+
+		private final InputStream in;
+
+		/**
+		 * Our own buffer rather than a BufferedInputStream, whose read() is synchronized.
+		 */
+		private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+		private int position;
+		private int limit;
+
+		/**
+		 * Part data is collected here and written in blocks.
+		 */
+		private final byte[] outBuffer = new byte[READ_BUFFER_SIZE];
+		private int outLength;
+
+		private final byte[] delimiter;
+		private final int[] failure;
+		private final long maxFileBytes;
+		private final BlobStore blobStore;
+		private final MultipartBody body;
+
+		private Parser(InputStream in, String boundary, long maxFileBytes, BlobStore blobStore, MultipartBody body) {
+			this.in = in;
+			this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+			this.failure = failureTable(delimiter);
+			this.maxFileBytes = maxFileBytes;
+			this.blobStore = blobStore;
+			this.body = body;
+		}
+
+		private void run() throws IOException {
+			// The first boundary has no CRLF in front of it, so pretend there was one.
+			skipTo(OutputStream.nullOutputStream(), 2);
+
+			while (true) {
+				int first = read();
+				int second = read();
+				if (first == '-' && second == '-') {
+					return;
+				}
+				if (first != '\r' || second != '\n') {
+					throw new IOException("Malformed multipart body.");
+				}
+
+				readPart();
+			}
+		}
+
+		private void readPart() throws IOException {
+			String disposition = null;
+			String contentType = null;
+			for (String header : readHeaders()) {
+				int colon = header.indexOf(':');
+				if (colon < 0) {
+					continue;
+				}
+
+				String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+				String value = header.substring(colon + 1).trim();
+				if (name.equals("content-disposition")) {
+					disposition = value;
+				}
+				else if (name.equals("content-type")) {
+					contentType = value;
+				}
+			}
+
+			String fieldName = disposition == null ? null : getParameter(disposition, "name");
+			String fileName = disposition == null ? null : getParameter(disposition, "filename");
+			if (fileName == null) {
+				ByteArrayOutputStream value = new ByteArrayOutputStream();
+				skipTo(new LimitedOutputStream(value, MAX_FIELD_BYTES), 0);
+				if (fieldName != null) {
+					String decoded = value.toString(StandardCharsets.UTF_8);
+					body.fields.computeIfAbsent(fieldName, (k) -> new ArrayList<>()).add(decoded);
+				}
+				return;
+			}
+
+			Path file = blobStore.createTempFile();
+			LimitedOutputStream out = null;
+			try {
+				out = new LimitedOutputStream(Files.newOutputStream(file), maxFileBytes);
+				skipTo(out, 0);
+				out.close();
+			}
+			catch (IOException | RuntimeException e) {
+				if (out != null) {
+					out.close();
+				}
+				Files.deleteIfExists(file);
+				throw e;
+			}
+
+			body.files.add(new FilePart(fieldName, baseName(fileName),
+				contentType == null ? "application/octet-stream" : contentType, file, out.count));
+		}
+
+		private List<String> readHeaders() throws IOException {
+			List<String> headers = new ArrayList<>();
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int total = 0;
+			while (true) {
+				int b = read();
+				if (b < 0) {
+					throw new IOException("The multipart body ended in a part's headers.");
+				}
+				if (++total > MAX_HEADER_BYTES) {
+					throw new IOException("A part's headers are too large.");
+				}
+
+				if (b == '\n') {
+					String text = line.toString(StandardCharsets.UTF_8);
+					if (text.endsWith("\r")) {
+						text = text.substring(0, text.length() - 1);
+					}
+					if (text.isEmpty()) {
+						return headers;
+					}
+					headers.add(text);
+					line.reset();
+				}
+				else {
+					line.write(b);
+				}
+			}
+		}
+
+		/**
+		 * Copy bytes to out until the delimiter, which is consumed.
+		 *
+		 * @param out
+		 * @param alreadyMatched
+		 * 		How much of the delimiter has been seen already.
+		 * @throws IOException
+		 */
+		private void skipTo(OutputStream out, int alreadyMatched) throws IOException {
+			int matched = alreadyMatched;
+			while (true) {
+				int b = read();
+				if (b < 0) {
+					throw new IOException("The multipart body ended without a closing boundary.");
+				}
+
+				while (matched > 0 && b != (delimiter[matched] & 0xFF)) {
+					// The bytes we'd hoped were the delimiter turned out to be data.
+					int fallback = failure[matched - 1];
+					for (int i = 0; i < matched - fallback; i++) {
+						emit(out, delimiter[i]);
+					}
+					matched = fallback;
+				}
+
+				if (b == (delimiter[matched] & 0xFF)) {
+					matched++;
+					if (matched == delimiter.length) {
+						out.write(outBuffer, 0, outLength);
+						outLength = 0;
+						return;
+					}
+				}
+				else {
+					emit(out, b);
+				}
+			}
+		}
+
+		private void emit(OutputStream out, int b) throws IOException {
+			if (outLength == outBuffer.length) {
+				out.write(outBuffer, 0, outLength);
+				outLength = 0;
+			}
+			outBuffer[outLength++] = (byte) b;
+		}
+
+		private int read() throws IOException {
+			if (position == limit) {
+				limit = in.read(buffer);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+
+			return buffer[position++] & 0xFF;
+		}
+
+		private static int[] failureTable(byte[] pattern) {
+			int[] table = new int[pattern.length];
+			int length = 0;
+			for (int i = 1; i < pattern.length; i++) {
+				while (length > 0 && pattern[i] != pattern[length]) {
+					length = table[length - 1];
+				}
+				if (pattern[i] == pattern[length]) {
+					length++;
+				}
+				table[i] = length;
+			}
+
+			return table;
+		}
+
+	}
+
+	private static class LimitedOutputStream extends FilterOutputStream {
+
+		private final long limit;
+		private long count;
+
+		private LimitedOutputStream(OutputStream out, long limit) {
+			super(out);
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			count(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			count(len);
+			out.write(b, off, len);
+		}
+
+		private void count(int length) throws IOException {
+			count += length;
+			if (count > limit) {
+				throw new IOException("A part is larger than " + limit + " bytes.");
+			}
+		}
+
+	}
+
+	/**
+	 * Read a parameter like {@code name="value"} or {@code name=value} from a header value.  Doesn't handle
+	 * escaped quotes, which browsers don't send.
+	 */
+	private static String getParameter(String headerValue, String name) {
+		for (String parameter : headerValue.split(";")) {
+			String trimmed = parameter.trim();
+			int equals = trimmed.indexOf('=');
+			if (equals > 0 && trimmed.substring(0, equals).trim().equalsIgnoreCase(name)) {
+				String value = trimmed.substring(equals + 1).trim();
+				if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+					value = value.substring(1, value.length() - 1);
+				}
+				return value;
+			}
+		}
+
+		return null;
+	}
+
+	private static String baseName(String fileName) {
+		int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+		return fileName.substring(slash + 1);
+	}
+
+}
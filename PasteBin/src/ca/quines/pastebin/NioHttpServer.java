@@ -0,0 +1,1000 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small non-blocking HTTP/1.1 server that can stand in for {@link HttpServer}.
+ *
+ * One selector thread accepts connections, reads requests into a direct buffer, and writes responses.
+ * Complete requests are handed to a fixed pool of worker threads which run the same {@link HttpHandler}s
+ * and {@link Filter}s that the JDK server uses, through an {@link HttpExchange} implementation.  Connections
+ * are kept alive between requests unless the client asks otherwise, and idle ones are closed after a timeout.
+ *
+ * Request and response bodies are buffered in memory, which suits the page-sized traffic this server sees.
+ * The exception is a file sent with {@link #sendFile(HttpExchange, Path, long)}, which goes from the file to
+ * the socket with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * Chunked request bodies aren't supported.
+ */
+public class NioHttpServer {
+
+	private static final Logger LOGGER = Logger.getLogger(NioHttpServer.class.getName());
+
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_HEADER_BYTES = 64 * 1024;
+	private static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+	private static final long IDLE_TIMEOUT_MS = 30_000;
+	private static final int ACCEPT_BACKLOG = 128;
+
+	private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+	private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final InetSocketAddress bindAddress;
+	private final int workerCount;
+
+	private final List<Context> contexts = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Connections whose response is ready to be written, handed from the workers to the selector thread.
+	 */
+	private final Queue<Connection> readyToWrite = new ConcurrentLinkedQueue<>();
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ExecutorService workers;
+	private Thread selectorThread;
+	private volatile boolean running;
+
+	/**
+	 * @param bindAddress
+	 * @param workerCount
+	 * 		The number of threads running handlers.  Must be at least 1.
+	 */
+	public NioHttpServer(InetSocketAddress bindAddress, int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("The worker count must be at least 1, not " + workerCount + ".");
+		}
+
+		this.bindAddress = bindAddress;
+		this.workerCount = workerCount;
+	}
+
+	/**
+	 * Register a handler for a path prefix.  As with {@link HttpServer}, the longest matching prefix wins.
+	 *
+	 * @param path
+	 * @param handler
+	 * @return
+	 */
+	public HttpContext createContext(String path, HttpHandler handler) {
+		Context context = new Context(path, handler);
+		contexts.add(context);
+		return context;
+	}
+
+	public InetSocketAddress getAddress() {
+		if (serverChannel == null) {
+			return bindAddress;
+		}
+
+		try {
+			return (InetSocketAddress) serverChannel.getLocalAddress();
+		}
+		catch (IOException e) {
+			return bindAddress;
+		}
+	}
+
+	public void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(bindAddress, ACCEPT_BACKLOG);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		AtomicInteger workerNumber = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerCount, (runnable) -> {
+			Thread thread = new Thread(runnable, "nio-http-worker-" + workerNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		running = true;
+		selectorThread = new Thread(() -> selectLoop(), "nio-http-selector");
+		selectorThread.start();
+	}
+
+	/**
+	 * Stop accepting connections, close all open connections, and wait up to the given delay for handlers
+	 * to finish.
+	 *
+	 * @param delaySeconds
+	 */
+	public void stop(int delaySeconds) {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+		}
+
+		if (workers != null) {
+			workers.shutdown();
+			try {
+				workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (selectorThread != null) {
+			try {
+				selectorThread.join(TimeUnit.SECONDS.toMillis(Math.max(1, delaySeconds)));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void selectLoop() {
+		ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		long lastIdleCheck = System.currentTimeMillis();
+
+		try {
+			while (running) {
+				selector.select(1000);
+
+				Connection ready;
+				while ((ready = readyToWrite.poll()) != null) {
+					beginWrite(ready);
+				}
+
+				Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
+				while (keyIter.hasNext()) {
+					SelectionKey key = keyIter.next();
+					keyIter.remove();
+
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+
+						if (key.isAcceptable()) {
+							accept();
+						}
+						else if (key.isReadable()) {
+							read((Connection) key.attachment(), readBuffer);
+						}
+						else if (key.isWritable()) {
+							write((Connection) key.attachment());
+						}
+					}
+					catch (IOException e) {
+						LOGGER.log(Level.FINE, "Closing connection after an I/O error.", e);
+						if (key.attachment() instanceof Connection) {
+							((Connection) key.attachment()).close();
+						}
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck > 1000) {
+					closeIdle(now);
+					lastIdleCheck = now;
+				}
+			}
+		}
+		catch (IOException | ClosedSelectorException e) {
+			LOGGER.log(Level.SEVERE, "The selector loop failed.", e);
+		}
+		finally {
+			closeAll();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	private void read(Connection connection, ByteBuffer readBuffer) throws IOException {
+		readBuffer.clear();
+		int numRead = connection.channel.read(readBuffer);
+		if (numRead < 0) {
+			connection.close();
+			return;
+		}
+
+		readBuffer.flip();
+		connection.append(readBuffer);
+		connection.lastActivity = System.currentTimeMillis();
+
+		parseAndDispatch(connection);
+	}
+
+	/**
+	 * If the connection has a complete request buffered and isn't already handling one, dispatch it to a
+	 * worker.
+	 *
+	 * @param connection
+	 * @throws IOException
+	 */
+	private void parseAndDispatch(Connection connection) throws IOException {
+		if (connection.busy) {
+			return;
+		}
+
+		int headerEnd = indexOf(connection.in, connection.inLength, HEADER_END);
+		if (headerEnd < 0) {
+			if (connection.inLength > MAX_HEADER_BYTES) {
+				respondAndClose(connection, 431, "Request Header Fields Too Large");
+			}
+			return;
+		}
+
+		Request request = parseHead(connection.in, headerEnd);
+		if (request == null) {
+			respondAndClose(connection, 400, "Bad Request");
+			return;
+		}
+
+		if (request.headers.containsKey("Transfer-encoding")) {
+			respondAndClose(connection, 501, "Not Implemented");
+			return;
+		}
+
+		long contentLength = 0;
+		String contentLengthValue = request.headers.getFirst("Content-length");
+		if (contentLengthValue != null) {
+			try {
+				contentLength = Long.parseLong(contentLengthValue.trim());
+			}
+			catch (NumberFormatException e) {
+				respondAndClose(connection, 400, "Bad Request");
+				return;
+			}
+		}
+
+		if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+			respondAndClose(connection, 413, "Payload Too Large");
+			return;
+		}
+
+		int bodyStart = headerEnd + HEADER_END.length;
+		if (connection.inLength - bodyStart < contentLength) {
+			if (!connection.continueSent && "100-continue".equalsIgnoreCase(request.headers.getFirst("Expect"))) {
+				connection.channel.write(ByteBuffer.wrap(CONTINUE_RESPONSE));
+				connection.continueSent = true;
+			}
+			return;
+		}
+
+		int requestEnd = bodyStart + (int) contentLength;
+		byte[] body = new byte[(int) contentLength];
+		System.arraycopy(connection.in, bodyStart, body, 0, body.length);
+		connection.consume(requestEnd);
+		connection.continueSent = false;
+
+		request.body = body;
+		connection.keepAlive = isKeepAlive(request);
+		connection.busy = true;
+		connection.key.interestOps(0);
+
+		workers.execute(() -> handle(connection, request));
+	}
+
+	private boolean isKeepAlive(Request request) {
+		String connectionHeader = request.headers.getFirst("Connection");
+		if ("HTTP/1.0".equals(request.protocol)) {
+			return connectionHeader != null && connectionHeader.equalsIgnoreCase("keep-alive");
+		}
+
+		return connectionHeader == null || !connectionHeader.equalsIgnoreCase("close");
+	}
+
+	/**
+	 * Runs on a worker thread.
+	 *
+	 * @param connection
+	 * @param request
+	 */
+	private void handle(Connection connection, Request request) {
+		Context context = findContext(request.uri.getPath());
+		Exchange exchange = new Exchange(connection, request, context);
+
+		try {
+			if (context == null) {
+				exchange.sendResponseHeaders(404, -1);
+			}
+			else {
+				new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+			}
+		}
+		catch (Throwable t) {
+			LOGGER.log(Level.WARNING, "Handler failed for " + request.uri + ".", t);
+			if (exchange.responseCode < 0) {
+				exchange.responseBody.reset();
+				try {
+					exchange.sendResponseHeaders(500, -1);
+				}
+				catch (IOException e) {
+					// Can't happen:  the response is only buffered.
+				}
+			}
+		}
+
+		if (exchange.responseCode < 0) {
+			LOGGER.warning("Handler for " + request.uri + " didn't send a response.  Sending a 500.");
+			exchange.responseBody.reset();
+			exchange.responseCode = 500;
+			exchange.declaredLength = -1;
+		}
+
+		connection.response = ByteBuffer.wrap(exchange.toResponseBytes());
+		if (exchange.fileBody != null) {
+			if (exchange.responseCode == 200 || exchange.responseCode == 206) {
+				connection.fileBody = exchange.fileBody;
+				connection.filePosition = exchange.fileOffset;
+				connection.fileRemaining = exchange.declaredLength;
+			}
+			else {
+				// The handler failed after starting to send the file.
+				exchange.closeFileBody();
+			}
+		}
+		readyToWrite.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Send a whole file as a 200 response body.
+	 *
+	 * @param he
+	 * @param file
+	 * @param length
+	 * 		The size of the file.
+	 * @throws IOException
+	 */
+	public static void sendFile(HttpExchange he, Path file, long length) throws IOException {
+		sendFile(he, 200, file, 0, length);
+	}
+
+	/**
+	 * Send part of a file as the response body.  On this server the body never passes through the heap; on any
+	 * other server the file is copied to the response body stream.  Either way only the bytes asked for are read.
+	 *
+	 * @param he
+	 * @param responseCode
+	 * 		200, or 206 for a range.
+	 * @param file
+	 * @param offset
+	 * @param count
+	 * @throws IOException
+	 */
+	public static void sendFile(HttpExchange he, int responseCode, Path file, long offset, long count) throws IOException {
+		boolean ours = he instanceof Exchange;
+		if ("HEAD".equals(he.getRequestMethod())) {
+			// We report the length on a HEAD response.  The JDK server warns if asked to.
+			he.sendResponseHeaders(responseCode, ours ? count : -1);
+			he.close();
+			return;
+		}
+
+		if (ours) {
+			Exchange exchange = (Exchange) he;
+			exchange.fileBody = FileChannel.open(file, StandardOpenOption.READ);
+			exchange.fileOffset = offset;
+			exchange.sendResponseHeaders(responseCode, count);
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				OutputStream os = he.getResponseBody()) {
+			// Zero would mean chunked.
+			he.sendResponseHeaders(responseCode, count > 0 ? count : -1);
+
+			WritableByteChannel target = Channels.newChannel(os);
+			long position = offset;
+			long remaining = count;
+			while (remaining > 0) {
+				long sent = channel.transferTo(position, remaining, target);
+				if (sent <= 0) {
+					throw new IOException("The file ended early.");
+				}
+				position += sent;
+				remaining -= sent;
+			}
+		}
+	}
+
+	private Context findContext(String path) {
+		Context best = null;
+		for (Context context : contexts) {
+			if (path != null && path.startsWith(context.path)
+					&& (best == null || context.path.length() > best.path.length())) {
+				best = context;
+			}
+		}
+
+		return best;
+	}
+
+	private void beginWrite(Connection connection) {
+		if (!connection.channel.isOpen()) {
+			return;
+		}
+
+		try {
+			connection.key.interestOps(SelectionKey.OP_WRITE);
+			write(connection);
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.FINE, "Closing connection after a write error.", e);
+			connection.close();
+		}
+	}
+
+	private void write(Connection connection) throws IOException {
+		if (connection.response.hasRemaining()) {
+			connection.channel.write(connection.response);
+			connection.lastActivity = System.currentTimeMillis();
+			if (connection.response.hasRemaining()) {
+				return;
+			}
+		}
+
+		while (connection.fileBody != null && connection.fileRemaining > 0) {
+			long sent = connection.fileBody.transferTo(connection.filePosition, connection.fileRemaining, connection.channel);
+			connection.lastActivity = System.currentTimeMillis();
+			if (sent <= 0) {
+				// The socket buffer is full.  Wait for OP_WRITE.
+				return;
+			}
+			connection.filePosition += sent;
+			connection.fileRemaining -= sent;
+		}
+		connection.closeFileBody();
+
+		connection.response = null;
+		if (!connection.keepAlive) {
+			connection.close();
+			return;
+		}
+
+		connection.busy = false;
+		connection.key.interestOps(SelectionKey.OP_READ);
+
+		// The client may have pipelined another request behind the one we just answered.
+		parseAndDispatch(connection);
+	}
+
+	private void respondAndClose(Connection connection, int code, String message) {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		String head = "HTTP/1.1 " + code + " " + message + "\r\nContent-Type: text/plain; charset=utf-8\r\n"
+			+ "Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.writeBytes(head.getBytes(StandardCharsets.US_ASCII));
+		bytes.writeBytes(body);
+
+		connection.busy = true;
+		connection.keepAlive = false;
+		connection.response = ByteBuffer.wrap(bytes.toByteArray());
+		beginWrite(connection);
+	}
+
+	private void closeIdle(long now) {
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Connection) {
+				Connection connection = (Connection) key.attachment();
+				if (!connection.busy && now - connection.lastActivity > IDLE_TIMEOUT_MS) {
+					connection.close();
+				}
+			}
+		}
+	}
+
+	private void closeAll() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+
+			serverChannel.close();
+			selector.close();
+		}
+		catch (IOException | ClosedSelectorException e) {
+			LOGGER.log(Level.FINE, "Error while closing the server.", e);
+		}
+	}
+
+	/**
+	 * Parse the request line and headers.
+	 *
+	 * @param in
+	 * @param headerEnd
+	 * 		The index of the blank line ending the headers.
+	 * @return
+	 * 		The request without its body, or null if it's malformed.
+	 */
+	private static Request parseHead(byte[] in, int headerEnd) {
+		String head = new String(in, 0, headerEnd, StandardCharsets.ISO_8859_1);
+		String[] lines = head.split("\r\n");
+
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3) {
+			return null;
+		}
+
+		Request request = new Request();
+		request.method = requestLine[0];
+		request.protocol = requestLine[2];
+		try {
+			request.uri = new URI(requestLine[1]);
+		}
+		catch (URISyntaxException e) {
+			return null;
+		}
+
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) {
+				return null;
+			}
+
+			request.headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+		}
+
+		return request;
+	}
+
+	private static int indexOf(byte[] data, int length, byte[] pattern) {
+		OUTER: for (int i = 0; i <= length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue OUTER;
+				}
+			}
+
+			return i;
+		}
+
+		return -1;
+	}
+
+	private static String reasonPhrase(int code) {
+		switch (code) {
+			case 200: return "OK";
+			case 201: return "Created";
+			case 204: return "No Content";
+			case 206: return "Partial Content";
+			case 301: return "Moved Permanently";
+			case 303: return "See Other";
+			case 304: return "Not Modified";
+			case 400: return "Bad Request";
+			case 404: return "Not Found";
+			case 405: return "Method Not Allowed";
+			case 409: return "Conflict";
+			case 413: return "Payload Too Large";
+			case 416: return "Range Not Satisfiable";
+			case 429: return "Too Many Requests";
+			case 500: return "Internal Server Error";
+			case 503: return "Service Unavailable";
+			default: return "Status";
+		}
+	}
+
+	private static class Request {
+
+		private String method;
+		private String protocol;
+		private URI uri;
+		private final Headers headers = new Headers();
+		private byte[] body;
+
+	}
+
+	/**
+	 * The state of one client connection.  Only the selector thread touches the buffers; a worker only reads
+	 * the request it was given and sets {@link #response}.
+	 */
+	private static class Connection {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+
+		private byte[] in = new byte[1024];
+		private int inLength;
+
+		private volatile ByteBuffer response;
+
+		/**
+		 * Sent after {@link #response}, if set.
+		 */
+		private volatile FileChannel fileBody;
+		private long filePosition;
+		private long fileRemaining;
+
+		private volatile boolean busy;
+		private boolean keepAlive;
+		private boolean continueSent;
+		private volatile long lastActivity = System.currentTimeMillis();
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private void append(ByteBuffer buffer) {
+			int needed = inLength + buffer.remaining();
+			if (needed > in.length) {
+				byte[] grown = new byte[Math.max(needed, in.length * 2)];
+				System.arraycopy(in, 0, grown, 0, inLength);
+				in = grown;
+			}
+
+			int count = buffer.remaining();
+			buffer.get(in, inLength, count);
+			inLength += count;
+		}
+
+		/**
+		 * Drop the first count bytes, keeping anything pipelined after them.
+		 *
+		 * @param count
+		 */
+		private void consume(int count) {
+			System.arraycopy(in, count, in, 0, inLength - count);
+			inLength -= count;
+		}
+
+		private void closeFileBody() {
+			if (fileBody != null) {
+				try {
+					fileBody.close();
+				}
+				catch (IOException e) {
+					LOGGER.log(Level.FINE, "Error closing a response file.", e);
+				}
+				fileBody = null;
+			}
+		}
+
+		private void close() {
+			closeFileBody();
+			try {
+				if (key != null) {
+					key.cancel();
+				}
+				channel.close();
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.FINE, "Error closing connection.", e);
+			}
+		}
+
+	}
+
+	private class Context extends HttpContext {
+
+		private final String path;
+		private HttpHandler handler;
+		private final Map<String, Object> attributes = new HashMap<>();
+		private final List<Filter> filters = new CopyOnWriteArrayList<>();
+		private Authenticator authenticator;
+
+		private Context(String path, HttpHandler handler) {
+			this.path = path;
+			this.handler = handler;
+		}
+
+		@Override
+		public HttpHandler getHandler() {
+			return handler;
+		}
+
+		@Override
+		public void setHandler(HttpHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * There is no {@link HttpServer} behind this context.
+		 *
+		 * @return
+		 * 		Always null.
+		 */
+		@Override
+		public HttpServer getServer() {
+			return null;
+		}
+
+		@Override
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+
+		@Override
+		public List<Filter> getFilters() {
+			return filters;
+		}
+
+		/**
+		 * Authenticators are stored but not applied.
+		 */
+		@Override
+		public Authenticator setAuthenticator(Authenticator authenticator) {
+			Authenticator previous = this.authenticator;
+			this.authenticator = authenticator;
+			return previous;
+		}
+
+		@Override
+		public Authenticator getAuthenticator() {
+			return authenticator;
+		}
+
+	}
+
+	private static class Exchange extends HttpExchange {
+
+		private final Connection connection;
+		private final Request request;
+		private final Context context;
+
+		private final Headers responseHeaders = new Headers();
+		private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+		private final Map<String, Object> attributes = new HashMap<>();
+
+		private InputStream requestStream;
+		private OutputStream responseStream;
+
+		private int responseCode = -1;
+		private long declaredLength;
+
+		/**
+		 * Set by {@link NioHttpServer#sendFile(HttpExchange, Path, long)}.
+		 */
+		private FileChannel fileBody;
+		private long fileOffset;
+
+		private Exchange(Connection connection, Request request, Context context) {
+			this.connection = connection;
+			this.request = request;
+			this.context = context;
+			this.requestStream = new ByteArrayInputStream(request.body);
+			this.responseStream = responseBody;
+		}
+
+		@Override
+		public Headers getRequestHeaders() {
+			return request.headers;
+		}
+
+		@Override
+		public Headers getResponseHeaders() {
+			return responseHeaders;
+		}
+
+		@Override
+		public URI getRequestURI() {
+			return request.uri;
+		}
+
+		@Override
+		public String getRequestMethod() {
+			return request.method;
+		}
+
+		@Override
+		public HttpContext getHttpContext() {
+			return context;
+		}
+
+		/**
+		 * The response is sent once the handler returns, so there is nothing to do here.
+		 */
+		@Override
+		public void close() {
+			// EMPTY
+		}
+
+		@Override
+		public InputStream getRequestBody() {
+			return requestStream;
+		}
+
+		@Override
+		public OutputStream getResponseBody() {
+			return responseStream;
+		}
+
+		@Override
+		public void sendResponseHeaders(int responseCode, long responseLength) throws IOException {
+			if (this.responseCode >= 0) {
+				throw new IOException("Headers already sent.");
+			}
+
+			this.responseCode = responseCode;
+			this.declaredLength = responseLength;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteAddress() {
+			return (InetSocketAddress) connection.channel.socket().getRemoteSocketAddress();
+		}
+
+		@Override
+		public int getResponseCode() {
+			return responseCode;
+		}
+
+		@Override
+		public InetSocketAddress getLocalAddress() {
+			return (InetSocketAddress) connection.channel.socket().getLocalSocketAddress();
+		}
+
+		@Override
+		public String getProtocol() {
+			return request.protocol;
+		}
+
+		@Override
+		public Object getAttribute(String name) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			attributes.put(name, value);
+		}
+
+		@Override
+		public void setStreams(InputStream requestStream, OutputStream responseStream) {
+			if (requestStream != null) {
+				this.requestStream = requestStream;
+			}
+
+			if (responseStream != null) {
+				this.responseStream = responseStream;
+			}
+		}
+
+		@Override
+		public HttpPrincipal getPrincipal() {
+			return null;
+		}
+
+		private void closeFileBody() {
+			try {
+				fileBody.close();
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.FINE, "Error closing a response file.", e);
+			}
+			fileBody = null;
+		}
+
+		/**
+		 * Build the status line, headers, and body.
+		 *
+		 * @return
+		 */
+		private byte[] toResponseBytes() {
+			try {
+				// A filter may have wrapped the stream in something that buffers.
+				responseStream.flush();
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.FINE, "Unable to flush the response stream.", e);
+			}
+
+			boolean noBody = declaredLength < 0 || "HEAD".equals(request.method)
+				|| responseCode == 204 || responseCode == 304 || fileBody != null;
+			byte[] body = noBody ? new byte[0] : responseBody.toByteArray();
+
+			StringBuilder head = new StringBuilder(256);
+			head.append("HTTP/1.1 ").append(responseCode).append(' ').append(reasonPhrase(responseCode)).append("\r\n");
+
+			List<String> skip = List.of("Content-length", "Connection", "Transfer-encoding");
+			for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+				if (skip.contains(header.getKey())) {
+					continue;
+				}
+
+				for (String value : header.getValue()) {
+					head.append(header.getKey()).append(": ").append(value).append("\r\n");
+				}
+			}
+
+			if ("HEAD".equals(request.method) && declaredLength >= 0) {
+				// Zero means the GET body would be streamed, and its size isn't known here, so say nothing rather
+				// than claim it's empty.
+				if (declaredLength > 0) {
+					head.append("Content-Length: ").append(declaredLength).append("\r\n");
+				}
+			}
+			else if (responseCode != 204 && responseCode != 304) {
+				head.append("Content-Length: ").append(fileBody != null ? declaredLength : body.length).append("\r\n");
+			}
+
+			head.append("Connection: ").append(connection.keepAlive ? "keep-alive" : "close").append("\r\n");
+			head.append("\r\n");
+
+			byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+			byte[] bytes = new byte[headBytes.length + body.length];
+			System.arraycopy(headBytes, 0, bytes, 0, headBytes.length);
+			System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+
+			return bytes;
+		}
+
+	}
+
+}
@@ -0,0 +1,62 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+/**
+ * The messages to show above the active list after a change:  an error, an information message, either, or
+ * neither.  Both are HTML, already escaped where needed.
+ */
+public final class PageMessages {
+
+	public static final PageMessages NONE = new PageMessages(null, null);
+
+	private final String errorMessage;
+	private final String infoMessage;
+
+	public PageMessages(String errorMessage, String infoMessage) {
+		this.errorMessage = errorMessage;
+		this.infoMessage = infoMessage;
+	}
+
+	public static PageMessages error(String errorMessage) {
+		return new PageMessages(errorMessage, null);
+	}
+
+	public static PageMessages info(String infoMessage) {
+		return new PageMessages(null, infoMessage);
+	}
+
+	/**
+	 * @return
+	 * 		Null if there isn't one.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return
+	 * 		Null if there isn't one.
+	 */
+	public String getInfoMessage() {
+		return infoMessage;
+	}
+
+	public boolean isEmpty() {
+		return errorMessage == null && infoMessage == null;
+	}
+
+}
@@ -0,0 +1,210 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a save file written by {@link Properties#store(java.io.OutputStream, String)} on several threads.
+ *
+ * The file is read into memory and cut into segments of about {@link #SEGMENT_BYTES}.  Each cut is made after a
+ * line that doesn't continue onto the next, so every segment is a valid properties file by itself.  The
+ * segments are decoded on the common fork-join pool and merged in file order, which gives the same result as
+ * {@link Properties#load(InputStream)}, down to which value wins when a key is repeated.
+ *
+ * The file is read rather than memory-mapped.  A mapping stays open until the buffer is garbage collected, and
+ * on Windows an open mapping stops {@link PasteBinService#save()} from renaming the new save file over it.
+ */
+public class ParallelPropertiesLoader {
+
+	/* default */ static final int SEGMENT_BYTES = 1024 * 1024;
+
+	private ParallelPropertiesLoader() {
+		// Static methods only.
+	}
+
+	/**
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 * 		Including {@link java.nio.file.NoSuchFileException} if there's no file.
+	 */
+	public static Properties load(File file) throws IOException {
+		ByteBuffer contents;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE - 8) {
+				// Too large for one array.
+				Properties props = new Properties();
+				try (InputStream is = Files.newInputStream(file.toPath())) {
+					props.load(is);
+				}
+				return props;
+			}
+
+			contents = ByteBuffer.allocate((int) size);
+			while (contents.hasRemaining() && channel.read(contents) >= 0) {
+				// Keep reading until the buffer is full.
+			}
+			contents.flip();
+		}
+
+		return load(contents, SEGMENT_BYTES);
+	}
+
+	/**
+	 * @param buffer
+	 * 		ISO 8859-1, as written by {@link Properties#store(java.io.OutputStream, String)}.
+	 * @param segmentBytes
+	 * @return
+	 * @throws IOException
+	 */
+	/* default */ static Properties load(ByteBuffer buffer, int segmentBytes) throws IOException {
+		List<Integer> cuts = findCuts(buffer, segmentBytes);
+		if (cuts.size() == 2) {
+			return decode(buffer, 0, buffer.limit());
+		}
+
+		List<Callable<Properties>> tasks = new ArrayList<>(cuts.size() - 1);
+		for (int i = 0; i + 1 < cuts.size(); i++) {
+			int start = cuts.get(i);
+			int end = cuts.get(i + 1);
+			tasks.add(() -> decode(buffer, start, end));
+		}
+
+		Properties merged = new Properties();
+		for (Properties segment : invokeAll(tasks)) {
+			merged.putAll(segment);
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Run tasks on the common fork-join pool.
+	 *
+	 * @param <T>
+	 * @param tasks
+	 * @return
+	 * 		The results, in the order of the tasks.
+	 * @throws IOException
+	 * 		If a task threw one.
+	 */
+	/* default */ static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading.", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return
+	 * 		Segment boundaries, starting with 0 and ending with the buffer's limit.
+	 */
+	/* default */ static List<Integer> findCuts(ByteBuffer buffer, int segmentBytes) {
+		int length = buffer.limit();
+		List<Integer> cuts = new ArrayList<>();
+		cuts.add(0);
+
+		int pos = segmentBytes;
+		while (pos < length) {
+			// Find the end of the natural line that pos is in.
+			while (pos < length && buffer.get(pos) != '\n' && buffer.get(pos) != '\r') {
+				pos++;
+			}
+			if (pos >= length) {
+				break;
+			}
+
+			// An odd number of backslashes means the line continues, unless it's a comment.  Comments can't be
+			// told apart here without reading from the start, so just don't cut after either.
+			int lineEnd = pos;
+			if (buffer.get(pos) == '\n' && pos > 0 && buffer.get(pos - 1) == '\r') {
+				lineEnd--;
+			}
+			int backslashes = 0;
+			while (lineEnd - backslashes - 1 >= 0 && buffer.get(lineEnd - backslashes - 1) == '\\') {
+				backslashes++;
+			}
+
+			if (buffer.get(pos) == '\r' && pos + 1 < length && buffer.get(pos + 1) == '\n') {
+				pos++;
+			}
+			pos++;
+
+			if (backslashes % 2 == 0 && pos < length) {
+				cuts.add(pos);
+				pos += segmentBytes;
+			}
+		}
+
+		cuts.add(length);
+		return cuts;
+	}
+
+	private static Properties decode(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buffer.duplicate().position(start).get(bytes);
+
+		Properties props = new Properties();
+		try {
+			props.load(new ByteArrayInputStream(bytes));
+		}
+		catch (IOException e) {
+			// Can't happen when reading from memory.
+			throw new UncheckedIOException(e);
+		}
+
+		return props;
+	}
+
+}
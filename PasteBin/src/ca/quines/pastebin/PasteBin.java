@@ -15,9 +15,15 @@ package ca.quines.pastebin;
 
 // Copyright (C) 2022 Christopher Evans
 
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -26,20 +32,42 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.UnknownHostException;
 
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import org.apache.commons.text.StringEscapeUtils;
 
 /**
  * Handles interfacing with the console as well as the network.
@@ -52,20 +80,166 @@ public class PasteBin {
 
 	private static final String SAVE_FILENAME = ".pastebin";
 	private static final String DEFAULT_INET_SEARCH = "192.168.";
+	private static final int DEFAULT_PORT = 8080;
+
+	/**
+	 * Startup options are read from system properties, e.g. {@code java -Dpastebin.server=nio ...}.
+	 */
+	/* default */ static final String PROPERTY_PORT = "pastebin.port";
+	/* default */ static final String PROPERTY_SERVER = "pastebin.server";
+	/* default */ static final String PROPERTY_NIO_WORKERS = "pastebin.nio.workers";
+	/* default */ static final String PROPERTY_JDK_WORKERS = "pastebin.jdk.workers";
+	/* default */ static final String PROPERTY_MAX_CONCURRENT = "pastebin.admission.maxConcurrent";
+	/* default */ static final String PROPERTY_MAX_QUEUED = "pastebin.admission.maxQueued";
+	/* default */ static final String PROPERTY_QUEUE_TIMEOUT_MS = "pastebin.admission.queueTimeoutMs";
+	/* default */ static final String PROPERTY_WRITES_PER_MINUTE = "pastebin.rateLimit.writesPerMinute";
+	/* default */ static final String PROPERTY_WRITE_BURST = "pastebin.rateLimit.burst";
+	/* default */ static final String PROPERTY_BLOB_THRESHOLD = "pastebin.blob.thresholdBytes";
+	/* default */ static final String PROPERTY_ATTACHMENT_MAX_BYTES = "pastebin.attachment.maxBytes";
+	/* default */ static final String PROPERTY_LAZY_LOAD = "pastebin.lazyLoad";
+	/* default */ static final String PROPERTY_DELTA_COMPRESSION = "pastebin.deltaCompression";
+	/* default */ static final String PROPERTY_MAX_BOARDS = "pastebin.boards.max";
+	/* default */ static final String PROPERTY_ACCESS_LOG = "pastebin.accessLog";
+	/* default */ static final String PROPERTY_ACCESS_LOG_MAX_BYTES = "pastebin.accessLog.maxBytes";
+	/* default */ static final String PROPERTY_ACCESS_LOG_FILES = "pastebin.accessLog.files";
+	/* default */ static final String PROPERTY_REPLICATION_LISTEN = "pastebin.replication.listen";
+	/* default */ static final String PROPERTY_REPLICATION_PRIMARY = "pastebin.replication.primary";
+	/* default */ static final String PROPERTY_REPLICATION_LOG_SIZE = "pastebin.replication.logSize";
+	/* default */ static final String PROPERTY_JFR = "pastebin.jfr";
+	/* default */ static final String PROPERTY_JFR_MAX_AGE_MINUTES = "pastebin.jfr.maxAgeMinutes";
+	/* default */ static final String PROPERTY_JFR_MAX_MB = "pastebin.jfr.maxMB";
+
+	/**
+	 * Set {@link #PROPERTY_ACCESS_LOG} to this to turn the access log off.
+	 */
+	private static final String ACCESS_LOG_NONE = "none";
+	private static final String ACCESS_LOG_SUFFIX = "-access.log";
+	private static final int ACCESS_LOG_QUEUE_CAPACITY = 10_000;
+	private static final long DEFAULT_ACCESS_LOG_MAX_BYTES = 10L * 1024 * 1024;
+	private static final int DEFAULT_ACCESS_LOG_FILES = 5;
+	private static final int DEFAULT_REPLICATION_LOG_SIZE = 10_000;
+	private static final int DEFAULT_MAX_CONCURRENT = 8;
+	private static final int DEFAULT_MAX_QUEUED = 16;
+	private static final long DEFAULT_QUEUE_TIMEOUT_MS = 2000;
+	private static final int DEFAULT_WRITES_PER_MINUTE = 120;
+	private static final int DEFAULT_WRITE_BURST = 20;
+	private static final int DEFAULT_BLOB_THRESHOLD = 256 * 1024;
+	private static final long DEFAULT_ATTACHMENT_MAX_BYTES = 100L * 1024 * 1024;
+	private static final String BOARDS_SUFFIX = "-boards";
+	private static final int DEFAULT_MAX_BOARDS = 50;
+
+	/**
+	 * Set {@link #PROPERTY_JFR} to this to write the recording next to the save file.
+	 */
+	private static final String JFR_DEFAULT = "default";
+	private static final String JFR_SUFFIX = "-flight.jfr";
+
+	private static final String FAVICON_PATH = "/favicon.ico";
+	private static final String ADMIN_PATH = "/admin/";
+
+	/**
+	 * The query parameter that carries a {@link FlashMessages} token to the page a change redirects to.
+	 */
+	private static final String FLASH_PARAM = "flash";
+	private static final int BACKUP_BUFFER_BYTES = 64 * 1024;
+	private static final int DEFAULT_JFR_MAX_AGE_MINUTES = 60;
+	private static final int DEFAULT_JFR_MAX_MB = 100;
+
+	/**
+	 * Content types we'll pass back as given.  Anything else is served as application/octet-stream.
+	 */
+	private static final Pattern CONTENT_TYPE_PATTERN = Pattern.compile("[\\w.+-]+/[\\w.+-]+");
+
+	/* default */ static final String SERVER_JDK = "jdk";
+	/* default */ static final String SERVER_NIO = "nio";
+
+	/**
+	 * Turns on TCP_NODELAY for the JDK server's connections, as {@link NioHttpServer} does for its own.
+	 */
+	private static final String JDK_NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
 
 	private static final QuerySplit querySplit = new QuerySplit();
 
+	/**
+	 * Messages from changes, waiting for the redirected request that shows them.  Shared by all boards, since
+	 * the tokens are random.
+	 */
+	private final FlashMessages flashMessages = new FlashMessages();
+
 	private static final boolean SAVE_ON_EXIT = true;
 	
+	/**
+	 * Exactly one of these is set, depending on {@link #PROPERTY_SERVER}.
+	 */
 	private HttpServer httpServer;
+	private NioHttpServer nioHttpServer;
+
 	private PasteBinService pasteBinService;
 
+	/**
+	 * The boards under {@code /b/}.  The main board is {@link #pasteBinService}.
+	 */
+	private BoardRegistry boards;
+
+	/**
+	 * Null if the access log is turned off.
+	 */
+	private AccessLog accessLog;
+	private AccessLogFilter accessLogFilter;
+
+	/**
+	 * Shared by every write context, so a client's writes are limited across all of them.  Null if turned off.
+	 */
+	private RateLimiter writeRateLimiter;
+	private final List<AdmissionFilter> admissionFilters = new ArrayList<>();
+
+	/**
+	 * The JDK server runs handlers on this pool.  Null for the NIO server, which has its own.
+	 */
+	private ExecutorService jdkExecutor;
+
+	/**
+	 * Pastes larger than this many bytes are spooled to disk.
+	 */
+	private final int blobThreshold = Integer.getInteger(PROPERTY_BLOB_THRESHOLD, DEFAULT_BLOB_THRESHOLD);
+
+	private final JsonApi jsonApi = new JsonApi(blobThreshold);
+
+	private final long attachmentMaxBytes = Long.getLong(PROPERTY_ATTACHMENT_MAX_BYTES, DEFAULT_ATTACHMENT_MAX_BYTES);
+
+	/**
+	 * Set on an active instance that standby instances follow.
+	 */
+	private ReplicationServer replicationServer;
+
+	/**
+	 * A continuous Flight Recorder recording, or null if {@link #PROPERTY_JFR} isn't set.
+	 */
+	private Recording flightRecording;
+
+	/**
+	 * Set on a standby instance.
+	 */
+	private ReplicationClient replicationClient;
+
 	public String getAddressFullDisplay(NetworkInterface netInterface, InetAddress address) {
 		return netInterface.getName() + " / " + netInterface.getDisplayName() + " / " + address.getHostAddress();
 	}
 
 	public PasteBin(File saveFile, String interfaceSpec) throws UnknownHostException, IOException, IllegalArgumentException {
-		pasteBinService = new PasteBinService(saveFile, SAVE_ON_EXIT);
+		this(saveFile, interfaceSpec, Integer.getInteger(PROPERTY_PORT, DEFAULT_PORT));
+	}
+
+	public PasteBin(File saveFile, String interfaceSpec, int port) throws UnknownHostException, IOException, IllegalArgumentException {
+		// Start recording first, so that loading the save file is in the recording.
+		startFlightRecording(saveFile);
+
+		pasteBinService = new PasteBinService(saveFile, SAVE_ON_EXIT, Boolean.getBoolean(PROPERTY_LAZY_LOAD));
+		boolean deltaCompression = Boolean.parseBoolean(System.getProperty(PROPERTY_DELTA_COMPRESSION, "true"));
+		pasteBinService.setDeltaCompression(deltaCompression);
+		boards = new BoardRegistry(new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + BOARDS_SUFFIX),
+			Integer.getInteger(PROPERTY_MAX_BOARDS, DEFAULT_MAX_BOARDS), SAVE_ON_EXIT, Boolean.getBoolean(PROPERTY_LAZY_LOAD),
+			deltaCompression);
 
 		List<InetAddress> foundInterfaceList = new ArrayList<>();
 		InetAddress foundInterface = null;
@@ -103,17 +277,261 @@ public class PasteBin {
 
 		System.out.println("Listening for connections to:  " + foundInterface + ".");
 
-		InetSocketAddress inetSocketAddress = new InetSocketAddress(foundInterface, 8080);
-		this.httpServer = HttpServer.create(inetSocketAddress, 10);
-		this.httpServer.createContext("/", (he) -> rootContextHandler(he));
-		this.httpServer.createContext("/paste", (he) -> pasteContextHandler(he));
-		this.httpServer.createContext("/pin", (he) -> pinContextHandler(he));
-		this.httpServer.createContext("/delete", (he) -> deleteContextHandler(he));
-		this.httpServer.createContext("/undelete", (he) -> undeleteContextHandler(he));
-		this.httpServer.createContext("/deletePin", (he) -> deletePinContextHandler(he));
-		this.httpServer.createContext("/viewDeleted", (he) -> viewDeletedContextHandler(he));
-		this.httpServer.createContext("/shortUrls", (he) -> shortUrls(he));
-		this.httpServer.createContext("/updateShortUrls", (he) -> updateShortUrls(he));
+		InetSocketAddress inetSocketAddress = new InetSocketAddress(foundInterface, port);
+		String serverType = System.getProperty(PROPERTY_SERVER, SERVER_JDK);
+		if (SERVER_NIO.equalsIgnoreCase(serverType)) {
+			int workers = Integer.getInteger(PROPERTY_NIO_WORKERS, Runtime.getRuntime().availableProcessors());
+			System.out.println("Using the NIO server with " + workers + " workers.");
+			this.nioHttpServer = new NioHttpServer(inetSocketAddress, workers);
+		}
+		else if (SERVER_JDK.equalsIgnoreCase(serverType)) {
+			// Each change is a POST and then a GET of the page on the same connection.  With Nagle's algorithm on,
+			// the end of a chunked page waits for a delayed ACK, about 40 ms.  This is a JVM-wide system property
+			// that the JDK server reads once, when the first one is created, so it's only set when that server is
+			// chosen, and not if it was already given on the command line.
+			if (System.getProperty(JDK_NODELAY_PROPERTY) == null) {
+				System.setProperty(JDK_NODELAY_PROPERTY, "true");
+			}
+			this.httpServer = HttpServer.create(inetSocketAddress, 10);
+
+			// Without an executor every request runs on the single dispatcher thread.
+			int workers = Integer.getInteger(PROPERTY_JDK_WORKERS, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+			this.jdkExecutor = Executors.newFixedThreadPool(workers);
+			this.httpServer.setExecutor(jdkExecutor);
+		}
+		else {
+			System.err.println("Unknown server type '" + serverType + "'.  Use '" + SERVER_JDK + "' or '" + SERVER_NIO + "'.");
+			throw new IllegalArgumentException();
+		}
+
+		openAccessLog(saveFile);
+		setUpReplication(foundInterface);
+
+		int writesPerMinute = Integer.getInteger(PROPERTY_WRITES_PER_MINUTE, DEFAULT_WRITES_PER_MINUTE);
+		if (writesPerMinute > 0) {
+			writeRateLimiter = new RateLimiter(writesPerMinute, Integer.getInteger(PROPERTY_WRITE_BURST, DEFAULT_WRITE_BURST));
+		}
+
+		createContext("/", (he) -> rootContextHandler(he, pasteBinService, he.getRequestURI().getPath()), false);
+		createContext("/paste", (he) -> pasteContextHandler(he, pasteBinService), true);
+		createContext("/pin", (he) -> pinContextHandler(he, pasteBinService), true);
+		createContext("/delete", (he) -> deleteContextHandler(he, pasteBinService), true);
+		createContext("/undelete", (he) -> undeleteContextHandler(he, pasteBinService), true);
+		createContext("/deletePin", (he) -> deletePinContextHandler(he, pasteBinService), true);
+		createContext("/viewDeleted", (he) -> viewDeletedContextHandler(he, pasteBinService), false);
+		createContext("/grep", (he) -> grepContextHandler(he, pasteBinService), false);
+		createContext("/shortUrls", (he) -> shortUrls(he, pasteBinService), false);
+		createContext("/updateShortUrls", (he) -> updateShortUrls(he, pasteBinService), true);
+		createContext("/bulk", (he) -> bulkContextHandler(he, pasteBinService), true);
+		createContext(JsonApi.API_PATH + "/", (he) -> jsonApi.handle(he, pasteBinService, he.getRequestURI().getPath()), true);
+		createContext("/static/", (he) -> staticContextHandler(he), false);
+		createContext(FAVICON_PATH, (he) -> faviconContextHandler(he), false);
+		createContext("/raw/", (he) -> rawContextHandler(he, pasteBinService, he.getRequestURI().getPath()), false);
+		createContext("/attach", (he) -> attachContextHandler(he, pasteBinService), true);
+		createContext("/attachment/", (he) -> attachmentContextHandler(he, pasteBinService, he.getRequestURI().getPath()), false);
+		createUnlimitedContext(BoardRegistry.BOARD_PATH_PREFIX, (he) -> boardContextHandler(he));
+		createContext("/stats", (he) -> statsContextHandler(he), false);
+		createContext(ADMIN_PATH, (he) -> adminContextHandler(he, pasteBinService, he.getRequestURI().getPath()), true);
+	}
+
+	/**
+	 * The access log defaults to a file next to the save file.
+	 *
+	 * @param saveFile
+	 */
+	private void openAccessLog(File saveFile) {
+		File defaultLogFile = new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + ACCESS_LOG_SUFFIX);
+		String logPath = System.getProperty(PROPERTY_ACCESS_LOG, defaultLogFile.getPath());
+		if (ACCESS_LOG_NONE.equalsIgnoreCase(logPath)) {
+			return;
+		}
+
+		long maxBytes = Long.getLong(PROPERTY_ACCESS_LOG_MAX_BYTES, DEFAULT_ACCESS_LOG_MAX_BYTES);
+		int files = Integer.getInteger(PROPERTY_ACCESS_LOG_FILES, DEFAULT_ACCESS_LOG_FILES);
+
+		System.out.println("Writing the access log to '" + logPath + "'.");
+		accessLog = new AccessLog(new File(logPath), ACCESS_LOG_QUEUE_CAPACITY, maxBytes, files);
+		accessLogFilter = new AccessLogFilter(accessLog);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> accessLog.close()));
+	}
+
+	/**
+	 * Keep a continuous Flight Recorder recording with the JDK's low-overhead "default" settings plus this
+	 * application's events.  Only the last {@link #PROPERTY_JFR_MAX_AGE_MINUTES} are kept.  The recording is
+	 * written to the file when the JVM exits, and can be dumped at any time with
+	 * {@code jcmd <pid> JFR.dump name=pastebin}.
+	 *
+	 * @param saveFile
+	 * @throws IOException
+	 */
+	private void startFlightRecording(File saveFile) throws IOException {
+		String jfrPath = System.getProperty(PROPERTY_JFR);
+		if (jfrPath == null) {
+			return;
+		}
+		if (jfrPath.isEmpty() || JFR_DEFAULT.equalsIgnoreCase(jfrPath)) {
+			jfrPath = new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + JFR_SUFFIX).getPath();
+		}
+
+		Configuration configuration;
+		try {
+			configuration = Configuration.getConfiguration("default");
+		}
+		catch (ParseException e) {
+			throw new IOException("Unable to read the default Flight Recorder settings.", e);
+		}
+
+		flightRecording = new Recording(configuration);
+		flightRecording.setName("pastebin");
+		flightRecording.setToDisk(true);
+		flightRecording.setMaxAge(Duration.ofMinutes(Integer.getInteger(PROPERTY_JFR_MAX_AGE_MINUTES, DEFAULT_JFR_MAX_AGE_MINUTES)));
+		flightRecording.setMaxSize(Integer.getInteger(PROPERTY_JFR_MAX_MB, DEFAULT_JFR_MAX_MB) * 1024L * 1024);
+		flightRecording.setDumpOnExit(true);
+		flightRecording.setDestination(Path.of(jfrPath));
+		flightRecording.start();
+
+		System.out.println("Keeping a flight recording, written to '" + jfrPath + "' on exit.");
+	}
+
+	/**
+	 * An instance can stream its changes to standbys, follow a primary, or neither.
+	 *
+	 * @param foundInterface
+	 * 		The replication port listens on the same interface as the web server.
+	 * @throws IOException
+	 */
+	private void setUpReplication(InetAddress foundInterface) throws IOException {
+		Integer listenPort = Integer.getInteger(PROPERTY_REPLICATION_LISTEN);
+		if (listenPort != null) {
+			pasteBinService.enableReplicationLog(Integer.getInteger(PROPERTY_REPLICATION_LOG_SIZE, DEFAULT_REPLICATION_LOG_SIZE));
+			replicationServer = new ReplicationServer(pasteBinService, new InetSocketAddress(foundInterface, listenPort));
+			System.out.println("Accepting standby instances on port " + replicationServer.getPort() + ".");
+		}
+
+		String primary = System.getProperty(PROPERTY_REPLICATION_PRIMARY);
+		if (primary != null) {
+			int colon = primary.lastIndexOf(':');
+			if (colon < 1) {
+				System.err.println("Use host:port for " + PROPERTY_REPLICATION_PRIMARY + ", not '" + primary + "'.");
+				throw new IllegalArgumentException();
+			}
+
+			InetSocketAddress primaryAddress = new InetSocketAddress(primary.substring(0, colon),
+				Integer.parseInt(primary.substring(colon + 1)));
+			replicationClient = new ReplicationClient(pasteBinService, primaryAddress);
+			System.out.println("Following the primary instance at " + primaryAddress + ".");
+		}
+	}
+
+	/**
+	 * @param path
+	 * @param handler
+	 * @param write
+	 * 		True for contexts that change data.  Their POSTs are rate limited per client.
+	 * @return
+	 */
+	private HttpContext createContext(String path, HttpHandler handler, boolean write) {
+		HttpContext context = createUnlimitedContext(path, handler);
+
+		AdmissionFilter admissionFilter = newAdmissionFilter(path, write);
+		admissionFilters.add(admissionFilter);
+		context.getFilters().add(admissionFilter);
+
+		return context;
+	}
+
+	/**
+	 * A context without admission control, for one whose handler applies its own.
+	 *
+	 * @param path
+	 * @param handler
+	 * @return
+	 */
+	private HttpContext createUnlimitedContext(String path, HttpHandler handler) {
+		HttpContext context;
+		if (nioHttpServer != null) {
+			context = nioHttpServer.createContext(path, handler);
+		}
+		else {
+			context = httpServer.createContext(path, handler);
+		}
+
+		// The access log and request events go first, so that shed requests are seen too.
+		if (accessLogFilter != null) {
+			context.getFilters().add(accessLogFilter);
+		}
+		context.getFilters().add(new RequestEventFilter(path));
+
+		return context;
+	}
+
+	/**
+	 * @param path
+	 * 		Names the filter in the stats, and picks up any limits set for that path.
+	 * @param write
+	 * 		True to rate limit POSTs per client.
+	 * @return
+	 */
+	private AdmissionFilter newAdmissionFilter(String path, boolean write) {
+		return new AdmissionFilter(path,
+			getContextInteger(PROPERTY_MAX_CONCURRENT, path, DEFAULT_MAX_CONCURRENT),
+			getContextInteger(PROPERTY_MAX_QUEUED, path, DEFAULT_MAX_QUEUED),
+			Long.getLong(PROPERTY_QUEUE_TIMEOUT_MS, DEFAULT_QUEUE_TIMEOUT_MS),
+			write ? writeRateLimiter : null);
+	}
+
+	/**
+	 * Read a setting that can be overridden per context, e.g. {@code pastebin.admission.maxConcurrent./paste}.
+	 *
+	 * @param property
+	 * @param path
+	 * @param defaultValue
+	 * @return
+	 */
+	private static int getContextInteger(String property, String path, int defaultValue) {
+		return Integer.getInteger(property + "." + path, Integer.getInteger(property, defaultValue));
+	}
+
+	public void start() throws IOException {
+		if (nioHttpServer != null) {
+			nioHttpServer.start();
+		}
+		else {
+			httpServer.start();
+		}
+
+		if (replicationServer != null) {
+			replicationServer.start();
+		}
+		if (replicationClient != null) {
+			replicationClient.start();
+		}
+	}
+
+	/**
+	 * Stop the server.  Used by tests and benchmarks; the console and Ctrl+C use System.exit() instead.
+	 */
+	public void stop() {
+		if (replicationClient != null) {
+			replicationClient.stop();
+		}
+		if (replicationServer != null) {
+			replicationServer.stop();
+		}
+
+		if (nioHttpServer != null) {
+			nioHttpServer.stop(1);
+		}
+		else {
+			httpServer.stop(0);
+			jdkExecutor.shutdown();
+		}
+
+		// Stopping writes the recording to its destination.
+		if (flightRecording != null) {
+			flightRecording.stop();
+			flightRecording.close();
+		}
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -136,7 +554,7 @@ public class PasteBin {
 		PasteBin pasteBin = null;
 		try {
 			pasteBin = new PasteBin(storageFile, inetSearch);
-			pasteBin.httpServer.start();
+			pasteBin.start();
 		}
 		catch (IllegalArgumentException e) {
 			// We already printed out an error.
@@ -164,8 +582,9 @@ public class PasteBin {
 	}
 
 	private void sendResponseHeadersOK(HttpExchange he) throws IOException {
-		he.sendResponseHeaders(200, 0);
+		// Headers must be set before they're sent.
 		he.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		he.sendResponseHeaders(200, 0);
 	}
 
 	/**
@@ -186,18 +605,25 @@ public class PasteBin {
 		}
 	}
 
-	private void rootContextHandler(HttpExchange he) {
+	private void rootContextHandler(HttpExchange he, PasteBinService service, String path) {
 		try {
-			String htmlResponse = pasteBinService.rootHandler(he.getRequestURI().getPath());
-
-			InputStream is = he.getRequestBody();
-			String line = null;
-			try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-				while ((line = br.readLine()) != null) {
-					System.out.println(line);
+			PageMessages messages = null;
+			String query = he.getRequestURI().getRawQuery();
+			if (query != null) {
+				List<String> tokens = querySplit.splitQuery(query).get(FLASH_PARAM);
+				if (tokens != null && !tokens.isEmpty()) {
+					messages = flashMessages.take(tokens.get(0));
 				}
 			}
 
+			String htmlResponse = service.rootHandler(path, messages);
+			slurpInput(he);
+
+			if (htmlResponse == null) {
+				sendNotFound(he, service);
+				return;
+			}
+
 			sendResponseHeadersOK(he);
 
 			OutputStream os = he.getResponseBody();
@@ -210,23 +636,31 @@ public class PasteBin {
 		}
 	}
 
-	private void pasteContextHandler(HttpExchange he) {
+	private void pasteContextHandler(HttpExchange he, PasteBinService service) {
 		try {
-			String htmlResponse = pasteBinService.pasteHandler(handlePost(he));
-
-			LOGGER.fine("Sending response headers.");
-			sendResponseHeadersOK(he);
+			if (!"POST".equals(he.getRequestMethod())) {
+				slurpInput(he);
+				sendErrorResponse(he, service, 400, "Only POST is allowed for updating.");
+				return;
+			}
 
-			LOGGER.fine("Sending response body.");
-			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			// Stream the body, so that a large paste goes straight to disk.
+			FormBody formBody = FormBody.parse(he.getRequestBody(), "text", blobThreshold, service.getBlobStore());
+			PageMessages messages;
+			if (formBody.getSpooledFile() != null) {
+				messages = service.applyPasteBlob(formBody.getSpooledFile(),
+					formBody.getFields().containsKey("preformatted"), PasteBinService.parseTtl(formBody.getFields()));
+			}
+			else {
+				messages = service.applyPaste(formBody.getFields());
 			}
+
+			redirectToPage(he, service, messages);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			try {
-				sendErrorResponse(he, 400, e.getMessage());
+				sendErrorResponse(he, service, 400, e.getMessage());
 			}
 			catch (IOException ioe) {
 				System.err.println("Unable to write error response while handling an exception.");
@@ -235,9 +669,152 @@ public class PasteBin {
 		}
 	}
 
-	private void deleteContextHandler(HttpExchange he) {
+	private void deleteContextHandler(HttpExchange he, PasteBinService service) {
+		try {
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
+			}
+
+			redirectToPage(he, service, service.applyDelete(queryMap));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void undeleteContextHandler(HttpExchange he, PasteBinService service) {
+		try {
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
+			}
+
+			redirectToPage(he, service, service.applyUndelete(queryMap));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void deletePinContextHandler(HttpExchange he, PasteBinService service) {
+		try {
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
+			}
+
+			redirectToPage(he, service, service.applyDeletePin(queryMap));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void bulkContextHandler(HttpExchange he, PasteBinService service) {
+		try {
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
+			}
+
+			redirectToPage(he, service, service.applyBulk(queryMap));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * {@code GET /admin/export} streams a backup of the board, and {@code POST /admin/import} merges one in.  See
+	 * {@link BackupArchive}.
+	 *
+	 * @param he
+	 * @param service
+	 * @param path
+	 */
+	private void adminContextHandler(HttpExchange he, PasteBinService service, String path) {
+		try {
+			switch (path) {
+				case ADMIN_PATH + "export": {
+					slurpInput(he);
+					String name = service.getBoardName() == null ? "pastebin" : "pastebin-" + service.getBoardName();
+					Headers responseHeaders = he.getResponseHeaders();
+					responseHeaders.set("Content-Type", "application/zip");
+					responseHeaders.set("Content-Disposition", "attachment; filename=\"" + name + "-"
+						+ LocalDate.now() + ".zip\"");
+					responseHeaders.set("Cache-Control", "no-store");
+					he.sendResponseHeaders(200, 0);
+					try (OutputStream os = new BufferedOutputStream(he.getResponseBody(), BACKUP_BUFFER_BYTES)) {
+						int count = BackupArchive.write(service, os);
+						LOGGER.info("Exported " + count + " entries.");
+					}
+					break;
+				}
+
+				case ADMIN_PATH + "import": {
+					if (!"POST".equals(he.getRequestMethod())) {
+						slurpInput(he);
+						sendPlainText(he, 405, "Only POST is allowed for importing.");
+						return;
+					}
+
+					List<String> settings = querySplit.splitQuery(he.getRequestURI().getRawQuery()).get("settings");
+					BackupArchive.ImportResult result;
+					try (InputStream is = new BufferedInputStream(he.getRequestBody(), BACKUP_BUFFER_BYTES)) {
+						result = BackupArchive.read(service, is, settings != null && settings.contains("true"));
+						slurpInput(he);
+					}
+					catch (IOException e) {
+						LOGGER.warning("Unable to import a backup:  " + e.getMessage());
+						sendPlainText(he, 400, "Unable to import the backup:  " + e.getMessage());
+						return;
+					}
+
+					sendPlainText(he, 200, "Imported " + result.getImportedCount() + " entries.  Skipped "
+						+ result.getSkippedCount() + " that were already here.");
+					break;
+				}
+
+				default:
+					slurpInput(he);
+					he.sendResponseHeaders(404, -1);
+					he.close();
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void sendPlainText(HttpExchange he, int status, String text) throws IOException {
+		byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+		he.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		he.sendResponseHeaders(status, body.length);
+		try (OutputStream os = he.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	private void pinContextHandler(HttpExchange he, PasteBinService service) {
+		try {
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
+			}
+
+			redirectToPage(he, service, service.applyPin(queryMap));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void viewDeletedContextHandler(HttpExchange he, PasteBinService service) {
 		try {
-			String htmlResponse = pasteBinService.deleteHandler(handlePost(he));
+			URI requestUri = he.getRequestURI();
+			String htmlResponse = service.viewDeletedContextHandler(
+				querySplit.splitQuery(requestUri.getRawQuery()));
 			slurpInput(he);
 
 			sendResponseHeadersOK(he);
@@ -251,66 +828,490 @@ public class PasteBin {
 		}
 	}
 
-	private void undeleteContextHandler(HttpExchange he) {
+	/**
+	 * Search every entry for the regular expression in the "re" parameter.  Matches are sent as they're found,
+	 * so the response is chunked and flushed after each one.
+	 *
+	 * @param he
+	 * @param service
+	 */
+	private void grepContextHandler(HttpExchange he, PasteBinService service) {
 		try {
-			String htmlResponse = pasteBinService.undeleteContextHandler(handlePost(he));
+			List<String> values = querySplit.splitQuery(he.getRequestURI().getRawQuery()).get("re");
 			slurpInput(he);
 
+			Pattern pattern = null;
+			if (values != null && !values.isEmpty() && !values.get(0).isEmpty()) {
+				try {
+					pattern = Pattern.compile(values.get(0));
+				}
+				catch (PatternSyntaxException e) {
+					sendErrorResponse(he, service, 400, "Not a valid pattern:  " + StringEscapeUtils.escapeHtml4(e.getDescription()));
+					return;
+				}
+			}
+
 			sendResponseHeadersOK(he);
 			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+				service.grepHandler(bw, pattern);
+			}
+		}
+		catch (IOException e) {
+			LOGGER.fine("Search ended early:  " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Route {@code /b/<name>/...} to the same handlers as the main board, using that board's service.
+	 * {@code /b/} itself lists the boards.
+	 *
+	 * Each board has its own admission control, made the first time the board is used, so one board's traffic
+	 * can't shed another's.  The index, redirects and 404s are cheap, and skip it.
+	 *
+	 * @param he
+	 */
+	private void boardContextHandler(HttpExchange he) {
+		String rest = he.getRequestURI().getPath().substring(BoardRegistry.BOARD_PATH_PREFIX.length());
+		int slash = rest.indexOf('/');
+		String name = slash < 0 ? rest : rest.substring(0, slash);
+
+		PasteBinService board;
+		try {
+			if (name.isEmpty()) {
+				boardIndexHandler(he);
+				return;
+			}
+
+			board = boards.get(name);
+			if (board == null) {
+				slurpInput(he);
+				he.sendResponseHeaders(404, -1);
+				he.close();
+				return;
+			}
+
+			if (slash < 0) {
+				slurpInput(he);
+				he.getResponseHeaders().set("Location", BoardRegistry.BOARD_PATH_PREFIX + name + "/");
+				he.sendResponseHeaders(301, -1);
+				he.close();
+				return;
 			}
 		}
 		catch (IOException e) {
 			e.printStackTrace();
+			return;
+		}
+
+		String boardPath = rest.substring(slash);
+		PasteBinService service = board;
+		AdmissionFilter admissionFilter = boards.getAdmissionFilter(name, (path) -> newAdmissionFilter(path, true));
+		try {
+			admissionFilter.doFilter(he, new Filter.Chain(Collections.emptyList(), (exchange) -> boardPathHandler(exchange, service, boardPath)),
+				isBoardWritePath(boardPath));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param boardPath
+	 * 		The path within a board, e.g. {@code /paste}.
+	 * @return
+	 * 		True for the paths whose contexts are write contexts on the main board.
+	 */
+	/* default */ static boolean isBoardWritePath(String boardPath) {
+		switch (boardPath) {
+			case "/paste":
+			case "/pin":
+			case "/delete":
+			case "/undelete":
+			case "/deletePin":
+			case "/updateShortUrls":
+			case "/bulk":
+			case "/attach":
+				return true;
+			default:
+				return boardPath.startsWith(JsonApi.API_PATH + "/") || boardPath.startsWith(ADMIN_PATH);
+		}
+	}
+
+	/**
+	 * @param he
+	 * @param board
+	 * @param boardPath
+	 * 		The path within the board, e.g. {@code /paste}.
+	 */
+	private void boardPathHandler(HttpExchange he, PasteBinService board, String boardPath) {
+		switch (boardPath) {
+			case "/paste":
+				pasteContextHandler(he, board);
+				break;
+			case "/pin":
+				pinContextHandler(he, board);
+				break;
+			case "/delete":
+				deleteContextHandler(he, board);
+				break;
+			case "/undelete":
+				undeleteContextHandler(he, board);
+				break;
+			case "/deletePin":
+				deletePinContextHandler(he, board);
+				break;
+			case "/viewDeleted":
+				viewDeletedContextHandler(he, board);
+				break;
+			case "/grep":
+				grepContextHandler(he, board);
+				break;
+			case "/shortUrls":
+				shortUrls(he, board);
+				break;
+			case "/updateShortUrls":
+				updateShortUrls(he, board);
+				break;
+			case "/bulk":
+				bulkContextHandler(he, board);
+				break;
+			case "/attach":
+				attachContextHandler(he, board);
+				break;
+			default:
+				if (boardPath.startsWith(JsonApi.API_PATH + "/")) {
+					jsonApi.handle(he, board, boardPath);
+				}
+				else if (boardPath.startsWith("/raw/")) {
+					rawContextHandler(he, board, boardPath);
+				}
+				else if (boardPath.startsWith(ADMIN_PATH)) {
+					adminContextHandler(he, board, boardPath);
+				}
+				else if (boardPath.startsWith("/attachment/")) {
+					attachmentContextHandler(he, board, boardPath);
+				}
+				else {
+					// The board's page, or one of its short URLs.
+					rootContextHandler(he, board, boardPath);
+				}
+		}
+	}
+
+	/**
+	 * List the boards, or go to the one named in the "name" parameter.
+	 *
+	 * @param he
+	 * @throws IOException
+	 */
+	private void boardIndexHandler(HttpExchange he) throws IOException {
+		slurpInput(he);
+
+		String errorMessage = null;
+		List<String> names = querySplit.splitQuery(he.getRequestURI().getRawQuery()).get("name");
+		if (names != null && names.size() == 1) {
+			String name = names.get(0).trim().toLowerCase(Locale.ROOT);
+			if (BoardRegistry.isValidName(name)) {
+				he.getResponseHeaders().set("Location", BoardRegistry.BOARD_PATH_PREFIX + name + "/");
+				he.sendResponseHeaders(303, -1);
+				he.close();
+				return;
+			}
+			errorMessage = "Board names are up to 32 lowercase letters, digits, '-' and '_'.";
+		}
+
+		sendResponseHeadersOK(he);
+		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(he.getResponseBody(), StandardCharsets.UTF_8))) {
+			boards.writeIndexPage(bw, errorMessage);
 		}
 	}
 
-	private void deletePinContextHandler(HttpExchange he) {
+	/**
+	 * Serve the stylesheet, script and icon.  Their paths are versioned, so browsers may cache them forever.
+	 *
+	 * @param he
+	 */
+	private void staticContextHandler(HttpExchange he) {
 		try {
-			String htmlResponse = pasteBinService.deletePinContextHandler(handlePost(he));
 			slurpInput(he);
 
-			sendResponseHeadersOK(he);
-			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			StaticResource resource = StaticResources.find(he.getRequestURI().getPath());
+			if (resource == null) {
+				he.sendResponseHeaders(404, -1);
+				he.close();
+				return;
 			}
+
+			sendStaticResource(he, resource, "public, max-age=31536000, immutable");
 		}
 		catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void pinContextHandler(HttpExchange he) {
+	/**
+	 * Browsers ask for /favicon.ico on their own, whatever the page links to.
+	 *
+	 * @param he
+	 */
+	private void faviconContextHandler(HttpExchange he) {
 		try {
-			String htmlResponse = pasteBinService.pinContextHandler(handlePost(he));
 			slurpInput(he);
+			if (!he.getRequestURI().getPath().equals(FAVICON_PATH)) {
+				sendNotFound(he, pasteBinService);
+				return;
+			}
 
-			sendResponseHeadersOK(he);
-			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			sendStaticResource(he, StaticResources.FAVICON, "public, max-age=86400");
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param he
+	 * @param resource
+	 * @param cacheControl
+	 * 		Versioned paths can be cached forever, but fixed ones like /favicon.ico can't.
+	 * @throws IOException
+	 */
+	private void sendStaticResource(HttpExchange he, StaticResource resource, String cacheControl) throws IOException {
+		Headers responseHeaders = he.getResponseHeaders();
+		responseHeaders.set("Cache-Control", cacheControl);
+		responseHeaders.set("ETag", resource.getEtag());
+		responseHeaders.set("Vary", "Accept-Encoding");
+
+		if (resource.getEtag().equals(he.getRequestHeaders().getFirst("If-None-Match"))) {
+			he.sendResponseHeaders(304, -1);
+			he.close();
+			return;
+		}
+
+		byte[] body = resource.getBytes();
+		String acceptEncoding = he.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			body = resource.getGzippedBytes();
+			responseHeaders.set("Content-Encoding", "gzip");
+		}
+
+		responseHeaders.set("Content-Type", resource.getContentType());
+		if ("HEAD".equals(he.getRequestMethod())) {
+			he.sendResponseHeaders(200, -1);
+			he.close();
+			return;
+		}
+
+		he.sendResponseHeaders(200, body.length);
+		try (OutputStream os = he.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	/**
+	 * Serve the whole text of a large paste from its blob file, e.g. {@code /raw/<uuid>}.
+	 *
+	 * @param he
+	 */
+	private void rawContextHandler(HttpExchange he, PasteBinService service, String path) {
+		try {
+			slurpInput(he);
+
+			Path blob = null;
+			try {
+				blob = service.getBlobPath(UUID.fromString(path.substring("/raw/".length())));
+			}
+			catch (IllegalArgumentException e) {
+				// Not a UUID.  Fall through to the 404.
+			}
+
+			if (blob == null) {
+				he.sendResponseHeaders(404, -1);
+				he.close();
+				return;
 			}
+
+			Headers responseHeaders = he.getResponseHeaders();
+			responseHeaders.set("Content-Type", "text/plain; charset=utf-8");
+			responseHeaders.set("X-Content-Type-Options", "nosniff");
+			sendBlob(he, blob);
 		}
 		catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void viewDeletedContextHandler(HttpExchange he) {
+	/**
+	 * Accept one or more uploaded files.  Each becomes its own entry.
+	 *
+	 * @param he
+	 */
+	private void attachContextHandler(HttpExchange he, PasteBinService service) {
 		try {
-			URI requestUri = he.getRequestURI();
-			System.out.println(requestUri);
+			if (!"POST".equals(he.getRequestMethod())) {
+				slurpInput(he);
+				sendErrorResponse(he, service, 400, "Only POST is allowed for updating.");
+				return;
+			}
+
+			String boundary = MultipartBody.getBoundary(he.getRequestHeaders().getFirst("Content-Type"));
+			if (boundary == null) {
+				slurpInput(he);
+				sendErrorResponse(he, service, 400, "Expected a multipart/form-data upload.");
+				return;
+			}
+
+			MultipartBody body;
+			try {
+				body = MultipartBody.parse(he.getRequestBody(), boundary, attachmentMaxBytes, service.getBlobStore());
+			}
+			catch (IOException e) {
+				LOGGER.warning("Rejected an upload:  " + e.getMessage());
+				sendErrorResponse(he, service, 400, "The upload failed:  " + e.getMessage());
+				return;
+			}
+
+			PageMessages messages = PageMessages.NONE;
+			for (MultipartBody.FilePart part : body.getFiles()) {
+				if (part.getFileName().isEmpty()) {
+					// The form was submitted without choosing a file.
+					Files.deleteIfExists(part.getFile());
+					continue;
+				}
+
+				String contentType = part.getContentType().toLowerCase(Locale.ROOT);
+				if (!CONTENT_TYPE_PATTERN.matcher(contentType).matches()) {
+					contentType = "application/octet-stream";
+				}
+				messages = service.applyAttach(part.getFile(), part.getFileName(), contentType);
+			}
+
+			redirectToPage(he, service, messages);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			String htmlResponse = pasteBinService.viewDeletedContextHandler();
+	/**
+	 * Download an uploaded file, e.g. {@code /attachment/<uuid>}.  Only plain images are shown in the browser;
+	 * everything else is a download, so an uploaded HTML page can't run script on this site.
+	 *
+	 * @param he
+	 */
+	private void attachmentContextHandler(HttpExchange he, PasteBinService service, String path) {
+		try {
 			slurpInput(he);
 
-			sendResponseHeadersOK(he);
-			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			HistoryEntry entry = null;
+			try {
+				entry = service.findAttachment(UUID.fromString(path.substring("/attachment/".length())));
+			}
+			catch (IllegalArgumentException e) {
+				// Not a UUID.  Fall through to the 404.
+			}
+
+			if (entry == null) {
+				he.sendResponseHeaders(404, -1);
+				he.close();
+				return;
+			}
+
+			Path file = service.getBlobStore().pathFor(entry.getUuid());
+
+			String contentType = entry.getAttachmentContentType();
+			boolean inline = PasteBinService.isInlineImage(contentType);
+			String fileName = entry.getAttachmentName();
+			String asciiName = fileName.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_");
+
+			Headers responseHeaders = he.getResponseHeaders();
+			responseHeaders.set("Content-Type", contentType);
+			responseHeaders.set("Content-Disposition", (inline ? "inline" : "attachment") + "; filename=\"" + asciiName
+				+ "\"; filename*=UTF-8''" + URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20"));
+			responseHeaders.set("X-Content-Type-Options", "nosniff");
+			responseHeaders.set("Content-Security-Policy", "sandbox");
+
+			// The file behind a UUID never changes.
+			responseHeaders.set("Cache-Control", "private, max-age=31536000, immutable");
+			sendBlob(he, file);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Send a blob file, or the part of it asked for with {@code Range}, so an interrupted download can be
+	 * resumed.  Blobs never change once written, so the ETag is just the file name and size.
+	 *
+	 * @param he
+	 * @param file
+	 * @throws IOException
+	 */
+	private void sendBlob(HttpExchange he, Path file) throws IOException {
+		long length = Files.size(file);
+		String etag = "\"" + file.getFileName() + "-" + length + "\"";
+		String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+			Files.getLastModifiedTime(file).toInstant().atZone(ZoneOffset.UTC));
+
+		Headers responseHeaders = he.getResponseHeaders();
+		responseHeaders.set("Accept-Ranges", "bytes");
+		responseHeaders.set("ETag", etag);
+		responseHeaders.set("Last-Modified", lastModified);
+
+		ByteRange range = ByteRange.parse(he.getRequestHeaders().getFirst("Range"), length);
+
+		// If-Range means "only send a part if it's still the version I have".
+		String ifRange = he.getRequestHeaders().getFirst("If-Range");
+		if (range != null && ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+			range = null;
+		}
+
+		if (range == ByteRange.UNSATISFIABLE) {
+			responseHeaders.set("Content-Range", "bytes */" + length);
+			he.sendResponseHeaders(416, -1);
+			he.close();
+		}
+		else if (range == null) {
+			NioHttpServer.sendFile(he, file, length);
+		}
+		else {
+			responseHeaders.set("Content-Range", range.toContentRange(length));
+			NioHttpServer.sendFile(he, 206, file, range.getFirst(), range.getLength());
+		}
+	}
+
+	/**
+	 * Plain-text counters, one {@code name=value} per line, for watching the server under load.
+	 *
+	 * @param he
+	 */
+	private void statsContextHandler(HttpExchange he) {
+		try {
+			slurpInput(he);
+
+			he.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			he.getResponseHeaders().set("Cache-Control", "no-store");
+			he.sendResponseHeaders(200, 0);
+			try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(he.getResponseBody(), StandardCharsets.UTF_8))) {
+				for (AdmissionFilter admissionFilter : admissionFilters) {
+					admissionFilter.writeStats(writer);
+				}
+				for (AdmissionFilter admissionFilter : boards.getAdmissionFilters().values()) {
+					admissionFilter.writeStats(writer);
+				}
+				if (writeRateLimiter != null) {
+					writer.println("rateLimit.clients=" + writeRateLimiter.getClientCount());
+				}
+				if (accessLog != null) {
+					writer.println("accessLog.dropped=" + accessLog.getDroppedCount());
+				}
+				writer.println("boards.loaded=" + boards.getLoadedCount());
+				pasteBinService.writeStats(writer, "main");
+				for (Map.Entry<String, PasteBinService> board : boards.getLoadedBoards().entrySet()) {
+					board.getValue().writeStats(writer, "board." + board.getKey());
+				}
 			}
 		}
 		catch (IOException e) {
@@ -318,7 +1319,31 @@ public class PasteBin {
 		}
 	}
 
-	private void sendErrorResponse(HttpExchange he, int errorCode, String errorMessage)
+	/**
+	 * A small page instead of the whole board, since most unknown paths are scanners and browsers guessing.
+	 *
+	 * @param he
+	 * @param service
+	 * @throws IOException
+	 */
+	private void sendNotFound(HttpExchange he, PasteBinService service) throws IOException {
+		byte[] body = ("<html><head><title>Not Found</title></head><body><p>Not found.  <a href='"
+			+ service.getBasePath() + "/'>Go to the PasteBin.</a></p></body></html>").getBytes(StandardCharsets.UTF_8);
+
+		he.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		if ("HEAD".equals(he.getRequestMethod())) {
+			he.sendResponseHeaders(404, -1);
+			he.close();
+			return;
+		}
+
+		he.sendResponseHeaders(404, body.length);
+		try (OutputStream os = he.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	private void sendErrorResponse(HttpExchange he, PasteBinService service, int errorCode, String errorMessage)
 			throws IOException
 	{
 		he.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
@@ -326,22 +1351,39 @@ public class PasteBin {
 
 		OutputStream os = he.getResponseBody();
 		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-			pasteBinService.writePage(bw, errorMessage, null);
+			service.writePage(bw, errorMessage, null);
 		}
 	}
 
-	private Map<String, List<String>> handlePost(HttpExchange he) throws IOException {
+	/**
+	 * Answer a change with a redirect to the board's page, so that reloading the page doesn't repeat the change.
+	 * Any messages are kept in {@link #flashMessages} and shown by the request the browser makes next.
+	 *
+	 * @param he
+	 * @param service
+	 * @param messages
+	 * @throws IOException
+	 */
+	private void redirectToPage(HttpExchange he, PasteBinService service, PageMessages messages) throws IOException {
+		String location = service.getBasePath() + "/";
+		if (!messages.isEmpty()) {
+			location += "?" + FLASH_PARAM + "=" + flashMessages.put(messages);
+		}
+
+		he.getResponseHeaders().set("Location", location);
+		he.sendResponseHeaders(303, -1);
+		he.close();
+	}
+
+	private Map<String, List<String>> handlePost(HttpExchange he, PasteBinService service) throws IOException {
 		String requestMethod = he.getRequestMethod();
 		if (!"POST".equals(requestMethod)) {
 			LOGGER.warning("Request method " + requestMethod + " is not allowed for updating.");
-			sendErrorResponse(he, 400, "Only POST is allowed for updating.");
+			sendErrorResponse(he, service, 400, "Only POST is allowed for updating.");
 
 			return null;
 		}
 
-		URI requestUri = he.getRequestURI();
-		System.out.println(requestUri);
-
 		InputStream is = he.getRequestBody();
 		Map<String, List<String>> queryMap = null;
 		try {
@@ -358,7 +1400,7 @@ public class PasteBin {
 		}
 		catch (IOException e) {
 			e.printStackTrace();
-			sendErrorResponse(he, 500, "Internal Error.  Check the logs on the host.");
+			sendErrorResponse(he, service, 500, "Internal Error.  Check the logs on the host.");
 
 			return null;
 		}
@@ -366,9 +1408,9 @@ public class PasteBin {
 		return queryMap;
 	}
 
-	private void shortUrls(HttpExchange he) {
+	private void shortUrls(HttpExchange he, PasteBinService service) {
 		try {
-			String htmlResponse = pasteBinService.shortUrlDisplayHandler();
+			String htmlResponse = service.shortUrlDisplayHandler();
 			slurpInput(he);
 
 			sendResponseHeadersOK(he);
@@ -383,16 +1425,14 @@ public class PasteBin {
 		}
 	}
 
-	private void updateShortUrls(HttpExchange he) {
+	private void updateShortUrls(HttpExchange he, PasteBinService service) {
 		try {
-			String htmlResponse = pasteBinService.updateShortUrlHandler(handlePost(he));
-
-			sendResponseHeadersOK(he);
-
-			OutputStream os = he.getResponseBody();
-			try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os))) {
-				bw.write(htmlResponse);
+			Map<String, List<String>> queryMap = handlePost(he, service);
+			if (queryMap == null) {
+				return;
 			}
+
+			redirectToPage(he, service, service.applyShortUrlUpdate(queryMap));
 		}
 		catch (IOException e) {
 			e.printStackTrace();
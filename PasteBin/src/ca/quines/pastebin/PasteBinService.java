@@ -22,20 +22,45 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.apache.commons.text.StringEscapeUtils;
 
@@ -49,12 +74,152 @@ public class PasteBinService {
 
 	private static final int DEFAULT_MAX_MAIN_ENTRIES = 20;
 	private static final int DEFAULT_MAX_KEEP_DELETED_DAYS = 32;
+	private static final long DEFAULT_MAX_ACTIVE_BYTES = 32L * 1024 * 1024;
+	private static final long DEFAULT_MAX_PINNED_BYTES = 32L * 1024 * 1024;
+	private static final long DEFAULT_MAX_DELETED_BYTES = 128L * 1024 * 1024;
 
 	private static final long ONE_DAY_IN_MS = 24 * 60 * 60 * 1000;
 	private static final long KEEP_TIME_IN_MS = ONE_DAY_IN_MS * DEFAULT_MAX_KEEP_DELETED_DAYS;
 
 	/* default */ static final String CONFIG_MAX_KEEP_DELETED_DAYS = "config.max_keep_deleted_days";
 	/* default */ static final String CONFIG_MAX_MAIN_ENTRIES = "config.max_main_entries";
+	/* default */ static final String CONFIG_MAX_ACTIVE_BYTES = "config.max_active_bytes";
+	/* default */ static final String CONFIG_MAX_PINNED_BYTES = "config.max_pinned_bytes";
+	/* default */ static final String CONFIG_MAX_DELETED_BYTES = "config.max_deleted_bytes";
+
+	private static final String BLOB_DIRECTORY_SUFFIX = "-blobs";
+
+	/**
+	 * How much of a large paste is shown on the page.  The rest is at /raw/.
+	 */
+	/* default */ static final int BLOB_PREVIEW_CHARS = 4000;
+
+	/**
+	 * Pastes shorter than this are always kept whole.  See {@link #chooseDeltaBase(String, List)}.
+	 */
+	private static final int DELTA_MIN_CHARS = 512;
+
+	/**
+	 * How many of the newest active and pinned entries are tried as a delta base.
+	 */
+	private static final int DELTA_CANDIDATES = 4;
+
+	/**
+	 * Limits how many deltas are applied to rebuild one text.
+	 */
+	/* default */ static final int MAX_DELTA_DEPTH = 8;
+
+	/* default */ static final String PINNED_BUDGET_MESSAGE = "The pinned list is full.  Delete a pinned item first.";
+
+	/**
+	 * How many recently missed short URLs are remembered.
+	 */
+	private static final int SHORT_URL_MISS_CACHE_SIZE = 1024;
+
+	/**
+	 * Set to "false" to read the save file on one thread.  See {@link #loadHistoryLists}.
+	 */
+	/* default */ static final String PROPERTY_PARALLEL_LOAD = "pastebin.parallelLoad";
+
+	/**
+	 * How long a search from {@link #grepHandler(Writer, Pattern)} may take, in milliseconds.
+	 */
+	/* default */ static final String PROPERTY_GREP_BUDGET_MS = "pastebin.grepBudgetMs";
+	private static final long DEFAULT_GREP_BUDGET_MS = 10_000;
+
+	/**
+	 * How many entries of a list are decoded per task when loading.
+	 */
+	private static final int LOAD_CHUNK_ENTRIES = 2048;
+
+	/**
+	 * The main page, split where the messages go.
+	 */
+	private static final class CachedPage {
+
+		private final long version;
+		private final String beforeMessages;
+		private final String afterMessages;
+
+		private CachedPage(long version, String beforeMessages, String afterMessages) {
+			this.version = version;
+			this.beforeMessages = beforeMessages;
+			this.afterMessages = afterMessages;
+		}
+
+	}
+
+	/**
+	 * Entries decoded from one range of a list in the save file.
+	 */
+	private static final class DecodedChunk {
+
+		private final List<HistoryEntry> entries;
+		private final Map<HistoryEntry, UUID> deltaBases = new HashMap<>();
+
+		private DecodedChunk(int size) {
+			this.entries = new ArrayList<>(size);
+		}
+
+	}
+
+	/**
+	 * An entry that a new paste might be kept as a delta against.  The stored text of the entry and its bases is
+	 * copied with the data lock held, so the whole text can be rebuilt and compared without it.
+	 */
+	private static final class DeltaCandidate {
+
+		private final HistoryEntry entry;
+
+		/**
+		 * The entry's stored text, then its base's, and so on down to one that holds its own text.
+		 */
+		private final List<Supplier<String>> storedTexts = new ArrayList<>();
+
+		/**
+		 * Set by {@link PasteBinService#chooseDeltaBase(String, List)}.
+		 */
+		private String delta;
+
+		private DeltaCandidate(HistoryEntry entry) {
+			this.entry = entry;
+			for (HistoryEntry link = entry; link != null; link = link.getDeltaBase()) {
+				storedTexts.add(link.getStoredTextSupplier());
+			}
+		}
+
+		private String getText() {
+			String text = storedTexts.get(storedTexts.size() - 1).get();
+			for (int i = storedTexts.size() - 2; i >= 0; i--) {
+				text = TextDelta.apply(text, storedTexts.get(i).get());
+			}
+
+			return text;
+		}
+
+	}
+
+	/**
+	 * The resolution of entry expiry.
+	 */
+	private static final long EXPIRY_TICK_MS = 1000;
+
+	/* default */ static final Duration MAX_TTL = Duration.ofDays(365);
+
+	/**
+	 * The choices on the paste form, in seconds, with 0 for never.
+	 */
+	private static final long[] TTL_CHOICES = { 0, 10 * 60, 60 * 60, 24 * 60 * 60, 7 * 24 * 60 * 60 };
+	private static final String[] TTL_LABELS = { "Never", "10 minutes", "1 hour", "1 day", "1 week" };
+
+	/**
+	 * Shared by every board.  A board only has a task on it while it has entries waiting to expire.
+	 */
+	private static final ScheduledExecutorService EXPIRY_EXECUTOR = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "paste-expiry");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	/**
 	 * This service is meant to be very low traffic and low volume.  We can get away with larger chunks of synchronized
@@ -64,6 +229,30 @@ public class PasteBinService {
 
 	private int maxMainEntries, maxKeepDeletedDays;
 
+	/**
+	 * Budgets for the total {@link HistoryEntry#getTextBytes()} in each list.  Active entries over the budget move
+	 * to the deleted list, the oldest deleted entries over the budget are removed for good, and pins that would
+	 * go over the budget are refused.
+	 */
+	private long maxActiveBytes, maxPinnedBytes, maxDeletedBytes;
+
+	/**
+	 * The total {@link HistoryEntry#getTextBytes()} in {@link #pinnedHistoryList}.  The other two lists keep
+	 * their own totals.
+	 */
+	private long pinnedTextBytes;
+
+	/**
+	 * Counts changes to the lists and settings, so {@link #cachedPage} can tell it's out of date.  Guarded by the
+	 * data lock.
+	 */
+	private long pageVersion;
+
+	/**
+	 * The main page as of {@link CachedPage#version}, or null.  Guarded by the data lock.
+	 */
+	private CachedPage cachedPage;
+
 	// Define this at the class level
 	private static final DateTimeFormatter ISO_NOBR_FORMATTER = 
 			DateTimeFormatter.ofPattern("'<nobr>'yyyy-MM-dd'</nobr> <nobr>'HH:mm:ss'</nobr>'")
@@ -72,12 +261,65 @@ public class PasteBinService {
 	private File saveFile;
 
 	/**
-	 * The list of pasted items (the main list of items)
+	 * Null for the main board at the root of the site.
+	 */
+	private String boardName;
+
+	/**
+	 * Prefixed to every link in the pages:  empty for the main board, or e.g. "/b/kids".
+	 */
+	private String basePath = "";
+
+	/**
+	 * If true, entry text is read from a memory-mapped save file on first use instead of at startup.
+	 */
+	private boolean lazyLoad;
+
+	/**
+	 * If true, a paste that's mostly the same as a recent one is kept as a delta against it.
+	 */
+	private boolean deltaCompression = true;
+
+	/**
+	 * Paths that recently matched no short URL.  See {@link #rootHandler(String)}.
+	 */
+	private final ShortUrlMissCache shortUrlMissCache = new ShortUrlMissCache(SHORT_URL_MISS_CACHE_SIZE);
+	private final LongAdder shortUrlHitCount = new LongAdder();
+	private final LongAdder shortUrlMissCount = new LongAdder();
+	private final LongAdder shortUrlCachedMissCount = new LongAdder();
+
+	/**
+	 * Entries with an expiry time, by that time.  Guarded by the data lock.  See {@link #scheduleExpiry(HistoryEntry)}.
+	 */
+	private final TimingWheel<HistoryEntry> expiryWheel = new TimingWheel<>(EXPIRY_TICK_MS, System.currentTimeMillis());
+
+	/**
+	 * Ticks {@link #expiryWheel}, or null while it's empty.  Guarded by the data lock.
+	 */
+	private ScheduledFuture<?> expiryTask;
+
+	/**
+	 * Holds the text of large pastes, next to the save file.
 	 */
-	private List<HistoryEntry> historyList;
+	private BlobStore blobStore;
+
+	/**
+	 * The list of pasted items (the main list of items), newest first.  Entries that fall off the end are
+	 * moved to the deleted list.
+	 */
+	private HistoryRingBuffer historyList;
 
 	private List<HistoryEntry> pinnedHistoryList;
-	private List<HistoryEntry> deletedHistoryList;
+
+	/**
+	 * Deleted entries, ordered by deleted timestamp.
+	 */
+	private DeletedHistoryStore deletedHistoryList;
+
+	/**
+	 * Records every change for standby instances.  Null unless replication is turned on.
+	 */
+	private ReplicationLog replicationLog;
 
 	/**
 	 * Load the configuration, all three lists, and set a shutdown hook to save everything on JVM exit.
@@ -85,11 +327,38 @@ public class PasteBinService {
 	 * @param saveFile
 	 */
 	public PasteBinService(File saveFile, boolean saveOnExit) {
+		this(saveFile, saveOnExit, false);
+	}
+
+	/**
+	 * @param saveFile
+	 * @param saveOnExit
+	 * @param lazyLoad
+	 * 		Only read the entry metadata at startup, leaving the text in a memory-mapped save file until it's
+	 * 		needed.  This keeps startup time flat as the deleted list grows.
+	 */
+	public PasteBinService(File saveFile, boolean saveOnExit, boolean lazyLoad) {
+		this(saveFile, saveOnExit, lazyLoad, null);
+	}
+
+	/**
+	 * @param saveFile
+	 * @param saveOnExit
+	 * @param lazyLoad
+	 * @param boardName
+	 * 		The name of a board served under {@code /b/<name>/}, or null for the main board.  See
+	 * 		{@link BoardRegistry}.
+	 */
+	public PasteBinService(File saveFile, boolean saveOnExit, boolean lazyLoad, String boardName) {
 		synchronized(dataLock) {
 			this.saveFile = saveFile;
-			this.historyList = new ArrayList<>();
+			this.lazyLoad = lazyLoad;
+			this.boardName = boardName;
+			this.basePath = boardName == null ? "" : BoardRegistry.BOARD_PATH_PREFIX + boardName;
+			this.blobStore = new BlobStore(new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + BLOB_DIRECTORY_SUFFIX));
+			this.historyList = new HistoryRingBuffer(DEFAULT_MAX_MAIN_ENTRIES, (entry) -> evictToDeletedHistoryList(entry));
 			this.pinnedHistoryList = new ArrayList<>();
-			this.deletedHistoryList = new ArrayList<>();
+			this.deletedHistoryList = new DeletedHistoryStore();
 
 			load();
 		}
@@ -126,12 +395,39 @@ public class PasteBinService {
 		return defaultValue;
 	}
 
+	private long getLongWithDefault(Properties props, String key, long defaultValue) {
+		if (props == null || props.getProperty(key) == null) {
+			return defaultValue;
+		}
+
+		String stringValue = props.getProperty(key);
+		try {
+			long value = Long.parseLong(stringValue);
+			if (value > 0) {
+				return value;
+			}
+		}
+		catch (NumberFormatException e) {
+			// Fall through.
+		}
+
+		System.err.println("Unable to parse value '" + stringValue + "' for key '" + key
+			+ "' as a positive number.  Using default value " + defaultValue + ".");
+		return defaultValue;
+	}
+
 	private void setDefaults(Properties props) {
 		maxMainEntries = getIntWithDefault(props, CONFIG_MAX_MAIN_ENTRIES,
 			DEFAULT_MAX_MAIN_ENTRIES);
+		historyList.setLimit(Math.max(1, maxMainEntries));
 
 		maxKeepDeletedDays = getIntWithDefault(props, CONFIG_MAX_KEEP_DELETED_DAYS,
 			DEFAULT_MAX_KEEP_DELETED_DAYS);
+
+		maxActiveBytes = getLongWithDefault(props, CONFIG_MAX_ACTIVE_BYTES, DEFAULT_MAX_ACTIVE_BYTES);
+		historyList.setByteLimit(maxActiveBytes);
+		maxPinnedBytes = getLongWithDefault(props, CONFIG_MAX_PINNED_BYTES, DEFAULT_MAX_PINNED_BYTES);
+		maxDeletedBytes = getLongWithDefault(props, CONFIG_MAX_DELETED_BYTES, DEFAULT_MAX_DELETED_BYTES);
 	}
 
 	/**
@@ -162,44 +458,175 @@ public class PasteBinService {
 	}
 
 	/**
-	 * @see #historyList
-	 * 
-	 * @param historyList
+	 * Decode the three lists from the save file.  Each list is split into chunks of {@link #LOAD_CHUNK_ENTRIES}
+	 * entries, and the chunks of all three are decoded together, in parallel unless turned off with
+	 * {@link #PROPERTY_PARALLEL_LOAD}.  The results are put back together in file order.
+	 *
 	 * @param props
-	 * @param prefix
+	 * @param lazyLoader
+	 * 		If not null, the text is taken from here instead of from props.
+	 * @param prefixes
+	 * @param parallel
+	 * @param deltaBases
+	 * 		Receives the base UUID of each entry saved as a delta, to be linked once every list is loaded.
+	 * @return
+	 * 		The entries of each list in file order (newest first).
+	 * @throws IOException
 	 */
-	private void loadHistoryList(List<HistoryEntry> historyList, Properties props, String prefix) {
-		int index = 0;
-		while (true) {
-			String text = props.getProperty(prefix + "." + index + ".text");
-			if (text == null) {
-				break;
+	private List<List<HistoryEntry>> loadHistoryLists(Properties props, LazySaveFileLoader lazyLoader, List<String> prefixes,
+			boolean parallel, Map<HistoryEntry, UUID> deltaBases) throws IOException {
+		List<Callable<DecodedChunk>> tasks = new ArrayList<>();
+		int[] chunkCounts = new int[prefixes.size()];
+		for (int list = 0; list < prefixes.size(); list++) {
+			String prefix = prefixes.get(list);
+			int count = countEntries(props, lazyLoader, prefix);
+			for (int from = 0; from < count; from += LOAD_CHUNK_ENTRIES) {
+				int chunkFrom = from;
+				int chunkTo = Math.min(count, from + LOAD_CHUNK_ENTRIES);
+				tasks.add(() -> decodeEntries(props, lazyLoader, prefix, chunkFrom, chunkTo));
+				chunkCounts[list]++;
 			}
+		}
 
-			Instant createTs = convertToInstant(
-				props.getProperty(prefix + "." + index + ".createDate"));
+		List<DecodedChunk> chunks;
+		if (parallel && tasks.size() > 1) {
+			chunks = ParallelPropertiesLoader.invokeAll(tasks);
+		}
+		else {
+			chunks = new ArrayList<>(tasks.size());
+			for (Callable<DecodedChunk> task : tasks) {
+				try {
+					chunks.add(task.call());
+				}
+				catch (Exception e) {
+					// decodeEntries() doesn't throw checked exceptions.
+					throw new IllegalStateException(e);
+				}
+			}
+		}
 
-			Instant deletedTs = convertToInstant(
-				props.getProperty(prefix + "." + index + ".deletedDate"));
+		List<List<HistoryEntry>> lists = new ArrayList<>(prefixes.size());
+		int chunkIndex = 0;
+		for (int list = 0; list < prefixes.size(); list++) {
+			List<HistoryEntry> entries = new ArrayList<>();
+			for (int i = 0; i < chunkCounts[list]; i++) {
+				DecodedChunk chunk = chunks.get(chunkIndex++);
+				entries.addAll(chunk.entries);
+				deltaBases.putAll(chunk.deltaBases);
+			}
+			lists.add(entries);
+		}
 
-			UUID uuid = convertToUUID(props.getProperty(
-				prefix + "." + index + ".uuid"));
+		return lists;
+	}
 
-			String shortUrl = props.getProperty(prefix + "." + index + ".shortUrl", null);
+	/**
+	 * @return
+	 * 		The number of entries saved for the list.  They're numbered from 0 with no gaps.
+	 */
+	private int countEntries(Properties props, LazySaveFileLoader lazyLoader, String prefix) {
+		int count = 0;
+		while (lazyLoader != null ? lazyLoader.getEncodedLength(prefix + "." + count + ".text") >= 0
+				: props.getProperty(prefix + "." + count + ".text") != null) {
+			count++;
+		}
 
-			historyList.add(new HistoryEntry(text, createTs, deletedTs, uuid, shortUrl));
+		return count;
+	}
 
-			index++;
+	/**
+	 * Decode a range of one list.  Runs on a fork-join thread, so it only reads its arguments.
+	 *
+	 * @see #historyList
+	 */
+	private DecodedChunk decodeEntries(Properties props, LazySaveFileLoader lazyLoader, String prefix, int from, int to) {
+		DecodedChunk chunk = new DecodedChunk(to - from);
+		for (int index = from; index < to; index++) {
+			String keyPrefix = prefix + "." + index + ".";
+			String textKey = keyPrefix + "text";
+			String text = null;
+			Supplier<String> lazyText = null;
+			if (lazyLoader != null) {
+				lazyText = lazyLoader.getLazyText(textKey);
+			}
+			else {
+				text = props.getProperty(textKey);
+			}
+
+			Instant createTs = convertToInstant(props.getProperty(keyPrefix + "createDate"));
+
+			Instant deletedTs = convertToInstant(props.getProperty(keyPrefix + "deletedDate"));
+
+			UUID uuid = convertToUUID(props.getProperty(keyPrefix + "uuid"));
+
+			String shortUrl = props.getProperty(keyPrefix + "shortUrl", null);
+
+			String expiresDate = props.getProperty(keyPrefix + "expiresDate");
+
+			HistoryEntry entry;
+			if (lazyText != null) {
+				entry = new HistoryEntry(lazyText, createTs, deletedTs, uuid, shortUrl);
+				entry.setTextBytes(lazyLoader.getEncodedLength(textKey));
+			}
+			else {
+				entry = new HistoryEntry(text, createTs, deletedTs, uuid, shortUrl);
+			}
+			if (expiresDate != null) {
+				// Not convertToInstant(), since a missing or damaged value mustn't mean "now".
+				try {
+					entry.setExpiresTs(Instant.ofEpochMilli(Long.parseLong(expiresDate)));
+				}
+				catch (NumberFormatException e) {
+					LOGGER.warning("Unable to parse expiry date '" + expiresDate + "' for entry " + uuid + ".");
+				}
+			}
+			String blobLength = props.getProperty(keyPrefix + "blobLength");
+			if (blobLength != null) {
+				try {
+					entry.setBlobLength(Long.parseLong(blobLength));
+				}
+				catch (NumberFormatException e) {
+					LOGGER.warning("Unable to parse blob length '" + blobLength + "' for entry " + uuid + ".");
+				}
+			}
+			String attachmentName = props.getProperty(keyPrefix + "attachmentName");
+			if (attachmentName != null) {
+				entry.setAttachment(attachmentName, props.getProperty(keyPrefix + "attachmentType",
+					"application/octet-stream"));
+			}
+			String deltaBase = props.getProperty(keyPrefix + "deltaBase");
+			if (deltaBase != null) {
+				chunk.deltaBases.put(entry, convertToUUID(deltaBase));
+			}
+			chunk.entries.add(entry);
 		}
+
+		return chunk;
 	}
 
 	private void load() {
 		LOGGER.info("Loading.");
+		PersistenceEvent persistenceEvent = new PersistenceEvent();
+		persistenceEvent.begin();
+
+		boolean parallel = !"false".equals(System.getProperty(PROPERTY_PARALLEL_LOAD));
 		Properties props = new Properties();
-		try (InputStream is = new FileInputStream(saveFile)) {
-			props.load(is);
+		LazySaveFileLoader lazyLoader = null;
+		try {
+			if (lazyLoad) {
+				lazyLoader = new LazySaveFileLoader(saveFile);
+				props = lazyLoader.getMetadata();
+			}
+			else if (parallel) {
+				props = ParallelPropertiesLoader.load(saveFile);
+			}
+			else {
+				try (InputStream is = new FileInputStream(saveFile)) {
+					props.load(is);
+				}
+			}
 		}
-		catch (FileNotFoundException e) {
+		catch (FileNotFoundException | NoSuchFileException e) {
 			LOGGER.severe("Unable to load configuration file '" + saveFile.getAbsolutePath() + "'.");
 			props = null;
 			setDefaults(props);
@@ -212,14 +639,59 @@ public class PasteBinService {
 
 		setDefaults(props);
 
-		loadHistoryList(historyList, props, "history");
-		loadHistoryList(pinnedHistoryList, props, "pinnedHistory");
-		loadHistoryList(deletedHistoryList, props, "deletedHistory");
+		Map<HistoryEntry, UUID> deltaBases = new HashMap<>();
+		List<List<HistoryEntry>> lists;
+		try {
+			lists = loadHistoryLists(props, lazyLoader, List.of("history", "pinnedHistory", "deletedHistory"), parallel,
+				deltaBases);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		for (HistoryEntry entry : lists.get(0)) {
+			historyList.addLast(entry);
+		}
+		for (HistoryEntry entry : lists.get(1)) {
+			pinnedHistoryList.add(entry);
+			pinnedTextBytes += entry.getTextBytes();
+		}
+		// Saved newest first.  Adding them oldest first keeps entries deleted in the same millisecond in order.
+		List<HistoryEntry> deletedNewestFirst = lists.get(2);
+		for (int i = deletedNewestFirst.size() - 1; i >= 0; i--) {
+			deletedHistoryList.add(deletedNewestFirst.get(i));
+		}
+
+		Set<UUID> blobUuids = new HashSet<>();
+		Map<UUID, HistoryEntry> entriesByUuid = new HashMap<>();
+		for (Iterable<HistoryEntry> list : List.of(historyList, pinnedHistoryList, deletedHistoryList)) {
+			for (HistoryEntry entry : list) {
+				if (entry.isBlob()) {
+					blobUuids.add(entry.getUuid());
+				}
+				entriesByUuid.put(entry.getUuid(), entry);
+				scheduleExpiry(entry);
+			}
+		}
+		blobStore.retainOnly(blobUuids);
+
+		for (Map.Entry<HistoryEntry, UUID> deltaBase : deltaBases.entrySet()) {
+			HistoryEntry baseEntry = entriesByUuid.get(deltaBase.getValue());
+			if (baseEntry == null) {
+				// Saving writes the whole text when the base isn't saved too, so this means a damaged file.
+				LOGGER.severe("Missing delta base " + deltaBase.getValue() + " for entry " + deltaBase.getKey().getUuid() + ".");
+				continue;
+			}
+			deltaBase.getKey().setDeltaBase(baseEntry);
+		}
 
-		// Sort descending by putting h2 first in Long.compare.
-		deletedHistoryList.sort(
-				(HistoryEntry h1, HistoryEntry h2) -> Long.compare(h2.getDeletedTs().toEpochMilli(),
-					h1.getDeletedTs().toEpochMilli()));
+		persistenceEvent.end();
+		if (persistenceEvent.shouldCommit()) {
+			persistenceEvent.operation = PersistenceEvent.LOAD;
+			persistenceEvent.entries = historyList.size() + pinnedHistoryList.size() + deletedHistoryList.size();
+			persistenceEvent.bytes = saveFile.length();
+			persistenceEvent.commit();
+		}
 
 		LOGGER.info("Data loaded.");
 	}
@@ -230,90 +702,832 @@ public class PasteBinService {
 	 * @param newEntry
 	 */
 	private void addAndManageDeletedHistoryList(HistoryEntry newEntry) {
-		deletedHistoryList.add(0, newEntry);
+		deletedHistoryList.add(newEntry);
+		recordChange(ChangeRecord.Op.DELETED, newEntry);
+
+		PersistenceEvent persistenceEvent = new PersistenceEvent();
+		persistenceEvent.begin();
 
 		long cutoff = System.currentTimeMillis() - KEEP_TIME_IN_MS;
+		List<HistoryEntry> expired = deletedHistoryList.expireBefore(cutoff);
+		int removedCount = removeForGood(expired);
+		if (removedCount > 0) {
+			LOGGER.info("Removed " + removedCount + " old deleted entries.");
+		}
 
-		ListIterator<HistoryEntry> iter = deletedHistoryList.listIterator(deletedHistoryList.size());
-		while (iter.hasPrevious()) {
-			HistoryEntry entry = iter.previous();
-			LOGGER.fine("Comparing " + entry.getDeletedTs().toEpochMilli() + " to " + cutoff + ".");
-			if (entry.getDeletedTs().toEpochMilli() < cutoff) {
-				LOGGER.info("Removing old deleted entry.");
-				iter.remove();
-			}
-			else {
-				break;
+		// Giving entries that were deltas against removed ones their whole text back can push the total up
+		// again, so trim until it stays down.
+		int overBudgetCount = 0;
+		for (List<HistoryEntry> overBudget; !(overBudget = deletedHistoryList.trimToBytes(maxDeletedBytes)).isEmpty(); ) {
+			overBudgetCount += removeForGood(overBudget);
+		}
+		if (overBudgetCount > 0) {
+			LOGGER.info("Removed " + overBudgetCount + " of the oldest deleted entries to stay within "
+				+ maxDeletedBytes + " bytes.");
+		}
+
+		// Only purges that removed something are interesting.
+		if (removedCount + overBudgetCount > 0) {
+			persistenceEvent.end();
+			if (persistenceEvent.shouldCommit()) {
+				persistenceEvent.operation = PersistenceEvent.PURGE;
+				persistenceEvent.entries = removedCount + overBudgetCount;
+				persistenceEvent.commit();
 			}
 		}
 	}
 
-	private void checkHistoryListLength() {
-		synchronized(dataLock) {
-			if (historyList.size() > maxMainEntries) {
-				HistoryEntry entry = historyList.remove(historyList.size() - 1);
-				entry.setDeletedTs(Instant.now());
-				addAndManageDeletedHistoryList(entry);
+	/**
+	 * Finish removing entries that were dropped from the deleted list.
+	 *
+	 * @param removed
+	 * @return
+	 * 		The number of entries.
+	 */
+	private int removeForGood(List<HistoryEntry> removed) {
+		for (HistoryEntry entry : removed) {
+			if (entry.isBlob()) {
+				blobStore.delete(entry.getUuid());
 			}
+			recordChange(ChangeRecord.Op.REMOVE, entry);
 		}
-	}
 
-	private void writeActiveHistory(Writer writer) throws IOException {
-		HistorySnippetWriter hsw = (entry) ->  {
-			writer.write(td("center", form("/pin", entry.getUuid(), "Pin")));
-			writer.write(td("center", form("/delete", entry.getUuid(), "Delete")));
-			writer.write(td("top", ISO_NOBR_FORMATTER.format(entry.getCreateTs())));
-		};
+		if (!removed.isEmpty()) {
+			materializeDeltasAgainst(new HashSet<>(removed));
+		}
 
-		writeHistory(writer, historyList, hsw);
+		return removed.size();
 	}
 
-	private void writeDeletedHistory(Writer writer) throws IOException {
-		synchronized(dataLock) {
-			if (deletedHistoryList.isEmpty()) {
-				writer.write("There are no entries in the deleted list.");
-			}
-			else {
-				HistorySnippetWriter hsw = (entry) ->  {
-					writer.write(td("center", form("/undelete", entry.getUuid(), "Undelete")));
-					writer.write(td("top", ISO_NOBR_FORMATTER.format(entry.getCreateTs())));
-					writer.write(td("top", ISO_NOBR_FORMATTER.format(entry.getDeletedTs())));
-				};
+	/**
+	 * Give entries stored as deltas against entries that are going away their whole text back, so the removed
+	 * entries can be collected.
+	 *
+	 * @param removed
+	 */
+	private void materializeDeltasAgainst(Set<HistoryEntry> removed) {
+		for (HistoryEntry entry : historyList) {
+			historyList.adjustTextBytes(materializeIfBasedOn(entry, removed));
+		}
 
-				writeHistory(writer, deletedHistoryList, hsw);
-			}
+		for (HistoryEntry entry : pinnedHistoryList) {
+			pinnedTextBytes += materializeIfBasedOn(entry, removed);
+		}
+
+		for (HistoryEntry entry : deletedHistoryList) {
+			deletedHistoryList.adjustTextBytes(materializeIfBasedOn(entry, removed));
 		}
 	}
 
-	private void writePinnedHistory(Writer writer) throws IOException {
-		HistorySnippetWriter hsw = (entry) ->  {
-			writer.write(td("center", form("/deletePin", entry.getUuid(), "Delete")));
-			writer.write(td("top", ISO_NOBR_FORMATTER.format(entry.getCreateTs())));
-		};
+	/**
+	 * @param entry
+	 * @param removed
+	 * @return
+	 * 		How much {@link HistoryEntry#getTextBytes()} grew.
+	 */
+	private long materializeIfBasedOn(HistoryEntry entry, Set<HistoryEntry> removed) {
+		if (entry.getDeltaBase() == null || !removed.contains(entry.getDeltaBase())) {
+			return 0;
+		}
 
-		writeHistory(writer, pinnedHistoryList, hsw);
+		long before = entry.getTextBytes();
+		entry.materialize();
+		return entry.getTextBytes() - before;
 	}
 
-	private void writeHistory(Writer writer, List<HistoryEntry> genericHistoryList, HistorySnippetWriter hsw) throws IOException {
-		writeHistory(writer, genericHistoryList, hsw, null);
-	}
+	/**
+	 * The newest active and pinned entries that a new paste could be kept as a delta against.  Must be called
+	 * with the data lock held.
+	 *
+	 * @param text
+	 * 		The new paste's text.
+	 * @return
+	 * 		Empty if delta compression is off or the text is too short to bother.
+	 */
+	private List<DeltaCandidate> deltaCandidates(String text) {
+		List<DeltaCandidate> candidates = new ArrayList<>();
+		if (!deltaCompression || text.length() < DELTA_MIN_CHARS) {
+			return candidates;
+		}
 
-	private void writeHistory(Writer writer, List<HistoryEntry> genericHistoryList, HistorySnippetWriter hsw, String header) throws IOException {
-		synchronized(dataLock) {
-			if (!genericHistoryList.isEmpty()) {
-				writer.write("<table border='1' width='100%'>");
-				if (header != null) {
-					writer.write(header);
-				}
+		List<HistoryEntry> entries = new ArrayList<>();
+		for (int i = 0; i < historyList.size() && i < DELTA_CANDIDATES; i++) {
+			entries.add(historyList.get(i));
+		}
+		for (int i = 0; i < pinnedHistoryList.size() && i < DELTA_CANDIDATES; i++) {
+			entries.add(pinnedHistoryList.get(i));
+		}
 
-				for (HistoryEntry entry : genericHistoryList) {
-					writer.write("<tr><td id='text" + entry.getUuid() + "' class='top'>" + entry.getText() + "</td>");
-					hsw.writeSnippet(entry);
+		for (HistoryEntry entry : entries) {
+			if (!entry.isBlob() && entry.getDeltaDepth() < MAX_DELTA_DEPTH) {
+				candidates.add(new DeltaCandidate(entry));
+			}
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Try to keep a new paste as a delta against one of the newest entries, when most of it is the same.  This
+	 * is aimed at pasting successive versions of one config file or log.  Entries that are already deltas can
+	 * be bases, up to {@link #MAX_DELTA_DEPTH}, so a series of versions costs little more than the first one.
+	 *
+	 * Rebuilding and comparing the texts is the slow part, so it's done without the data lock.
+	 *
+	 * @param text
+	 * 		The new paste's text.
+	 * @param candidates
+	 * 		From {@link #deltaCandidates(String)}.
+	 * @return
+	 * 		The best base, with its delta set, or null to keep the whole text.
+	 */
+	private static DeltaCandidate chooseDeltaBase(String text, List<DeltaCandidate> candidates) {
+		DeltaCandidate best = null;
+		for (DeltaCandidate candidate : candidates) {
+			candidate.delta = TextDelta.encode(candidate.getText(), text);
+			if (best == null || candidate.delta.length() < best.delta.length()) {
+				best = candidate;
+			}
+		}
+
+		// Not worth a reconstruction on every view unless it at least halves the size.
+		return best != null && best.delta.length() <= text.length() / 2 ? best : null;
+	}
+
+	/**
+	 * @param deltaCompression
+	 * 		If true (the default), new pastes that are mostly the same as a recent one are kept as a delta.
+	 */
+	public void setDeltaCompression(boolean deltaCompression) {
+		synchronized(dataLock) {
+			this.deltaCompression = deltaCompression;
+		}
+	}
+
+	/**
+	 * Note a change for standby instances, if replication is on.  Must be called with the data lock held, so
+	 * that changes are logged in the order they're made.
+	 *
+	 * Every change goes through here, so it's also where remembered short URL misses are forgotten once an
+	 * entry with a short URL lands in the active or pinned list.
+	 *
+	 * @param op
+	 * @param entry
+	 * 		May be null for markers.
+	 */
+	private void recordChange(ChangeRecord.Op op, HistoryEntry entry) {
+		pageVersion++;
+
+		if ((op == ChangeRecord.Op.ACTIVE || op == ChangeRecord.Op.PINNED || op == ChangeRecord.Op.SHORT_URL)
+				&& entry.getShortUrl() != null && !entry.getShortUrl().isEmpty()) {
+			shortUrlMissCache.clear();
+		}
+
+		if (replicationLog != null) {
+			replicationLog.append(op, entry);
+		}
+	}
+
+	/**
+	 * Start recording changes so a {@link ReplicationServer} can send them to standby instances.
+	 *
+	 * @param capacity
+	 * 		How many recent changes to keep for standbys that reconnect.
+	 */
+	public void enableReplicationLog(int capacity) {
+		synchronized(dataLock) {
+			if (replicationLog == null) {
+				replicationLog = new ReplicationLog(capacity);
+			}
+		}
+	}
+
+	public ReplicationLog getReplicationLog() {
+		synchronized(dataLock) {
+			return replicationLog;
+		}
+	}
+
+	/**
+	 * Describe the whole state as change records, starting with {@link ChangeRecord.Op#RESET} and ending with
+	 * {@link ChangeRecord.Op#SNAPSHOT_END}.
+	 *
+	 * @param records
+	 * 		Receives the records.
+	 * @return
+	 * 		The replication log sequence number the snapshot is consistent with.  Changes after it follow on
+	 * 		from the snapshot.
+	 */
+	public long snapshotForReplication(List<ChangeRecord> records) {
+		long seq;
+		List<EntrySnapshot> entries;
+		DataLockEvent lockEvent = DataLockEvent.begin("snapshot");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			seq = replicationLog == null ? 0 : replicationLog.getLastSeq();
+			entries = snapshotEntries(seq);
+		}
+
+		// Reading lazily loaded text and rebuilding deltas can be slow, so it's done without the lock.
+		records.add(ChangeRecord.marker(seq, ChangeRecord.Op.RESET));
+		for (EntrySnapshot entry : entries) {
+			records.add(entry.getRecord().withText(entry.getText()));
+		}
+		records.add(ChangeRecord.marker(seq, ChangeRecord.Op.SNAPSHOT_END));
+
+		return seq;
+	}
+
+	/**
+	 * Visit the deleted, active and pinned lists, each oldest first, so that putting each entry at the front of
+	 * its list rebuilds the order.  Must be called with the data lock held.
+	 *
+	 * @param visitor
+	 * 		Receives {@link ChangeRecord.Op#DELETED}, {@link ChangeRecord.Op#ACTIVE} or
+	 * 		{@link ChangeRecord.Op#PINNED}, and the entry.
+	 */
+	private void forEachOldestFirst(BiConsumer<ChangeRecord.Op, HistoryEntry> visitor) {
+		for (HistoryEntry entry : deletedHistoryList.oldestFirst()) {
+			visitor.accept(ChangeRecord.Op.DELETED, entry);
+		}
+
+		for (int i = historyList.size() - 1; i >= 0; i--) {
+			visitor.accept(ChangeRecord.Op.ACTIVE, historyList.get(i));
+		}
+
+		for (int i = pinnedHistoryList.size() - 1; i >= 0; i--) {
+			visitor.accept(ChangeRecord.Op.PINNED, pinnedHistoryList.get(i));
+		}
+	}
+
+	/**
+	 * Copy what {@link BackupArchive} needs to write a backup.  Only references are copied under the lock, so
+	 * this is quick even for a large history.
+	 *
+	 * @param settings
+	 * 		Receives the config.* settings.
+	 * @return
+	 * 		Every entry, in the order of {@link #forEachOldestFirst(BiConsumer)}.
+	 */
+	/* default */ List<EntrySnapshot> backupSnapshot(Properties settings) {
+		DataLockEvent lockEvent = DataLockEvent.begin("export");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			writeSettings(settings);
+			return snapshotEntries();
+		}
+	}
+
+	/**
+	 * Snapshots for a backup or a search, whose records don't need a sequence number.  Must be called with the
+	 * data lock held.
+	 *
+	 * @return
+	 */
+	private List<EntrySnapshot> snapshotEntries() {
+		return snapshotEntries(0);
+	}
+
+	/**
+	 * Must be called with the data lock held.
+	 *
+	 * @param seq
+	 * 		The sequence number for the snapshots' records.
+	 * @return
+	 * 		Every entry, in the order of {@link #forEachOldestFirst(BiConsumer)}, to be read after the lock is
+	 * 		released.
+	 */
+	private List<EntrySnapshot> snapshotEntries(long seq) {
+		List<EntrySnapshot> snapshots = new ArrayList<>();
+		Map<HistoryEntry, EntrySnapshot> snapshotsByEntry = new IdentityHashMap<>();
+		forEachOldestFirst((list, entry) -> {
+			EntrySnapshot snapshot = new EntrySnapshot(seq, list, entry);
+			snapshots.add(snapshot);
+			snapshotsByEntry.put(entry, snapshot);
+		});
+
+		// Bases can be in any list, so link them once every snapshot exists.
+		for (Map.Entry<HistoryEntry, EntrySnapshot> snapshot : snapshotsByEntry.entrySet()) {
+			HistoryEntry deltaBase = snapshot.getKey().getDeltaBase();
+			if (deltaBase != null) {
+				snapshot.getValue().setDeltaBase(snapshotsByEntry.get(deltaBase));
+			}
+		}
+
+		return snapshots;
+	}
+
+	/**
+	 * Take the config.* settings from a backup.
+	 *
+	 * @param settings
+	 */
+	public void applySettings(Properties settings) {
+		DataLockEvent lockEvent = DataLockEvent.begin("settings");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			setDefaults(settings);
+
+			// The settings can change what the page shows, even when no entry moves.
+			pageVersion++;
+		}
+	}
+
+	/**
+	 * Add entries from a backup that aren't already here, under one lock acquisition.
+	 *
+	 * @param records
+	 * 		Each list oldest first, as written by {@link BackupArchive}.
+	 * @param details
+	 * 		The backup's settings, which say which entries have blobs or are attachments.
+	 * @param blobFiles
+	 * 		Spooled blobs by entry.  The ones that are used are moved into the blob store and removed from the map.
+	 * @return
+	 * 		The number of entries added.
+	 * @throws IOException
+	 */
+	public int importBatch(List<ChangeRecord> records, Properties details, Map<UUID, Path> blobFiles) throws IOException {
+		DataLockEvent lockEvent = DataLockEvent.begin("import");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			int count = 0;
+			for (ChangeRecord record : records) {
+				UUID uuid = record.getUuid();
+				if (findActiveOrPinned(uuid) != null || deletedHistoryList.find(uuid) != null) {
+					continue;
+				}
+
+				HistoryEntry entry = record.toEntry();
+				if (details.getProperty(BackupArchive.blobKey(uuid)) != null) {
+					Path blobFile = blobFiles.remove(uuid);
+					if (blobFile == null) {
+						LOGGER.warning("Skipping entry " + uuid + ", whose blob isn't in the backup.");
+						continue;
+					}
+					entry.setBlobLength(Files.size(blobStore.commit(blobFile, uuid)));
+				}
+				String attachmentName = details.getProperty(BackupArchive.attachmentNameKey(uuid));
+				if (attachmentName != null) {
+					entry.setAttachment(attachmentName, details.getProperty(BackupArchive.attachmentTypeKey(uuid),
+						"application/octet-stream"));
+				}
+
+				switch (record.getOp()) {
+					case ACTIVE:
+						entry.setDeletedTs(null);
+						historyList.addFirst(entry);
+						recordChange(record.getOp(), entry);
+						break;
+
+					case PINNED:
+						entry.setDeletedTs(null);
+						addPinned(entry);
+						recordChange(record.getOp(), entry);
+						break;
+
+					case DELETED:
+						if (entry.getDeletedTs() == null) {
+							entry.setDeletedTs(Instant.now());
+						}
+						addAndManageDeletedHistoryList(entry);
+						break;
+
+					default:
+						LOGGER.warning("Skipping unexpected " + record.getOp() + " record in the backup.");
+						continue;
+				}
+
+				scheduleExpiry(entry);
+				count++;
+			}
+
+			return count;
+		}
+	}
+
+	/**
+	 * Apply changes received from the primary instance, all under one lock acquisition.  Each change says where
+	 * an entry ends up, so applying a change twice is harmless.
+	 *
+	 * @param records
+	 * @param blobFiles
+	 * 		Spooled blobs by entry.  The ones that are used are moved into the blob store and removed from the map.
+	 */
+	public void applyReplicatedChanges(List<ChangeRecord> records, Map<UUID, Path> blobFiles) {
+		DataLockEvent lockEvent = DataLockEvent.begin("replicate");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			for (ChangeRecord record : records) {
+				switch (record.getOp()) {
+					case RESET:
+						// The snapshot sends the blobs it still needs.
+						for (Iterable<HistoryEntry> list : List.of(historyList, pinnedHistoryList, deletedHistoryList)) {
+							for (HistoryEntry entry : list) {
+								if (entry.isBlob()) {
+									blobStore.delete(entry.getUuid());
+								}
+							}
+						}
+						historyList.clear();
+						pinnedHistoryList.clear();
+						pinnedTextBytes = 0;
+						deletedHistoryList.clear();
+						recordChange(record.getOp(), null);
+						break;
+
+					case SNAPSHOT_END:
+						recordChange(record.getOp(), null);
+						break;
+
+					case ACTIVE: {
+						removeEverywhere(record.getUuid());
+						HistoryEntry entry = record.toEntry();
+						placeReplicatedBlob(entry, blobFiles);
+						entry.setDeletedTs(null);
+						historyList.addFirst(entry);
+						recordChange(record.getOp(), entry);
+						scheduleExpiry(entry);
+						break;
+					}
+
+					case PINNED: {
+						removeEverywhere(record.getUuid());
+						HistoryEntry entry = record.toEntry();
+						placeReplicatedBlob(entry, blobFiles);
+						entry.setDeletedTs(null);
+						addPinned(entry);
+						recordChange(record.getOp(), entry);
+						scheduleExpiry(entry);
+						break;
+					}
+
+					case DELETED: {
+						removeEverywhere(record.getUuid());
+						HistoryEntry entry = record.toEntry();
+						placeReplicatedBlob(entry, blobFiles);
+						if (entry.getDeletedTs() == null) {
+							entry.setDeletedTs(Instant.now());
+						}
+						addAndManageDeletedHistoryList(entry);
+						scheduleExpiry(entry);
+						break;
+					}
+
+					case SHORT_URL: {
+						HistoryEntry entry = findActiveOrPinned(record.getUuid());
+						if (entry != null) {
+							entry.setShortUrl(record.getShortUrl());
+							recordChange(record.getOp(), entry);
+						}
+						break;
+					}
+
+					case REMOVE: {
+						HistoryEntry entry = removeEverywhere(record.getUuid());
+						if (entry != null) {
+							if (entry.isBlob()) {
+								blobStore.delete(entry.getUuid());
+							}
+							recordChange(record.getOp(), entry);
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move a replicated entry's spooled blob into place.  If that isn't possible, the entry keeps just its
+	 * preview rather than linking to a blob that isn't there.  Must be called with the data lock held.
+	 *
+	 * @param entry
+	 * @param blobFiles
+	 */
+	private void placeReplicatedBlob(HistoryEntry entry, Map<UUID, Path> blobFiles) {
+		if (!entry.isBlob()) {
+			return;
+		}
+
+		UUID uuid = entry.getUuid();
+		Path blobFile = blobFiles.remove(uuid);
+		try {
+			// No file if an earlier change in the batch already put this entry's blob in place.
+			entry.setBlobLength(Files.size(blobFile == null ? blobStore.pathFor(uuid) : blobStore.commit(blobFile, uuid)));
+		}
+		catch (IOException e) {
+			LOGGER.warning("Unable to store the blob for " + uuid + ":  " + e.getMessage() + "  Keeping only its preview.");
+			entry.setBlobLength(-1);
+			entry.setAttachment(null, null);
+		}
+	}
+
+	private HistoryEntry findActiveOrPinned(UUID uuid) {
+		for (HistoryEntry entry : pinnedHistoryList) {
+			if (entry.hasUuid(uuid)) {
+				return entry;
+			}
+		}
+
+		return historyList.find(uuid);
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The entry that was removed, or null if it wasn't in any list.
+	 */
+	private HistoryEntry removeEverywhere(UUID uuid) {
+		HistoryEntry removed = historyList.remove(uuid);
+
+		Iterator<HistoryEntry> pinnedIter = pinnedHistoryList.iterator();
+		while (pinnedIter.hasNext()) {
+			HistoryEntry entry = pinnedIter.next();
+			if (entry.hasUuid(uuid)) {
+				pinnedIter.remove();
+				pinnedTextBytes -= entry.getTextBytes();
+				removed = entry;
+			}
+		}
+
+		HistoryEntry deleted = deletedHistoryList.remove(uuid);
+		return deleted != null ? deleted : removed;
+	}
+
+	/**
+	 * Arrange for an entry with an expiry time to be removed for good once it passes.  Must be called with the
+	 * data lock held.
+	 *
+	 * @param entry
+	 */
+	private void scheduleExpiry(HistoryEntry entry) {
+		if (entry.getExpiresMs() == HistoryEntry.NO_TIMESTAMP) {
+			return;
+		}
+
+		expiryWheel.schedule(entry, entry.getExpiresMs(), System.currentTimeMillis());
+		if (expiryTask == null) {
+			expiryTask = EXPIRY_EXECUTOR.scheduleWithFixedDelay(() -> expireDue(System.currentTimeMillis()),
+				EXPIRY_TICK_MS, EXPIRY_TICK_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Run by {@link #EXPIRY_EXECUTOR} once a tick while entries are waiting to expire.
+	 *
+	 * @param nowMs
+	 */
+	/* default */ void expireDue(long nowMs) {
+		DataLockEvent lockEvent = DataLockEvent.begin("expire");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			Instant now = Instant.ofEpochMilli(nowMs);
+			expiryWheel.advance(nowMs, (entry) -> expire(entry, now));
+
+			if (expiryWheel.size() == 0 && expiryTask != null) {
+				expiryTask.cancel(false);
+				expiryTask = null;
+			}
+		}
+	}
+
+	/**
+	 * The wheel holds the entry as it was scheduled.  It may since have been removed, or replaced by a
+	 * replicated copy with a different expiry time, so look up what's there now.
+	 */
+	private void expire(HistoryEntry scheduled, Instant now) {
+		UUID uuid = scheduled.getUuid();
+		HistoryEntry current = findActiveOrPinned(uuid);
+		if (current == null) {
+			current = deletedHistoryList.find(uuid);
+		}
+		if (current == null || current.getExpiresTs() == null || current.getExpiresTs().isAfter(now)) {
+			return;
+		}
+
+		removeEverywhere(uuid);
+		removeForGood(List.of(current));
+		LOGGER.info("Entry " + uuid + " expired.");
+	}
+
+	/**
+	 * @param ttlSeconds
+	 * 		A whole number of seconds, or null, empty or 0 for never.
+	 * @return
+	 * 		The time to live, or null for never.
+	 * @throws IllegalArgumentException
+	 * 		If it isn't a number of seconds up to {@link #MAX_TTL}.
+	 */
+	/* default */ static Duration parseTtl(String ttlSeconds) {
+		if (ttlSeconds == null || ttlSeconds.isEmpty()) {
+			return null;
+		}
+
+		long seconds;
+		try {
+			seconds = Long.parseLong(ttlSeconds.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected the time to live in seconds, not '" + ttlSeconds + "'.");
+		}
+		if (seconds < 0 || seconds > MAX_TTL.getSeconds()) {
+			throw new IllegalArgumentException("The time to live must be between 0 and " + MAX_TTL.getSeconds()
+				+ " seconds, not " + seconds + ".");
+		}
+
+		return seconds == 0 ? null : Duration.ofSeconds(seconds);
+	}
+
+	/**
+	 * For the web form, where a bad value can only come from a hand-made request.
+	 *
+	 * @param queryMap
+	 * @return
+	 * 		The time to live, or null for never.
+	 */
+	/* default */ static Duration parseTtl(Map<String, List<String>> queryMap) {
+		List<String> ttlValue = queryMap.get("ttl");
+		if (ttlValue == null || ttlValue.size() != 1) {
+			return null;
+		}
+
+		try {
+			return parseTtl(ttlValue.get(0));
+		}
+		catch (IllegalArgumentException e) {
+			LOGGER.warning(e.getMessage() + "  Keeping the paste without an expiry time.");
+			return null;
+		}
+	}
+
+	private String createdCell(HistoryEntry entry) {
+		String created = ISO_NOBR_FORMATTER.format(entry.getCreateTs());
+		if (entry.getExpiresTs() != null) {
+			created += "<br>Expires " + ISO_NOBR_FORMATTER.format(entry.getExpiresTs());
+		}
+
+		return created;
+	}
+
+	/**
+	 * Called by {@link #historyList} for each entry pushed off the end.  Always called with the data lock held.
+	 *
+	 * @param entry
+	 */
+	private void evictToDeletedHistoryList(HistoryEntry entry) {
+		entry.setDeletedTs(Instant.now());
+		addAndManageDeletedHistoryList(entry);
+	}
+
+	private int writeActiveHistory(Writer writer) throws IOException {
+		HistorySnippetWriter hsw = (entry) ->  {
+			writer.write(td("center", checkbox(entry.getUuid())));
+			writer.write(td("center", form(basePath + "/pin", entry.getUuid(), "Pin")));
+			writer.write(td("center", form(basePath + "/delete", entry.getUuid(), "Delete")));
+			writer.write(td("top", createdCell(entry)));
+		};
+
+		int count = writeHistory(writer, historyList, hsw);
+		if (count > 0) {
+			writer.write("<p>" + bulkButton("pin", "Pin Selected") + " " + bulkButton("delete", "Delete Selected") + "</p>");
+		}
+
+		return count;
+	}
+
+	private int writeDeletedHistory(Writer writer, long fromMs, long toMs) throws IOException {
+		synchronized(dataLock) {
+			Iterable<HistoryEntry> deletedRange = deletedHistoryList.range(fromMs, toMs);
+			if (!deletedRange.iterator().hasNext()) {
+				writer.write("There are no entries in the deleted list.");
+				return 0;
+			}
+			else {
+				HistorySnippetWriter hsw = (entry) ->  {
+					writer.write(td("center", checkbox(entry.getUuid())));
+					writer.write(td("center", form(basePath + "/undelete", entry.getUuid(), "Undelete")));
+					writer.write(td("top", createdCell(entry)));
+					writer.write(td("top", ISO_NOBR_FORMATTER.format(entry.getDeletedTs())));
+				};
+
+				writeBulkForm(writer);
+				int count = writeHistory(writer, deletedRange, hsw);
+				writer.write("<p>" + bulkButton("undelete", "Undelete Selected") + "</p>");
+				return count;
+			}
+		}
+	}
+
+	private void writeDeletedRangeForm(Writer writer, String from, String to) throws IOException {
+		writer.write("<form action='" + basePath + "/viewDeleted' method='GET'>");
+		writer.write("<label for='from'>Deleted from</label> ");
+		writer.write("<input type='date' id='from' name='from' value='" + StringEscapeUtils.escapeHtml4(from) + "'> ");
+		writer.write("<label for='to'>to</label> ");
+		writer.write("<input type='date' id='to' name='to' value='" + StringEscapeUtils.escapeHtml4(to) + "'> ");
+		writer.write("<input type='submit' value='Filter'>");
+		writer.write("</form>");
+	}
+
+	/**
+	 * Parse a range boundary for the deleted list.  Accepts either a date (yyyy-MM-dd, in the system time
+	 * zone) or milliseconds since the epoch.
+	 *
+	 * @param value
+	 * @param endOfRange
+	 * 		If true, a date is taken to mean the end of that day so the range includes the whole day.
+	 * @param defaultValue
+	 * @return
+	 */
+	private long parseRangeBoundary(String value, boolean endOfRange, long defaultValue) {
+		if (value == null || value.isBlank()) {
+			return defaultValue;
+		}
+
+		try {
+			LocalDate date = LocalDate.parse(value.trim());
+			if (endOfRange) {
+				date = date.plusDays(1);
+			}
+
+			return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		catch (DateTimeParseException e) {
+			// Not a date, so try a raw timestamp.
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			LOGGER.warning("Unable to parse '" + value + "' as a date or timestamp.  Using the default.");
+			return defaultValue;
+		}
+	}
+
+	private String firstValue(Map<String, List<String>> queryMap, String key) {
+		if (queryMap == null) {
+			return null;
+		}
+
+		List<String> values = queryMap.get(key);
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+
+		return values.get(0);
+	}
+
+	private int writePinnedHistory(Writer writer) throws IOException {
+		HistorySnippetWriter hsw = (entry) ->  {
+			writer.write(td("center", checkbox(entry.getUuid())));
+			writer.write(td("center", form(basePath + "/deletePin", entry.getUuid(), "Delete")));
+			writer.write(td("top", createdCell(entry)));
+		};
+
+		int count = writeHistory(writer, pinnedHistoryList, hsw);
+		if (count > 0) {
+			writer.write("<p>" + bulkButton("deletePin", "Delete Selected") + "</p>");
+		}
+
+		return count;
+	}
+
+	private int writeHistory(Writer writer, Iterable<HistoryEntry> genericHistoryList, HistorySnippetWriter hsw) throws IOException {
+		return writeHistory(writer, genericHistoryList, hsw, null);
+	}
+
+	/**
+	 * @param writer
+	 * @param genericHistoryList
+	 * @param hsw
+	 * @param header
+	 * 		A table row to write above the entries, or null.
+	 * @return
+	 * 		The number of entries written.
+	 * @throws IOException
+	 */
+	private int writeHistory(Writer writer, Iterable<HistoryEntry> genericHistoryList, HistorySnippetWriter hsw, String header) throws IOException {
+		int count = 0;
+		synchronized(dataLock) {
+			Iterator<HistoryEntry> entryIter = genericHistoryList.iterator();
+			if (entryIter.hasNext()) {
+				writer.write("<table border='1' width='100%'>");
+				if (header != null) {
+					writer.write(header);
+				}
+
+				while (entryIter.hasNext()) {
+					HistoryEntry entry = entryIter.next();
+					writer.write("<tr><td id='text" + entry.getUuid() + "' class='top'>" + entry.getText() + "</td>");
+					hsw.writeSnippet(entry);
 					writer.write("</tr>");
+					count++;
 				}
 				writer.write("</table>");
 			}
 		}
+
+		return count;
 	}
 
 	public void writePage(Writer writer) throws IOException {
@@ -321,10 +1535,8 @@ public class PasteBinService {
 	}
 
 	public void writePage(Writer writer, String errorMessage, String infoMessage) throws IOException {
-		writeHeader(writer);
-		writer.write("<body>");
-		writePinnedHistory(writer);
-		writeForm(writer);
+		CachedPage page = mainPage();
+		writer.write(page.beforeMessages);
 
 		if (errorMessage != null) {
 			writer.write("<p><span style='color: #f00'>" + errorMessage + "</span></p>");
@@ -334,61 +1546,82 @@ public class PasteBinService {
 			writer.write("<p><span style='color: #0d0'>" + infoMessage + "</span></p>");
 		}
 
-		writeActiveHistory(writer);
-		writer.write("</body>");
-		writer.write("</html>");
+		writer.write(page.afterMessages);
+	}
+
+	/**
+	 * The page is only rendered again after a change, so most views, including the one each change redirects
+	 * to, just copy it.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private CachedPage mainPage() throws IOException {
+		synchronized(dataLock) {
+			if (cachedPage != null && cachedPage.version == pageVersion) {
+				return cachedPage;
+			}
+
+			RenderEvent renderEvent = new RenderEvent();
+			renderEvent.begin();
+
+			StringWriter before = new StringWriter();
+			writeHeader(before);
+			before.write("<body>");
+			writeBulkForm(before);
+			int entries = writePinnedHistory(before);
+			writeForm(before);
+
+			StringWriter after = new StringWriter();
+			entries += writeActiveHistory(after);
+			after.write("</body>");
+			after.write("</html>");
+
+			cachedPage = new CachedPage(pageVersion, before.toString(), after.toString());
+			commitRenderEvent(renderEvent, "main", entries);
+			return cachedPage;
+		}
+	}
+
+	/**
+	 * @param messages
+	 * @return
+	 * 		The main page with the messages.
+	 * @throws IOException
+	 */
+	private String renderPage(PageMessages messages) throws IOException {
+		StringWriter sw = new StringWriter();
+		writePage(sw, messages.getErrorMessage(), messages.getInfoMessage());
+		return sw.toString();
+	}
+
+	private void commitRenderEvent(RenderEvent renderEvent, String page, int entries) {
+		renderEvent.end();
+		if (renderEvent.shouldCommit()) {
+			renderEvent.page = page;
+			renderEvent.entries = entries;
+			renderEvent.commit();
+		}
 	}
 
+	/**
+	 * The stylesheet and script are separate, cacheable resources.  See {@link StaticResources}.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
 	private void writeHeader(Writer writer) throws IOException {
 		writer.write("<html><head>");
 		writer.write("<meta charset='UTF-8' name='viewport' content='width=640' initial-scale=1>");
-		writer.write("<style>");
-		writer.write("  tbody tr:nth-child(odd) {");
-		writer.write("    background-color: #CEE8FF;");
-		writer.write("    color: #000;");
-		writer.write("  }");
-		writer.write("\r\n");
-		writer.write("  td.top {");
-		writer.write("    vertical-align: top;");
-		writer.write("  }");
-		writer.write("\r\n");
-		writer.write("  td.center {");
-		writer.write("    text-align: center;");
-		writer.write("    vertical-align: middle;");
-		writer.write("  }");
-		writer.write("\r\n");
-		writer.write("  td input[type=button] {");
-		writer.write("    vertical-align: middle;");
-		writer.write("  }");
-		writer.write("\r\n");
-		writer.write("</style>");
-		writer.write("<title>PasteBin</title>");
-		writer.write("\r\n");
-		writer.write("<script>");
-		writer.write("\r\n");
-		writer.write("	function submitForm() {");
-		writer.write("\r\n");
-		writer.write("		if (document.getElementById('fixPercent')) {");
-		writer.write("\r\n");
-		writer.write("			var str = document.getElementById('text').value; ");
-		writer.write("\r\n");
-		writer.write("			var replaced = str.replace(/%/g, '%25');");
-		writer.write("\r\n");
-		writer.write("			document.getElementById('text').value = replaced;");
-		writer.write("\r\n");
-		writer.write("		}");
-		writer.write("\r\n");
-		writer.write("		return true;");
-		writer.write("\r\n");
-		writer.write("	}");
-		writer.write("\r\n");
-		writer.write("</script>");
-		writer.write("\r\n");
+		writer.write("<link rel='stylesheet' href='" + StaticResources.CSS.getPath() + "'>");
+		writer.write("<link rel='icon' type='image/svg+xml' href='" + StaticResources.FAVICON.getPath() + "'>");
+		writer.write(boardName == null ? "<title>PasteBin</title>" : "<title>" + boardName + " - PasteBin</title>");
+		writer.write("<script src='" + StaticResources.JS.getPath() + "'></script>");
 		writer.write("</head>");
 	}
 
 	private void writeForm(Writer writer) throws IOException {
-		writer.write("<form method=\"POST\" action=\"/paste\" enctype=\"application/x-www-form-urlencoded\" onclick='submitForm()'>");
+		writer.write("<form method=\"POST\" action=\"" + basePath + "/paste\" enctype=\"application/x-www-form-urlencoded\" onclick='submitForm()'>");
 		writer.write("\r\n");
 		writer.write("<textarea name='text' id='text' style='width: 100%' rows='5' cols='80' autofocus>");
 		writer.write("</textarea>");
@@ -398,55 +1631,139 @@ public class PasteBinService {
 		writer.write("<label for='fixPercent'>Manually Fix Percent</label><br>");
 		writer.write("<input type='checkbox' id='preformatted' name='preformatted' checked='true' value='true'>");
 		writer.write("<label for='preformatted'>Preformatted</label><br>");
+		writer.write("<label for='ttl'>Expires</label> <select id='ttl' name='ttl'>");
+		for (int i = 0; i < TTL_CHOICES.length; i++) {
+			writer.write("<option value='" + TTL_CHOICES[i] + "'>" + TTL_LABELS[i] + "</option>");
+		}
+		writer.write("</select><br>");
 		writer.write("<input type='submit'>");
 		writer.write("</form>");
-		writer.write("<p><a href='/viewDeleted'>View Deleted</a></p>");
+		writer.write("<form method='POST' action='" + basePath + "/attach' enctype='multipart/form-data'>");
+		writer.write("<input type='file' name='file' multiple> ");
+		writer.write("<input type='submit' value='Attach'>");
+		writer.write("</form>");
+		writer.write("<p><a href='" + basePath + "/viewDeleted'>View Deleted</a></p>");
+		writeGrepForm(writer, "");
 		writer.write("<p></p>");
-		writer.write("<p><a href='/shortUrls'>View/Edit Short URLs</a></p>");
+		writer.write("<p><a href='" + basePath + "/shortUrls'>View/Edit Short URLs</a></p>");
+		writer.write("<p><a href='" + BoardRegistry.BOARD_PATH_PREFIX + "'>Boards</a></p>");
 	}
 
-	private void save() {
+	/**
+	 * @param props
+	 * 		Receives the config.* settings.
+	 */
+	private void writeSettings(Properties props) {
+		props.setProperty(CONFIG_MAX_MAIN_ENTRIES, "" + maxMainEntries);
+		props.setProperty(CONFIG_MAX_KEEP_DELETED_DAYS, "" + maxKeepDeletedDays);
+		props.setProperty(CONFIG_MAX_ACTIVE_BYTES, "" + maxActiveBytes);
+		props.setProperty(CONFIG_MAX_PINNED_BYTES, "" + maxPinnedBytes);
+		props.setProperty(CONFIG_MAX_DELETED_BYTES, "" + maxDeletedBytes);
+	}
+
+	/* default */ void save() {
 		if (saveFile == null) {
 			LOGGER.warning("Not saving:  no save location.");
 			return;
 		}
 
 		LOGGER.info("Saving.");
+		PersistenceEvent persistenceEvent = new PersistenceEvent();
+		persistenceEvent.begin();
+		int entries;
 
 		Properties props = new Properties();
-		props.setProperty(CONFIG_MAX_MAIN_ENTRIES, "" + maxMainEntries);
-		props.setProperty(CONFIG_MAX_KEEP_DELETED_DAYS, "" + maxKeepDeletedDays);
+		writeSettings(props);
 
+		DataLockEvent lockEvent = DataLockEvent.begin("save");
 		synchronized(dataLock) {
-			saveHistory(historyList, props, "history");
-			saveHistory(pinnedHistoryList, props, "pinnedHistory");
-			saveHistory(deletedHistoryList, props, "deletedHistory");
+			lockEvent.acquired();
+			Set<HistoryEntry> savedEntries = new HashSet<>();
+			for (Iterable<HistoryEntry> list : List.of(historyList, pinnedHistoryList, deletedHistoryList)) {
+				list.forEach(savedEntries::add);
+			}
+
+			saveHistory(historyList, props, "history", savedEntries);
+			saveHistory(pinnedHistoryList, props, "pinnedHistory", savedEntries);
+			saveHistory(deletedHistoryList, props, "deletedHistory", savedEntries);
+			entries = historyList.size() + pinnedHistoryList.size() + deletedHistoryList.size();
 		}
 
-		try (OutputStream os = new FileOutputStream(saveFile)) {
+		// Write a new file and rename it over the old one, so a crash mid-write can't lose everything and a
+		// lazy loader's mapping of the old file stays valid.
+		File tempFile = new File(saveFile.getAbsoluteFile().getParentFile(), saveFile.getName() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tempFile)) {
 			props.store(os, "Storage File for PasteBin.java");
 		}
 		catch (IOException e) {
 			e.printStackTrace();
+			return;
+		}
+
+		persistenceEvent.end();
+		if (persistenceEvent.shouldCommit()) {
+			persistenceEvent.operation = PersistenceEvent.SAVE;
+			persistenceEvent.entries = entries;
+			persistenceEvent.bytes = tempFile.length();
+			persistenceEvent.commit();
+		}
+
+		try {
+			Files.move(tempFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			LOGGER.severe("Unable to replace '" + saveFile.getAbsolutePath() + "'.  The data was saved to '"
+				+ tempFile.getAbsolutePath() + "'."
+				+ (lazyLoad ? "  The save file is still mapped by pastebin.lazyLoad, which Windows doesn't allow." : ""));
+			e.printStackTrace();
 		}
 	}
 
-	private void saveHistory(List<HistoryEntry> historyList, Properties props, String prefix) {
+	/**
+	 * @param historyList
+	 * @param props
+	 * @param prefix
+	 * @param savedEntries
+	 * 		Every entry being saved.  Deltas are saved as deltas only if their base is in here.
+	 */
+	private void saveHistory(Iterable<HistoryEntry> historyList, Properties props, String prefix, Set<HistoryEntry> savedEntries) {
 		int index = 0;
 		for (HistoryEntry entry : historyList) {
-			props.setProperty(prefix + "." + index + ".text", entry.getText());
+			HistoryEntry deltaBase = entry.getDeltaBase();
+			if (deltaBase != null && savedEntries.contains(deltaBase)) {
+				props.setProperty(prefix + "." + index + ".text", entry.getStoredText());
+				props.setProperty(prefix + "." + index + ".deltaBase", deltaBase.getUuid().toString());
+			}
+			else {
+				props.setProperty(prefix + "." + index + ".text", entry.getText());
+			}
 			props.setProperty(prefix + "." + index + ".createDate",
-				"" + entry.getCreateTs().toEpochMilli());
+				"" + entry.getCreateMs());
 
-			if (entry.getDeletedTs() != null) {
+			if (entry.getDeletedMs() != HistoryEntry.NO_TIMESTAMP) {
 				props.setProperty(prefix + "." + index + ".deletedDate",
-					"" + entry.getDeletedTs().toEpochMilli());
+					"" + entry.getDeletedMs());
 			}
 
 			if (entry.getShortUrl() != null) {
 				props.setProperty(prefix + "." + index + ".shortUrl", entry.getShortUrl());
 			}
 
+			if (entry.getExpiresMs() != HistoryEntry.NO_TIMESTAMP) {
+				props.setProperty(prefix + "." + index + ".expiresDate",
+					"" + entry.getExpiresMs());
+			}
+
+			if (entry.isBlob()) {
+				props.setProperty(prefix + "." + index + ".blobLength", "" + entry.getBlobLength());
+			}
+
+			if (entry.isAttachment()) {
+				props.setProperty(prefix + "." + index + ".attachmentName", entry.getAttachmentName());
+				props.setProperty(prefix + "." + index + ".attachmentType", entry.getAttachmentContentType());
+			}
+
 			props.setProperty(prefix + "." + index + ".uuid",
 				"" + entry.getUuid().toString());
 
@@ -476,103 +1793,455 @@ public class PasteBinService {
 		return "<form action='" + action + "' method='POST'><input type='hidden' name='id' value='" + uuid.toString() + "'><input type='submit' value='" + submitValue + "'></form>";
 	}
 
+	/**
+	 * The checkboxes and buttons for bulk operations sit in the table rows, so they're tied to this otherwise empty
+	 * form with their "form" attribute rather than nested in it.  Forms can't be nested, and each row already has
+	 * its own single-entry forms.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeBulkForm(Writer writer) throws IOException {
+		writer.write("<form id='bulk' action='" + basePath + "/bulk' method='POST'></form>");
+	}
+
+	private String checkbox(UUID uuid) {
+		return "<input type='checkbox' name='id' value='" + uuid.toString() + "' form='bulk'>";
+	}
+
+	private String bulkButton(String op, String label) {
+		return "<button type='submit' form='bulk' name='op' value='" + op + "'>" + label + "</button>";
+	}
+
 	private String input(UUID uuid, String value) {
 		return "<input type='text' name='shortUrl" + uuid.toString() + "' value='" + (value==null ? "" : value) + "'>";
 	}
 
+	/**
+	 * The page, or the text of the entry with the given short URL.
+	 *
+	 * @param requestPath
+	 * @return
+	 * 		Null if the path isn't "/" and isn't a short URL, so the caller can answer with a cheap 404.
+	 * @throws IOException
+	 */
 	public String rootHandler(String requestPath) throws IOException {
+		return rootHandler(requestPath, null);
+	}
+
+	/**
+	 * @param requestPath
+	 * @param messages
+	 * 		Shown on the main page, such as those carried over from a change.  May be null.
+	 * @return
+	 * 		The main page or the text of a short URL, or null if there's no such short URL.
+	 * @throws IOException
+	 */
+	public String rootHandler(String requestPath, PageMessages messages) throws IOException {
+		boolean home = !requestPath.startsWith("/") || requestPath.equals("/");
+		if (home) {
+			return renderPage(messages == null ? PageMessages.NONE : messages);
+		}
+
+		String shortUrl = requestPath.substring(1);
+		if (shortUrlMissCache.contains(shortUrl)) {
+			shortUrlCachedMissCount.increment();
+			return null;
+		}
+
 		String htmlResponse = null; // This will hold our prepared output
+		DataLockEvent lockEvent = DataLockEvent.begin("root");
 		OUTER: synchronized(dataLock) {
-			java.io.StringWriter sw = new java.io.StringWriter();
-			if (requestPath.startsWith("/") && !requestPath.equals("/")) {
-				requestPath = requestPath.substring(1);
-
-				for (HistoryEntry entry : pinnedHistoryList) {
-					if (requestPath.equals(entry.getShortUrl())) {
-						LOGGER.fine("Found " + entry.getText());
-						htmlResponse = entry.getText();
-						break OUTER;
-					}
+			lockEvent.acquired();
+			for (HistoryEntry entry : pinnedHistoryList) {
+				if (shortUrl.equals(entry.getShortUrl())) {
+					LOGGER.fine("Found " + entry.getText());
+					htmlResponse = entry.getText();
+					break OUTER;
 				}
+			}
 
-				for (HistoryEntry entry : historyList) {
-					if (requestPath.equals(entry.getShortUrl())) {
-						LOGGER.fine("Found " + entry.getText());
-						htmlResponse = entry.getText();
-						break OUTER;
-					}
+			for (HistoryEntry entry : historyList) {
+				if (shortUrl.equals(entry.getShortUrl())) {
+					LOGGER.fine("Found " + entry.getText());
+					htmlResponse = entry.getText();
+					break OUTER;
 				}
 			}
 
-			writePage(sw);
-			htmlResponse = sw.toString();
+			// Added with the data lock held, so it can't race with a short URL being set.
+			shortUrlMissCache.add(shortUrl);
+			shortUrlMissCount.increment();
+			return null;
 		}
 
+		shortUrlHitCount.increment();
 		return htmlResponse;
 	}
 
+	/**
+	 * @return
+	 * 		Prefixed to every link in the pages:  empty for the main board, or e.g. "/b/kids".
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+
+	/**
+	 * @return
+	 * 		The board's name, or null for the main board.
+	 */
+	public String getBoardName() {
+		return boardName;
+	}
+
+	/**
+	 * Write the short URL counters and how much of each byte budget is used, as {@code prefix.counter=value} lines.
+	 *
+	 * @param writer
+	 * @param prefix
+	 */
+	public void writeStats(PrintWriter writer, String prefix) {
+		writer.println(prefix + ".shortUrl.hits=" + shortUrlHitCount.sum());
+		writer.println(prefix + ".shortUrl.misses=" + shortUrlMissCount.sum());
+		writer.println(prefix + ".shortUrl.cachedMisses=" + shortUrlCachedMissCount.sum());
+		writer.println(prefix + ".shortUrl.missCacheSize=" + shortUrlMissCache.size());
+		synchronized(dataLock) {
+			writer.println(prefix + ".bytes.active=" + historyList.getTextBytes() + "/" + maxActiveBytes);
+			writer.println(prefix + ".bytes.pinned=" + pinnedTextBytes + "/" + maxPinnedBytes);
+			writer.println(prefix + ".bytes.deleted=" + deletedHistoryList.getTextBytes() + "/" + maxDeletedBytes);
+		}
+	}
+
 	public String pasteHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyPaste(queryMap));
+	}
+
+	/**
+	 * Add a paste without rendering the page, so the lock is only held for the change.
+	 *
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 * @throws IOException
+	 */
+	public PageMessages applyPaste(Map<String, List<String>> queryMap) throws IOException {
+		if (queryMap == null) {
+			return PageMessages.NONE;
+		}
+
+		boolean preformatted = false;
+		List<String> preValue = queryMap.get("preformatted");
+		if (preValue != null && preValue.size() == 1) {
+			preformatted = true;
+		}
+
+		List<String> textValue = queryMap.get("text");
+		LOGGER.fine(textValue.toString());
+		if (textValue != null && textValue.size() == 1) {
+			String text = textValue.get(0);
+			LOGGER.fine(text);
+
+			addPaste(java.net.URLDecoder.decode(text, "UTF-8"), preformatted, parseTtl(queryMap), "paste");
+		}
+
+		return PageMessages.NONE;
+	}
+
+	/**
+	 * Add a paste to the front of the active list.  The data lock is taken briefly to pick delta candidates,
+	 * released while the delta is worked out, and taken again to add the entry.
+	 *
+	 * @param text
+	 * 		The plain text, fully decoded.
+	 * @param preformatted
+	 * @param ttl
+	 * 		Null for never.
+	 * @param lockName
+	 * 		Names the data lock events.
+	 * @return
+	 * 		A copy of the new entry.
+	 */
+	private ChangeRecord addPaste(String text, boolean preformatted, Duration ttl, String lockName) {
+		String html = StringEscapeUtils.escapeHtml4(text);
+		if (preformatted) {
+			html = "<pre>" + html + "</pre>";
+		}
+
+		HistoryEntry entry = new HistoryEntry(html);
+		if (ttl != null) {
+			entry.setExpiresTs(entry.getCreateTs().plus(ttl));
+		}
+
+		List<DeltaCandidate> candidates;
+		DataLockEvent candidatesEvent = DataLockEvent.begin(lockName);
 		synchronized(dataLock) {
-			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw);
-				return sw.toString();
+			candidatesEvent.acquired();
+			candidates = deltaCandidates(html);
+		}
+
+		DeltaCandidate base = chooseDeltaBase(html, candidates);
+
+		DataLockEvent lockEvent = DataLockEvent.begin(lockName);
+		synchronized(dataLock) {
+			lockEvent.acquired();
+
+			// The base may have been deleted while the delta was worked out.  Its text can't have changed, only
+			// how it's stored.
+			if (base != null && findActiveOrPinned(base.entry.getUuid()) == base.entry) {
+				entry.setDelta(base.entry, base.delta);
 			}
 
-			boolean preformatted = false;
-			List<String> preValue = queryMap.get("preformatted");
-			if (preValue != null && preValue.size() == 1) {
-				preformatted = true;
+			historyList.addFirst(entry);
+			recordChange(ChangeRecord.Op.ACTIVE, entry);
+			scheduleExpiry(entry);
+			return apiSnapshot(ChangeRecord.Op.ACTIVE, entry);
+		}
+	}
+
+	/**
+	 * Add a paste that was too large to keep in memory.  It was spooled to a file by {@link FormBody}, already
+	 * fully decoded.  The entry shows a preview, and the whole text is served from /raw/.
+	 *
+	 * @param spooledFile
+	 * 		Moved into the blob store.
+	 * @param preformatted
+	 * @return
+	 * @throws IOException
+	 */
+	public String pasteBlobHandler(Path spooledFile, boolean preformatted) throws IOException {
+		return pasteBlobHandler(spooledFile, preformatted, null);
+	}
+
+	/**
+	 * @param spooledFile
+	 * @param preformatted
+	 * @param ttl
+	 * 		Null for never.
+	 * @return
+	 * @throws IOException
+	 */
+	public String pasteBlobHandler(Path spooledFile, boolean preformatted, Duration ttl) throws IOException {
+		return renderPage(applyPasteBlob(spooledFile, preformatted, ttl));
+	}
+
+	/**
+	 * Add a large paste without rendering the page.
+	 *
+	 * @param spooledFile
+	 * 		Moved into the blob store.
+	 * @param preformatted
+	 * @param ttl
+	 * 		Null for never.
+	 * @return
+	 * 		The messages for the page.
+	 * @throws IOException
+	 */
+	public PageMessages applyPasteBlob(Path spooledFile, boolean preformatted, Duration ttl) throws IOException {
+		addPasteBlob(spooledFile, preformatted, ttl, "pasteBlob");
+		return PageMessages.NONE;
+	}
+
+	/**
+	 * Add a large paste for the JSON API.
+	 *
+	 * @param spooledFile
+	 * 		Moved into the blob store.  Holds the plain text, fully decoded.
+	 * @param preformatted
+	 * @param ttl
+	 * 		Null for never.
+	 * @return
+	 * 		A copy of the new entry.
+	 * @throws IOException
+	 */
+	public ChangeRecord apiCreateBlob(Path spooledFile, boolean preformatted, Duration ttl) throws IOException {
+		return addPasteBlob(spooledFile, preformatted, ttl, "apiCreateBlob");
+	}
+
+	/**
+	 * @param spooledFile
+	 * @param preformatted
+	 * @param ttl
+	 * @param lockName
+	 * 		Names the data lock event.
+	 * @return
+	 * 		A copy of the new entry.
+	 * @throws IOException
+	 */
+	private ChangeRecord addPasteBlob(Path spooledFile, boolean preformatted, Duration ttl, String lockName) throws IOException {
+		// Read the preview before taking the lock.
+		char[] preview = new char[BLOB_PREVIEW_CHARS];
+		int previewLength = 0;
+		try (Reader reader = Files.newBufferedReader(spooledFile, StandardCharsets.UTF_8)) {
+			for (int count; previewLength < preview.length
+					&& (count = reader.read(preview, previewLength, preview.length - previewLength)) > 0; ) {
+				previewLength += count;
 			}
+		}
 
-			List<String> textValue = queryMap.get("text");
-			LOGGER.fine(textValue.toString());
-			if (textValue != null && textValue.size() == 1) {
-				String text = textValue.get(0);
-				LOGGER.fine(text);
+		UUID uuid = UUID.randomUUID();
+		long length = Files.size(spooledFile);
+		blobStore.commit(spooledFile, uuid);
 
-				text = java.net.URLDecoder.decode(text, "UTF-8");
-				text = StringEscapeUtils.escapeHtml4(text);
-				if (preformatted) {
-					text = "<pre>" + text + "</pre>";
-				}
+		String text = StringEscapeUtils.escapeHtml4(new String(preview, 0, previewLength));
+		if (preformatted) {
+			text = "<pre>" + text + "</pre>";
+		}
+		text += "<p><a href='" + basePath + "/raw/" + uuid + "'>View the whole paste</a> (" + length + " bytes).</p>";
+
+		HistoryEntry entry = new HistoryEntry(text, Instant.now(), null, uuid);
+		entry.setBlobLength(length);
+		if (ttl != null) {
+			entry.setExpiresTs(entry.getCreateTs().plus(ttl));
+		}
+
+		DataLockEvent lockEvent = DataLockEvent.begin(lockName);
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			historyList.addFirst(entry);
+			recordChange(ChangeRecord.Op.ACTIVE, entry);
+			scheduleExpiry(entry);
+			return apiSnapshot(ChangeRecord.Op.ACTIVE, entry);
+		}
+	}
+
+	public BlobStore getBlobStore() {
+		return blobStore;
+	}
+
+	/**
+	 * @return
+	 * 		The most stored text that one entry can have here.  Anything bigger wouldn't fit the byte budget of
+	 * 		any list.
+	 */
+	public long getMaxTextBytes() {
+		synchronized(dataLock) {
+			return Math.max(maxActiveBytes, Math.max(maxPinnedBytes, maxDeletedBytes));
+		}
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The file holding the whole text of a large paste, or null if there's no such entry or it isn't large.
+	 */
+	public Path getBlobPath(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("raw");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			HistoryEntry entry = findActiveOrPinned(uuid);
+			if (entry == null) {
+				entry = deletedHistoryList.find(uuid);
+			}
 
-				historyList.add(0, new HistoryEntry(text));
-				checkHistoryListLength();
+			if (entry == null || !entry.isBlob() || entry.isAttachment()) {
+				return null;
 			}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw);
-			htmlResponse = sw.toString();
+			return blobStore.pathFor(uuid);
 		}
+	}
 
-		return htmlResponse;
+	/**
+	 * Add an uploaded file as a new entry.  The entry's text links to the file, and shows it if it's an image.
+	 *
+	 * @param spooledFile
+	 * 		Moved into the blob store.
+	 * @param fileName
+	 * @param contentType
+	 * @return
+	 * @throws IOException
+	 */
+	public String attachHandler(Path spooledFile, String fileName, String contentType) throws IOException {
+		return renderPage(applyAttach(spooledFile, fileName, contentType));
+	}
+
+	/**
+	 * Add an uploaded file without rendering the page.
+	 *
+	 * @param spooledFile
+	 * 		Moved into the blob store.
+	 * @param fileName
+	 * @param contentType
+	 * @return
+	 * 		The messages for the page.
+	 * @throws IOException
+	 */
+	public PageMessages applyAttach(Path spooledFile, String fileName, String contentType) throws IOException {
+		UUID uuid = UUID.randomUUID();
+		long length = Files.size(spooledFile);
+		blobStore.commit(spooledFile, uuid);
+
+		String link = basePath + "/attachment/" + uuid;
+		String text = "<a href='" + link + "'>" + StringEscapeUtils.escapeHtml4(fileName) + "</a> (" + length + " bytes)";
+		if (isInlineImage(contentType)) {
+			text += "<br><img src='" + link + "' alt='' style='max-width: 100%'>";
+		}
+
+		HistoryEntry entry = new HistoryEntry(text, Instant.now(), null, uuid);
+		entry.setBlobLength(length);
+		entry.setAttachment(fileName, contentType);
+
+		DataLockEvent lockEvent = DataLockEvent.begin("attach");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			historyList.addFirst(entry);
+			recordChange(ChangeRecord.Op.ACTIVE, entry);
+		}
+
+		return PageMessages.NONE;
+	}
+
+	/**
+	 * Images that are safe to show in the page.  SVG isn't, since it can carry script.
+	 *
+	 * @param contentType
+	 * @return
+	 */
+	/* default */ static boolean isInlineImage(String contentType) {
+		String lower = contentType.toLowerCase(Locale.ROOT);
+		return lower.equals("image/png") || lower.equals("image/jpeg") || lower.equals("image/gif") || lower.equals("image/webp");
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		The entry for an uploaded file, in any list, or null.  The file is at {@link BlobStore#pathFor(UUID)}.
+	 */
+	public HistoryEntry findAttachment(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("attachment");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			HistoryEntry entry = findActiveOrPinned(uuid);
+			if (entry == null) {
+				entry = deletedHistoryList.find(uuid);
+			}
+
+			return entry != null && entry.isAttachment() ? entry : null;
+		}
 	}
 
 	public String deleteHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyDelete(queryMap));
+	}
+
+	/**
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyDelete(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("delete");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw);
-				return sw.toString();
+				return PageMessages.NONE;
 			}
 
 			List<String> idValue = queryMap.get("id");
 			if (idValue != null && idValue.size() == 1) {
 				try {
-					UUID uuid = UUID.fromString(idValue.get(0));
-					Iterator<HistoryEntry> entryIter = historyList.iterator();
-					while (entryIter.hasNext()) {
-						HistoryEntry entry = entryIter.next();
-						if (entry.getUuid().equals(uuid)) {
-							entryIter.remove();
-							entry.setDeletedTs(Instant.now());
-							addAndManageDeletedHistoryList(entry);
-							break;
-						}
-					}
+					deleteActive(UUID.fromString(idValue.get(0)));
 				}
 				catch (IndexOutOfBoundsException | NumberFormatException e) {
 					e.printStackTrace();
@@ -580,76 +2249,63 @@ public class PasteBinService {
 				}
 			}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw);
-			htmlResponse = sw.toString();
+			return PageMessages.NONE;
 		}
-
-		return htmlResponse;
 	}
 
 	public String undeleteContextHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyUndelete(queryMap));
+	}
+
+	/**
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyUndelete(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("undelete");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw);
-				return sw.toString();
+				return PageMessages.NONE;
 			}
 
 			List<String> idValue = queryMap.get("id");
 			if (idValue != null && idValue.size() == 1) {
 				try {
-					UUID uuid = UUID.fromString(idValue.get(0));
-					Iterator<HistoryEntry> entryIter = deletedHistoryList.iterator();
-					while (entryIter.hasNext()) {
-						HistoryEntry entry = entryIter.next();
-						if (entry.getUuid().equals(uuid)) {
-							entryIter.remove();
-							entry.setDeletedTs(null);
-							historyList.add(0, entry);
-							checkHistoryListLength();
-							break;
-						}
-					}
+					undelete(UUID.fromString(idValue.get(0)));
 				}
-				catch (IndexOutOfBoundsException | NumberFormatException e) {
+				catch (IllegalArgumentException e) {
 					e.printStackTrace();
 					// Fall through and return the usual response.
 				}
 			}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw);
-			htmlResponse = sw.toString();
+			return PageMessages.NONE;
 		}
-
-		return htmlResponse;
 	}
 
 	public String deletePinContextHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyDeletePin(queryMap));
+	}
+
+	/**
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyDeletePin(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("deletePin");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw);
-				return sw.toString();
+				return PageMessages.NONE;
 			}
 
 			List<String> idValue = queryMap.get("id");
 			if (idValue != null && idValue.size() == 1) {
 				try {
-					UUID uuid = UUID.fromString(idValue.get(0));
-					Iterator<HistoryEntry> entryIter = pinnedHistoryList.iterator();
-					while (entryIter.hasNext()) {
-						HistoryEntry entry = entryIter.next();
-						if (entry.getUuid().equals(uuid)) {
-							entryIter.remove();
-							entry.setDeletedTs(Instant.now());
-							addAndManageDeletedHistoryList(entry);
-							break;
-						}
-					}
+					deletePinned(Set.of(UUID.fromString(idValue.get(0))));
 				}
 				catch (NumberFormatException e) {
 					e.printStackTrace();
@@ -657,35 +2313,34 @@ public class PasteBinService {
 				}
 			}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw);
-			htmlResponse = sw.toString();
+			return PageMessages.NONE;
 		}
-
-		return htmlResponse;
 	}
 
 	public String pinContextHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyPin(queryMap));
+	}
+
+	/**
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyPin(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("pin");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw);
-				return sw.toString();
+				return PageMessages.NONE;
 			}
 
+			String errorMessage = null;
 			List<String> idValue = queryMap.get("id");
 			if (idValue != null && idValue.size() == 1) {
 				try {
 					UUID uuid = UUID.fromString(idValue.get(0));
-					Iterator<HistoryEntry> entryIter = historyList.iterator();
-					while (entryIter.hasNext()) {
-						HistoryEntry entry = entryIter.next();
-						if (entry.getUuid().equals(uuid)) {
-							entryIter.remove();
-							pinnedHistoryList.add(0, entry);
-							break;
-						}
+					if (!pin(uuid) && historyList.find(uuid) != null) {
+						errorMessage = PINNED_BUDGET_MESSAGE;
 					}
 				}
 				catch (NumberFormatException e) {
@@ -694,41 +2349,185 @@ public class PasteBinService {
 				}
 			}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw);
-			htmlResponse = sw.toString();
+			return PageMessages.error(errorMessage);
 		}
-
-		return htmlResponse;
 	}
 
 	public String viewDeletedContextHandler() throws IOException {
+		return viewDeletedContextHandler(null);
+	}
+
+	/**
+	 * Show the deleted list, optionally limited to the range given by the "from" and "to" query parameters.
+	 *
+	 * @param queryMap
+	 * 		May be null to show everything.
+	 * @return
+	 * @throws IOException
+	 */
+	public String viewDeletedContextHandler(Map<String, List<String>> queryMap) throws IOException {
+		String from = firstValue(queryMap, "from");
+		String to = firstValue(queryMap, "to");
+		long fromMs = parseRangeBoundary(from, false, Long.MIN_VALUE);
+		long toMs = parseRangeBoundary(to, true, Long.MAX_VALUE);
+
 		String htmlResponse = null;
+		DataLockEvent lockEvent = DataLockEvent.begin("viewDeleted");
 		synchronized(dataLock) {
+			lockEvent.acquired();
+			RenderEvent renderEvent = new RenderEvent();
+			renderEvent.begin();
+
 			StringWriter sw = new StringWriter();
 			writeHeader(sw);
 			sw.write("<body>");
-			sw.write("<p><a href='/'>Home</a></p>");
-			writeDeletedHistory(sw);
+			sw.write("<p><a href='" + basePath + "/'>Home</a></p>");
+			writeDeletedRangeForm(sw, from == null ? "" : from, to == null ? "" : to);
+			int entries = writeDeletedHistory(sw, fromMs, toMs);
 			sw.write("</body>");
 			sw.write("</html>");
 			htmlResponse = sw.toString();
+
+			commitRenderEvent(renderEvent, "deleted", entries);
 		}
 
 		return htmlResponse;
 	}
 
+	private void writeGrepForm(Writer writer, String regex) throws IOException {
+		writer.write("<form action='" + basePath + "/grep' method='GET'>");
+		writer.write("<label for='re'>Search all entries for</label> ");
+		writer.write("<input type='text' id='re' name='re' size='40' value='" + StringEscapeUtils.escapeHtml4(regex) + "'> ");
+		writer.write("<input type='submit' value='Search'>");
+		writer.write("</form>");
+	}
+
+	/**
+	 * Search the pinned, active and deleted entries for a regular expression, writing each matching entry as
+	 * soon as it's found.  The data lock is only held while the entries are snapshotted.  See {@link Grep}.
+	 *
+	 * The writer is flushed after each match, so it should send what it has when flushed.  If writing fails,
+	 * for example because the client went away, the search is stopped.
+	 *
+	 * @param writer
+	 * @param pattern
+	 * 		Matched against each line of the pasted text.  Null just shows the form.
+	 * @throws IOException
+	 */
+	public void grepHandler(Writer writer, Pattern pattern) throws IOException {
+		RenderEvent renderEvent = new RenderEvent();
+		renderEvent.begin();
+
+		writeHeader(writer);
+		writer.write("<body>");
+		writer.write("<p><a href='" + basePath + "/'>Home</a></p>");
+		writeGrepForm(writer, pattern == null ? "" : pattern.pattern());
+
+		int matches = 0;
+		if (pattern != null) {
+			List<EntrySnapshot> entries;
+			DataLockEvent lockEvent = DataLockEvent.begin("grep");
+			synchronized(dataLock) {
+				lockEvent.acquired();
+				entries = snapshotEntries();
+			}
+
+			// Newest first, pinned, then active, then deleted.
+			Collections.reverse(entries);
+			matches = writeGrepResults(writer, pattern, entries);
+		}
+
+		writer.write("</body>");
+		writer.write("</html>");
+
+		commitRenderEvent(renderEvent, "grep", matches);
+	}
+
+	private int writeGrepResults(Writer writer, Pattern pattern, List<EntrySnapshot> entries) throws IOException {
+		long budgetMs = Long.getLong(PROPERTY_GREP_BUDGET_MS, DEFAULT_GREP_BUDGET_MS);
+		long startNanos = System.nanoTime();
+		try (Grep grep = new Grep(entries, pattern, blobStore, budgetMs)) {
+			grep.start();
+
+			writer.write("<table border='1' width='100%'>");
+			writer.write("<tr><th>Matching Lines</th><th>List</th><th>Created Date</th></tr>");
+			writer.flush();
+
+			try {
+				for (Grep.Match match; (match = grep.next()) != null; ) {
+					writeGrepMatch(writer, match);
+					writer.flush();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writer.write("</table>");
+
+			String summary = grep.getMatchCount() + " of " + grep.getEntryCount() + " entries matched";
+			if (grep.isLimited()) {
+				summary += ".  Only the first " + Grep.MAX_MATCHES + " are shown";
+			}
+			else if (grep.getSearchedCount() < grep.getEntryCount()) {
+				summary += ".  The search stopped after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+					+ " ms, with " + grep.getSearchedCount() + " entries searched";
+			}
+			writer.write("<p>" + summary + ".</p>");
+			return grep.getMatchCount();
+		}
+	}
+
+	private void writeGrepMatch(Writer writer, Grep.Match match) throws IOException {
+		EntrySnapshot entry = match.getEntry();
+		ChangeRecord record = entry.getRecord();
+
+		StringBuilder lines = new StringBuilder("<pre>");
+		for (String line : match.getLines()) {
+			lines.append(StringEscapeUtils.escapeHtml4(line)).append('\n');
+		}
+		lines.append("</pre>");
+		if (match.getLineCount() > match.getLines().size()) {
+			lines.append("<p>").append(match.getLineCount() - match.getLines().size()).append(" more matching lines.</p>");
+		}
+
+		String list;
+		String page;
+		if (record.getOp() == ChangeRecord.Op.PINNED) {
+			list = "Pinned";
+			page = "/";
+		}
+		else if (record.getOp() == ChangeRecord.Op.ACTIVE) {
+			list = "Active";
+			page = "/";
+		}
+		else {
+			list = "Deleted";
+			page = "/viewDeleted";
+		}
+
+		writer.write("<tr>");
+		writer.write(td("top", lines.toString()));
+		writer.write(td("top", "<a href='" + basePath + page + "#text" + entry.getUuid() + "'>" + list + "</a>"));
+		writer.write(td("top", ISO_NOBR_FORMATTER.format(Instant.ofEpochMilli(record.getCreateMs()))));
+		writer.write("</tr>");
+	}
+
 	public String shortUrlDisplayHandler() throws IOException {
 		String htmlResponse = null;
+		DataLockEvent lockEvent = DataLockEvent.begin("shortUrls");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			// String requestMethod = he.getRequestMethod();
 			// Headers requestHeaders = he.getRequestHeaders();
 
+			RenderEvent renderEvent = new RenderEvent();
+			renderEvent.begin();
+
 			StringWriter sw = new StringWriter();
 			writeHeader(sw);
 			sw.write("<body>");
 
-			sw.write("<form action='/updateShortUrls' method='POST'>");
+			sw.write("<form action='" + basePath + "/updateShortUrls' method='POST'>");
 
 			HistorySnippetWriter hsw = (entry) ->  {
 				sw.write(td("center", input(entry.getUuid(), entry.getShortUrl())));
@@ -738,11 +2537,11 @@ public class PasteBinService {
 			String header = "<tr><th>Text</th><th>Short URL</th><th>Created Date</th></tr>";
 
 			sw.write("<h2>Pinned Items</h2>");
-			writeHistory(sw, pinnedHistoryList, hsw, header);
+			int entries = writeHistory(sw, pinnedHistoryList, hsw, header);
 			sw.write("<input type='submit'>");
 
 			sw.write("<h2>Unpinned Items</h2>");
-			writeHistory(sw, historyList, hsw, header);
+			entries += writeHistory(sw, historyList, hsw, header);
 			sw.write("<input type='submit'>");
 
 			sw.write("</form>");
@@ -751,62 +2550,475 @@ public class PasteBinService {
 			sw.write("</html>");
 
 			htmlResponse = sw.toString();
+
+			commitRenderEvent(renderEvent, "shortUrls", entries);
 		}
 
 		return htmlResponse;
 	}
 
 	public String updateShortUrlHandler(Map<String, List<String>> queryMap) throws IOException {
-		String htmlResponse = null;
+		return renderPage(applyShortUrlUpdate(queryMap));
+	}
+
+	/**
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyShortUrlUpdate(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("updateShortUrls");
 		synchronized(dataLock) {
+			lockEvent.acquired();
 			if (queryMap == null) {
-				StringWriter sw = new StringWriter();
-				writePage(sw, "Please try your request again.", null);
-				return sw.toString();
+				return PageMessages.error("Please try your request again.");
 			}
 
-			HashMap<UUID, HistoryEntry> entryMap = new HashMap<>();
+			int count = applyShortUrls(queryMap, null);
+			return PageMessages.info("Number of short URLs set (total):  " + count + ".");
+		}
+	}
 
-			for (HistoryEntry entry : pinnedHistoryList) {
-				entryMap.put(entry.getUuid(), entry);
+	/**
+	 * Set short URLs from {@code shortUrl<uuid>=<value>} parameters.  An empty value clears the short URL.
+	 * Parameters that don't name an entry are skipped.  Must be called with the data lock held.
+	 *
+	 * @param queryMap
+	 * @param selected
+	 * 		Only these entries are changed, or null for any entry.
+	 * @return
+	 * 		The number of short URLs set to a non-empty value.
+	 */
+	private int applyShortUrls(Map<String, List<String>> queryMap, Set<UUID> selected) {
+		HashMap<UUID, HistoryEntry> entryMap = new HashMap<>();
+
+		for (HistoryEntry entry : pinnedHistoryList) {
+			entryMap.put(entry.getUuid(), entry);
+		}
+
+		for (HistoryEntry entry : historyList) {
+			entryMap.put(entry.getUuid(), entry);
+		}
+
+		int count = 0;
+		for (Map.Entry<String, List<String>> entry : queryMap.entrySet()) {
+			if (!entry.getKey().startsWith("shortUrl")) {
+				continue;
 			}
 
-			for (HistoryEntry entry : historyList) {
-				entryMap.put(entry.getUuid(), entry);
+			String bareKey = entry.getKey().substring("shortUrl".length());
+			UUID uuid;
+			try {
+				uuid = UUID.fromString(bareKey);
+			}
+			catch (IllegalArgumentException e) {
+				LOGGER.warning("Skipping '" + entry.getKey() + "':  not a UUID.");
+				continue;
+			}
+
+			HistoryEntry historyEntry = entryMap.get(uuid);
+			if (historyEntry == null || (selected != null && !selected.contains(uuid))) {
+				continue;
+			}
+
+			if (entry.getValue() != null && entry.getValue().size() == 1) {
+				String simpleValue = entry.getValue().get(0);
+				if (simpleValue.length() > 0) {
+					LOGGER.fine(entry.getKey() + "=" + simpleValue);
+					historyEntry.setShortUrl(simpleValue);
+					count++;
+				}
+				else {
+					historyEntry.setShortUrl("");
+				}
+				recordChange(ChangeRecord.Op.SHORT_URL, historyEntry);
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Move an active entry to the deleted list.  Must be called with the data lock held.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		True if the entry was active.
+	 */
+	private boolean deleteActive(UUID uuid) {
+		HistoryEntry entry = historyList.remove(uuid);
+		if (entry == null) {
+			return false;
+		}
+
+		entry.setDeletedTs(Instant.now());
+		addAndManageDeletedHistoryList(entry);
+		return true;
+	}
+
+	/**
+	 * Move a deleted entry to the front of the active list.  Must be called with the data lock held.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		True if the entry was deleted.
+	 */
+	private boolean undelete(UUID uuid) {
+		HistoryEntry entry = deletedHistoryList.remove(uuid);
+		if (entry == null) {
+			return false;
+		}
+
+		entry.setDeletedTs(null);
+		historyList.addFirst(entry);
+		recordChange(ChangeRecord.Op.ACTIVE, entry);
+		return true;
+	}
+
+	/**
+	 * Move an active entry to the front of the pinned list.  Must be called with the data lock held.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		True if the entry was active.
+	 */
+	private boolean pin(UUID uuid) {
+		HistoryEntry entry = historyList.find(uuid);
+		if (entry == null) {
+			return false;
+		}
+
+		if (pinnedTextBytes + entry.getTextBytes() > maxPinnedBytes) {
+			LOGGER.warning("Not pinning " + uuid + ":  the pinned list would go over " + maxPinnedBytes + " bytes.");
+			return false;
+		}
+
+		historyList.remove(uuid);
+		addPinned(entry);
+		recordChange(ChangeRecord.Op.PINNED, entry);
+		return true;
+	}
+
+	/**
+	 * Put an entry at the front of the pinned list.  Must be called with the data lock held.
+	 *
+	 * @param entry
+	 */
+	private void addPinned(HistoryEntry entry) {
+		pinnedHistoryList.add(0, entry);
+		pinnedTextBytes += entry.getTextBytes();
+	}
+
+	/**
+	 * Move pinned entries to the deleted list, in one pass over the pinned list.  Must be called with the data
+	 * lock held.
+	 *
+	 * @param uuids
+	 * @return
+	 * 		The number of entries deleted.
+	 */
+	private int deletePinned(Set<UUID> uuids) {
+		int count = 0;
+		Iterator<HistoryEntry> entryIter = pinnedHistoryList.iterator();
+		while (entryIter.hasNext() && count < uuids.size()) {
+			HistoryEntry entry = entryIter.next();
+			if (uuids.contains(entry.getUuid())) {
+				entryIter.remove();
+				pinnedTextBytes -= entry.getTextBytes();
+				entry.setDeletedTs(Instant.now());
+				addAndManageDeletedHistoryList(entry);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Apply one operation to many entries under a single lock acquisition, then render the page.
+	 *
+	 * The operation is the "op" parameter:  "pin", "delete", "undelete" or "deletePin" act on every "id"
+	 * parameter, and "shortUrl" takes {@code shortUrl<uuid>=<value>} parameters like
+	 * {@link #updateShortUrlHandler(Map)}.  With "id" parameters, "shortUrl" only changes those entries;
+	 * without, it changes every entry named.  IDs that aren't in the right list are skipped.
+	 *
+	 * @param queryMap
+	 * @return
+	 * @throws IOException
+	 */
+	public String bulkHandler(Map<String, List<String>> queryMap) throws IOException {
+		return renderPage(applyBulk(queryMap));
+	}
+
+	/**
+	 * {@link #bulkHandler(Map)} without rendering the page.
+	 *
+	 * @param queryMap
+	 * @return
+	 * 		The messages for the page.
+	 */
+	public PageMessages applyBulk(Map<String, List<String>> queryMap) {
+		DataLockEvent lockEvent = DataLockEvent.begin("bulk");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			String op = firstValue(queryMap, "op");
+			if (op == null) {
+				return PageMessages.error("Please choose what to do with the selected entries.");
+			}
+
+			// Keep the order the IDs were given in, which is the order they're shown in.
+			Set<UUID> uuids = new LinkedHashSet<>();
+			List<String> idValues = queryMap.get("id");
+			if (idValues != null) {
+				for (String idValue : idValues) {
+					try {
+						uuids.add(UUID.fromString(idValue));
+					}
+					catch (IllegalArgumentException e) {
+						LOGGER.warning("Skipping '" + idValue + "':  not a UUID.");
+					}
+				}
 			}
 
 			int count = 0;
-			for (Map.Entry<String, List<String>> entry : queryMap.entrySet()) {
-				if (!entry.getKey().startsWith("shortUrl")) {
-					continue;
+			switch (op) {
+				case "pin": {
+					// Pin from the bottom up, so the entries keep their order at the top of the pinned list.
+					List<UUID> reversed = new ArrayList<>(uuids);
+					Collections.reverse(reversed);
+					for (UUID uuid : reversed) {
+						count += pin(uuid) ? 1 : 0;
+					}
+					break;
 				}
 
-				String bareKey = entry.getKey().substring("shortUrl".length());
-				HistoryEntry historyEntry = entryMap.get(UUID.fromString(bareKey));
+				case "delete":
+					for (UUID uuid : uuids) {
+						count += deleteActive(uuid) ? 1 : 0;
+					}
+					break;
 
-				if (historyEntry == null) {
-					continue;
+				case "undelete": {
+					List<UUID> reversed = new ArrayList<>(uuids);
+					Collections.reverse(reversed);
+					for (UUID uuid : reversed) {
+						count += undelete(uuid) ? 1 : 0;
+					}
+					break;
+				}
+
+				case "deletePin":
+					count = deletePinned(uuids);
+					break;
+
+				case "shortUrl":
+					count = applyShortUrls(queryMap, idValues == null ? null : uuids);
+					break;
+
+				default:
+					return PageMessages.error("Unknown operation '" + StringEscapeUtils.escapeHtml4(op) + "'.");
+			}
+
+			// Anything left in the active list wasn't pinned because of the budget.
+			String errorMessage = null;
+			if (op.equals("pin")) {
+				for (UUID uuid : uuids) {
+					if (historyList.find(uuid) != null) {
+						errorMessage = PINNED_BUDGET_MESSAGE;
+						break;
+					}
 				}
+			}
+
+			return new PageMessages(errorMessage, "Changed " + count + (count == 1 ? " entry." : " entries."));
+		}
+	}
+
+	/**
+	 * A copy of an entry's fields for the JSON API, taken with the data lock held so it can be written out after
+	 * the lock is released.  The operation says which list the entry is in:  {@link ChangeRecord.Op#ACTIVE},
+	 * {@link ChangeRecord.Op#PINNED} or {@link ChangeRecord.Op#DELETED}.  It isn't part of the replication log,
+	 * so its sequence number is zero.
+	 */
+	private ChangeRecord apiSnapshot(ChangeRecord.Op list, HistoryEntry entry) {
+		return ChangeRecord.of(0, list, entry);
+	}
+
+	/**
+	 * Copy one page of a list for the JSON API.
+	 *
+	 * @param list
+	 * 		{@link ChangeRecord.Op#ACTIVE}, {@link ChangeRecord.Op#PINNED} or {@link ChangeRecord.Op#DELETED}.
+	 * @param offset
+	 * @param limit
+	 * @param page
+	 * 		Receives up to limit entries, in the order they're shown on the page.
+	 * @return
+	 * 		The number of entries in the whole list.
+	 */
+	public int apiList(ChangeRecord.Op list, int offset, int limit, List<ChangeRecord> page) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiList");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			switch (list) {
+				case ACTIVE:
+					for (int i = offset; i < historyList.size() && page.size() < limit; i++) {
+						page.add(apiSnapshot(list, historyList.get(i)));
+					}
+					return historyList.size();
 
-				if (entry.getValue() != null && entry.getValue().size() == 1) {
-					String simpleValue = entry.getValue().get(0);
-					if (simpleValue.length() > 0) {
-						LOGGER.fine(entry.getKey() + "=" + simpleValue);
-						historyEntry.setShortUrl(simpleValue);
-						count++;
+				case PINNED:
+					for (int i = offset; i < pinnedHistoryList.size() && page.size() < limit; i++) {
+						page.add(apiSnapshot(list, pinnedHistoryList.get(i)));
 					}
-					else {
-						historyEntry.setShortUrl("");
+					return pinnedHistoryList.size();
+
+				case DELETED: {
+					// Sorted by deleted date, so there's no index to jump to.
+					int index = 0;
+					for (HistoryEntry entry : deletedHistoryList) {
+						if (page.size() == limit) {
+							break;
+						}
+						if (index++ >= offset) {
+							page.add(apiSnapshot(list, entry));
+						}
 					}
+					return deletedHistoryList.size();
 				}
+
+				default:
+					throw new IllegalArgumentException("Not a list:  " + list + ".");
 			}
+		}
+	}
 
-			StringWriter sw = new StringWriter();
-			writePage(sw, null, "Number of short URLs set (total):  " + count + ".");
-			htmlResponse = sw.toString();
+	/**
+	 * @param uuid
+	 * @return
+	 * 		A copy of the entry, in whichever list it's in, or null if there's no such entry.
+	 */
+	public ChangeRecord apiGet(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiGet");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			return apiFind(uuid);
 		}
+	}
 
-		return htmlResponse;
+	/**
+	 * Must be called with the data lock held.
+	 */
+	private ChangeRecord apiFind(UUID uuid) {
+		HistoryEntry entry = historyList.find(uuid);
+		if (entry != null) {
+			return apiSnapshot(ChangeRecord.Op.ACTIVE, entry);
+		}
+
+		for (HistoryEntry pinnedEntry : pinnedHistoryList) {
+			if (pinnedEntry.hasUuid(uuid)) {
+				return apiSnapshot(ChangeRecord.Op.PINNED, pinnedEntry);
+			}
+		}
+
+		entry = deletedHistoryList.find(uuid);
+		return entry == null ? null : apiSnapshot(ChangeRecord.Op.DELETED, entry);
+	}
+
+	/**
+	 * @param text
+	 * 		The plain text, fully decoded.
+	 * @param preformatted
+	 * @return
+	 * 		A copy of the new entry.
+	 */
+	public ChangeRecord apiCreate(String text, boolean preformatted) {
+		return apiCreate(text, preformatted, null);
+	}
+
+	/**
+	 * @param text
+	 * 		The plain text, fully decoded.
+	 * @param preformatted
+	 * @param ttl
+	 * 		Null for never.
+	 * @return
+	 * 		A copy of the new entry.
+	 */
+	public ChangeRecord apiCreate(String text, boolean preformatted, Duration ttl) {
+		return addPaste(text, preformatted, ttl, "apiCreate");
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		A copy of the entry after pinning it, or null if it isn't in the active list.
+	 */
+	public ChangeRecord apiPin(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiPin");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			return pin(uuid) ? apiSnapshot(ChangeRecord.Op.PINNED, pinnedHistoryList.get(0)) : null;
+		}
+	}
+
+	/**
+	 * Delete an active or pinned entry.
+	 *
+	 * @param uuid
+	 * @return
+	 * 		A copy of the entry after deleting it, or null if it isn't in the active or pinned list.  The copy is
+	 * 		{@link ChangeRecord.Op#REMOVE} if the deleted list's byte budget dropped the entry straight away.
+	 */
+	public ChangeRecord apiDelete(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiDelete");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			HistoryEntry entry = findActiveOrPinned(uuid);
+			if (entry == null || (!deleteActive(uuid) && deletePinned(Set.of(uuid)) == 0)) {
+				return null;
+			}
+
+			boolean kept = deletedHistoryList.find(uuid) != null;
+			return apiSnapshot(kept ? ChangeRecord.Op.DELETED : ChangeRecord.Op.REMOVE, entry);
+		}
+	}
+
+	/**
+	 * @param uuid
+	 * @return
+	 * 		A copy of the entry after restoring it, or null if it isn't in the deleted list.
+	 */
+	public ChangeRecord apiUndelete(UUID uuid) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiUndelete");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			return undelete(uuid) ? apiSnapshot(ChangeRecord.Op.ACTIVE, historyList.get(0)) : null;
+		}
+	}
+
+	/**
+	 * Set or clear the short URL of an active or pinned entry.
+	 *
+	 * @param uuid
+	 * @param shortUrl
+	 * 		An empty string clears it.
+	 * @return
+	 * 		A copy of the entry after the change, or null if it isn't in the active or pinned list.
+	 */
+	public ChangeRecord apiSetShortUrl(UUID uuid, String shortUrl) {
+		DataLockEvent lockEvent = DataLockEvent.begin("apiShortUrl");
+		synchronized(dataLock) {
+			lockEvent.acquired();
+			HistoryEntry entry = findActiveOrPinned(uuid);
+			if (entry == null) {
+				return null;
+			}
+
+			entry.setShortUrl(shortUrl);
+			recordChange(ChangeRecord.Op.SHORT_URL, entry);
+			return apiFind(uuid);
+		}
 	}
 
 }
@@ -0,0 +1,122 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decodes {@code application/x-www-form-urlencoded} bytes as they're written:  {@code %XX} becomes the byte
+ * 0xXX and {@code +} becomes a space.  Works a byte at a time, so an escape may be split across writes.
+ *
+ * Unlike {@link java.net.URLDecoder}, a malformed escape is passed through as is rather than rejected, since by
+ * the time we see it the start of the value may already be on disk.
+ */
+public class PercentDecodingOutputStream extends FilterOutputStream {
+
+	/**
+	 * How many bytes of the current escape we've seen:  0 when not in an escape, 1 after '%', 2 after the
+	 * first hex digit.
+	 */
+	private int escapeLength;
+
+	/**
+	 * The first hex digit of the current escape, as written.
+	 */
+	private int firstDigit;
+
+	public PercentDecodingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		b &= 0xFF;
+		switch (escapeLength) {
+			case 0:
+				if (b == '%') {
+					escapeLength = 1;
+				}
+				else {
+					out.write(b == '+' ? ' ' : b);
+				}
+				break;
+
+			case 1:
+				if (Character.digit(b, 16) < 0) {
+					escapeLength = 0;
+					out.write('%');
+					write(b);
+				}
+				else {
+					escapeLength = 2;
+					firstDigit = b;
+				}
+				break;
+
+			default:
+				escapeLength = 0;
+				int secondDigit = Character.digit(b, 16);
+				if (secondDigit < 0) {
+					out.write('%');
+					out.write(firstDigit);
+					write(b);
+				}
+				else {
+					out.write((Character.digit(firstDigit, 16) << 4) | secondDigit);
+				}
+				break;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * Pass through an escape that was cut off by the end of the value.
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+		super.close();
+	}
+
+	/**
+	 * Write out any incomplete escape without closing the stream underneath.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (escapeLength >= 1) {
+			out.write('%');
+		}
+		if (escapeLength == 2) {
+			out.write(firstDigit);
+		}
+		escapeLength = 0;
+
+		if (out instanceof PercentDecodingOutputStream) {
+			((PercentDecodingOutputStream) out).finish();
+		}
+		flush();
+	}
+
+}
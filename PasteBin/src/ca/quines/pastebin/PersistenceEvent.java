@@ -0,0 +1,52 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for reading or writing the save file or a backup, or purging old entries.
+ */
+@Name("ca.quines.pastebin.Persistence")
+@Label("Persistence")
+@Category("PasteBin")
+@StackTrace(false)
+@Description("Loading or saving the save file, exporting or importing a backup, or purging expired entries and blobs.")
+public class PersistenceEvent extends jdk.jfr.Event {
+
+	/* default */ static final String LOAD = "load";
+	/* default */ static final String SAVE = "save";
+	/* default */ static final String PURGE = "purge";
+	/* default */ static final String EXPORT = "export";
+	/* default */ static final String IMPORT = "import";
+
+	@Label("Operation")
+	/* default */ String operation;
+
+	@Label("Entries")
+	@Description("Entries loaded, saved, exported or imported, or removed by a purge.")
+	/* default */ int entries;
+
+	@Label("File Size")
+	@DataAmount
+	/* default */ long bytes;
+
+}
@@ -0,0 +1,114 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket per client, e.g. per IP address.
+ *
+ * Each bucket holds up to {@code burst} tokens and refills at a steady rate.  A request takes one token, or is
+ * refused if the bucket is empty.  Buckets are refilled lazily when they're next used, so idle clients cost
+ * nothing but their map entry, and full buckets are dropped once the map gets large.
+ */
+public class RateLimiter {
+
+	/**
+	 * Past this many clients, buckets that have refilled completely are removed.
+	 */
+	private static final int SWEEP_THRESHOLD = 10_000;
+
+	private static final class Bucket {
+
+		private double tokens;
+		private long lastRefillNs;
+
+		private Bucket(double tokens, long lastRefillNs) {
+			this.tokens = tokens;
+			this.lastRefillNs = lastRefillNs;
+		}
+
+	}
+
+	private final double tokensPerNs;
+	private final int burst;
+	private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * @param perMinute
+	 * 		The sustained rate each client is allowed.
+	 * @param burst
+	 * 		How many requests a client can make at once after being idle.
+	 */
+	public RateLimiter(double perMinute, int burst) {
+		if (perMinute <= 0 || burst < 1) {
+			throw new IllegalArgumentException("The rate and burst must be positive, not " + perMinute + " and " + burst + ".");
+		}
+
+		this.tokensPerNs = perMinute / TimeUnit.MINUTES.toNanos(1);
+		this.burst = burst;
+	}
+
+	/**
+	 * @param client
+	 * @return
+	 * 		Zero if the request is allowed, otherwise how many milliseconds until the client has a token again.
+	 */
+	public long tryAcquire(String client) {
+		long now = System.nanoTime();
+		if (buckets.size() > SWEEP_THRESHOLD) {
+			sweep(now);
+		}
+
+		Bucket bucket = buckets.computeIfAbsent(client, (key) -> new Bucket(burst, now));
+		synchronized(bucket) {
+			refill(bucket, now);
+			if (bucket.tokens >= 1) {
+				bucket.tokens -= 1;
+				return 0;
+			}
+
+			double nsUntilToken = (1 - bucket.tokens) / tokensPerNs;
+			return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(nsUntilToken)));
+		}
+	}
+
+	/* default */ int getClientCount() {
+		return buckets.size();
+	}
+
+	private void refill(Bucket bucket, long now) {
+		bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefillNs) * tokensPerNs);
+		bucket.lastRefillNs = now;
+	}
+
+	private void sweep(long now) {
+		Iterator<Bucket> iter = buckets.values().iterator();
+		while (iter.hasNext()) {
+			Bucket bucket = iter.next();
+			synchronized(bucket) {
+				refill(bucket, now);
+				if (bucket.tokens >= burst) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for rendering one HTML page.
+ */
+@Name("ca.quines.pastebin.Render")
+@Label("Page Render")
+@Category("PasteBin")
+@StackTrace(false)
+@Description("Rendering an HTML page from the service's lists.")
+public class RenderEvent extends jdk.jfr.Event {
+
+	@Label("Page")
+	/* default */ String page;
+
+	@Label("Entries")
+	@Description("The number of entries shown on the page.")
+	/* default */ int entries;
+
+}
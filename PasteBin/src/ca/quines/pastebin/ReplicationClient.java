@@ -0,0 +1,255 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Runs on a standby instance, following the changes streamed by a {@link ReplicationServer}.
+ *
+ * Each batch is applied to the service under a single lock acquisition.  After a disconnect the client keeps
+ * retrying with a growing delay, and resumes from the last change it applied.  If it was disconnected in the
+ * middle of a snapshot it asks for a new one.  Blobs are spooled to temporary files as they arrive, and moved
+ * into place when their batch is applied.
+ *
+ * Changes made directly on the standby aren't sent anywhere, and are overwritten by the next snapshot.
+ */
+public class ReplicationClient {
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicationClient.class.getName());
+
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+	private static final long MIN_RETRY_MS = 500;
+	private static final long MAX_RETRY_MS = 30_000;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final PasteBinService pasteBinService;
+	private final InetSocketAddress primaryAddress;
+
+	private volatile boolean running;
+	private volatile Socket socket;
+	private Thread thread;
+
+	private long epoch;
+
+	/**
+	 * Set once the handshake with the primary succeeds, to reset the retry delay.
+	 */
+	private boolean handshakeDone;
+
+	/**
+	 * The last change applied, or -1 if we need a snapshot.
+	 */
+	private volatile long lastAppliedSeq = -1;
+	private boolean inSnapshot;
+
+	public ReplicationClient(PasteBinService pasteBinService, InetSocketAddress primaryAddress) {
+		this.pasteBinService = pasteBinService;
+		this.primaryAddress = primaryAddress;
+	}
+
+	public long getLastAppliedSeq() {
+		return lastAppliedSeq;
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(() -> run(), "replication-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		closeSocket();
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(CONNECT_TIMEOUT_MS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run() {
+		long retryMs = MIN_RETRY_MS;
+		while (running) {
+			handshakeDone = false;
+			try {
+				follow();
+			}
+			catch (IOException e) {
+				if (running) {
+					LOGGER.info("Lost the connection to the primary at " + primaryAddress + ":  " + e.getMessage()
+						+ ".  Retrying in " + retryMs + " ms.");
+				}
+			}
+			finally {
+				closeSocket();
+			}
+
+			if (inSnapshot) {
+				lastAppliedSeq = -1;
+				inSnapshot = false;
+			}
+
+			try {
+				Thread.sleep(retryMs);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			retryMs = handshakeDone ? MIN_RETRY_MS : Math.min(MAX_RETRY_MS, retryMs * 2);
+		}
+	}
+
+	private void follow() throws IOException {
+		Socket newSocket = new Socket();
+		socket = newSocket;
+		newSocket.connect(primaryAddress, CONNECT_TIMEOUT_MS);
+		newSocket.setSoTimeout((int) (ReplicationServer.HEARTBEAT_MS * 3));
+		newSocket.setTcpNoDelay(true);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+
+		out.writeUTF(ReplicationServer.PROTOCOL);
+		out.writeLong(epoch);
+		out.writeLong(lastAppliedSeq);
+		out.flush();
+
+		long primaryEpoch = in.readLong();
+		if (primaryEpoch != epoch) {
+			// The primary will send a snapshot.
+			epoch = primaryEpoch;
+		}
+		handshakeDone = true;
+		LOGGER.info("Following the primary at " + primaryAddress + " from sequence " + lastAppliedSeq + ".");
+
+		while (running) {
+			int count = in.readInt();
+			if (count == 0) {
+				continue;
+			}
+
+			List<ChangeRecord> batch = new ArrayList<>(count);
+			Map<UUID, Path> blobFiles = new HashMap<>();
+			try {
+				for (int i = 0; i < count; i++) {
+					batch.add(readBlob(in, ChangeRecord.readFrom(in), blobFiles));
+				}
+
+				pasteBinService.applyReplicatedChanges(batch, blobFiles);
+			}
+			finally {
+				// Anything not moved into place because applying the batch failed.
+				for (Path blobFile : blobFiles.values()) {
+					Files.deleteIfExists(blobFile);
+				}
+			}
+
+			for (ChangeRecord record : batch) {
+				if (record.getOp() == ChangeRecord.Op.RESET) {
+					inSnapshot = true;
+				}
+				else if (record.getOp() == ChangeRecord.Op.SNAPSHOT_END) {
+					inSnapshot = false;
+				}
+			}
+
+			lastAppliedSeq = batch.get(batch.size() - 1).getSeq();
+		}
+	}
+
+	/**
+	 * Read the blob that follows a record, if any.
+	 *
+	 * @return
+	 * 		The record with the blob details the primary sent.
+	 */
+	private ChangeRecord readBlob(DataInputStream in, ChangeRecord record, Map<UUID, Path> blobFiles)
+			throws IOException {
+		if (!in.readBoolean()) {
+			return record;
+		}
+
+		String attachmentName = null;
+		String attachmentContentType = null;
+		if (in.readBoolean()) {
+			attachmentName = in.readUTF();
+			attachmentContentType = in.readUTF();
+		}
+
+		long length = in.readLong();
+		if (length < 0) {
+			LOGGER.warning("The primary has no blob for " + record.getUuid() + ".  Keeping only its preview.");
+			return record.withBlob(-1, null, null);
+		}
+
+		Path blobFile = pasteBinService.getBlobStore().createTempFile();
+		Path previous = blobFiles.put(record.getUuid(), blobFile);
+		if (previous != null) {
+			Files.deleteIfExists(previous);
+		}
+
+		try (OutputStream blobOut = Files.newOutputStream(blobFile)) {
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			long remaining = length;
+			while (remaining > 0) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0) {
+					throw new EOFException("The blob for " + record.getUuid() + " was cut short.");
+				}
+				blobOut.write(buffer, 0, read);
+				remaining -= read;
+			}
+		}
+
+		return record.withBlob(length, attachmentName, attachmentContentType);
+	}
+
+	private void closeSocket() {
+		Socket current = socket;
+		if (current != null) {
+			try {
+				current.close();
+			}
+			catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent changes made to a service, numbered with consecutive sequence numbers.
+ *
+ * Records are kept in a fixed-size circular array indexed by sequence number, so finding where a reconnecting
+ * peer left off is O(1).  Once a record falls out of the array, a peer that still needs it has to start again
+ * from a snapshot.
+ *
+ * The epoch is random per process.  A peer that reconnects after this process restarts will present a
+ * different epoch, and will also be sent a snapshot.
+ *
+ * The service appends while holding its data lock.  Senders wait on this object's monitor and never take the
+ * data lock while holding it.
+ */
+public class ReplicationLog {
+
+	private final long epoch = new SecureRandom().nextLong();
+	private final ChangeRecord[] records;
+
+	/**
+	 * The sequence number of the newest record, or zero if nothing has been appended.
+	 */
+	private long lastSeq;
+
+	/**
+	 * @param capacity
+	 * 		The number of recent changes to keep for peers that fall behind.
+	 */
+	public ReplicationLog(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be at least 1, not " + capacity + ".");
+		}
+
+		this.records = new ChangeRecord[capacity];
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * @param op
+	 * @param entry
+	 * 		May be null for markers like {@link ChangeRecord.Op#RESET}.
+	 * @return
+	 * 		The sequence number of the new record.
+	 */
+	public synchronized long append(ChangeRecord.Op op, HistoryEntry entry) {
+		long seq = ++lastSeq;
+		records[slot(seq)] = entry == null ? ChangeRecord.marker(seq, op) : ChangeRecord.of(seq, op, entry);
+		notifyAll();
+
+		return seq;
+	}
+
+	/**
+	 * Get the records after the given sequence number, waiting for at least one if there are none yet.
+	 *
+	 * @param afterSeq
+	 * @param maxRecords
+	 * @param timeoutMs
+	 * @return
+	 * 		Up to maxRecords records in order, or an empty list if the timeout passed, or null if the records
+	 * 		right after afterSeq are no longer available.
+	 * @throws InterruptedException
+	 */
+	public synchronized List<ChangeRecord> awaitAfter(long afterSeq, int maxRecords, long timeoutMs) throws InterruptedException {
+		if (afterSeq < oldestSeq() - 1 || afterSeq > lastSeq) {
+			return null;
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (afterSeq == lastSeq) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return List.of();
+			}
+
+			wait(remaining);
+		}
+
+		// More may have been appended while waiting.
+		if (afterSeq < oldestSeq() - 1) {
+			return null;
+		}
+
+		long toSeq = Math.min(lastSeq, afterSeq + maxRecords);
+		List<ChangeRecord> batch = new ArrayList<>((int) (toSeq - afterSeq));
+		for (long seq = afterSeq + 1; seq <= toSeq; seq++) {
+			batch.add(records[slot(seq)]);
+		}
+
+		return batch;
+	}
+
+	private long oldestSeq() {
+		return Math.max(1, lastSeq - records.length + 1);
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % records.length);
+	}
+
+}
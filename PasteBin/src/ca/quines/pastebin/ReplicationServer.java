@@ -0,0 +1,222 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs on the active instance and streams its changes to standby instances.
+ *
+ * The protocol is plain binary over a socket.  The standby sends {@link #PROTOCOL}, the epoch it last saw, and
+ * the sequence number of the last change it applied.  We answer with our epoch.  If we can continue from that
+ * sequence number we just stream changes from there; otherwise we first send a snapshot of everything, framed
+ * by {@link ChangeRecord.Op#RESET} and {@link ChangeRecord.Op#SNAPSHOT_END}.
+ *
+ * Changes go out in batches:  a record count followed by that many records.  An empty batch is a heartbeat.
+ *
+ * Each record is followed by a flag saying whether its entry's blob comes next.  A blob is sent as the
+ * attachment details, the length, and the bytes, or a length of -1 if we no longer have the file.
+ */
+public class ReplicationServer {
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicationServer.class.getName());
+
+	/* default */ static final String PROTOCOL = "PASTEBIN-REPLICATION-3";
+	/* default */ static final long HEARTBEAT_MS = 5000;
+
+	private static final int MAX_BATCH = 256;
+
+	private final PasteBinService pasteBinService;
+	private final ReplicationLog replicationLog;
+	private final ServerSocket serverSocket;
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param pasteBinService
+	 * 		Must already have a replication log.  See {@link PasteBinService#enableReplicationLog(int)}.
+	 * @param bindAddress
+	 * @throws IOException
+	 */
+	public ReplicationServer(PasteBinService pasteBinService, InetSocketAddress bindAddress) throws IOException {
+		this.pasteBinService = pasteBinService;
+		this.replicationLog = pasteBinService.getReplicationLog();
+		if (replicationLog == null) {
+			throw new IllegalStateException("The service has no replication log.");
+		}
+
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.bind(bindAddress);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void start() {
+		Thread acceptThread = new Thread(() -> acceptLoop(), "replication-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.FINE, "Error closing the replication socket.", e);
+		}
+	}
+
+	private void acceptLoop() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread senderThread = new Thread(() -> send(socket), "replication-sender-" + socket.getRemoteSocketAddress());
+				senderThread.setDaemon(true);
+				senderThread.start();
+			}
+			catch (IOException e) {
+				if (running) {
+					LOGGER.log(Level.WARNING, "Error accepting a replication connection.", e);
+				}
+			}
+		}
+	}
+
+	private void send(Socket socket) {
+		LOGGER.info("Standby connected from " + socket.getRemoteSocketAddress() + ".");
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setTcpNoDelay(true);
+
+			if (!PROTOCOL.equals(in.readUTF())) {
+				LOGGER.warning("Unknown replication protocol from " + socket.getRemoteSocketAddress() + ".");
+				return;
+			}
+
+			long peerEpoch = in.readLong();
+			long afterSeq = in.readLong();
+
+			out.writeLong(replicationLog.getEpoch());
+			out.flush();
+
+			boolean needSnapshot = peerEpoch != replicationLog.getEpoch() || afterSeq < 0;
+			while (running) {
+				if (needSnapshot) {
+					afterSeq = sendSnapshot(out);
+					needSnapshot = false;
+				}
+
+				List<ChangeRecord> batch = replicationLog.awaitAfter(afterSeq, MAX_BATCH, HEARTBEAT_MS);
+				if (batch == null) {
+					LOGGER.info("Standby fell too far behind.  Sending a snapshot.");
+					needSnapshot = true;
+					continue;
+				}
+
+				writeBatch(out, batch);
+				if (!batch.isEmpty()) {
+					afterSeq = batch.get(batch.size() - 1).getSeq();
+				}
+			}
+		}
+		catch (IOException e) {
+			LOGGER.info("Standby " + socket.getRemoteSocketAddress() + " disconnected:  " + e.getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The sequence number the snapshot is consistent with.
+	 */
+	private long sendSnapshot(DataOutputStream out) throws IOException {
+		List<ChangeRecord> snapshot = new ArrayList<>();
+		long snapshotSeq = pasteBinService.snapshotForReplication(snapshot);
+
+		for (int start = 0; start < snapshot.size(); start += MAX_BATCH) {
+			writeBatch(out, snapshot.subList(start, Math.min(snapshot.size(), start + MAX_BATCH)));
+		}
+
+		LOGGER.info("Sent a snapshot of " + snapshot.size() + " records at sequence " + snapshotSeq + ".");
+		return snapshotSeq;
+	}
+
+	private void writeBatch(DataOutputStream out, List<ChangeRecord> batch) throws IOException {
+		out.writeInt(batch.size());
+		for (ChangeRecord record : batch) {
+			record.writeTo(out);
+			writeBlob(out, record);
+		}
+		out.flush();
+	}
+
+	private void writeBlob(DataOutputStream out, ChangeRecord record) throws IOException {
+		ChangeRecord.Op op = record.getOp();
+		boolean sendBlob = record.isBlob()
+			&& (op == ChangeRecord.Op.ACTIVE || op == ChangeRecord.Op.PINNED || op == ChangeRecord.Op.DELETED);
+		out.writeBoolean(sendBlob);
+		if (!sendBlob) {
+			return;
+		}
+
+		out.writeBoolean(record.getAttachmentName() != null);
+		if (record.getAttachmentName() != null) {
+			out.writeUTF(record.getAttachmentName());
+			out.writeUTF(record.getAttachmentContentType());
+		}
+
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(pasteBinService.getBlobStore().pathFor(record.getUuid()));
+		}
+		catch (NoSuchFileException e) {
+			// Removed for good since the record was made.  A later record says so.
+			out.writeLong(-1);
+			return;
+		}
+
+		try (channel) {
+			// Blobs aren't changed once they're in place, so the length can't move under us.
+			long length = channel.size();
+			out.writeLong(length);
+			long copied = Channels.newInputStream(channel).transferTo(out);
+			if (copied != length) {
+				throw new IOException("The blob for " + record.getUuid() + " changed while it was being sent.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for one HTTP exchange, from the first filter to the end of the handler.  Committed by
+ * {@link RequestEventFilter}.
+ */
+@Name("ca.quines.pastebin.Request")
+@Label("HTTP Request")
+@Category("PasteBin")
+@StackTrace(false)
+@Description("One HTTP exchange, including time spent waiting for admission.")
+public class RequestEvent extends jdk.jfr.Event {
+
+	@Label("Context")
+	/* default */ String context;
+
+	@Label("Method")
+	/* default */ String method;
+
+	@Label("Path")
+	/* default */ String path;
+
+	@Label("Status")
+	/* default */ int status;
+
+	@Label("Response Bytes")
+	@DataAmount
+	/* default */ long bytes;
+
+}
@@ -0,0 +1,72 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * Emits a {@link RequestEvent} for each exchange while a Flight Recorder recording wants them.  Otherwise it
+ * just passes the exchange on.
+ */
+public class RequestEventFilter extends Filter {
+
+	private final String context;
+
+	/**
+	 * @param context
+	 * 		The context path, so events can be grouped by handler.
+	 */
+	public RequestEventFilter(String context) {
+		this.context = context;
+	}
+
+	@Override
+	public void doFilter(HttpExchange he, Chain chain) throws IOException {
+		RequestEvent event = new RequestEvent();
+		if (!event.isEnabled()) {
+			chain.doFilter(he);
+			return;
+		}
+
+		event.begin();
+		CountingOutputStream counter = new CountingOutputStream(he.getResponseBody());
+		he.setStreams(null, counter);
+
+		try {
+			chain.doFilter(he);
+		}
+		finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.context = context;
+				event.method = he.getRequestMethod();
+				event.path = he.getRequestURI().getRawPath();
+				event.status = he.getResponseCode() > 0 ? he.getResponseCode() : 500;
+				event.bytes = counter.getCount();
+				event.commit();
+			}
+		}
+	}
+
+	@Override
+	public String description() {
+		return "Flight Recorder request events";
+	}
+
+}
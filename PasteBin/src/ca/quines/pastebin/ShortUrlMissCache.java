@@ -0,0 +1,70 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recent paths that didn't match any short URL, so that repeated probes like /robots.txt or
+ * /wp-login.php can be answered without taking the service's data lock.
+ *
+ * It's bounded, and drops the least recently missed path first.  The service clears it whenever a short URL
+ * might have started to resolve, so a hit here is always still a miss.  It has its own monitor, so checking it
+ * never waits on the data lock.
+ */
+public class ShortUrlMissCache {
+
+	private final Map<String, Boolean> misses;
+
+	/**
+	 * @param capacity
+	 * 		The most paths to remember.
+	 */
+	public ShortUrlMissCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be at least 1, not " + capacity + ".");
+		}
+
+		this.misses = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > capacity;
+			}
+
+		};
+	}
+
+	public synchronized boolean contains(String path) {
+		return misses.get(path) != null;
+	}
+
+	public synchronized void add(String path) {
+		misses.put(path, Boolean.TRUE);
+	}
+
+	public synchronized void clear() {
+		misses.clear();
+	}
+
+	public synchronized int size() {
+		return misses.size();
+	}
+
+}
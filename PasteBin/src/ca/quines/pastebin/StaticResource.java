@@ -0,0 +1,97 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A stylesheet or script served from memory.
+ *
+ * The bytes are encoded and gzipped once, when the class loads.  The path includes a hash of the content, so
+ * the resource can be cached forever:  if the content changes, so does the path.
+ */
+public class StaticResource {
+
+	private static final String PATH_PREFIX = "/static/";
+
+	private final String path;
+	private final String contentType;
+	private final String etag;
+	private final byte[] bytes;
+	private final byte[] gzippedBytes;
+
+	/**
+	 * @param baseName
+	 * 		The name before the version, e.g. "pastebin".
+	 * @param extension
+	 * 		The extension after the version, e.g. "css".
+	 * @param contentType
+	 * @param content
+	 */
+	public StaticResource(String baseName, String extension, String contentType, String content) {
+		this.bytes = content.getBytes(StandardCharsets.UTF_8);
+		this.gzippedBytes = gzip(bytes);
+		this.contentType = contentType;
+
+		String version = DigestUtils.sha256Hex(bytes).substring(0, 12);
+		this.path = PATH_PREFIX + baseName + "-" + version + "." + extension;
+		this.etag = "\"" + version + "\"";
+	}
+
+	private static byte[] gzip(byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(bytes);
+		}
+		catch (IOException e) {
+			// Can't happen when writing to memory.
+			throw new UncheckedIOException(e);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return
+	 * 		The versioned path to use in links, e.g. "/static/pastebin-0123456789ab.css".
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public byte[] getGzippedBytes() {
+		return gzippedBytes;
+	}
+
+}
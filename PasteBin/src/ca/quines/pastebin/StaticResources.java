@@ -0,0 +1,82 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.List;
+
+/**
+ * The stylesheet, script and icon shared by every page.  They used to be written inline into each page.
+ */
+public class StaticResources {
+
+	public static final StaticResource CSS = new StaticResource("pastebin", "css", "text/css; charset=utf-8",
+		"tbody tr:nth-child(odd) {\r\n"
+		+ "  background-color: #CEE8FF;\r\n"
+		+ "  color: #000;\r\n"
+		+ "}\r\n"
+		+ "td.top {\r\n"
+		+ "  vertical-align: top;\r\n"
+		+ "}\r\n"
+		+ "td.center {\r\n"
+		+ "  text-align: center;\r\n"
+		+ "  vertical-align: middle;\r\n"
+		+ "}\r\n"
+		+ "td input[type=button] {\r\n"
+		+ "  vertical-align: middle;\r\n"
+		+ "}\r\n");
+
+	public static final StaticResource JS = new StaticResource("pastebin", "js", "text/javascript; charset=utf-8",
+		"function submitForm() {\r\n"
+		+ "	if (document.getElementById('fixPercent')) {\r\n"
+		+ "		var str = document.getElementById('text').value;\r\n"
+		+ "		var replaced = str.replace(/%/g, '%25');\r\n"
+		+ "		document.getElementById('text').value = replaced;\r\n"
+		+ "	}\r\n"
+		+ "	return true;\r\n"
+		+ "}\r\n");
+
+	/**
+	 * A note on a page, in the colour of the table rows.  Also served at /favicon.ico for clients that don't read
+	 * the link in the page.
+	 */
+	public static final StaticResource FAVICON = new StaticResource("favicon", "svg", "image/svg+xml",
+		"<svg xmlns='http://www.w3.org/2000/svg' viewBox='0 0 16 16'>"
+		+ "<rect x='2.5' y='1.5' width='11' height='13' rx='1.5' fill='#CEE8FF' stroke='#000'/>"
+		+ "<path d='M5 5.5h6M5 8.5h6M5 11.5h4' stroke='#000'/>"
+		+ "</svg>");
+
+	private static final List<StaticResource> ALL = List.of(CSS, JS, FAVICON);
+
+	private StaticResources() {
+		// EMPTY
+	}
+
+	/**
+	 * @param path
+	 * @return
+	 * 		The resource with exactly this versioned path, or null.
+	 */
+	public static StaticResource find(String path) {
+		for (StaticResource resource : ALL) {
+			if (resource.getPath().equals(path)) {
+				return resource;
+			}
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,170 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes one text as a list of edits against another, for storing successive versions of the same paste.
+ *
+ * Matching works like rsync:  the base is cut into fixed-size blocks that are indexed by hash, and a rolling
+ * hash over the target finds places where a block reappears.  Each hit is checked and then extended in both
+ * directions, so moved and repeated sections are found as well as plain insertions and deletions.  Encoding
+ * is linear in the size of both texts.
+ *
+ * The delta is itself a string, so it can be kept and saved like any other text.  It's a sequence of:
+ * <ul>
+ * <li>{@code c<offset>,<length>;}:  copy this range of the base.</li>
+ * <li>{@code i<length>:<chars>}:  insert these characters.</li>
+ * </ul>
+ * Numbers are in base 36.
+ */
+public final class TextDelta {
+
+	/* default */ static final int BLOCK_SIZE = 16;
+
+	private static final int RADIX = 36;
+	private static final int HASH_MULTIPLIER = 31;
+
+	/**
+	 * HASH_MULTIPLIER to the power of BLOCK_SIZE - 1, for removing the char leaving the rolling window.
+	 */
+	private static final int HASH_OUTGOING_FACTOR;
+	static {
+		int factor = 1;
+		for (int i = 1; i < BLOCK_SIZE; i++) {
+			factor *= HASH_MULTIPLIER;
+		}
+		HASH_OUTGOING_FACTOR = factor;
+	}
+
+	private TextDelta() {
+	}
+
+	/**
+	 * @param base
+	 * @param target
+	 * @return
+	 * 		A delta that turns base into target.  It may be longer than target if they have little in common.
+	 */
+	public static String encode(String base, String target) {
+		Map<Integer, Integer> blockOffsets = new HashMap<>(Math.max(16, base.length() / BLOCK_SIZE * 2));
+		for (int offset = 0; offset + BLOCK_SIZE <= base.length(); offset += BLOCK_SIZE) {
+			blockOffsets.putIfAbsent(hash(base, offset), offset);
+		}
+
+		StringBuilder delta = new StringBuilder();
+		int literalStart = 0;
+		int position = 0;
+		int hash = target.length() >= BLOCK_SIZE ? hash(target, 0) : 0;
+		while (position + BLOCK_SIZE <= target.length()) {
+			Integer baseOffset = blockOffsets.get(hash);
+			if (baseOffset != null && target.regionMatches(position, base, baseOffset, BLOCK_SIZE)) {
+				// Extend backwards into the pending literal, then forwards.
+				int targetStart = position;
+				int baseStart = baseOffset;
+				while (targetStart > literalStart && baseStart > 0 && target.charAt(targetStart - 1) == base.charAt(baseStart - 1)) {
+					targetStart--;
+					baseStart--;
+				}
+
+				int targetEnd = position + BLOCK_SIZE;
+				int baseEnd = baseOffset + BLOCK_SIZE;
+				while (targetEnd < target.length() && baseEnd < base.length() && target.charAt(targetEnd) == base.charAt(baseEnd)) {
+					targetEnd++;
+					baseEnd++;
+				}
+
+				appendInsert(delta, target, literalStart, targetStart);
+				delta.append('c').append(Integer.toString(baseStart, RADIX)).append(',')
+					.append(Integer.toString(targetEnd - targetStart, RADIX)).append(';');
+
+				literalStart = targetEnd;
+				position = targetEnd;
+				if (position + BLOCK_SIZE <= target.length()) {
+					hash = hash(target, position);
+				}
+			}
+			else {
+				if (position + BLOCK_SIZE < target.length()) {
+					hash = (hash - target.charAt(position) * HASH_OUTGOING_FACTOR) * HASH_MULTIPLIER + target.charAt(position + BLOCK_SIZE);
+				}
+				position++;
+			}
+		}
+
+		appendInsert(delta, target, literalStart, target.length());
+		return delta.toString();
+	}
+
+	/**
+	 * @param base
+	 * @param delta
+	 * 		From {@link #encode(String, String)} with the same base.
+	 * @return
+	 * 		The target text.
+	 * @throws IllegalArgumentException
+	 * 		If the delta is malformed or doesn't fit the base.
+	 */
+	public static String apply(String base, String delta) throws IllegalArgumentException {
+		StringBuilder target = new StringBuilder(base.length() + delta.length());
+		int position = 0;
+		try {
+			while (position < delta.length()) {
+				char op = delta.charAt(position);
+				if (op == 'c') {
+					int comma = delta.indexOf(',', position);
+					int semicolon = delta.indexOf(';', comma);
+					int offset = Integer.parseInt(delta, position + 1, comma, RADIX);
+					int length = Integer.parseInt(delta, comma + 1, semicolon, RADIX);
+					target.append(base, offset, offset + length);
+					position = semicolon + 1;
+				}
+				else if (op == 'i') {
+					int colon = delta.indexOf(':', position);
+					int length = Integer.parseInt(delta, position + 1, colon, RADIX);
+					target.append(delta, colon + 1, colon + 1 + length);
+					position = colon + 1 + length;
+				}
+				else {
+					throw new IllegalArgumentException("Unknown delta operation '" + op + "' at " + position + ".");
+				}
+			}
+		}
+		catch (IndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed delta at " + position + ".", e);
+		}
+
+		return target.toString();
+	}
+
+	private static void appendInsert(StringBuilder delta, String target, int start, int end) {
+		if (end > start) {
+			delta.append('i').append(Integer.toString(end - start, RADIX)).append(':').append(target, start, end);
+		}
+	}
+
+	private static int hash(String text, int offset) {
+		int hash = 0;
+		for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+			hash = hash * HASH_MULTIPLIER + text.charAt(i);
+		}
+
+		return hash;
+	}
+
+}
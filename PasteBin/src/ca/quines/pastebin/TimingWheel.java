@@ -0,0 +1,194 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel:  items are scheduled for a deadline and handed back once it has passed.
+ *
+ * There are {@value #LEVELS} wheels of {@value #SLOTS} slots.  A slot in the first wheel covers one tick, a slot
+ * in the second covers a whole turn of the first, and so on.  Scheduling drops the item straight into the slot
+ * for its deadline, and each tick only looks at one slot, so the cost doesn't grow with the number of pending
+ * items.  When a wheel comes round to a slot, its items are moved down into finer wheels, each item at most once
+ * per level.  Deadlines beyond the last wheel wait in an overflow list that's checked once per turn of it.
+ *
+ * Deadlines are rounded up to a whole tick, so items are never handed back early.
+ *
+ * This class is not thread safe.  The service guards it with its data lock.
+ *
+ * @param <T>
+ */
+public class TimingWheel<T> {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	/**
+	 * An item and its deadline in ticks.
+	 */
+	private static final class Timer<T> {
+
+		private final T item;
+		private final long deadlineTick;
+
+		private Timer(T item, long deadlineTick) {
+			this.item = item;
+			this.deadlineTick = deadlineTick;
+		}
+
+	}
+
+	private final long tickMs;
+	private final List<List<List<Timer<T>>>> wheels = new ArrayList<>(LEVELS);
+	private List<Timer<T>> overflow = new ArrayList<>();
+
+	/**
+	 * The last tick that has been processed.  Ticks count from the epoch.
+	 */
+	private long currentTick;
+	private int size;
+
+	/**
+	 * @param tickMs
+	 * 		The resolution.
+	 * @param startMs
+	 * 		The current time, in milliseconds since the epoch.
+	 */
+	public TimingWheel(long tickMs, long startMs) {
+		if (tickMs < 1) {
+			throw new IllegalArgumentException("The tick must be at least 1 ms, not " + tickMs + ".");
+		}
+
+		this.tickMs = tickMs;
+		this.currentTick = startMs / tickMs;
+		for (int level = 0; level < LEVELS; level++) {
+			List<List<Timer<T>>> wheel = new ArrayList<>(SLOTS);
+			for (int slot = 0; slot < SLOTS; slot++) {
+				wheel.add(new ArrayList<>());
+			}
+			wheels.add(wheel);
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The number of items waiting.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param item
+	 * @param deadlineMs
+	 * 		Milliseconds since the epoch.  A deadline that has already passed is handed back on the next tick.
+	 */
+	public void schedule(T item, long deadlineMs) {
+		schedule(item, deadlineMs, currentTick * tickMs);
+	}
+
+	/**
+	 * @param item
+	 * @param deadlineMs
+	 * 		Milliseconds since the epoch.  A deadline that has already passed is handed back on the next tick.
+	 * @param nowMs
+	 * 		The current time.  If nothing is waiting, the wheel skips ahead to it, so the next
+	 * 		{@link #advance(long, Consumer)} doesn't have to step through every tick since it went idle.
+	 */
+	public void schedule(T item, long deadlineMs, long nowMs) {
+		if (size == 0) {
+			currentTick = Math.max(currentTick, nowMs / tickMs);
+		}
+
+		long deadlineTick = Math.max(currentTick + 1, (deadlineMs + tickMs - 1) / tickMs);
+		insert(new Timer<>(item, deadlineTick));
+		size++;
+	}
+
+	/**
+	 * Process every tick up to the given time.
+	 *
+	 * @param nowMs
+	 * 		Milliseconds since the epoch.
+	 * @param expired
+	 * 		Receives each item whose deadline has passed, in deadline order.
+	 */
+	public void advance(long nowMs, Consumer<T> expired) {
+		long targetTick = nowMs / tickMs;
+		while (currentTick < targetTick && size > 0) {
+			currentTick++;
+
+			// Move items down from the coarsest wheel that has just come round to a new slot.  Coarser first, so
+			// items land in finer slots that haven't been looked at yet this tick.
+			int turned = 0;
+			while (turned < LEVELS - 1 && (currentTick & ((1L << SLOT_BITS * (turned + 1)) - 1)) == 0) {
+				turned++;
+			}
+			if (turned == LEVELS - 1 && (currentTick & ((1L << SLOT_BITS * LEVELS) - 1)) == 0) {
+				List<Timer<T>> waiting = overflow;
+				overflow = new ArrayList<>();
+				for (Timer<T> timer : waiting) {
+					insert(timer);
+				}
+			}
+			for (int level = turned; level > 0; level--) {
+				List<Timer<T>> slot = wheels.get(level).get(slotIndex(currentTick, level));
+				List<Timer<T>> cascading = new ArrayList<>(slot);
+				slot.clear();
+				for (Timer<T> timer : cascading) {
+					insert(timer);
+				}
+			}
+
+			List<Timer<T>> slot = wheels.get(0).get(slotIndex(currentTick, 0));
+			if (!slot.isEmpty()) {
+				List<Timer<T>> due = new ArrayList<>(slot);
+				slot.clear();
+				size -= due.size();
+				for (Timer<T> timer : due) {
+					expired.accept(timer.item);
+				}
+			}
+		}
+
+		// Once every slot is empty there's nothing to move down or hand back, so skip the rest.
+		if (size == 0) {
+			currentTick = Math.max(currentTick, targetTick);
+		}
+	}
+
+	private void insert(Timer<T> timer) {
+		long delta = timer.deadlineTick - currentTick;
+		for (int level = 0; level < LEVELS; level++) {
+			if (delta < 1L << SLOT_BITS * (level + 1)) {
+				wheels.get(level).get(slotIndex(timer.deadlineTick, level)).add(timer);
+				return;
+			}
+		}
+
+		overflow.add(timer);
+	}
+
+	private static int slotIndex(long tick, int level) {
+		return (int) (tick >>> SLOT_BITS * level) & SLOT_MASK;
+	}
+
+}
@@ -0,0 +1,60 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class AccessLogTest {
+
+	@Test
+	void testWritesAndRotates() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinAccessLog");
+		File logFile = new File(tempDir.toFile(), "access.log");
+
+		// Each record is about 130 bytes, so a 1 KB limit forces a few rotations.
+		AccessLog accessLog = new AccessLog(logFile, 1000, 1024, 2);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(accessLog.log("GET", "/path\"" + i, 200, i, 1_000_000, "127.0.0.1"));
+		}
+		accessLog.close();
+
+		assertTrue(logFile.exists());
+		assertTrue(new File(logFile.getPath() + ".1").exists());
+		assertTrue(new File(logFile.getPath() + ".2").exists());
+		assertFalse(new File(logFile.getPath() + ".3").exists());
+
+		List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+		String last = lines.get(lines.size() - 1);
+		assertTrue(last.contains("\"path\":\"/path\\\"49\""), last);
+		assertTrue(last.contains("\"status\":200"), last);
+		assertEquals(0, accessLog.getDroppedCount());
+
+		for (File file : tempDir.toFile().listFiles()) {
+			file.delete();
+		}
+		tempDir.toFile().delete();
+	}
+
+}
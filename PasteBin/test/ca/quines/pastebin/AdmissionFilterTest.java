@@ -0,0 +1,157 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+
+class AdmissionFilterTest {
+
+	@Test
+	void testRateLimiterAllowsBurstThenRefuses() {
+		RateLimiter rateLimiter = new RateLimiter(60, 3);
+		assertEquals(0, rateLimiter.tryAcquire("a"));
+		assertEquals(0, rateLimiter.tryAcquire("a"));
+		assertEquals(0, rateLimiter.tryAcquire("a"));
+
+		// One token a second, so the wait is about a second.
+		long waitMs = rateLimiter.tryAcquire("a");
+		assertTrue(waitMs > 0 && waitMs <= 1000, Long.toString(waitMs));
+
+		// Other clients have their own buckets.
+		assertEquals(0, rateLimiter.tryAcquire("b"));
+	}
+
+	private static int get(int port, String method) throws IOException {
+		return get(port, "/", method);
+	}
+
+	private static int get(int port, String path, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+		connection.setRequestMethod(method);
+		if ("POST".equals(method)) {
+			connection.setDoOutput(true);
+			try (OutputStream os = connection.getOutputStream()) {
+				os.write('x');
+			}
+		}
+
+		int status = connection.getResponseCode();
+		if (status == 503 || status == 429) {
+			assertNotNull(connection.getHeaderField("Retry-After"));
+		}
+		connection.disconnect();
+		return status;
+	}
+
+	@Test
+	void testShedsWhenBusyAndRateLimitsPosts() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+		ExecutorService serverExecutor = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverExecutor);
+		HttpContext context = server.createContext("/", (he) -> {
+			he.getRequestBody().readAllBytes();
+			if ("GET".equals(he.getRequestMethod())) {
+				entered.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			he.sendResponseHeaders(200, -1);
+			he.close();
+		});
+
+		AdmissionFilter filter = new AdmissionFilter("/", 1, 0, 100, new RateLimiter(1, 1));
+		context.getFilters().add(filter);
+		server.start();
+		int port = server.getAddress().getPort();
+
+		ExecutorService clients = Executors.newSingleThreadExecutor();
+		try {
+			// Hold the only permit, so the next request is shed straight away.
+			Future<Integer> slow = clients.submit(() -> get(port, "GET"));
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			assertEquals(503, get(port, "GET"));
+			assertEquals(1, filter.getQueueFullCount());
+
+			release.countDown();
+			assertEquals(200, (int) slow.get(10, TimeUnit.SECONDS));
+
+			// One write is allowed, the next is over the rate.
+			assertEquals(200, get(port, "POST"));
+			assertEquals(429, get(port, "POST"));
+			assertEquals(1, filter.getRateLimitedCount());
+			assertEquals(2, filter.getHandledCount());
+		}
+		finally {
+			release.countDown();
+			clients.shutdownNow();
+			server.stop(0);
+			serverExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testOnlyWritesAreRateLimited() throws Exception {
+		AdmissionFilter filter = new AdmissionFilter("/b/kids/", 1, 0, 100, new RateLimiter(1, 1));
+
+		// Like a board, one filter covers pages and writes, and the handler says which this is.
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+		server.createContext("/", (he) -> filter.doFilter(he, new Filter.Chain(Collections.emptyList(), (exchange) -> {
+			exchange.getRequestBody().readAllBytes();
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		}), he.getRequestURI().getPath().equals("/paste")));
+		server.start();
+		int port = server.getAddress().getPort();
+
+		try {
+			assertEquals(200, get(port, "/paste", "POST"));
+			assertEquals(429, get(port, "/paste", "POST"));
+			assertEquals(200, get(port, "/grep", "POST"));
+			assertEquals(200, get(port, "/grep", "POST"));
+			assertEquals(1, filter.getRateLimitedCount());
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+
+}
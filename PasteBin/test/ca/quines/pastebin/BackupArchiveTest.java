@@ -0,0 +1,148 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class BackupArchiveTest {
+
+	private PasteBinService newService(String name) throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinBackup");
+		return new PasteBinService(new File(tempDir.toFile(), name), false);
+	}
+
+	private List<String> describe(PasteBinService service, ChangeRecord.Op list) {
+		List<ChangeRecord> page = new ArrayList<>();
+		service.apiList(list, 0, 100, page);
+
+		List<String> described = new ArrayList<>();
+		for (ChangeRecord record : page) {
+			described.add(record.getUuid() + " " + record.getCreateMs() + " " + record.getDeletedMs() + " "
+				+ record.getExpiresMs() + " " + record.getText());
+		}
+
+		return described;
+	}
+
+	@Test
+	void testExportThenImportRebuildsEveryList() throws IOException {
+		PasteBinService source = newService("source");
+
+		// A long paste and a near copy, which is kept as a delta against it.
+		String longText = "line of text\n".repeat(100);
+		ChangeRecord base = source.apiCreate(longText, true);
+		source.apiCreate(longText + "one more line", true, Duration.ofDays(1));
+		ChangeRecord pinned = source.apiCreate("pinned", false);
+		source.apiPin(pinned.getUuid());
+		ChangeRecord deleted = source.apiCreate("deleted", false);
+		source.apiDelete(deleted.getUuid());
+
+		Path spooled = source.getBlobStore().createTempFile();
+		Files.writeString(spooled, "x".repeat(PasteBinService.BLOB_PREVIEW_CHARS) + "tail", StandardCharsets.UTF_8);
+		source.pasteBlobHandler(spooled, false);
+
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertEquals(5, BackupArchive.write(source, archive));
+		List<ChangeRecord.Op> lists = List.of(ChangeRecord.Op.ACTIVE, ChangeRecord.Op.PINNED, ChangeRecord.Op.DELETED);
+		List<List<String>> expected = new ArrayList<>();
+		for (ChangeRecord.Op list : lists) {
+			expected.add(describe(source, list));
+		}
+
+		// Changes after the export has started don't show up in it.
+		source.apiDelete(base.getUuid());
+
+		PasteBinService target = newService("target");
+		BackupArchive.ImportResult result = BackupArchive.read(target, new ByteArrayInputStream(archive.toByteArray()), false);
+		assertEquals(5, result.getImportedCount());
+		assertEquals(0, result.getSkippedCount());
+
+		for (int i = 0; i < lists.size(); i++) {
+			assertEquals(expected.get(i), describe(target, lists.get(i)));
+		}
+
+		// The blob paste is the newest.
+		List<ChangeRecord> active = new ArrayList<>();
+		target.apiList(ChangeRecord.Op.ACTIVE, 0, 1, active);
+		assertTrue(Files.readString(target.getBlobPath(active.get(0).getUuid()), StandardCharsets.UTF_8).endsWith("tail"));
+
+		// Importing the same backup again changes nothing.
+		result = BackupArchive.read(target, new ByteArrayInputStream(archive.toByteArray()), false);
+		assertEquals(0, result.getImportedCount());
+		assertEquals(5, result.getSkippedCount());
+	}
+
+	@Test
+	void testRejectsSomethingThatIsNotABackup() throws IOException {
+		PasteBinService target = newService("target");
+		assertThrows(IOException.class,
+			() -> BackupArchive.read(target, new ByteArrayInputStream("not a zip".getBytes(StandardCharsets.UTF_8)), false));
+	}
+
+	/**
+	 * A backup whose only entry has "text" but claims the given text length.
+	 */
+	private byte[] backupWithTextLength(int textLength) throws IOException {
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		ChangeRecord.of(1, ChangeRecord.Op.ACTIVE, new HistoryEntry("text")).writeTo(new DataOutputStream(recordBytes));
+		ByteBuffer record = ByteBuffer.wrap(recordBytes.toByteArray());
+		record.putInt(record.capacity() - "text".length() - Integer.BYTES, textLength);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry(BackupArchive.SETTINGS_ENTRY));
+			zip.write("backup.format=1\n".getBytes(StandardCharsets.ISO_8859_1));
+			zip.putNextEntry(new ZipEntry(BackupArchive.ENTRIES_ENTRY));
+			zip.write(record.array());
+		}
+
+		return bytes.toByteArray();
+	}
+
+	@Test
+	void testRejectsTextLengthsTheBackupDoesNotBackUp() throws IOException {
+		PasteBinService target = newService("target");
+
+		// Longer than any list could hold, so refused before anything is allocated.
+		IOException tooLong = assertThrows(IOException.class,
+			() -> BackupArchive.read(target, new ByteArrayInputStream(backupWithTextLength(Integer.MAX_VALUE - 8)), false));
+		assertTrue(tooLong.getMessage().contains("more than the limit"), tooLong.getMessage());
+
+		// Within the limit, but the archive ends first.
+		IOException cutShort = assertThrows(IOException.class,
+			() -> BackupArchive.read(target, new ByteArrayInputStream(backupWithTextLength(1000)), false));
+		assertEquals("The backup was cut short.", cutShort.getMessage());
+		assertEquals(0, target.apiList(ChangeRecord.Op.ACTIVE, 0, 10, new ArrayList<>()));
+	}
+
+}
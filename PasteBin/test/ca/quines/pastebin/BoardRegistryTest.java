@@ -0,0 +1,87 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class BoardRegistryTest {
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	void testBoardsAreIndependentAndPersisted() throws Exception {
+		Path directory = Files.createTempDirectory("pasteBinBoards");
+		try {
+			BoardRegistry boards = new BoardRegistry(directory.toFile(), 2, false, false, true);
+			assertNull(boards.get("../etc"));
+			assertNull(boards.get("Kids"));
+			assertNull(boards.get(""));
+
+			PasteBinService kids = boards.get("kids");
+			PasteBinService work = boards.get("work");
+			assertSame(kids, boards.get("kids"));
+
+			String kidsPage = kids.pasteHandler(Map.of("text", List.of("drawing")));
+			assertTrue(kidsPage.contains("drawing"));
+			assertTrue(kidsPage.contains("action='/b/kids/pin'"));
+			assertTrue(kidsPage.contains("<title>kids - PasteBin</title>"));
+			assertFalse(work.rootHandler("/").contains("drawing"));
+
+			// Each board gets its own admission control, made once.
+			AdmissionFilter kidsFilter = boards.getAdmissionFilter("kids", (path) -> new AdmissionFilter(path, 1, 0, 100, null));
+			AdmissionFilter workFilter = boards.getAdmissionFilter("work", (path) -> new AdmissionFilter(path, 1, 0, 100, null));
+			assertTrue(kidsFilter != workFilter);
+			assertSame(kidsFilter, boards.getAdmissionFilter("kids", (path) -> {
+				throw new AssertionError(path);
+			}));
+			assertTrue(kidsFilter.description().endsWith("/b/kids/"));
+			assertEquals(Set.of("kids", "work"), boards.getAdmissionFilters().keySet());
+
+			// Past the limit, new names are refused.
+			assertNull(boards.get("third"));
+
+			kids.save();
+			assertEquals(Set.of("kids", "work"), boards.getBoardNames());
+
+			// A new registry loads the board from its own file on first use.
+			BoardRegistry reopened = new BoardRegistry(directory.toFile(), 2, false, false, true);
+			assertEquals(0, reopened.getLoadedCount());
+			assertTrue(reopened.get("kids").rootHandler("/").contains("drawing"));
+			assertEquals(1, reopened.getLoadedCount());
+		}
+		finally {
+			deleteRecursively(directory.toFile());
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangeTest {
+
+	@Test
+	void testParse() {
+		ByteRange range = ByteRange.parse("bytes=100-199", 1000);
+		assertEquals(100, range.getFirst());
+		assertEquals(100, range.getLength());
+		assertEquals("bytes 100-199/1000", range.toContentRange(1000));
+
+		// Open-ended, clipped, and suffix ranges.
+		assertEquals(999, ByteRange.parse("bytes=900-", 1000).getLast());
+		assertEquals(999, ByteRange.parse("bytes=900-5000", 1000).getLast());
+		assertEquals(990, ByteRange.parse("bytes=-10", 1000).getFirst());
+		assertEquals(0, ByteRange.parse("bytes=-5000", 1000).getFirst());
+
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+
+		// Whole resource:  no header, nonsense, or several ranges.
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("bytes=5-1", 1000));
+		assertNull(ByteRange.parse("items=0-1", 1000));
+		assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+		assertNull(ByteRange.parse("bytes=x-1", 1000));
+	}
+
+}
@@ -0,0 +1,229 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class DeletedHistoryStoreTest {
+
+	private HistoryEntry deletedAt(String text, long deletedMs) {
+		return new HistoryEntry(text, Instant.ofEpochMilli(0), Instant.ofEpochMilli(deletedMs), UUID.randomUUID());
+	}
+
+	private List<String> texts(Iterable<HistoryEntry> entries) {
+		List<String> texts = new ArrayList<>();
+		for (HistoryEntry entry : entries) {
+			texts.add(entry.getText());
+		}
+
+		return texts;
+	}
+
+	@Test
+	void testOrderedNewestFirstRegardlessOfInsertOrder() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		store.add(deletedAt("b", 200));
+		store.add(deletedAt("c", 300));
+		store.add(deletedAt("a", 100));
+
+		// Two entries deleted in the same millisecond must both be kept.
+		store.add(deletedAt("a2", 100));
+
+		assertEquals(4, store.size());
+		assertEquals("c", store.iterator().next().getText());
+		assertEquals(List.of("c", "b"), texts(store).subList(0, 2));
+	}
+
+	@Test
+	void testTrimToBytesDropsOldestFirst() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		store.add(deletedAt("bb", 200));
+		store.add(deletedAt("aa", 100));
+		HistoryEntry newest = deletedAt("cc", 300);
+		store.add(newest);
+		assertEquals(6, store.getTextBytes());
+
+		assertEquals(List.of(), store.trimToBytes(6));
+		assertEquals(List.of("aa", "bb"), texts(store.trimToBytes(3)));
+		assertEquals(List.of("cc"), texts(store));
+		assertEquals(2, store.getTextBytes());
+
+		store.remove(newest.getUuid());
+		assertEquals(0, store.getTextBytes());
+	}
+
+	@Test
+	void testExpireAndRemove() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		HistoryEntry old = deletedAt("old", 100);
+		HistoryEntry middle = deletedAt("middle", 200);
+		HistoryEntry recent = deletedAt("recent", 300);
+		store.add(recent);
+		store.add(old);
+		store.add(middle);
+
+		List<HistoryEntry> expired = store.expireBefore(200);
+		assertEquals(1, expired.size());
+		assertSame(old, expired.get(0));
+		assertNull(store.find(old.getUuid()));
+
+		assertSame(middle, store.remove(middle.getUuid()));
+		assertNull(store.remove(middle.getUuid()));
+		assertEquals(List.of("recent"), texts(store));
+	}
+
+	@Test
+	void testSameMillisecondKeepsTheOrderDeleted() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		for (int i = 0; i < 50; i++) {
+			store.add(deletedAt(String.format("t%02d", i), 100));
+		}
+		store.add(deletedAt("old", 50));
+
+		assertEquals(List.of("t49", "t48", "t47"), texts(store).subList(0, 3));
+		assertEquals(List.of("old", "t00", "t01"), texts(store.trimToBytes(144)));
+		assertEquals("t02", texts(store).get(store.size() - 1));
+	}
+
+	@Test
+	void testOldestFirst() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		List<HistoryEntry> added = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			HistoryEntry entry = deletedAt("t" + i, 1000 - i * 10);
+			store.add(entry);
+			added.add(entry);
+		}
+		for (int i = 0; i < 40; i += 3) {
+			store.remove(added.get(i).getUuid());
+		}
+
+		List<String> newestFirst = texts(store);
+		List<String> oldestFirst = texts(store.oldestFirst());
+		Collections.reverse(oldestFirst);
+		assertEquals(newestFirst, oldestFirst);
+		assertEquals("t38", store.oldestFirst().iterator().next().getText());
+	}
+
+	@Test
+	void testRange() {
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		for (int i = 1; i <= 5; i++) {
+			store.add(deletedAt("t" + i, i * 100));
+		}
+
+		assertEquals(List.of("t4", "t3", "t2"), texts(store.range(200, 500)));
+		assertEquals(List.of(), texts(store.range(500, 200)));
+		assertEquals(5, texts(store.range(Long.MIN_VALUE, Long.MAX_VALUE)).size());
+	}
+
+	@Test
+	void testMatchesASortedMapThroughManyChanges() {
+		// Few distinct times, so many entries tie on the deleted time and are ordered by when they were added.
+		Random random = new Random(7);
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		TreeMap<String, HistoryEntry> model = new TreeMap<>();
+		List<HistoryEntry> added = new ArrayList<>();
+		Map<HistoryEntry, Integer> addedAt = new IdentityHashMap<>();
+		long cutoff = 0;
+		for (int step = 0; step < 20_000; step++) {
+			int action = random.nextInt(10);
+			if (action < 6 || added.isEmpty()) {
+				HistoryEntry entry = deletedAt("e" + step, cutoff + random.nextInt(500));
+				store.add(entry);
+				addedAt.put(entry, step);
+				model.put(orderKey(entry, addedAt), entry);
+				added.add(entry);
+			}
+			else if (action < 9) {
+				HistoryEntry entry = added.get(random.nextInt(added.size()));
+				HistoryEntry removed = store.remove(entry.getUuid());
+				assertSame(model.remove(orderKey(entry, addedAt)), removed);
+			}
+			else {
+				cutoff += random.nextInt(20);
+				List<HistoryEntry> expired = store.expireBefore(cutoff);
+				Map<String, HistoryEntry> head = model.headMap(String.format("%020d", cutoff));
+				assertEquals(new ArrayList<>(head.values()), expired);
+				head.clear();
+			}
+
+			HistoryEntry probe = added.get(random.nextInt(added.size()));
+			assertSame(model.get(orderKey(probe, addedAt)), store.find(probe.getUuid()));
+			assertEquals(model.size(), store.size());
+		}
+
+		List<HistoryEntry> newestFirst = new ArrayList<>(model.descendingMap().values());
+		List<HistoryEntry> actual = new ArrayList<>();
+		store.forEach(actual::add);
+		assertEquals(newestFirst, actual);
+	}
+
+	/**
+	 * Sorts the same way as the store, for times that aren't negative.
+	 */
+	private String orderKey(HistoryEntry entry, Map<HistoryEntry, Integer> addedAt) {
+		return String.format("%020d %010d", entry.getDeletedMs(), addedAt.get(entry));
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Test
+	void testFootprint() throws InterruptedException {
+		int count = 50_000;
+		List<HistoryEntry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(deletedAt("deleted", i * 1000L));
+		}
+
+		// Out of order, as when loading, so the store is also sorted.
+		Collections.shuffle(entries, new Random(1));
+
+		long before = usedHeap();
+		DeletedHistoryStore store = new DeletedHistoryStore();
+		for (HistoryEntry entry : entries) {
+			store.add(entry);
+		}
+		assertEquals((count - 1) * 1000L, store.iterator().next().getDeletedTs().toEpochMilli());
+		long bytesPerEntry = (usedHeap() - before) / count;
+
+		// Heap readings are rough, so this is loose.  The arrays take about 50 bytes an entry, and a tree map
+		// took over 100.
+		assertTrue(bytesPerEntry < 96, bytesPerEntry + " bytes per entry");
+		assertEquals(count, store.size());
+	}
+
+}
@@ -0,0 +1,62 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class FlashMessagesTest {
+
+	@Test
+	void testTokenCanBeTakenOnce() {
+		FlashMessages flashMessages = new FlashMessages();
+		PageMessages messages = PageMessages.info("Done.");
+		String token = flashMessages.put(messages, 1000);
+
+		assertSame(messages, flashMessages.take(token, 2000));
+		assertNull(flashMessages.take(token, 2000));
+		assertNull(flashMessages.take("not-a-token", 2000));
+		assertNull(flashMessages.take(null, 2000));
+		assertEquals(0, flashMessages.size());
+	}
+
+	@Test
+	void testTokenExpires() {
+		FlashMessages flashMessages = new FlashMessages();
+		String token = flashMessages.put(PageMessages.error("Oops."), 1000);
+		assertNull(flashMessages.take(token, 1000 + FlashMessages.TTL_MS));
+
+		// Old messages are dropped when new ones are added, even if their tokens are never used.
+		flashMessages.put(PageMessages.info("First."), 1000);
+		String laterToken = flashMessages.put(PageMessages.info("Second."), 1000 + FlashMessages.TTL_MS);
+		assertEquals(1, flashMessages.size());
+		assertEquals("Second.", flashMessages.take(laterToken, 1000 + FlashMessages.TTL_MS).getInfoMessage());
+	}
+
+	@Test
+	void testOldestAreDroppedPastTheLimit() {
+		FlashMessages flashMessages = new FlashMessages();
+		String firstToken = flashMessages.put(PageMessages.info("0"), 1000);
+		for (int i = 1; i <= FlashMessages.MAX_MESSAGES; i++) {
+			flashMessages.put(PageMessages.info(Integer.toString(i)), 1000);
+		}
+
+		assertEquals(FlashMessages.MAX_MESSAGES, flashMessages.size());
+		assertNull(flashMessages.take(firstToken, 1000));
+	}
+
+}
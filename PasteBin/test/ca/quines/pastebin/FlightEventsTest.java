@@ -0,0 +1,84 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class FlightEventsTest {
+
+	@Test
+	void testServiceEmitsRenderAndPersistenceEvents() throws Exception {
+		Path saveFile = Files.createTempFile("pasteBin", ".config");
+		Files.delete(saveFile);
+		Path recordingFile = Files.createTempFile("pasteBin", ".jfr");
+
+		List<RecordedEvent> events = new ArrayList<>();
+		try (Recording recording = new Recording()) {
+			for (String name : List.of("ca.quines.pastebin.Render", "ca.quines.pastebin.Persistence", "ca.quines.pastebin.DataLock")) {
+				recording.enable(name).withoutThreshold();
+			}
+			recording.start();
+
+			PasteBinService service = new PasteBinService(saveFile.toFile(), false);
+			service.pasteHandler(Map.of("text", List.of("foo")));
+			service.save();
+
+			recording.stop();
+			recording.dump(recordingFile);
+			events.addAll(RecordingFile.readAllEvents(recordingFile));
+		}
+		finally {
+			Files.deleteIfExists(recordingFile);
+			Files.deleteIfExists(saveFile);
+			new File(saveFile + "-blobs").delete();
+		}
+
+		RecordedEvent render = find(events, "ca.quines.pastebin.Render", "page", "main");
+		assertEquals(1, render.getInt("entries"));
+
+		RecordedEvent save = find(events, "ca.quines.pastebin.Persistence", "operation", "save");
+		assertEquals(1, save.getInt("entries"));
+		assertTrue(save.getLong("bytes") > 0);
+
+		// Without a threshold, even uncontended acquisitions are recorded.
+		assertNotNull(find(events, "ca.quines.pastebin.DataLock", "operation", "paste"));
+	}
+
+	private static RecordedEvent find(List<RecordedEvent> events, String eventName, String field, String value) {
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().equals(eventName) && value.equals(event.getString(field))) {
+				return event;
+			}
+		}
+
+		fail("No " + eventName + " event with " + field + "=" + value + ".");
+		return null;
+	}
+
+}
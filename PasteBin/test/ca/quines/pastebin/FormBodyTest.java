@@ -0,0 +1,115 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class FormBodyTest {
+
+	private static final String AWKWARD = "a+b %41 100% café 中 & = <tag>\r\nend%";
+
+	private static FormBody parse(String body, int threshold, BlobStore blobStore) throws IOException {
+		return FormBody.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII)), "text", threshold, blobStore);
+	}
+
+	private static String encodeLikeTheBrowser(String text) {
+		// The page's script escapes '%' before the browser encodes the form.
+		return "text=" + URLEncoder.encode(text.replace("%", "%25"), StandardCharsets.UTF_8)
+			+ "&preformatted=on&fixPercent=true";
+	}
+
+	@Test
+	void testSmallFieldsMatchQuerySplit() throws IOException {
+		String body = encodeLikeTheBrowser(AWKWARD) + "&&flag&id=%zz";
+		FormBody formBody = parse(body, 1024 * 1024, null);
+
+		assertNull(formBody.getSpooledFile());
+		assertEquals(new QuerySplit().splitQuery(encodeLikeTheBrowser(AWKWARD)).get("text"), formBody.getFields().get("text"));
+		assertEquals("", formBody.getFields().get("flag").get(0));
+
+		// A malformed escape is kept as is.
+		assertEquals("%zz", formBody.getFields().get("id").get(0));
+	}
+
+	@Test
+	void testLargeFieldIsSpooledDecodedTwice() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinBlobs");
+		BlobStore blobStore = new BlobStore(tempDir.toFile());
+
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 20_000) {
+			text.append(AWKWARD);
+		}
+		String body = encodeLikeTheBrowser(text.toString());
+
+		// Escapes are split across the threshold and the read buffer.
+		FormBody formBody = parse(body, 10_001, blobStore);
+		Path spooled = formBody.getSpooledFile();
+		assertNotNull(spooled);
+
+		String once = URLDecoder.decode(body.substring("text=".length(), body.indexOf('&')), StandardCharsets.UTF_8);
+		assertEquals(URLDecoder.decode(once, StandardCharsets.UTF_8), Files.readString(spooled, StandardCharsets.UTF_8));
+		assertEquals(Files.size(spooled), formBody.getSpooledLength());
+		assertTrue(formBody.getFields().containsKey("preformatted"));
+		assertFalse(formBody.getFields().containsKey("text"));
+
+		Files.delete(spooled);
+		Files.delete(tempDir);
+	}
+
+	@Test
+	void testBlobPasteSurvivesRestart() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinBlobs");
+		File saveFile = new File(tempDir.toFile(), "save");
+		PasteBinService pasteBinService = new PasteBinService(saveFile, false);
+
+		Path spooled = pasteBinService.getBlobStore().createTempFile();
+		String text = "<b>" + "x".repeat(PasteBinService.BLOB_PREVIEW_CHARS) + "tail";
+		Files.writeString(spooled, text, StandardCharsets.UTF_8);
+
+		String page = pasteBinService.pasteBlobHandler(spooled, false);
+		assertTrue(page.contains("&lt;b&gt;"));
+		assertFalse(page.contains("tail"));
+
+		Matcher matcher = Pattern.compile("/raw/([0-9a-f-]+)").matcher(page);
+		assertTrue(matcher.find());
+		UUID uuid = UUID.fromString(matcher.group(1));
+		assertEquals(text, Files.readString(pasteBinService.getBlobPath(uuid), StandardCharsets.UTF_8));
+		assertNull(pasteBinService.getBlobPath(UUID.randomUUID()));
+
+		// A leftover spool file is cleaned up on the next load, and the blob is kept.
+		Path leftover = pasteBinService.getBlobStore().createTempFile();
+		pasteBinService.save();
+		PasteBinService reloaded = new PasteBinService(saveFile, false);
+		assertEquals(text, Files.readString(reloaded.getBlobPath(uuid), StandardCharsets.UTF_8));
+		assertFalse(Files.exists(leftover));
+	}
+
+}
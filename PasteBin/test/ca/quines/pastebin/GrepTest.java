@@ -0,0 +1,106 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class GrepTest {
+
+	@Test
+	void testSearchesEveryListAndLargePastes() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinGrep");
+		PasteBinService service = new PasteBinService(new File(tempDir.toFile(), "grep"), false);
+
+		ChangeRecord pinned = service.apiCreate("first line\nserver <a> at 10.0.0.5", true);
+		service.apiPin(pinned.getUuid());
+		service.apiCreate("nothing to see at 10.1.0.5", true);
+		ChangeRecord deleted = service.apiCreate("10.0.9.9", false);
+		service.apiDelete(deleted.getUuid());
+
+		Path spooled = service.getBlobStore().createTempFile();
+		Files.writeString(spooled, "x".repeat(PasteBinService.BLOB_PREVIEW_CHARS) + "\nlast 10.0.2.2", StandardCharsets.UTF_8);
+		service.pasteBlobHandler(spooled, true);
+
+		StringWriter sw = new StringWriter();
+		service.grepHandler(sw, Pattern.compile("10\\.0\\."));
+		String page = sw.toString();
+
+		assertTrue(page.contains("server &lt;a&gt; at 10.0.0.5\n"), page);
+		assertTrue(page.contains("Pinned</a>"), page);
+		assertTrue(page.contains("10.0.9.9"), page);
+		assertTrue(page.contains("Deleted</a>"), page);
+		assertTrue(page.contains("last 10.0.2.2"), page);
+		assertFalse(page.contains("10.1.0.5"), page);
+		assertFalse(page.contains("first line"), page);
+		assertTrue(page.contains("3 of 4 entries matched."), page);
+	}
+
+	@Test
+	void testStopsAtTheDeadline() throws InterruptedException {
+		// Backtracks for far longer than the budget.
+		HistoryEntry entry = new HistoryEntry("a".repeat(40));
+		List<EntrySnapshot> entries = List.of(new EntrySnapshot(ChangeRecord.Op.ACTIVE, entry));
+
+		long start = System.nanoTime();
+		try (Grep grep = new Grep(entries, Pattern.compile("(.*a){20}b"), null, 200)) {
+			grep.start();
+			assertNull(grep.next());
+			assertEquals(0, grep.getSearchedCount());
+			assertEquals(1, grep.getEntryCount());
+		}
+		assertTrue(System.nanoTime() - start < 5_000_000_000L);
+	}
+
+	@Test
+	void testPlainTextAndExcerpt() {
+		assertEquals("a < b\nc", Grep.plainText("<pre>a &lt; b\nc</pre>"));
+		assertEquals("x & y", Grep.plainText("x &amp; y"));
+
+		String line = "a".repeat(1000) + "match" + "b".repeat(1000);
+		String excerpt = Grep.excerpt(line, 1000);
+		assertTrue(excerpt.startsWith("...") && excerpt.endsWith("..."));
+		assertTrue(excerpt.contains("match"));
+		assertEquals(Grep.MAX_LINE_CHARS + 6, excerpt.length());
+		assertEquals("short", Grep.excerpt("short", 0));
+	}
+
+	@Test
+	void testLongLinesAreReadInPieces() throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (Grep.LineReader reader = new Grep.LineReader(new StringReader("abcdefgh\nab\r\n\rabcd\nlast"), 4)) {
+			for (String line; (line = reader.readLine()) != null; ) {
+				lines.add(line);
+			}
+		}
+
+		// A line exactly as long as a piece doesn't leave an empty line behind.
+		assertEquals(List.of("abcd", "efgh", "ab", "", "abcd", "last"), lines);
+	}
+
+}
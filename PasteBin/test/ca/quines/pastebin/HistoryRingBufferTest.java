@@ -0,0 +1,110 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HistoryRingBufferTest {
+
+	private List<String> texts(HistoryRingBuffer buffer) {
+		List<String> texts = new ArrayList<>();
+		for (HistoryEntry entry : buffer) {
+			texts.add(entry.getText());
+		}
+
+		return texts;
+	}
+
+	@Test
+	void testAddFirstEvictsOldest() {
+		List<HistoryEntry> evicted = new ArrayList<>();
+		HistoryRingBuffer buffer = new HistoryRingBuffer(3, evicted::add);
+
+		for (String text : List.of("a", "b", "c", "d", "e")) {
+			buffer.addFirst(new HistoryEntry(text));
+		}
+
+		assertEquals(List.of("e", "d", "c"), texts(buffer));
+		assertEquals(2, evicted.size());
+		assertEquals("a", evicted.get(0).getText());
+		assertEquals("b", evicted.get(1).getText());
+	}
+
+	@Test
+	void testByteLimitEvictsOldestButKeepsNewest() {
+		List<HistoryEntry> evicted = new ArrayList<>();
+		HistoryRingBuffer buffer = new HistoryRingBuffer(10, evicted::add);
+		buffer.setByteLimit(10);
+
+		buffer.addFirst(new HistoryEntry("aaaa"));
+		buffer.addFirst(new HistoryEntry("bbbb"));
+		assertEquals(8, buffer.getTextBytes());
+
+		buffer.addFirst(new HistoryEntry("cccc"));
+		assertEquals(List.of("cccc", "bbbb"), texts(buffer));
+		assertEquals(8, buffer.getTextBytes());
+
+		// A single entry over the limit stays.  Two bytes per character here.
+		buffer.addFirst(new HistoryEntry("\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"));
+		assertEquals(1, buffer.size());
+		assertEquals(12, buffer.getTextBytes());
+		assertEquals(3, evicted.size());
+
+		buffer.clear();
+		assertEquals(0, buffer.getTextBytes());
+	}
+
+	@Test
+	void testRemoveFromMiddleKeepsOrder() {
+		HistoryRingBuffer buffer = new HistoryRingBuffer(10, null);
+		List<HistoryEntry> entries = new ArrayList<>();
+		for (String text : List.of("a", "b", "c", "d", "e", "f")) {
+			HistoryEntry entry = new HistoryEntry(text);
+			entries.add(entry);
+			buffer.addFirst(entry);
+		}
+
+		// One removal near the front and one near the back exercise both shift directions.
+		assertSame(entries.get(4), buffer.remove(entries.get(4).getUuid()));
+		assertSame(entries.get(1), buffer.remove(entries.get(1).getUuid()));
+		assertNull(buffer.remove(entries.get(1).getUuid()));
+
+		assertEquals(List.of("f", "d", "c", "a"), texts(buffer));
+
+		buffer.addFirst(new HistoryEntry("g"));
+		assertEquals(List.of("g", "f", "d", "c", "a"), texts(buffer));
+	}
+
+	@Test
+	void testShrinkingLimitEvicts() {
+		List<HistoryEntry> evicted = new ArrayList<>();
+		HistoryRingBuffer buffer = new HistoryRingBuffer(5, evicted::add);
+		for (String text : List.of("a", "b", "c", "d")) {
+			buffer.addLast(new HistoryEntry(text));
+		}
+
+		buffer.setLimit(2);
+		assertEquals(List.of("a", "b"), texts(buffer));
+		assertEquals(2, evicted.size());
+		assertEquals("d", evicted.get(0).getText());
+	}
+
+}
@@ -0,0 +1,160 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+class JsonApiTest {
+
+	@Test
+	void testWriterPunctuationAndEscaping() throws IOException {
+		StringWriter sw = new StringWriter();
+		JsonWriter json = new JsonWriter(sw);
+		json.beginObject();
+		json.name("a").beginArray().value(1).value(true).nullValue().beginObject().endObject().endArray();
+		json.name("b").value("q\"\\\n\u0001\u2028<&>");
+		json.name("c").value((String) null);
+		json.endObject();
+
+		assertEquals("{\"a\":[1,true,null,{}],\"b\":\"q\\\"\\\\\\n\\u0001\\u2028<&>\",\"c\":null}", sw.toString());
+	}
+
+	@Test
+	void testListPagesAndMutations() throws IOException {
+		File tempFile = Files.createTempFile("pasteBin", ".config").toFile();
+		tempFile.deleteOnExit();
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, false);
+		List<ChangeRecord> created = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			created.add(pasteBinService.apiCreate("entry <" + i + ">", false));
+		}
+		assertEquals("entry &lt;0&gt;", created.get(0).getText());
+
+		// Newest first, so the second page of two starts with entry 2.
+		List<ChangeRecord> page = new ArrayList<>();
+		assertEquals(5, pasteBinService.apiList(ChangeRecord.Op.ACTIVE, 2, 2, page));
+		assertEquals(2, page.size());
+		assertEquals(created.get(2).getUuid(), page.get(0).getUuid());
+		assertEquals(created.get(1).getUuid(), page.get(1).getUuid());
+
+		ChangeRecord pinned = pasteBinService.apiPin(created.get(0).getUuid());
+		assertEquals(ChangeRecord.Op.PINNED, pinned.getOp());
+		assertNull(pasteBinService.apiPin(created.get(0).getUuid()));
+
+		ChangeRecord deleted = pasteBinService.apiDelete(created.get(0).getUuid());
+		assertEquals(ChangeRecord.Op.DELETED, deleted.getOp());
+		assertNotNull(deleted.getDeletedMs());
+
+		page.clear();
+		assertEquals(1, pasteBinService.apiList(ChangeRecord.Op.DELETED, 0, JsonApi.DEFAULT_LIMIT, page));
+		assertEquals(0, pasteBinService.apiList(ChangeRecord.Op.PINNED, 0, JsonApi.DEFAULT_LIMIT, new ArrayList<>()));
+
+		assertNull(pasteBinService.apiSetShortUrl(created.get(0).getUuid(), "gone"));
+		ChangeRecord undeleted = pasteBinService.apiUndelete(created.get(0).getUuid());
+		assertEquals(ChangeRecord.Op.ACTIVE, undeleted.getOp());
+		assertNull(undeleted.getDeletedMs());
+		assertEquals("short", pasteBinService.apiSetShortUrl(created.get(0).getUuid(), "short").getShortUrl());
+		assertEquals("short", pasteBinService.apiGet(created.get(0).getUuid()).getShortUrl());
+	}
+
+	/**
+	 * @return
+	 * 		The status and the body.
+	 */
+	private static String post(int port, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + JsonApi.API_PATH + "/entries").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream os = connection.getOutputStream()) {
+			os.write(body.getBytes(StandardCharsets.US_ASCII));
+		}
+
+		int status = connection.getResponseCode();
+		try (InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			return status + " " + new String(is.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static UUID idOf(String response) {
+		Matcher matcher = Pattern.compile("\"id\":\"([^\"]+)\"").matcher(response);
+		assertTrue(matcher.find(), response);
+		return UUID.fromString(matcher.group(1));
+	}
+
+	@Test
+	void testCreateStreamsLargeText() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinApi");
+		PasteBinService pasteBinService = new PasteBinService(new File(tempDir.toFile(), "save"), false);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+		JsonApi jsonApi = new JsonApi(64);
+		server.createContext(JsonApi.API_PATH + "/", (he) -> jsonApi.handle(he, pasteBinService, he.getRequestURI().getPath()));
+		server.start();
+		int port = server.getAddress().getPort();
+
+		try {
+			// API clients encode the text once, whether it's kept in memory or not.
+			String small = post(port, "text=" + URLEncoder.encode("50%41", StandardCharsets.UTF_8));
+			assertTrue(small.startsWith("201 "), small);
+			assertEquals("50%41", pasteBinService.apiGet(idOf(small)).getText());
+			assertNull(pasteBinService.getBlobPath(idOf(small)));
+
+			String text = "50%41 <".repeat(100);
+			String large = post(port, "preformatted=on&text=" + URLEncoder.encode(text, StandardCharsets.UTF_8));
+			assertTrue(large.startsWith("201 "), large);
+			Path blob = pasteBinService.getBlobPath(idOf(large));
+			assertEquals(text, Files.readString(blob, StandardCharsets.UTF_8));
+			assertTrue(pasteBinService.apiGet(idOf(large)).getText().startsWith("<pre>50%41 &lt;"));
+
+			// A spooled text that isn't used is cleaned up.
+			String badTtl = post(port, "ttl=soon&text=" + URLEncoder.encode(text, StandardCharsets.UTF_8));
+			assertTrue(badTtl.startsWith("400 "), badTtl);
+			try (Stream<Path> files = Files.list(blob.getParent())) {
+				assertEquals(List.of(blob), files.collect(Collectors.toList()));
+			}
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+
+}
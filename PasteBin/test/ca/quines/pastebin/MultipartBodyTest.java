@@ -0,0 +1,101 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class MultipartBodyTest {
+
+	private static final String BOUNDARY = "----boundary42";
+
+	private static byte[] upload(byte[] content, String fileName) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.writeBytes(("preamble\r\n--" + BOUNDARY + "\r\n"
+			+ "Content-Disposition: form-data; name=\"note\"\r\n\r\n"
+			+ "café\r\n--" + BOUNDARY + "\r\n"
+			+ "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+			+ "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		body.writeBytes(content);
+		body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		return body.toByteArray();
+	}
+
+	@Test
+	void testStreamsFileWithBoundaryLookalikes() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinBlobs");
+		BlobStore blobStore = new BlobStore(tempDir.toFile());
+
+		// Random bytes, with near-misses of the delimiter that straddle the parser's read buffer.
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] random = new byte[40_000];
+		new Random(7).nextBytes(random);
+		content.writeBytes(random);
+		content.writeBytes(("\r\n--" + BOUNDARY.substring(0, 8) + "\r\n\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "X").getBytes(StandardCharsets.UTF_8));
+		content.writeBytes(random);
+		byte[] expected = content.toByteArray();
+
+		assertEquals(BOUNDARY, MultipartBody.getBoundary("multipart/form-data; boundary=" + BOUNDARY));
+		MultipartBody body = MultipartBody.parse(new ByteArrayInputStream(upload(expected, "C:\\\\shots\\\\a.png")),
+			BOUNDARY, 1_000_000, blobStore);
+
+		assertEquals("café", body.getFields().get("note").get(0));
+		assertEquals(1, body.getFiles().size());
+		MultipartBody.FilePart part = body.getFiles().get(0);
+		assertEquals("a.png", part.getFileName());
+		assertEquals("image/png", part.getContentType());
+		assertEquals(expected.length, part.getLength());
+		assertArrayEquals(expected, Files.readAllBytes(part.getFile()));
+
+		body.discard();
+		Files.delete(tempDir);
+	}
+
+	@Test
+	void testRejectsOversizedAndTruncatedUploads() throws IOException {
+		Path tempDir = Files.createTempDirectory("pasteBinBlobs");
+		BlobStore blobStore = new BlobStore(tempDir.toFile());
+
+		byte[] tooBig = upload(new byte[1001], "big.bin");
+		assertThrows(IOException.class,
+			() -> MultipartBody.parse(new ByteArrayInputStream(tooBig), BOUNDARY, 1000, blobStore));
+
+		byte[] complete = upload(new byte[10], "small.bin");
+		byte[] truncated = new byte[complete.length - 10];
+		System.arraycopy(complete, 0, truncated, 0, truncated.length);
+		assertThrows(IOException.class,
+			() -> MultipartBody.parse(new ByteArrayInputStream(truncated), BOUNDARY, 1000, blobStore));
+
+		// Nothing is left behind.
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertEquals(0, files.count());
+		}
+		Files.delete(tempDir);
+
+		assertNull(MultipartBody.getBoundary("application/x-www-form-urlencoded"));
+	}
+
+}
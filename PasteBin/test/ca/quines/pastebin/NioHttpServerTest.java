@@ -0,0 +1,262 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NioHttpServerTest {
+
+	private static final int TIMEOUT_MS = 5000;
+	private static final String FILE_TEXT = "0123456789";
+
+	private NioHttpServer server;
+	private Path file;
+
+	/**
+	 * A response read off the socket.
+	 */
+	private static class Response {
+
+		private int status;
+		private final Map<String, String> headers = new HashMap<>();
+		private String body;
+
+	}
+
+	@BeforeEach
+	void startServer() throws IOException {
+		file = Files.createTempFile("nioHttpServer", ".txt");
+		Files.writeString(file, FILE_TEXT, StandardCharsets.UTF_8);
+
+		server = new NioHttpServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+
+		// The method, path and body, with the length declared up front.
+		server.createContext("/echo", (he) -> {
+			byte[] body = (he.getRequestMethod() + " " + he.getRequestURI().getPath() + " "
+				+ new String(he.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+			he.sendResponseHeaders(200, body.length);
+			try (OutputStream os = he.getResponseBody()) {
+				os.write(body);
+			}
+		});
+
+		// Streamed with no length, like the pages.
+		server.createContext("/page", (he) -> {
+			he.sendResponseHeaders(200, 0);
+			try (OutputStream os = he.getResponseBody()) {
+				os.write("<html></html>".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+
+		server.createContext("/file", (he) -> NioHttpServer.sendFile(he, file, Files.size(file)));
+		server.createContext("/range", (he) -> {
+			he.getResponseHeaders().set("Content-Range", "bytes 2-4/" + FILE_TEXT.length());
+			NioHttpServer.sendFile(he, 206, file, 2, 3);
+		});
+
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() throws IOException {
+		server.stop(0);
+		Files.deleteIfExists(file);
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort());
+		socket.setSoTimeout(TIMEOUT_MS);
+		return socket;
+	}
+
+	private void send(Socket socket, String text) throws IOException {
+		OutputStream os = socket.getOutputStream();
+		os.write(text.getBytes(StandardCharsets.ISO_8859_1));
+		os.flush();
+	}
+
+	/**
+	 * @param head
+	 * 		True if the request was a HEAD, so there's no body whatever the headers say.
+	 */
+	private Response read(InputStream in, boolean head) throws IOException {
+		ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+		while (!headBytes.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("The connection closed after " + headBytes);
+			}
+			headBytes.write(b);
+		}
+
+		String[] lines = headBytes.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+		Response response = new Response();
+		response.status = Integer.parseInt(lines[0].split(" ")[1]);
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			response.headers.put(lines[i].substring(0, colon).toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+		}
+
+		String length = response.headers.get("content-length");
+		byte[] body = head || length == null ? new byte[0] : in.readNBytes(Integer.parseInt(length));
+		response.body = new String(body, StandardCharsets.UTF_8);
+		return response;
+	}
+
+	@Test
+	void testPipelinedRequestsOnOneConnection() throws IOException {
+		try (Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			send(socket, "GET /echo/one HTTP/1.1\r\nHost: x\r\n\r\n"
+				+ "POST /echo/two HTTP/1.1\r\nHost: x\r\nContent-Length: 3\r\n\r\nabc"
+				+ "GET /echo/three HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+
+			Response first = read(in, false);
+			assertEquals("GET /echo/one ", first.body);
+			assertEquals("keep-alive", first.headers.get("connection"));
+			assertEquals("POST /echo/two abc", read(in, false).body);
+
+			Response last = read(in, false);
+			assertEquals("GET /echo/three ", last.body);
+			assertEquals("close", last.headers.get("connection"));
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	void testBodyArrivingInPieces() throws IOException, InterruptedException {
+		try (Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			send(socket, "POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: 10\r\n\r\n");
+			Thread.sleep(50);
+			send(socket, "hello");
+			Thread.sleep(50);
+			send(socket, " you");
+			Thread.sleep(50);
+			send(socket, "!");
+
+			assertEquals("POST /echo hello you!", read(in, false).body);
+		}
+	}
+
+	@Test
+	void testExpectContinue() throws IOException {
+		try (Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			send(socket, "POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: 4\r\nExpect: 100-continue\r\n\r\n");
+
+			// The body isn't sent until the server asks for it.
+			assertEquals(100, read(in, true).status);
+			send(socket, "body");
+
+			Response response = read(in, false);
+			assertEquals(200, response.status);
+			assertEquals("POST /echo body", response.body);
+		}
+	}
+
+	private Response sendAndRead(String request) throws IOException {
+		try (Socket socket = connect()) {
+			send(socket, request);
+			return read(new BufferedInputStream(socket.getInputStream()), false);
+		}
+	}
+
+	@Test
+	void testRejections() throws IOException, InterruptedException {
+		Response tooBig = sendAndRead("POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: 1000000000000\r\n\r\n");
+		assertEquals(413, tooBig.status);
+		assertEquals("close", tooBig.headers.get("connection"));
+
+		assertEquals(501, sendAndRead("POST /echo HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n").status);
+		assertEquals(400, sendAndRead("nonsense\r\n\r\n").status);
+		assertEquals(404, sendAndRead("GET /nowhere HTTP/1.1\r\nHost: x\r\n\r\n").status);
+
+		// Headers that never end.  The last few bytes go separately, so the server has read everything by the
+		// time it gives up, and closing doesn't reset the connection.
+		try (Socket socket = connect()) {
+			send(socket, "GET /echo HTTP/1.1\r\nX-Long: " + "x".repeat(64 * 1024));
+			Thread.sleep(50);
+			send(socket, "xxxx");
+			assertEquals(431, read(new BufferedInputStream(socket.getInputStream()), false).status);
+		}
+	}
+
+	@Test
+	void testHead() throws IOException {
+		try (Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+
+			// The streamed page's size isn't known, so there's no length rather than a length of zero.
+			send(socket, "HEAD /page HTTP/1.1\r\nHost: x\r\n\r\n");
+			Response page = read(in, true);
+			assertEquals(200, page.status);
+			assertNull(page.headers.get("content-length"));
+
+			send(socket, "HEAD /echo HTTP/1.1\r\nHost: x\r\n\r\n");
+			assertEquals("11", read(in, true).headers.get("content-length"));
+
+			// Nothing was sent after either head, so the connection is still in step.
+			send(socket, "GET /page HTTP/1.1\r\nHost: x\r\n\r\n");
+			assertEquals("<html></html>", read(in, false).body);
+		}
+	}
+
+	@Test
+	void testSendFile() throws IOException {
+		try (Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+
+			send(socket, "GET /file HTTP/1.1\r\nHost: x\r\n\r\n");
+			Response whole = read(in, false);
+			assertEquals(200, whole.status);
+			assertEquals(FILE_TEXT, whole.body);
+
+			send(socket, "GET /range HTTP/1.1\r\nHost: x\r\n\r\n");
+			Response range = read(in, false);
+			assertEquals(206, range.status);
+			assertEquals("bytes 2-4/10", range.headers.get("content-range"));
+			assertEquals("234", range.body);
+
+			send(socket, "HEAD /file HTTP/1.1\r\nHost: x\r\n\r\n");
+			Response head = read(in, true);
+			assertEquals("10", head.headers.get("content-length"));
+
+			send(socket, "GET /echo HTTP/1.1\r\nHost: x\r\n\r\n");
+			assertEquals("GET /echo ", read(in, false).body);
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelPropertiesLoaderTest {
+
+	private Properties sequential(byte[] bytes) throws IOException {
+		Properties props = new Properties();
+		props.load(new ByteArrayInputStream(bytes));
+		return props;
+	}
+
+	@Test
+	void testSegmentsDecodeLikeOneFile() throws IOException {
+		Properties original = new Properties();
+		String chars = "ab\\\n\r\t=:#!é  ";
+		Random random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			StringBuilder value = new StringBuilder();
+			for (int j = random.nextInt(40); j > 0; j--) {
+				value.append(chars.charAt(random.nextInt(chars.length())));
+			}
+			original.setProperty("history." + i + ".text", value.toString());
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		original.store(out, "comment");
+		byte[] bytes = out.toByteArray();
+
+		for (int segmentBytes : new int[] { 1, 7, 64, 1000, bytes.length * 2 }) {
+			assertEquals(original, ParallelPropertiesLoader.load(ByteBuffer.wrap(bytes), segmentBytes));
+		}
+	}
+
+	@Test
+	void testNeverCutsAContinuedLine() throws IOException {
+		// Hand-edited files can continue lines, with either line ending, and have comments ending in a backslash.
+		String text = "a = one \\\r\n    two\r\n# comment \\\nb = three\\\\\nc = four \\\n\\\n five\r\nd=\\\r\n";
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+
+		for (int segmentBytes = 1; segmentBytes < bytes.length; segmentBytes++) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			List<Integer> cuts = ParallelPropertiesLoader.findCuts(buffer, segmentBytes);
+			assertEquals(0, cuts.get(0).intValue());
+			assertEquals(bytes.length, cuts.get(cuts.size() - 1).intValue());
+			assertEquals(sequential(bytes), ParallelPropertiesLoader.load(buffer, segmentBytes), "Segment size " + segmentBytes);
+		}
+	}
+
+}
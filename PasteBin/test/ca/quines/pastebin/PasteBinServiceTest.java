@@ -19,13 +19,21 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,7 +62,7 @@ class PasteBinServiceTest {
 
 	private void validateCleanService(String cleanResponse) {
 		assertTrue(cleanResponse.contains("<title>PasteBin</title>"));
-		assertTrue(cleanResponse.contains("<script>"));
+		assertTrue(cleanResponse.contains("<script src='" + StaticResources.JS.getPath() + "'>"));
 		assertTrue(cleanResponse.contains("submitForm"));
 		assertTrue(cleanResponse.contains("textarea"));
 		assertFalse(cleanResponse.contains("foo"));
@@ -129,6 +137,44 @@ class PasteBinServiceTest {
 		assertTrue(pasteResponse.contains(VARIABLES[max+1]));
 	}
 
+	/**
+	 * Write a save file with awkward text (non-ASCII, line breaks, separators, a line-continuation lookalike)
+	 * and check that the lazy, memory-mapped loader renders exactly what the eager loader does.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	void testLazyLoadMatchesEagerLoad() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		String[] texts = { "caf\u00e9 = na\u00efve", "line one\nline two\\", "#not a comment: x", "plain" };
+		Properties props = new Properties();
+		props.setProperty(PasteBinService.CONFIG_MAX_MAIN_ENTRIES, "10");
+		for (int i = 0; i < texts.length; i++) {
+			props.setProperty("history." + i + ".text", texts[i]);
+			props.setProperty("history." + i + ".createDate", "" + (1000L * i));
+			props.setProperty("history." + i + ".uuid", new java.util.UUID(0, i).toString());
+		}
+		props.setProperty("deletedHistory.0.text", "deleted\ttext");
+		props.setProperty("deletedHistory.0.createDate", "5");
+		props.setProperty("deletedHistory.0.deletedDate", "" + System.currentTimeMillis());
+		props.setProperty("deletedHistory.0.uuid", new java.util.UUID(1, 0).toString());
+
+		try (OutputStream os = new FileOutputStream(tempFile)) {
+			props.store(os, null);
+		}
+
+		PasteBinService eager = new PasteBinService(tempFile, NO_SAVE_ON_EXIT, false);
+		PasteBinService lazy = new PasteBinService(tempFile, NO_SAVE_ON_EXIT, true);
+
+		String lazyPage = lazy.rootHandler("/");
+		assertEquals(eager.rootHandler("/"), lazyPage);
+		assertTrue(lazyPage.contains(texts[1]));
+		assertEquals(eager.viewDeletedContextHandler(), lazy.viewDeletedContextHandler());
+	}
+
 	/**
 	 * This one is a functional test, checking broad strokes and how all the functions fit together in
 	 * a normal workflow.
@@ -173,4 +219,221 @@ class PasteBinServiceTest {
 		assertFalse(deleteResponse.contains("foo"));
 	}
 
+	@Test
+	void testUnknownPathIsNotFoundUntilItBecomesAShortUrl() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		Map<String, List<String>> queryMap = new HashMap<>();
+		queryMap.put("text", List.of("foo"));
+		Matcher matcher = Pattern.compile(ID_REGEX + "foo<").matcher(pasteBinService.pasteHandler(queryMap));
+		assertTrue(matcher.find());
+
+		// The second miss is answered from the cache.
+		assertNull(pasteBinService.rootHandler("/robots.txt"));
+		assertNull(pasteBinService.rootHandler("/robots.txt"));
+		assertNull(pasteBinService.rootHandler("/bar"));
+
+		queryMap = new HashMap<>();
+		queryMap.put("shortUrl" + matcher.group(1), List.of("bar"));
+		pasteBinService.updateShortUrlHandler(queryMap);
+		assertEquals("foo", pasteBinService.rootHandler("/bar"));
+
+		StringWriter sw = new StringWriter();
+		pasteBinService.writeStats(new PrintWriter(sw), "main");
+		assertTrue(sw.toString().contains("main.shortUrl.hits=1"));
+		assertTrue(sw.toString().contains("main.shortUrl.misses=2"));
+		assertTrue(sw.toString().contains("main.shortUrl.cachedMisses=1"));
+	}
+
+	@Test
+	void testPageIsRenderedAgainAfterAChange() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		String emptyPage = pasteBinService.rootHandler("/");
+		assertEquals(emptyPage, pasteBinService.rootHandler("/"));
+
+		Map<String, List<String>> queryMap = new HashMap<>();
+		queryMap.put("text", List.of("foo"));
+		assertTrue(pasteBinService.applyPaste(queryMap).isEmpty());
+		Matcher matcher = Pattern.compile(ID_REGEX + "foo<").matcher(pasteBinService.rootHandler("/"));
+		assertTrue(matcher.find());
+
+		// The messages go around the cached page.
+		String page = pasteBinService.rootHandler("/", PageMessages.info("Pasted."));
+		assertTrue(page.contains("Pasted."));
+		assertFalse(pasteBinService.rootHandler("/").contains("Pasted."));
+
+		queryMap = new HashMap<>();
+		queryMap.put("id", List.of(matcher.group(1)));
+		pasteBinService.applyDelete(queryMap);
+		assertEquals(emptyPage, pasteBinService.rootHandler("/"));
+	}
+
+	@Test
+	void testByteBudgets() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(tempFile))) {
+			bw.write(PasteBinService.CONFIG_MAX_ACTIVE_BYTES + "=" + 10);
+			bw.newLine();
+			bw.write(PasteBinService.CONFIG_MAX_PINNED_BYTES + "=" + 4);
+			bw.newLine();
+			bw.write(PasteBinService.CONFIG_MAX_DELETED_BYTES + "=" + 8);
+			bw.newLine();
+		}
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		List<ChangeRecord> created = new ArrayList<>();
+		for (String text : List.of("aaaa", "bbbb", "cccc", "dddd")) {
+			created.add(pasteBinService.apiCreate(text, false));
+		}
+
+		// Only two fit in the active list.  "aaaa" and "bbbb" spilled into the deleted list, which holds both.
+		List<ChangeRecord> page = new ArrayList<>();
+		assertEquals(2, pasteBinService.apiList(ChangeRecord.Op.ACTIVE, 0, 10, page));
+		assertEquals(2, pasteBinService.apiList(ChangeRecord.Op.DELETED, 0, 10, new ArrayList<>()));
+
+		// The next spill pushes the oldest deleted entry out for good.  Entries deleted in the same millisecond
+		// keep the order they were deleted in, so that's always "aaaa".
+		created.add(pasteBinService.apiCreate("eeee", false));
+		assertEquals(2, pasteBinService.apiList(ChangeRecord.Op.DELETED, 0, 10, new ArrayList<>()));
+		assertNull(pasteBinService.apiGet(created.get(0).getUuid()));
+		assertNotNull(pasteBinService.apiGet(created.get(1).getUuid()));
+		assertNotNull(pasteBinService.apiGet(created.get(2).getUuid()));
+
+		// One pin fits, the second doesn't.
+		assertNotNull(pasteBinService.apiPin(created.get(3).getUuid()));
+		Map<String, List<String>> queryMap = new HashMap<>();
+		queryMap.put("op", List.of("pin"));
+		queryMap.put("id", List.of(created.get(4).getUuid().toString()));
+		assertTrue(pasteBinService.bulkHandler(queryMap).contains(PasteBinService.PINNED_BUDGET_MESSAGE));
+
+		StringWriter sw = new StringWriter();
+		pasteBinService.writeStats(new PrintWriter(sw), "main");
+		assertTrue(sw.toString().contains("main.bytes.pinned=4/4"));
+		assertTrue(sw.toString().contains("main.bytes.deleted=8/8"));
+
+		// An entry bigger than the whole deleted budget is dropped as soon as it's deleted.
+		ChangeRecord big = pasteBinService.apiCreate("123456789", false);
+		assertEquals(ChangeRecord.Op.REMOVE, pasteBinService.apiDelete(big.getUuid()).getOp());
+		assertNull(pasteBinService.apiGet(big.getUuid()));
+	}
+
+	@Test
+	void testBulk() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		Map<String, String> ids = new HashMap<>();
+		for (String variable : List.of("foo", "bar", "baz")) {
+			Map<String, List<String>> queryMap = new HashMap<>();
+			queryMap.put("text", List.of(variable));
+			Matcher matcher = Pattern.compile(ID_REGEX + variable + "<").matcher(pasteBinService.pasteHandler(queryMap));
+			assertTrue(matcher.find());
+			ids.put(variable, matcher.group(1));
+		}
+
+		// Pin two at once.  They keep the order they were selected in, above the paste form.
+		Map<String, List<String>> queryMap = new HashMap<>();
+		queryMap.put("op", List.of("pin"));
+		queryMap.put("id", List.of(ids.get("bar"), ids.get("foo")));
+		String pinResponse = pasteBinService.bulkHandler(queryMap);
+		assertTrue(pinResponse.contains("Changed 2 entries."));
+		int formIndex = pinResponse.indexOf("<textarea");
+		assertTrue(pinResponse.indexOf(">bar<") < pinResponse.indexOf(">foo<"));
+		assertTrue(pinResponse.indexOf(">foo<") < formIndex);
+		assertTrue(pinResponse.indexOf(">baz<") > formIndex);
+
+		// Unknown and malformed IDs are skipped.
+		queryMap = new HashMap<>();
+		queryMap.put("op", List.of("delete"));
+		queryMap.put("id", List.of(ids.get("baz"), ids.get("foo"), "not-a-uuid"));
+		String deleteResponse = pasteBinService.bulkHandler(queryMap);
+		assertTrue(deleteResponse.contains("Changed 1 entry."));
+		assertFalse(deleteResponse.contains(">baz<"));
+
+		queryMap = new HashMap<>();
+		queryMap.put("op", List.of("deletePin"));
+		queryMap.put("id", List.of(ids.get("foo"), ids.get("bar")));
+		String deletePinResponse = pasteBinService.bulkHandler(queryMap);
+		assertTrue(deletePinResponse.contains("Changed 2 entries."));
+		assertFalse(deletePinResponse.contains(">foo<"));
+
+		String deletedResponse = pasteBinService.viewDeletedContextHandler(null);
+		for (String variable : List.of("foo", "bar", "baz")) {
+			assertTrue(deletedResponse.contains(">" + variable + "<"));
+		}
+
+		queryMap = new HashMap<>();
+		queryMap.put("op", List.of("undelete"));
+		queryMap.put("id", List.of(ids.get("foo"), ids.get("bar"), ids.get("baz")));
+		String undeleteResponse = pasteBinService.bulkHandler(queryMap);
+		assertTrue(undeleteResponse.contains("Changed 3 entries."));
+		assertTrue(undeleteResponse.indexOf(">foo<") < undeleteResponse.indexOf(">bar<"));
+		assertTrue(undeleteResponse.indexOf(">bar<") < undeleteResponse.indexOf(">baz<"));
+
+		// Malformed short URL fields are skipped, and with IDs, only the selected entries change.
+		queryMap = new HashMap<>();
+		queryMap.put("op", List.of("shortUrl"));
+		queryMap.put("id", List.of(ids.get("foo")));
+		queryMap.put("shortUrlnot-a-uuid", List.of("x"));
+		queryMap.put("shortUrl" + ids.get("foo"), List.of("f"));
+		queryMap.put("shortUrl" + ids.get("bar"), List.of("b"));
+		assertTrue(pasteBinService.bulkHandler(queryMap).contains("Changed 1 entry."));
+		assertEquals("f", pasteBinService.apiGet(UUID.fromString(ids.get("foo"))).getShortUrl());
+		assertNull(pasteBinService.apiGet(UUID.fromString(ids.get("bar"))).getShortUrl());
+
+		// Without IDs, every entry named changes, like the short URL page.
+		queryMap.remove("id");
+		assertTrue(pasteBinService.bulkHandler(queryMap).contains("Changed 2 entries."));
+		assertEquals("b", pasteBinService.apiGet(UUID.fromString(ids.get("bar"))).getShortUrl());
+
+		queryMap = new HashMap<>();
+		queryMap.put("op", List.of("explode"));
+		assertTrue(pasteBinService.bulkHandler(queryMap).contains("Unknown operation"));
+	}
+
+	@Test
+	void testExpiry() throws IOException {
+		Path tempPath = Files.createTempFile("pasteBin", ".config");
+		File tempFile = tempPath.toFile();
+		tempFile.deleteOnExit();
+
+		PasteBinService pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		ChangeRecord expiring = pasteBinService.apiCreate("expiring", false, Duration.ofMinutes(1));
+		ChangeRecord kept = pasteBinService.apiCreate("kept", false);
+		ChangeRecord pinned = pasteBinService.apiCreate("pinned", false, Duration.ofMinutes(1));
+		pasteBinService.apiPin(pinned.getUuid());
+		assertEquals(expiring.getCreateMs() + 60_000, expiring.getExpiresMs().longValue());
+		assertNull(kept.getExpiresMs());
+
+		// The expiry time survives a restart.
+		pasteBinService.save();
+		pasteBinService = new PasteBinService(tempFile, NO_SAVE_ON_EXIT);
+		assertEquals(expiring.getExpiresMs(), pasteBinService.apiGet(expiring.getUuid()).getExpiresMs());
+
+		pasteBinService.expireDue(System.currentTimeMillis() + 30_000);
+		assertNotNull(pasteBinService.apiGet(expiring.getUuid()));
+
+		// Expired entries are gone for good, not moved to the deleted list.
+		pasteBinService.expireDue(pinned.getExpiresMs() + 1000);
+		assertNull(pasteBinService.apiGet(expiring.getUuid()));
+		assertNull(pasteBinService.apiGet(pinned.getUuid()));
+		assertNotNull(pasteBinService.apiGet(kept.getUuid()));
+		assertEquals(0, pasteBinService.apiList(ChangeRecord.Op.DELETED, 0, 10, new ArrayList<>()));
+
+		assertThrows(IllegalArgumentException.class, () -> PasteBinService.parseTtl("soon"));
+		assertNull(PasteBinService.parseTtl("0"));
+	}
+
 }
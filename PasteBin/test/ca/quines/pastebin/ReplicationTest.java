@@ -0,0 +1,208 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class ReplicationTest {
+
+	private static final boolean NO_SAVE_ON_EXIT = false;
+	private static final long WAIT_MS = 10_000;
+	private static final Pattern ID_PATTERN = Pattern.compile("id='text([^']*)'[^>]*>first<");
+
+	private PasteBinService newService() throws IOException {
+		File saveFile = Files.createTempFile("pasteBin", ".config").toFile();
+		saveFile.deleteOnExit();
+		return new PasteBinService(saveFile, NO_SAVE_ON_EXIT);
+	}
+
+	private Map<String, List<String>> query(String key, String value) {
+		Map<String, List<String>> queryMap = new HashMap<>();
+		queryMap.put(key, List.of(value));
+		return queryMap;
+	}
+
+	/**
+	 * Wait until the standby renders the same pages as the primary.
+	 */
+	private void assertConverges(PasteBinService primary, PasteBinService standby) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		while (true) {
+			String primaryPages = primary.rootHandler("/") + primary.viewDeletedContextHandler();
+			String standbyPages = standby.rootHandler("/") + standby.viewDeletedContextHandler();
+			if (primaryPages.equals(standbyPages)) {
+				return;
+			}
+
+			if (System.currentTimeMillis() > deadline) {
+				assertEquals(primaryPages, standbyPages);
+			}
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	void testSnapshotThenChangesThenCatchUp() throws IOException, InterruptedException {
+		PasteBinService primary = newService();
+		primary.enableReplicationLog(100);
+
+		// This one goes out in the snapshot.
+		String page = primary.pasteHandler(query("text", "first"));
+		Matcher matcher = ID_PATTERN.matcher(page);
+		assertTrue(matcher.find());
+		String firstId = matcher.group(1);
+
+		ReplicationServer server = new ReplicationServer(primary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.start();
+		InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+
+		PasteBinService standby = newService();
+		standby.pasteHandler(query("text", "only on the standby"));
+
+		ReplicationClient client = new ReplicationClient(standby, serverAddress);
+		client.start();
+		try {
+			assertConverges(primary, standby);
+			assertFalse(standby.rootHandler("/").contains("only on the standby"));
+
+			// Streamed changes.
+			primary.pasteHandler(query("text", "second"));
+			primary.deleteHandler(query("id", firstId));
+			assertConverges(primary, standby);
+			assertTrue(standby.viewDeletedContextHandler().contains("first"));
+
+			// Changes made while the standby is away are picked up from the log when it comes back.
+			client.stop();
+			long seenSeq = client.getLastAppliedSeq();
+			primary.undeleteContextHandler(query("id", firstId));
+			primary.pinContextHandler(query("id", firstId));
+
+			client.start();
+			assertConverges(primary, standby);
+			assertTrue(seenSeq > 0);
+			assertTrue(client.getLastAppliedSeq() > seenSeq);
+		}
+		finally {
+			client.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The newest active entry.
+	 */
+	private UUID newestActive(PasteBinService service) {
+		List<ChangeRecord> active = new ArrayList<>();
+		service.apiList(ChangeRecord.Op.ACTIVE, 0, 1, active);
+		return active.get(0).getUuid();
+	}
+
+	@Test
+	void testBlobsAndAttachmentsFollowTheirEntries() throws IOException, InterruptedException {
+		PasteBinService primary = newService();
+		primary.enableReplicationLog(100);
+
+		// This one goes out in the snapshot.
+		Path spooled = primary.getBlobStore().createTempFile();
+		Files.writeString(spooled, "x".repeat(PasteBinService.BLOB_PREVIEW_CHARS) + "tail", StandardCharsets.UTF_8);
+		primary.pasteBlobHandler(spooled, false);
+		UUID blobUuid = newestActive(primary);
+
+		ReplicationServer server = new ReplicationServer(primary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.start();
+
+		// Dropped by the snapshot, along with its blob.
+		PasteBinService standby = newService();
+		spooled = standby.getBlobStore().createTempFile();
+		Files.writeString(spooled, "y".repeat(PasteBinService.BLOB_PREVIEW_CHARS) + "only on the standby", StandardCharsets.UTF_8);
+		standby.pasteBlobHandler(spooled, false);
+		Path standbyOnlyBlob = standby.getBlobPath(newestActive(standby));
+
+		ReplicationClient client = new ReplicationClient(standby, new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+		UUID attachmentUuid;
+		client.start();
+		try {
+			assertConverges(primary, standby);
+			assertTrue(Files.readString(standby.getBlobPath(blobUuid), StandardCharsets.UTF_8).endsWith("tail"));
+			assertFalse(Files.exists(standbyOnlyBlob));
+
+			// Streamed with its change.
+			spooled = primary.getBlobStore().createTempFile();
+			Files.writeString(spooled, "attached", StandardCharsets.UTF_8);
+			primary.applyAttach(spooled, "notes.txt", "text/plain");
+			attachmentUuid = newestActive(primary);
+			assertConverges(primary, standby);
+			HistoryEntry attachment = standby.findAttachment(attachmentUuid);
+			assertNotNull(attachment);
+			assertEquals("notes.txt", attachment.getAttachmentName());
+			assertEquals("text/plain", attachment.getAttachmentContentType());
+			Path attachmentFile = standby.getBlobStore().pathFor(attachmentUuid);
+			assertEquals("attached", Files.readString(attachmentFile, StandardCharsets.UTF_8));
+
+			// Deleting keeps the blob.
+			primary.apiDelete(blobUuid);
+			assertConverges(primary, standby);
+			assertTrue(Files.readString(standby.getBlobPath(blobUuid), StandardCharsets.UTF_8).endsWith("tail"));
+		}
+		finally {
+			client.stop();
+			server.stop();
+		}
+
+		// Removing for good drops it.
+		HistoryEntry attachment = standby.findAttachment(attachmentUuid);
+		standby.applyReplicatedChanges(List.of(ChangeRecord.withoutText(client.getLastAppliedSeq() + 1,
+			ChangeRecord.Op.REMOVE, attachment)), new HashMap<>());
+		assertNull(standby.findAttachment(attachmentUuid));
+		assertFalse(Files.exists(standby.getBlobStore().pathFor(attachmentUuid)));
+	}
+
+	@Test
+	void testFallingBehindSendsSnapshot() throws InterruptedException {
+		ReplicationLog log = new ReplicationLog(4);
+		HistoryEntry entry = new HistoryEntry("text");
+		for (int i = 0; i < 10; i++) {
+			log.append(ChangeRecord.Op.ACTIVE, entry);
+		}
+
+		assertNull(log.awaitAfter(2, 10, 0));
+		assertEquals(List.of(), log.awaitAfter(10, 10, 0));
+
+		List<ChangeRecord> batch = log.awaitAfter(6, 10, 0);
+		assertEquals(4, batch.size());
+		assertEquals(7, batch.get(0).getSeq());
+		assertEquals(10, batch.get(3).getSeq());
+	}
+
+}
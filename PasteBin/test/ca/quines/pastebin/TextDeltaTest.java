@@ -0,0 +1,122 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TextDeltaTest {
+
+	private static String config(int version) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("setting.").append(i).append(" = value ").append(i == version ? "changed in " + version : "" + i).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	@Test
+	void testRoundTripsEdits() {
+		Random random = new Random(1);
+		String base = config(-1);
+		for (int round = 0; round < 200; round++) {
+			StringBuilder target = new StringBuilder(base);
+			for (int edit = random.nextInt(4); edit >= 0; edit--) {
+				int start = random.nextInt(target.length());
+				int end = Math.min(target.length(), start + random.nextInt(40));
+				if (random.nextBoolean()) {
+					target.delete(start, end);
+				}
+				else {
+					target.insert(start, "inserted " + random.nextInt() + ";i9:c0,1;");
+				}
+			}
+
+			String delta = TextDelta.encode(base, target.toString());
+			assertEquals(target.toString(), TextDelta.apply(base, delta));
+		}
+
+		// Nothing in common, and texts shorter than a block.
+		assertEquals("abc", TextDelta.apply(base, TextDelta.encode(base, "abc")));
+		assertEquals(base, TextDelta.apply("", TextDelta.encode("", base)));
+		assertEquals("", TextDelta.apply(base, TextDelta.encode(base, "")));
+	}
+
+	@Test
+	void testSmallEditMakesSmallDelta() {
+		String delta = TextDelta.encode(config(-1), config(50));
+		assertTrue(delta.length() < 60, delta);
+	}
+
+	@Test
+	void testServiceKeepsVersionsAsDeltasAcrossSaveAndLoad() throws Exception {
+		Path saveFile = Files.createTempFile("pasteBin", ".config");
+		Files.delete(saveFile);
+		try {
+			PasteBinService service = new PasteBinService(saveFile.toFile(), false);
+			for (int version = 0; version < 12; version++) {
+				service.pasteHandler(Map.of("text", List.of(config(version))));
+			}
+			String page = service.rootHandler("/");
+			service.save();
+
+			Properties props = new Properties();
+			try (InputStream is = new FileInputStream(saveFile.toFile())) {
+				props.load(is);
+			}
+
+			// The oldest version holds its own text, and no chain is deeper than the maximum.
+			assertNull(props.getProperty("history.11.deltaBase"));
+			assertNotNull(props.getProperty("history.0.deltaBase"));
+			assertTrue(props.getProperty("history.0.text").length() < 200);
+
+			Map<String, String> baseByUuid = new HashMap<>();
+			for (int i = 0; i < 12; i++) {
+				baseByUuid.put(props.getProperty("history." + i + ".uuid"), props.getProperty("history." + i + ".deltaBase"));
+			}
+			for (String uuid : baseByUuid.keySet()) {
+				int depth = 0;
+				for (String base = baseByUuid.get(uuid); base != null; base = baseByUuid.get(base)) {
+					depth++;
+				}
+				assertTrue(depth <= PasteBinService.MAX_DELTA_DEPTH, Integer.toString(depth));
+			}
+
+			for (boolean lazyLoad : new boolean[] { false, true }) {
+				PasteBinService reloaded = new PasteBinService(saveFile.toFile(), false, lazyLoad);
+				assertEquals(page, reloaded.rootHandler("/"));
+			}
+		}
+		finally {
+			Files.deleteIfExists(saveFile);
+			new File(saveFile + "-blobs").delete();
+		}
+	}
+
+}
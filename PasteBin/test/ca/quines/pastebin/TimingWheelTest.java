@@ -0,0 +1,112 @@
+package ca.quines.pastebin;
+
+// This file is part of the "PasteBin" project.
+
+// The "PasteBin" project is free software: you can redistribute it and/or modify it under the terms of the GNU
+// General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+// any later version.
+
+// The "PasteBin" project is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+// even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+// for more details.
+
+// You should have received a copy of the GNU General Public License along with this project; if not, write to the
+// Free Software Foundation, 59 Temple Place - Suite 330, Boston, MA, 02111-1307, USA.
+
+// Copyright (C) 2022 Christopher Evans
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+	@Test
+	void testItemsFireOnTheTickOfTheirDeadline() {
+		long tickMs = 10;
+		long startMs = 12_340;
+		TimingWheel<Integer> wheel = new TimingWheel<>(tickMs, startMs);
+
+		// Spread deadlines over every level, and a few past the last one.
+		Random random = new Random(42);
+		List<Long> deadlines = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			long spanTicks = 1L << (6 * (1 + random.nextInt(4)));
+			deadlines.add(startMs + 1 + (long) (random.nextDouble() * spanTicks * tickMs));
+		}
+		for (int i = 0; i < 20; i++) {
+			long spanTicks = (1L << 24) + random.nextInt(1 << 20);
+			deadlines.add(startMs + spanTicks * tickMs);
+		}
+		for (int i = 0; i < deadlines.size(); i++) {
+			wheel.schedule(i, deadlines.get(i));
+		}
+		assertEquals(deadlines.size(), wheel.size());
+
+		Map<Integer, Long> firedAt = new HashMap<>();
+		long lastDeadline = deadlines.stream().mapToLong(Long::longValue).max().getAsLong();
+		for (long nowMs = startMs; nowMs < lastDeadline + 2 * tickMs; nowMs += tickMs) {
+			long fireMs = nowMs;
+			wheel.advance(nowMs, (i) -> assertNull(firedAt.put(i, fireMs), "Fired twice:  " + i));
+		}
+
+		assertEquals(0, wheel.size());
+		for (int i = 0; i < deadlines.size(); i++) {
+			long deadline = deadlines.get(i);
+			long fireMs = firedAt.get(i);
+			assertTrue(fireMs >= deadline && fireMs < deadline + tickMs, deadline + " fired at " + fireMs);
+		}
+	}
+
+	@Test
+	void testPastDeadlineFiresOnTheNextTick() {
+		TimingWheel<String> wheel = new TimingWheel<>(1000, 5000);
+		wheel.schedule("late", 1000);
+
+		List<String> fired = new ArrayList<>();
+		wheel.advance(5999, fired::add);
+		assertTrue(fired.isEmpty());
+		wheel.advance(6000, fired::add);
+		assertEquals(List.of("late"), fired);
+	}
+
+	@Test
+	void testLongJumpFiresEverythingInOrder() {
+		TimingWheel<Integer> wheel = new TimingWheel<>(1000, 0);
+		for (int seconds : new int[] { 5000, 70, 300_000, 3 }) {
+			wheel.schedule(seconds, seconds * 1000L);
+		}
+
+		List<Integer> fired = new ArrayList<>();
+		wheel.advance(1_000_000_000L, fired::add);
+		assertEquals(List.of(3, 70, 5000, 300_000), fired);
+	}
+
+	@Test
+	void testIdleWheelSkipsAhead() {
+		// Stepping through the ticks of an idle gap this long would take hours.
+		long tickMs = 1000;
+		long idleUntilMs = (1L << 40) * tickMs;
+		TimingWheel<String> wheel = new TimingWheel<>(tickMs, 0);
+		wheel.schedule("soon", idleUntilMs + 2 * tickMs, idleUntilMs);
+
+		List<String> fired = new ArrayList<>();
+		wheel.advance(idleUntilMs + tickMs, fired::add);
+		assertTrue(fired.isEmpty());
+		wheel.advance(idleUntilMs + 2 * tickMs, fired::add);
+		assertEquals(List.of("soon"), fired);
+
+		// Advancing an empty wheel is just as quick.
+		wheel.advance(2 * idleUntilMs, fired::add);
+		wheel.schedule("later", 2 * idleUntilMs + tickMs, 2 * idleUntilMs);
+		wheel.advance(2 * idleUntilMs + tickMs, fired::add);
+		assertEquals(List.of("soon", "later"), fired);
+	}
+
+}